@@ -0,0 +1,130 @@
+package io.github.drednote.telegram.datasource.session;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+import org.telegram.telegrambots.meta.api.objects.chat.Chat;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+
+/**
+ * Measures encoding and decoding of the payload of an update, by format. {@code JSON} is the text stored in the
+ * {@code jsonb} column of the JPA inbox and the default of the local log, {@code DOCUMENT} is the subdocument stored by
+ * MongoDB without a codec. {@link #payloadSize(PayloadSize)} reports the size of the stored payload in bytes as the
+ * {@code payloadBytes} counter. Run with {@code ./gradlew jmh}.
+ *
+ * @author Ivan Galushko
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdatePayloadCodecBenchmark {
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    @Param({"JSON", "DOCUMENT", "SMILE", "CBOR", "KRYO"})
+    private String format;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private UpdatePayloadCodec codec;
+    private Update update;
+    private byte[] payload;
+    private Document document;
+    private int payloadBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        update = createUpdate();
+        codec = switch (format) {
+            case "SMILE" -> new JacksonUpdatePayloadCodec(new ObjectMapper(new SmileFactory()).findAndRegisterModules());
+            case "CBOR" -> new JacksonUpdatePayloadCodec(new ObjectMapper(new CBORFactory()).findAndRegisterModules());
+            case "KRYO" -> new KryoUpdatePayloadCodec();
+            default -> new JacksonUpdatePayloadCodec(objectMapper);
+        };
+        payload = codec.encode(update);
+        document = new Document(objectMapper.convertValue(update, MAP_TYPE));
+        payloadBytes = "DOCUMENT".equals(format)
+            ? new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().remaining()
+            : payload.length;
+    }
+
+    @Benchmark
+    public Object encode() {
+        if ("DOCUMENT".equals(format)) {
+            return new Document(objectMapper.convertValue(update, MAP_TYPE));
+        }
+        return codec.encode(update);
+    }
+
+    @Benchmark
+    public Update decode() {
+        if ("DOCUMENT".equals(format)) {
+            return objectMapper.convertValue(document, Update.class);
+        }
+        return codec.decode(payload);
+    }
+
+    /**
+     * Reports the size of the payload. Counters of events are summed over iterations, so there is only one.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public void payloadSize(PayloadSize size) {
+        size.payloadBytes = payloadBytes;
+    }
+
+    /**
+     * The size of the stored payload in bytes
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+
+        public long payloadBytes;
+    }
+
+    private static Update createUpdate() {
+        User user = new User(123456789L, "First", false);
+        user.setLastName("Last");
+        user.setUserName("username");
+        user.setLanguageCode("en");
+        Chat chat = new Chat(123456789L, "private");
+        chat.setFirstName("First");
+        chat.setUserName("username");
+        Message message = new Message();
+        message.setMessageId(42);
+        message.setDate(1_700_000_000);
+        message.setFrom(user);
+        message.setChat(chat);
+        message.setText("Hello, this is a typical text message sent to the bot");
+        Update update = new Update();
+        update.setUpdateId(100_000_001);
+        update.setMessage(message);
+        return update;
+    }
+}
@@ -0,0 +1,167 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.lease.jpa.JpaUpdateInboxEntityLease;
+import io.github.drednote.telegram.session.SessionProperties;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import jakarta.persistence.EntityManager;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Measures claiming a batch of updates from a Postgres inbox with a backlog of new updates, by adapter. Every
+ * claimed batch is returned to the backlog after the invocation, so the size of the backlog does not change. Run with
+ * {@code ./gradlew jmh}, an embedded Postgres is started for every trial.
+ * <p>
+ * With the {@code HOT_ENTITY} distribution the oldest half of the backlog belongs to one entity, so the claim has to
+ * look past it to fill the batch.
+ *
+ * @author Ivan Galushko
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateInboxClaimBenchmark {
+
+    private static final int ENTITIES = 1000;
+
+    @Param({"COUNTING", "LEASED", "POSTGRES"})
+    private String adapterType;
+    @Param({"100000", "1000000"})
+    private int rows;
+    @Param({"UNIFORM", "HOT_ENTITY"})
+    private String distribution;
+    @Param({"16"})
+    private int batchSize;
+
+    private EmbeddedPostgres postgres;
+    private ConfigurableApplicationContext context;
+    private DefaultJpaUpdateInboxRepositoryAdapter adapter;
+    private JpaUpdateInboxRepository repository;
+    private List<JpaUpdateInbox> claimed = List.of();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        postgres = EmbeddedPostgres.builder().start();
+        context = new SpringApplicationBuilder(Config.class)
+            .web(WebApplicationType.NONE)
+            .properties(
+                "spring.datasource.url=" + postgres.getJdbcUrl("postgres", "postgres"),
+                "spring.datasource.username=postgres",
+                "spring.jpa.hibernate.ddl-auto=create")
+            .run();
+        repository = context.getBean(JpaUpdateInboxRepository.class);
+        adapter = switch (adapterType) {
+            case "LEASED" -> context.getBean(LeasedJpaUpdateInboxRepositoryAdapter.class);
+            case "POSTGRES" -> context.getBean(PostgresUpdateInboxRepositoryAdapter.class);
+            default -> context.getBean("countingAdapter", JpaUpdateInboxRepositoryAdapter.class);
+        };
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        String entityId = "HOT_ENTITY".equals(distribution)
+            ? "CASE WHEN i <= %d THEN 'hot' ELSE (i %% %d)::text END".formatted(rows / 2, ENTITIES)
+            : "(i %% %d)::text".formatted(ENTITIES);
+        jdbcTemplate.update("""
+            INSERT INTO update_inbox(update_id, entity_id, update, status, created_at, updated_at)
+                SELECT i, %s, '{}'::jsonb, 'NEW', now() + i * interval '1 microsecond', now()
+                FROM generate_series(1, %d) i
+            """.formatted(entityId, rows));
+        jdbcTemplate.execute("ANALYZE update_inbox");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        postgres.close();
+    }
+
+    @Benchmark
+    public List<JpaUpdateInbox> claim() {
+        claimed = adapter.findNextUpdates(batchSize);
+        return claimed;
+    }
+
+    /**
+     * Completes the claimed updates, so leases are released, and returns them to the backlog.
+     */
+    @TearDown(Level.Invocation)
+    public void returnClaimed() {
+        if (!claimed.isEmpty()) {
+            claimed.forEach(inbox -> inbox.setStatus(UpdateInboxStatus.PROCESSED));
+            adapter.updateAll(claimed);
+            repository.updateStatus(claimed.stream().map(JpaUpdateInbox::getUpdateId).toList(),
+                UpdateInboxStatus.NEW, null, Instant.now());
+            claimed = List.of();
+        }
+    }
+
+    @SpringBootConfiguration
+    @ImportAutoConfiguration({DataSourceAutoConfiguration.class, DataSourceTransactionManagerAutoConfiguration.class,
+        HibernateJpaAutoConfiguration.class, TransactionAutoConfiguration.class, JdbcTemplateAutoConfiguration.class})
+    @EnableJpaRepositories(basePackageClasses = UpdateInboxClaimBenchmark.class, considerNestedRepositories = true)
+    @EntityScan(basePackageClasses = {JpaUpdateInbox.class, JpaUpdateInboxEntityLease.class})
+    static class Config {
+
+        @Bean
+        public SessionProperties sessionProperties() {
+            SessionProperties properties = new SessionProperties();
+            properties.setMaxThreadsPerUser(1);
+            return properties;
+        }
+
+        @Bean
+        public JpaUpdateInboxRepositoryAdapter countingAdapter(
+            JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties properties
+        ) {
+            return new JpaUpdateInboxRepositoryAdapter(repository, entityManager, properties);
+        }
+
+        @Bean
+        public LeasedJpaUpdateInboxRepositoryAdapter leasedAdapter(
+            JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties properties
+        ) {
+            return new LeasedJpaUpdateInboxRepositoryAdapter(repository, entityManager, properties);
+        }
+
+        @Bean
+        public PostgresUpdateInboxRepositoryAdapter postgresAdapter(
+            JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties properties
+        ) {
+            return new PostgresUpdateInboxRepositoryAdapter(repository, entityManager, properties);
+        }
+    }
+
+    interface BenchmarkUpdateInboxRepository extends JpaUpdateInboxRepository {}
+}
@@ -0,0 +1,66 @@
+package io.github.drednote.telegram.session;
+
+import io.github.drednote.telegram.filter.FilterProperties;
+import io.github.drednote.telegram.filter.FilterProperties.RateLimitEngine;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares engines of {@link UserRateLimitRequestFilter}. Run with {@code ./gradlew jmh}, add
+ * {@code -prof gc} to the JMH arguments to see allocations per operation.
+ *
+ * @author Ivan Galushko
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserRateLimitBenchmark {
+
+    @Param({"BUCKET4J", "TOKEN_TABLE"})
+    private RateLimitEngine engine;
+    /**
+     * The number of distinct users sending updates
+     */
+    @Param({"1000", "100000"})
+    private int users;
+
+    private UserRateLimitRequestFilter filter;
+
+    @Setup
+    public void setUp() {
+        FilterProperties properties = new FilterProperties();
+        properties.setUserRateLimit(1);
+        properties.setUserRateLimitUnit(ChronoUnit.MILLIS);
+        properties.setUserRateLimitEngine(engine);
+        properties.setUserRateLimitTableSize(users * 2);
+        filter = new UserRateLimitRequestFilter(properties);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean filter() {
+        return filter.filter(ThreadLocalRandom.current().nextLong(users));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean filterBoxed() {
+        return filter.filter(Long.valueOf(ThreadLocalRandom.current().nextLong(users)));
+    }
+}
@@ -14,7 +14,6 @@ import io.github.drednote.telegram.handler.UpdateHandler;
 import io.github.drednote.telegram.handler.UpdateHandlerAutoConfiguration;
 import io.github.drednote.telegram.menu.MenuAutoConfiguration;
 import io.github.drednote.telegram.session.SessionAutoConfiguration;
-import io.github.drednote.telegram.session.SessionProperties.UpdateStrategy;
 import java.util.Collection;
 import java.util.Locale;
 import org.apache.commons.lang3.StringUtils;
@@ -22,10 +21,12 @@ import org.springframework.beans.factory.BeanCreationException;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.AutoConfigureBefore;
 import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
 
 /**
@@ -49,8 +50,18 @@ public class TelegramAutoConfiguration {
 
     private static final String TELEGRAM_BOT = "TelegramBot";
 
-    public TelegramAutoConfiguration(TelegramProperties properties) {
-        if (StringUtils.isBlank(properties.getToken())) {
+    /**
+     * Checks that the token of the bot is specified. In multi-bot mode the token is optional, if
+     * it is not specified, only bots from {@code drednote.telegram.multi-bot.bots} are served.
+     *
+     * @param properties  Configuration properties for the Telegram bot
+     * @param environment The environment of the application
+     * @throws BeanCreationException When the token is missing and multi-bot mode is disabled
+     */
+    public TelegramAutoConfiguration(TelegramProperties properties, Environment environment) {
+        boolean multiBot = environment.getProperty(
+            "drednote.telegram.multi-bot.enabled", Boolean.class, false);
+        if (!multiBot && StringUtils.isBlank(properties.getToken())) {
             throw new BeanCreationException(TELEGRAM_BOT,
                 "If you want to use telegram bot library consider specify a drednote.telegram.token or disable creating "
                 + "telegram bot by setting a drednote.telegram.enabled to false");
@@ -73,10 +84,10 @@ public class TelegramAutoConfiguration {
          * @param updateFilterProvider The UpdateFilterProvider instance for filtering updates
          * @return The configured Telegram bot instance
          * @throws BeanCreationException When bot token or bot name are missing
-         * @apiNote WebHooks not implemented yet
          */
         @Bean
         @ConditionalOnMissingBean(TelegramBot.class)
+        @ConditionalOnExpression("!'${drednote.telegram.token:}'.isBlank()")
         public TelegramBot telegramLongPollingBot(
             TelegramProperties properties, Collection<UpdateHandler> updateHandlers,
             ExceptionHandler exceptionHandler, UpdateFilterProvider updateFilterProvider,
@@ -86,12 +97,8 @@ public class TelegramAutoConfiguration {
                 throw new BeanCreationException(TELEGRAM_BOT,
                     "Consider specify drednote.telegram.token");
             }
-            if (properties.getSession().getUpdateStrategy() == UpdateStrategy.LONG_POLLING) {
-                return new DefaultTelegramBot(updateHandlers,
-                    exceptionHandler, updateFilterProvider, telegramClient, enricher);
-            } else {
-                throw new BeanCreationException(TELEGRAM_BOT, "Webhooks not implemented yet");
-            }
+            return new DefaultTelegramBot(updateHandlers,
+                exceptionHandler, updateFilterProvider, telegramClient, enricher);
         }
     }
 
@@ -4,6 +4,7 @@ import io.github.drednote.telegram.filter.FilterProperties;
 import io.github.drednote.telegram.handler.UpdateHandlerProperties;
 import io.github.drednote.telegram.handler.scenario.property.ScenarioProperties;
 import io.github.drednote.telegram.menu.MenuProperties;
+import io.github.drednote.telegram.session.HttpProperties;
 import io.github.drednote.telegram.session.SessionProperties;
 import lombok.Getter;
 import lombok.Setter;
@@ -17,7 +18,7 @@ import org.springframework.lang.Nullable;
 @ConfigurationProperties("drednote.telegram")
 @EnableConfigurationProperties({
     SessionProperties.class, UpdateHandlerProperties.class,
-    FilterProperties.class, MenuProperties.class, ScenarioProperties.class
+    FilterProperties.class, MenuProperties.class, ScenarioProperties.class, HttpProperties.class
 })
 @Getter
 @Setter
@@ -56,6 +57,11 @@ public class TelegramProperties {
    */
   @NonNull
   private SessionProperties session = new SessionProperties();
+  /**
+   * HTTP transport properties
+   */
+  @NonNull
+  private HttpProperties http = new HttpProperties();
   /**
    * Properties of update handlers
    */
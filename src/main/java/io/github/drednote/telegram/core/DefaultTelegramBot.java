@@ -1,6 +1,7 @@
 package io.github.drednote.telegram.core;
 
 import io.github.drednote.telegram.core.request.DefaultUpdateRequest;
+import io.github.drednote.telegram.core.request.UpdateRequest;
 import io.github.drednote.telegram.exception.ExceptionHandler;
 import io.github.drednote.telegram.filter.UpdateFilterProvider;
 import io.github.drednote.telegram.filter.internal.TelegramResponseEnricher;
@@ -11,6 +12,7 @@ import java.util.Collection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.lang.Nullable;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
@@ -48,6 +50,11 @@ public class DefaultTelegramBot implements TelegramBot {
     private final UpdateFilterProvider updateFilterProvider;
     private final TelegramClient telegramClient;
     private final TelegramResponseEnricher telegramResponseEnricher;
+    /**
+     * The name of the bot in multi-bot mode, null for the bot configured with {@code drednote.telegram.token}
+     */
+    @Nullable
+    private final String botName;
 
     /**
      * Creates a new instance of the {@code DefaultTelegramBot} class with the provided properties and dependencies
@@ -60,6 +67,24 @@ public class DefaultTelegramBot implements TelegramBot {
         Collection<UpdateHandler> updateHandlers, ExceptionHandler exceptionHandler,
         UpdateFilterProvider updateFilterProvider, TelegramClient telegramClient,
         TelegramResponseEnricher telegramResponseEnricher
+    ) {
+        this(updateHandlers, exceptionHandler, updateFilterProvider, telegramClient, telegramResponseEnricher, null);
+    }
+
+    /**
+     * Creates a new instance of the {@code DefaultTelegramBot} class for the bot of multi-bot mode. The name of the bot
+     * is passed to every request, so controllers can be scoped to the bot
+     *
+     * @param updateHandlers       the collection of update handlers, not null
+     * @param exceptionHandler     the exception handler, not null
+     * @param updateFilterProvider the update filter provider, not null
+     * @param botName              the name of the bot, can be null
+     * @see UpdateRequest#getBotName()
+     */
+    public DefaultTelegramBot(
+        Collection<UpdateHandler> updateHandlers, ExceptionHandler exceptionHandler,
+        UpdateFilterProvider updateFilterProvider, TelegramClient telegramClient,
+        TelegramResponseEnricher telegramResponseEnricher, @Nullable String botName
     ) {
         Assert.required(updateHandlers, "Collection of UpdateHandlers");
         Assert.required(exceptionHandler, "ExceptionHandler");
@@ -73,6 +98,7 @@ public class DefaultTelegramBot implements TelegramBot {
             .sorted(AnnotationAwareOrderComparator.INSTANCE).toList();
         this.exceptionHandler = exceptionHandler;
         this.updateFilterProvider = updateFilterProvider;
+        this.botName = botName;
     }
 
     /**
@@ -87,7 +113,7 @@ public class DefaultTelegramBot implements TelegramBot {
      */
     @Override
     public void onUpdateReceived(Update update) {
-        DefaultUpdateRequest request = new DefaultUpdateRequest(update, telegramClient);
+        DefaultUpdateRequest request = new DefaultUpdateRequest(update, telegramClient, botName);
         try {
             UpdateRequestContext.saveRequest(request);
             doReceive(request);
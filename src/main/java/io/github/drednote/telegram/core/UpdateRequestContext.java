@@ -3,11 +3,11 @@ package io.github.drednote.telegram.core;
 import io.github.drednote.telegram.core.annotation.TelegramScope;
 import io.github.drednote.telegram.core.request.UpdateRequest;
 import io.github.drednote.telegram.utils.Assert;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.ApplicationContext;
@@ -96,12 +96,10 @@ public abstract class UpdateRequestContext implements ApplicationContextAware {
     public static void removeRequest(boolean destroyBeans) {
         if (destroyBeans) {
             UpdateRequest request = getRequest();
-            synchronized (request) {
-                List<String> names = beanNames.remove(request.getId());
-                if (names != null) {
-                    for (String name : names) {
-                        factory.destroyScopedBean(name);
-                    }
+            List<String> names = beanNames.remove(request.getId());
+            if (names != null) {
+                for (String name : names) {
+                    factory.destroyScopedBean(name);
                 }
             }
         }
@@ -118,10 +116,7 @@ public abstract class UpdateRequestContext implements ApplicationContextAware {
         Assert.notEmpty(name, "name");
 
         UpdateRequest request = getRequest();
-        synchronized (request) {
-            List<String> names = beanNames.computeIfAbsent(request.getId(), key -> new ArrayList<>());
-            names.add(name);
-        }
+        beanNames.computeIfAbsent(request.getId(), key -> new CopyOnWriteArrayList<>()).add(name);
     }
 
     @Override
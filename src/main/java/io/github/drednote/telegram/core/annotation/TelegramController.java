@@ -37,6 +37,8 @@ import org.springframework.stereotype.Component;
  * annotations, such as {@link TelegramRequest}, to indicate how they handle specific types of
  * incoming Telegram updates.
  * <p>
+ * In multi-bot mode a controller handles updates of all bots, unless {@link #bots()} is specified.
+ * <p>
  * The {@code TelegramController} annotation is retained at runtime and can be accessed through
  * reflection.
  *
@@ -51,4 +53,12 @@ import org.springframework.stereotype.Component;
 @Component
 public @interface TelegramController {
 
+    /**
+     * The names of bots of multi-bot mode which updates are handled by this controller. If empty,
+     * updates of all bots are handled. If a request matches methods of a controller of the bot and
+     * of a controller of all bots equally, the method of the bot is invoked
+     *
+     * @return the names of bots
+     */
+    String[] bots() default {};
 }
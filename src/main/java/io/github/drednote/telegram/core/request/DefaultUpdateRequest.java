@@ -24,6 +24,8 @@ public class DefaultUpdateRequest extends AbstractUpdateRequest {
 
     private final TelegramClient telegramClient;
     private final List<Object> responseFromTelegram = new ArrayList<>();
+    @Nullable
+    private final String botName;
 
     @Nullable
     private Permission permission;
@@ -53,11 +55,25 @@ public class DefaultUpdateRequest extends AbstractUpdateRequest {
      */
     public DefaultUpdateRequest(
         Update update, TelegramClient telegramClient
+    ) {
+        this(update, telegramClient, null);
+    }
+
+    /**
+     * Creates a new instance of the DefaultUpdateRequest class for the update received by the bot of multi-bot mode.
+     *
+     * @param update         the update received from Telegram.
+     * @param telegramClient the abstract sender used to send responses.
+     * @param botName        the name of the bot which received the update, can be null
+     */
+    public DefaultUpdateRequest(
+        Update update, TelegramClient telegramClient, @Nullable String botName
     ) {
         super(update);
         Assert.required(telegramClient, "TelegramClient");
 
         this.telegramClient = telegramClient;
+        this.botName = botName;
     }
 
     /**
@@ -70,6 +86,7 @@ public class DefaultUpdateRequest extends AbstractUpdateRequest {
         Assert.required(request, "UpdateRequest");
 
         this.telegramClient = request.getTelegramClient();
+        this.botName = request.getBotName();
         this.requestHandler = request.getRequestHandler();
         this.scenario = request.getScenario();
         this.response = request.getResponse();
@@ -153,6 +153,17 @@ public interface UpdateRequest {
     @NonNull
     TelegramClient getTelegramClient();
 
+    /**
+     * Returns the name of the bot which received the update in multi-bot mode
+     *
+     * @return the name of the bot, or null if the update is received by the bot configured with
+     * {@code drednote.telegram.token}
+     */
+    @Nullable
+    default String getBotName() {
+        return null;
+    }
+
     /**
      * Returns the permission of the user executing the request
      *
@@ -59,18 +59,32 @@ public class UpdateRequestMapping implements
    */
   @Getter
   private final boolean optional;
+  /**
+   * The names of bots which updates match the mapping. If empty, updates of all bots match
+   */
+  @Getter
+  private final Set<String> bots;
 
   public UpdateRequestMapping(
       @NonNull String pattern, @Nullable RequestType requestType,
-      @NonNull Set<MessageType> messageTypes, boolean optional
+      @NonNull Set<MessageType> messageTypes, boolean optional, @NonNull Set<String> bots
   ) {
     Assert.required(pattern, "Pattern");
     Assert.notNull(messageTypes, "MessageTypes");
+    Assert.notNull(bots, "Bots");
 
     this.optional = optional;
     this.pattern = pattern;
     this.requestType = requestType;
     this.messageTypes = messageTypes;
+    this.bots = bots;
+  }
+
+  public UpdateRequestMapping(
+      @NonNull String pattern, @Nullable RequestType requestType,
+      @NonNull Set<MessageType> messageTypes, boolean optional
+  ) {
+    this(pattern, requestType, messageTypes, optional, Set.of());
   }
 
   public UpdateRequestMapping(
@@ -88,7 +102,22 @@ public class UpdateRequestMapping implements
    */
   @Override
   public int compareTo(@NonNull UpdateRequestMapping o) {
-    return comparator.compare(this, o);
+    int result = comparator.compare(this, o);
+    if (result == 0) {
+      // the mapping of the bot goes before the mapping of all bots
+      return Boolean.compare(bots.isEmpty(), o.bots.isEmpty());
+    }
+    return result;
+  }
+
+  /**
+   * Creates a copy of this mapping, which matches only updates of the given bots
+   *
+   * @param bots the names of bots, if empty updates of all bots match
+   * @return the copy of the mapping
+   */
+  public UpdateRequestMapping withBots(@NonNull Set<String> bots) {
+    return new UpdateRequestMapping(pattern, requestType, messageTypes, optional, bots);
   }
 
   /**
@@ -99,15 +128,22 @@ public class UpdateRequestMapping implements
    */
   @Override
   public boolean matches(@NonNull UpdateRequest request) {
+    if (!bots.isEmpty()) {
+      String botName = request.getBotName();
+      if (botName == null || !bots.contains(botName)) {
+        return false;
+      }
+    }
     return requestMatcher.matches(request);
   }
 
   @Override
   public String toString() {
-    return "{%s#%s %s}".formatted(
+    return "{%s#%s %s%s}".formatted(
         requestType != null ? requestType : "ALL",
         !messageTypes.isEmpty() ? messageTypes : "ALL",
-        pattern
+        pattern,
+        !bots.isEmpty() ? " " + bots : ""
     );
   }
 
@@ -121,11 +157,11 @@ public class UpdateRequestMapping implements
     }
     UpdateRequestMapping that = (UpdateRequestMapping) o;
     return Objects.equals(pattern, that.pattern) && requestType == that.requestType
-        && messageTypes.equals(that.messageTypes);
+        && messageTypes.equals(that.messageTypes) && bots.equals(that.bots);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(pattern, requestType, messageTypes);
+    return Objects.hash(pattern, requestType, messageTypes, bots);
   }
 }
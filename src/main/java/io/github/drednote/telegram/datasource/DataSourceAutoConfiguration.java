@@ -6,23 +6,40 @@ import io.github.drednote.telegram.datasource.permission.Permission;
 import io.github.drednote.telegram.datasource.permission.PermissionRepository;
 import io.github.drednote.telegram.datasource.permission.PermissionRepositoryAdapter;
 import io.github.drednote.telegram.datasource.session.UpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.UpdateInboxSharding;
+import io.github.drednote.telegram.datasource.session.UpdatePayloadCodec;
+import io.github.drednote.telegram.datasource.session.jpa.JpaClusterMembership;
+import io.github.drednote.telegram.datasource.session.jpa.JpaLeaderElector;
 import io.github.drednote.telegram.datasource.session.jpa.JpaUpdateInboxRepository;
 import io.github.drednote.telegram.datasource.session.jpa.JpaUpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.jpa.LeasedJpaUpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.jpa.PostgresAdvisoryLockLeaderElector;
+import io.github.drednote.telegram.datasource.session.jpa.PostgresUpdateInboxListener;
 import io.github.drednote.telegram.datasource.session.jpa.PostgresUpdateInboxRepositoryAdapter;
 import io.github.drednote.telegram.datasource.session.mongo.DocumentToUpdateConverter;
+import io.github.drednote.telegram.datasource.session.mongo.LeasedMongoUpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.mongo.MongoLeaderElector;
 import io.github.drednote.telegram.datasource.session.mongo.MongoUpdateInboxRepository;
 import io.github.drednote.telegram.datasource.session.mongo.MongoUpdateInboxRepositoryAdapter;
 import io.github.drednote.telegram.datasource.session.mongo.UpdateToDocumentConverter;
+import io.github.drednote.telegram.session.ConcurrencyKeyResolver;
+import io.github.drednote.telegram.session.LeaderElector;
 import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.session.SessionProperties.ClusterProperties;
+import io.github.drednote.telegram.session.SessionProperties.ShardingProperties;
+import io.github.drednote.telegram.session.processor.TelegramUpdateReader;
 import jakarta.persistence.EntityManager;
 import java.util.ArrayList;
 import java.util.List;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Condition;
 import org.springframework.context.annotation.ConditionContext;
@@ -35,6 +52,7 @@ import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.lang.Nullable;
+import org.springframework.transaction.PlatformTransactionManager;
 
 @AutoConfiguration
 public class DataSourceAutoConfiguration {
@@ -67,9 +85,17 @@ public class DataSourceAutoConfiguration {
             @ConditionalOnBean(MongoUpdateInboxRepository.class)
             @ConditionalOnMissingBean({UpdateInboxRepositoryAdapter.class})
             public UpdateInboxRepositoryAdapter<?> mongoUpdateInboxRepositoryAdapter(
-                MongoUpdateInboxRepository repository, SessionProperties sessionProperties, MongoTemplate mongoTemplate
+                MongoUpdateInboxRepository repository, SessionProperties sessionProperties, MongoTemplate mongoTemplate,
+                ObjectProvider<ConcurrencyKeyResolver> concurrencyKeyResolver,
+                ObjectProvider<UpdatePayloadCodec> payloadCodec
             ) {
-                return new MongoUpdateInboxRepositoryAdapter(sessionProperties, repository, mongoTemplate);
+                MongoUpdateInboxRepositoryAdapter adapter = sessionProperties.getSchedulerProcessor()
+                    .isEntityLeases()
+                    ? new LeasedMongoUpdateInboxRepositoryAdapter(sessionProperties, repository, mongoTemplate)
+                    : new MongoUpdateInboxRepositoryAdapter(sessionProperties, repository, mongoTemplate);
+                concurrencyKeyResolver.ifAvailable(adapter::setConcurrencyKeyResolver);
+                payloadCodec.ifAvailable(adapter::setPayloadCodec);
+                return adapter;
             }
 
             @Bean
@@ -81,6 +107,24 @@ public class DataSourceAutoConfiguration {
                 converters.add(new UpdateToDocumentConverter(objectMapper));
                 return new MongoCustomConversions(converters);
             }
+
+            /**
+             * Configures the election of the leader receiving updates with a lease document, if
+             * {@code drednote.telegram.session.cluster.enabled} is true.
+             */
+            @AutoConfiguration
+            @ConditionalOnProperty(prefix = "drednote.telegram.session.cluster", name = "enabled", havingValue = "true")
+            public static class MongoClusterAutoConfiguration {
+
+                @Bean
+                @ConditionalOnBean(MongoUpdateInboxRepository.class)
+                @ConditionalOnMissingBean
+                public LeaderElector mongoLeaderElector(MongoTemplate mongoTemplate, SessionProperties sessionProperties) {
+                    ClusterProperties cluster = sessionProperties.getCluster();
+                    return new MongoLeaderElector(mongoTemplate, cluster.getLockName(), cluster.getNodeId(),
+                        cluster.getLeaseDuration());
+                }
+            }
         }
     }
 
@@ -99,9 +143,15 @@ public class DataSourceAutoConfiguration {
             @ConditionalOnMissingBean({UpdateInboxRepositoryAdapter.class})
             @Conditional(PostgresCondition.class)
             public UpdateInboxRepositoryAdapter<?> postgresUpdateInboxRepositoryAdapter(
-                JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties sessionProperties
+                JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties sessionProperties,
+                ObjectProvider<ConcurrencyKeyResolver> concurrencyKeyResolver,
+                ObjectProvider<UpdateInboxSharding> sharding
             ) {
-                return new PostgresUpdateInboxRepositoryAdapter(repository, entityManager, sessionProperties);
+                PostgresUpdateInboxRepositoryAdapter adapter = new PostgresUpdateInboxRepositoryAdapter(
+                    repository, entityManager, sessionProperties);
+                concurrencyKeyResolver.ifAvailable(adapter::setConcurrencyKeyResolver);
+                sharding.ifAvailable(adapter::setSharding);
+                return adapter;
             }
 
             @Bean
@@ -109,9 +159,98 @@ public class DataSourceAutoConfiguration {
             @ConditionalOnMissingBean({UpdateInboxRepositoryAdapter.class})
             @Conditional(NotPostgresCondition.class)
             public UpdateInboxRepositoryAdapter<?> jpaUpdateInboxRepositoryAdapter(
-                JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties sessionProperties
+                JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties sessionProperties,
+                ObjectProvider<ConcurrencyKeyResolver> concurrencyKeyResolver
             ) {
-                return new JpaUpdateInboxRepositoryAdapter(repository, entityManager, sessionProperties);
+                JpaUpdateInboxRepositoryAdapter adapter = sessionProperties.getSchedulerProcessor().isEntityLeases()
+                    ? new LeasedJpaUpdateInboxRepositoryAdapter(repository, entityManager, sessionProperties)
+                    : new JpaUpdateInboxRepositoryAdapter(repository, entityManager, sessionProperties);
+                concurrencyKeyResolver.ifAvailable(adapter::setConcurrencyKeyResolver);
+                return adapter;
+            }
+
+            /**
+             * Configures the listener of the Postgres channel notified about new updates, if
+             * {@code drednote.telegram.session.scheduler-processor.notify-channel} is set.
+             */
+            @AutoConfiguration
+            @ConditionalOnClass(name = "org.postgresql.PGConnection")
+            @ConditionalOnProperty(prefix = "drednote.telegram.session.scheduler-processor", name = "notify-channel")
+            @Conditional(PostgresCondition.class)
+            public static class PostgresNotificationAutoConfiguration {
+
+                @Bean(initMethod = "start", destroyMethod = "close")
+                @ConditionalOnBean(DataSource.class)
+                @ConditionalOnMissingBean
+                public PostgresUpdateInboxListener postgresUpdateInboxListener(
+                    DataSource dataSource, SessionProperties sessionProperties,
+                    ObjectProvider<TelegramUpdateReader> reader
+                ) {
+                    return new PostgresUpdateInboxListener(dataSource,
+                        sessionProperties.getSchedulerProcessor().getNotifyChannel(),
+                        () -> reader.ifAvailable(TelegramUpdateReader::readImmediately));
+                }
+            }
+
+            /**
+             * Configures the election of the leader receiving updates, if
+             * {@code drednote.telegram.session.cluster.enabled} is true. Postgres uses an advisory lock, other
+             * databases use a lock row.
+             */
+            @AutoConfiguration
+            @ConditionalOnProperty(prefix = "drednote.telegram.session.cluster", name = "enabled", havingValue = "true")
+            public static class JpaClusterAutoConfiguration {
+
+                @Bean
+                @ConditionalOnBean({JpaUpdateInboxRepository.class, DataSource.class})
+                @ConditionalOnMissingBean
+                @Conditional(PostgresCondition.class)
+                public LeaderElector postgresLeaderElector(DataSource dataSource, SessionProperties sessionProperties) {
+                    return new PostgresAdvisoryLockLeaderElector(dataSource,
+                        sessionProperties.getCluster().getLockName());
+                }
+
+                @Bean
+                @ConditionalOnBean(JpaUpdateInboxRepository.class)
+                @ConditionalOnMissingBean
+                @Conditional(NotPostgresCondition.class)
+                public LeaderElector jpaLeaderElector(
+                    EntityManager entityManager, PlatformTransactionManager transactionManager,
+                    SessionProperties sessionProperties
+                ) {
+                    ClusterProperties cluster = sessionProperties.getCluster();
+                    return new JpaLeaderElector(entityManager, transactionManager, cluster.getLockName(),
+                        cluster.getNodeId(), cluster.getLeaseDuration());
+                }
+            }
+
+            /**
+             * Configures the sharding of updates between instances with heartbeats in the {@code session_nodes}
+             * table, if {@code drednote.telegram.session.cluster.sharding.enabled} is true.
+             */
+            @AutoConfiguration
+            @ConditionalOnProperty(
+                prefix = "drednote.telegram.session.cluster.sharding", name = "enabled", havingValue = "true")
+            @Conditional(PostgresCondition.class)
+            public static class PostgresShardingAutoConfiguration {
+
+                @Bean(initMethod = "start", destroyMethod = "close")
+                @ConditionalOnBean(JpaUpdateInboxRepository.class)
+                @ConditionalOnMissingBean
+                public UpdateInboxSharding updateInboxSharding(
+                    EntityManager entityManager, PlatformTransactionManager transactionManager,
+                    SessionProperties sessionProperties
+                ) {
+                    ClusterProperties cluster = sessionProperties.getCluster();
+                    ShardingProperties properties = cluster.getSharding();
+                    if (properties.getNodeTimeout().compareTo(properties.getHeartbeatInterval()) <= 0) {
+                        throw new IllegalArgumentException("nodeTimeout must be greater than heartbeatInterval");
+                    }
+                    JpaClusterMembership membership = new JpaClusterMembership(entityManager, transactionManager,
+                        cluster.getNodeId(), properties.getNodeTimeout());
+                    return new UpdateInboxSharding(membership, cluster.getNodeId(), properties.getShards(),
+                        properties.getHeartbeatInterval());
+                }
             }
 
             static class NotPostgresCondition implements Condition {
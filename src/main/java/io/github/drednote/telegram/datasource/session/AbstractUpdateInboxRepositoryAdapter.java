@@ -1,16 +1,23 @@
 package io.github.drednote.telegram.datasource.session;
 
 import io.github.drednote.telegram.core.request.ParsedUpdateRequest;
+import io.github.drednote.telegram.session.ConcurrencyKeyResolver;
+import io.github.drednote.telegram.session.DefaultConcurrencyKeyResolver;
 import io.github.drednote.telegram.session.SessionProperties;
 import io.github.drednote.telegram.utils.Assert;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.lang.Nullable;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
 public abstract class AbstractUpdateInboxRepositoryAdapter<T extends UpdateInbox>
@@ -21,6 +28,8 @@ public abstract class AbstractUpdateInboxRepositoryAdapter<T extends UpdateInbox
     protected final SessionProperties properties;
     private final UpdateInboxRepository<T> repository;
     private final Class<T> clazz;
+    private final Constructor<T> constructor;
+    private ConcurrencyKeyResolver concurrencyKeyResolver;
 
     protected AbstractUpdateInboxRepositoryAdapter(
         SessionProperties properties, UpdateInboxRepository<T> repository, Class<T> clazz
@@ -30,8 +39,25 @@ public abstract class AbstractUpdateInboxRepositoryAdapter<T extends UpdateInbox
         Assert.required(clazz, "Class");
 
         this.clazz = clazz;
+        try {
+            this.constructor = clazz.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Class " + clazz.getName() + " has no default constructor", e);
+        }
         this.repository = repository;
         this.properties = properties;
+        this.concurrencyKeyResolver = new DefaultConcurrencyKeyResolver(properties.getConcurrencyKey());
+    }
+
+    /**
+     * Sets the resolver of {@code entityId} of persisted updates. By default,
+     * {@link DefaultConcurrencyKeyResolver} configured by {@link SessionProperties#getConcurrencyKey()} is used.
+     *
+     * @param concurrencyKeyResolver the resolver, not null
+     */
+    public void setConcurrencyKeyResolver(ConcurrencyKeyResolver concurrencyKeyResolver) {
+        Assert.required(concurrencyKeyResolver, "ConcurrencyKeyResolver");
+        this.concurrencyKeyResolver = concurrencyKeyResolver;
     }
 
     protected abstract List<T> getIdleEntities(Instant date);
@@ -40,35 +66,113 @@ public abstract class AbstractUpdateInboxRepositoryAdapter<T extends UpdateInbox
 
     protected abstract Optional<T> findNextWithoutLimit();
 
+    /**
+     * Finds up to {@code max} updates with the same selection as {@link #findWithMaxThreadsPerUser(int)}, so that no
+     * entity gets more than {@code maxThreadsPerUser} updates in progress. By default, the updates are found one by one
+     * and marked as {@link UpdateInboxStatus#IN_PROGRESS} before the next search.
+     */
+    protected List<T> findAllWithMaxThreadsPerUser(int maxThreadsPerUser, int max) {
+        List<T> found = new ArrayList<>(Math.min(max, 16));
+        while (found.size() < max) {
+            Optional<T> next = findWithMaxThreadsPerUser(maxThreadsPerUser);
+            if (next.isEmpty()) {
+                break;
+            }
+            T inbox = next.get();
+            if (inbox.getStatus() == UpdateInboxStatus.NEW) {
+                inbox.setStatus(UpdateInboxStatus.IN_PROGRESS);
+                update(inbox);
+            }
+            found.add(inbox);
+        }
+        return found;
+    }
+
+    /**
+     * Finds up to {@code max} oldest updates with no limit per entity. By default, the updates are found one by one and
+     * marked as {@link UpdateInboxStatus#IN_PROGRESS} before the next search.
+     */
+    protected List<T> findAllWithoutLimit(int max) {
+        List<T> found = new ArrayList<>(Math.min(max, 16));
+        while (found.size() < max) {
+            Optional<T> next = findNextWithoutLimit();
+            if (next.isEmpty()) {
+                break;
+            }
+            T inbox = next.get();
+            if (inbox.getStatus() == UpdateInboxStatus.NEW) {
+                inbox.setStatus(UpdateInboxStatus.IN_PROGRESS);
+                update(inbox);
+            }
+            found.add(inbox);
+        }
+        return found;
+    }
+
     protected abstract void persist(T entity);
 
-    @Override
-    public void persist(List<Update> updates) {
-        for (Update update : updates) {
-            ParsedUpdateRequest request = new ParsedUpdateRequest(update, null);
+    /**
+     * Saves new entities received with one call of {@link #persist(List)}. Entities whose ids are already saved must be
+     * skipped. By default, entities are saved one by one with {@link #persist(UpdateInbox)}, implementations should
+     * override it to save all entities with one statement.
+     *
+     * @param entities new entities, not empty
+     */
+    protected void persistAll(List<T> entities) {
+        for (T entity : entities) {
             try {
-                T jpaUpdateInbox = clazz.getDeclaredConstructor().newInstance();
-                jpaUpdateInbox.setUpdateId(update.getUpdateId());
-                jpaUpdateInbox.setUpdate(update);
-                jpaUpdateInbox.setStatus(UpdateInboxStatus.NEW);
-                jpaUpdateInbox.setEntityId(request.getUserId() != null ? request.getUserId().toString() : null);
-                persist(jpaUpdateInbox);
+                persist(entity);
             } catch (DataIntegrityViolationException e) {
                 log.warn("Cannot persist update inbox with id '{}'. Cause: {}",
-                    update.getUpdateId(), e.getMessage());
+                    entity.getUpdateId(), e.getMessage());
                 log.debug(e.getMessage(), e);
-            } catch (InvocationTargetException | InstantiationException | IllegalAccessException |
-                     NoSuchMethodException e) {
-                log.error("Cannot persist update inbox with id '{}'. Cause: ", update.getUpdateId(), e);
             }
         }
     }
 
+    @Override
+    public void persist(List<Update> updates) {
+        List<T> entities = new ArrayList<>(updates.size());
+        for (Update update : updates) {
+            ParsedUpdateRequest request = new ParsedUpdateRequest(update, null);
+            T updateInbox = newEntity();
+            updateInbox.setUpdateId(update.getUpdateId());
+            updateInbox.setUpdate(update);
+            updateInbox.setStatus(UpdateInboxStatus.NEW);
+            updateInbox.setEntityId(concurrencyKeyResolver.resolve(request));
+            entities.add(updateInbox);
+        }
+        if (!entities.isEmpty()) {
+            persistAll(entities);
+        }
+    }
+
+    private T newEntity() {
+        try {
+            return constructor.newInstance();
+        } catch (InvocationTargetException | InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Cannot create instance of " + clazz.getName(), e);
+        }
+    }
+
     @Override
     public void update(T updateInbox) {
         repository.save(updateInbox);
     }
 
+    /**
+     * Groups ids of updateInboxes by the status and the error description, so that every group can be saved with one
+     * statement.
+     */
+    protected Map<StatusChange, List<Integer>> groupByStatus(List<T> updateInboxes) {
+        Map<StatusChange, List<Integer>> groups = new LinkedHashMap<>();
+        for (T updateInbox : updateInboxes) {
+            StatusChange change = new StatusChange(updateInbox.getStatus(), updateInbox.getErrorDescription());
+            groups.computeIfAbsent(change, key -> new ArrayList<>()).add(updateInbox.getUpdateId());
+        }
+        return groups;
+    }
+
     @Override
     public Optional<T> findNextUpdate() {
         int maxThreadsPerUser = properties.getMaxThreadsPerUser();
@@ -79,14 +183,32 @@ public abstract class AbstractUpdateInboxRepositoryAdapter<T extends UpdateInbox
             next = findNextWithoutLimit();
         }
 
-        return next.map(inbox -> {
-            log.trace("Found next update inbox: {}", inbox.getUpdateId());
-            if (inbox.getStatus() == UpdateInboxStatus.NEW) {
-                inbox.setStatus(UpdateInboxStatus.IN_PROGRESS);
-                update(inbox);
-            }
-            return inbox;
-        });
+        return next.map(this::markInProgress);
+    }
+
+    @Override
+    public List<T> findNextUpdates(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("max must be greater than 0");
+        }
+        int maxThreadsPerUser = properties.getMaxThreadsPerUser();
+        List<T> found;
+        if (maxThreadsPerUser > 0) {
+            found = findAllWithMaxThreadsPerUser(maxThreadsPerUser, max);
+        } else {
+            found = findAllWithoutLimit(max);
+        }
+        found.forEach(this::markInProgress);
+        return found;
+    }
+
+    private T markInProgress(T inbox) {
+        log.trace("Found next update inbox: {}", inbox.getUpdateId());
+        if (inbox.getStatus() == UpdateInboxStatus.NEW) {
+            inbox.setStatus(UpdateInboxStatus.IN_PROGRESS);
+            update(inbox);
+        }
+        return inbox;
     }
 
     @Override
@@ -109,4 +231,9 @@ public abstract class AbstractUpdateInboxRepositoryAdapter<T extends UpdateInbox
             });
         }
     }
+
+    /**
+     * The status and the error description shared by a group of updateInboxes.
+     */
+    protected record StatusChange(UpdateInboxStatus status, @Nullable String errorDescription) {}
 }
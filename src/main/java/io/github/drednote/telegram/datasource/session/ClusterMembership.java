@@ -0,0 +1,24 @@
+package io.github.drednote.telegram.datasource.session;
+
+import java.util.List;
+
+/**
+ * Tracks instances of the application consuming updates from one shared storage with heartbeats saved to the same
+ * storage. Used by {@link UpdateInboxSharding}.
+ *
+ * @author Ivan Galushko
+ */
+public interface ClusterMembership {
+
+    /**
+     * Saves the heartbeat of this instance and returns all live instances, which heartbeats are not expired.
+     *
+     * @return ids of live instances including this one
+     */
+    List<String> heartbeat();
+
+    /**
+     * Removes the heartbeat of this instance, so other instances take its shards without waiting for the expiration.
+     */
+    void leave();
+}
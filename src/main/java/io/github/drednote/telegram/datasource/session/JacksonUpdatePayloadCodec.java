@@ -0,0 +1,54 @@
+package io.github.drednote.telegram.datasource.session;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.drednote.telegram.utils.Assert;
+import java.io.IOException;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * {@link UpdatePayloadCodec} writing updates with Jackson. By default, the payload is JSON. A binary format is used if
+ * the mapper is created with its factory, for example {@code new ObjectMapper(new SmileFactory())} for Smile or
+ * {@code new ObjectMapper(new CBORFactory())} for CBOR from the {@code jackson-dataformat-smile} and
+ * {@code jackson-dataformat-cbor} modules.
+ *
+ * @author Ivan Galushko
+ */
+public class JacksonUpdatePayloadCodec implements UpdatePayloadCodec {
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Constructs a codec writing JSON.
+     */
+    public JacksonUpdatePayloadCodec() {
+        this(new ObjectMapper().findAndRegisterModules());
+    }
+
+    /**
+     * Constructs a codec writing the format of the mapper.
+     *
+     * @param objectMapper the mapper, its factory defines the format of payloads
+     */
+    public JacksonUpdatePayloadCodec(ObjectMapper objectMapper) {
+        Assert.required(objectMapper, "ObjectMapper");
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public byte[] encode(Update update) {
+        try {
+            return objectMapper.writeValueAsBytes(update);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode update with id '" + update.getUpdateId() + "'", e);
+        }
+    }
+
+    @Override
+    public Update decode(byte[] payload) {
+        try {
+            return objectMapper.readValue(payload, Update.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot decode update", e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.drednote.telegram.datasource.session;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Kryo.DefaultInstantiatorStrategy;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import io.github.drednote.telegram.datasource.kryo.AbstractKryoSerializationService;
+import java.io.IOException;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * {@link UpdatePayloadCodec} writing updates with Kryo. Payloads are not smaller than JSON, since Kryo writes every
+ * field including absent ones, and are decoded about as fast as the Jackson formats, so prefer Smile or CBOR for a
+ * smaller payload. Payloads depend on the fields of the classes of the Telegram library, so the version of the library
+ * should be changed only when the inbox has no pending updates.
+ *
+ * @author Ivan Galushko
+ */
+public class KryoUpdatePayloadCodec extends AbstractKryoSerializationService<Update> implements UpdatePayloadCodec {
+
+    @Override
+    public byte[] encode(Update update) {
+        try {
+            return serialize(update);
+        } catch (IOException | KryoException e) {
+            throw new IllegalStateException("Cannot encode update with id '" + update.getUpdateId() + "'", e);
+        }
+    }
+
+    @Override
+    public Update decode(byte[] payload) {
+        try {
+            return deserialize(payload);
+        } catch (RuntimeException e) {
+            // a corrupted payload fails with any exception, not only KryoException
+            throw new IllegalArgumentException("Cannot decode update", e);
+        }
+    }
+
+    @Override
+    protected void doEncode(Kryo kryo, Update object, Output output) {
+        kryo.writeObject(output, object);
+    }
+
+    @Override
+    protected Update doDecode(Kryo kryo, Input input) {
+        return kryo.readObject(input, Update.class);
+    }
+
+    @Override
+    protected void configureKryoInstance(Kryo kryo) {
+        // classes of the Telegram library without a default constructor are created without calling constructors
+        kryo.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+    }
+}
@@ -1,6 +1,8 @@
 package io.github.drednote.telegram.datasource.session;
 
 import io.github.drednote.telegram.datasource.DataSourceAdapter;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import org.telegram.telegrambots.meta.api.objects.Update;
@@ -24,6 +26,16 @@ public interface UpdateInboxRepositoryAdapter<T extends UpdateInbox> extends Dat
      */
     void update(T updateInbox);
 
+    /**
+     * Saves the status and the error description of the existed updateInboxes. By default, {@link #update(UpdateInbox)}
+     * is called for every updateInbox, implementations should override it to save all of them with a few statements.
+     *
+     * @param updateInboxes updates
+     */
+    default void updateAll(List<T> updateInboxes) {
+        updateInboxes.forEach(this::update);
+    }
+
     /**
      * Search for the next update to process. If there are no updates that match the selection, returns empty.
      *
@@ -31,8 +43,79 @@ public interface UpdateInboxRepositoryAdapter<T extends UpdateInbox> extends Dat
      */
     Optional<T> findNextUpdate();
 
+    /**
+     * Search for up to {@code max} next updates to process and mark them as taken in one call. The returned updates
+     * satisfy the same selection as {@link #findNextUpdate()}. By default, {@link #findNextUpdate()} is called until
+     * {@code max} updates are found or there are no more updates, implementations should override it to claim all
+     * updates in one round trip to the storage.
+     *
+     * @param max the maximum number of updates to find, greater than 0
+     * @return found updates, empty if there are no updates that match the selection
+     * @throws IllegalArgumentException if {@code max} is not positive
+     */
+    default List<T> findNextUpdates(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("max must be greater than 0");
+        }
+        List<T> updates = new ArrayList<>(Math.min(max, 16));
+        while (updates.size() < max) {
+            Optional<T> next = findNextUpdate();
+            if (next.isEmpty()) {
+                break;
+            }
+            updates.add(next.get());
+        }
+        return updates;
+    }
+
     /**
      * Updates "hung" updates by setting their status to {@link UpdateInboxStatus#TIMEOUT}.
      */
     void timeoutTasks();
+
+    /**
+     * Deletes up to {@code batchSize} updates with the status that were last changed before {@code before}. Every call
+     * should be done in its own transaction, so the number of rows changed by one transaction is bounded. By default,
+     * nothing is deleted.
+     *
+     * @param status    the final status of deleted updates
+     * @param before    the time before which updates were last changed
+     * @param batchSize the maximum number of deleted updates, greater than 0
+     * @return the number of deleted updates
+     */
+    default int purge(UpdateInboxStatus status, Instant before, int batchSize) {
+        return 0;
+    }
+
+    /**
+     * Returns the number of stored updates. Implementations may return an estimate if the exact count is expensive. By
+     * default, the size is unknown.
+     *
+     * @return the number of stored updates or -1 if it is unknown
+     */
+    default long size() {
+        return -1;
+    }
+
+    /**
+     * Returns the number of updates waiting for processing, that is with the status {@link UpdateInboxStatus#NEW}. It
+     * is used to report the load of {@code SchedulerTelegramUpdateProcessor}, so it is called periodically and should
+     * be cheap. By default, the number is unknown.
+     *
+     * @return the number of new updates or -1 if it is unknown
+     */
+    default long countPending() {
+        return -1;
+    }
+
+    /**
+     * Returns the biggest id of stored updates. The long polling session of a new leader in the cluster mode starts
+     * reading updates after it, so updates saved by the previous leader are not received again. By default, the id is
+     * unknown.
+     *
+     * @return the biggest id of stored updates or 0 if there are no updates or it is unknown
+     */
+    default int findLastUpdateId() {
+        return 0;
+    }
 }
@@ -0,0 +1,196 @@
+package io.github.drednote.telegram.datasource.session;
+
+import io.github.drednote.telegram.utils.Assert;
+import io.github.drednote.telegram.utils.Fnv1aHash;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * Splits updates of the shared storage between live instances by their {@code entityId}, so updates of one entity
+ * are claimed by one instance and its local caches of scenarios, permissions and rate limits are not missed.
+ *
+ * <p>Every entity belongs to one of {@code shards} shards by the hash of its id, which is computed by the storage.
+ * Shards are assigned to live instances with rendezvous hashing: a shard belongs to the instance with the biggest
+ * hash of the pair of the instance id and the shard. So every instance computes the same assignment from the same
+ * list of instances without any coordination, and when an instance joins or leaves, only its shards move.
+ *
+ * <p>The list of live instances is refreshed with {@link ClusterMembership#heartbeat()} every
+ * {@code heartbeatInterval} on a dedicated daemon thread. Until instances see the same list, a shard can be owned
+ * by two instances or by none for one interval. The sharding is only an affinity: the limit of updates in progress
+ * per entity is still checked by the storage, so updates of one entity are not run in parallel while shards move.
+ * Updates without {@code entityId} are claimed by any instance.
+ *
+ * @author Ivan Galushko
+ */
+public class UpdateInboxSharding implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(UpdateInboxSharding.class);
+
+    private final ClusterMembership membership;
+    private final String nodeId;
+    private final int shards;
+    private final long heartbeatIntervalMillis;
+    @Nullable
+    private ScheduledExecutorService executor;
+    private volatile List<String> nodes = List.of();
+    private volatile int[] ownedShards = new int[0];
+
+    /**
+     * @param membership        the membership of instances
+     * @param nodeId            the id of this instance
+     * @param shards            the number of shards, the same for all instances
+     * @param heartbeatInterval how often the heartbeat is saved and shards are rebalanced
+     * @throws IllegalArgumentException if {@code shards} or {@code heartbeatInterval} is not positive
+     */
+    public UpdateInboxSharding(
+        ClusterMembership membership, String nodeId, int shards, Duration heartbeatInterval
+    ) {
+        Assert.required(membership, "ClusterMembership");
+        Assert.required(nodeId, "Node id");
+        Assert.required(heartbeatInterval, "Heartbeat interval");
+        if (shards <= 0) {
+            throw new IllegalArgumentException("shards must be greater than 0");
+        }
+        if (heartbeatInterval.toMillis() <= 0) {
+            throw new IllegalArgumentException("heartbeatInterval must be greater than 0");
+        }
+
+        this.membership = membership;
+        this.nodeId = nodeId;
+        this.shards = shards;
+        this.heartbeatIntervalMillis = heartbeatInterval.toMillis();
+    }
+
+    /**
+     * Saves the first heartbeat and starts saving heartbeats in background.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        heartbeat();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "telegram-update-inbox-sharding");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::heartbeat, heartbeatIntervalMillis, heartbeatIntervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves the heartbeat of this instance and rebalances shards if the list of live instances is changed. If the
+     * heartbeat fails, the previous assignment is kept.
+     */
+    public void heartbeat() {
+        try {
+            rebalance(membership.heartbeat());
+        } catch (RuntimeException e) {
+            log.warn("Cannot save the heartbeat of instance '{}', shards are not rebalanced. Cause: {}",
+                nodeId, e.getMessage());
+            log.debug(e.getMessage(), e);
+        }
+    }
+
+    void rebalance(List<String> liveNodes) {
+        List<String> sorted = new ArrayList<>(liveNodes);
+        if (!sorted.contains(nodeId)) {
+            sorted.add(nodeId);
+        }
+        Collections.sort(sorted);
+        if (sorted.equals(nodes)) {
+            return;
+        }
+        int[] owned = assign(sorted, nodeId, shards);
+        ownedShards = owned;
+        nodes = List.copyOf(sorted);
+        log.info("Instance '{}' owns {} of {} shards of {} live instances", nodeId, owned.length, shards,
+            sorted.size());
+    }
+
+    /**
+     * Computes the shards of the instance with rendezvous hashing.
+     */
+    static int[] assign(List<String> nodes, String nodeId, int shards) {
+        long[] nodeHashes = new long[nodes.size()];
+        for (int i = 0; i < nodeHashes.length; i++) {
+            nodeHashes[i] = Fnv1aHash.hash(nodes.get(i));
+        }
+        long own = Fnv1aHash.hash(nodeId);
+        int[] owned = new int[shards];
+        int count = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            long best = 0;
+            long bestWeight = Long.MIN_VALUE;
+            for (long nodeHash : nodeHashes) {
+                long weight = mix(nodeHash + shard * 0x9e3779b97f4a7c15L);
+                // ties are broken by the node hash, so every instance chooses the same owner
+                if (weight > bestWeight || (weight == bestWeight && nodeHash > best)) {
+                    bestWeight = weight;
+                    best = nodeHash;
+                }
+            }
+            if (best == own) {
+                owned[count++] = shard;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(owned, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * The finalizer of SplitMix64
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * @return shards of this instance in ascending order, a new array on every call
+     */
+    public int[] getOwnedShards() {
+        return ownedShards.clone();
+    }
+
+    /**
+     * @return ids of live instances seen by the last successful heartbeat, sorted
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Stops saving heartbeats and removes the heartbeat of this instance.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        executor = null;
+        try {
+            membership.leave();
+        } catch (RuntimeException e) {
+            log.warn("Cannot remove the heartbeat of instance '{}'. Cause: {}", nodeId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.drednote.telegram.datasource.session;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Encodes the payload of an update stored in the update inbox and decodes it back. Stores that keep payloads as bytes
+ * use the codec, so a compact binary format can be chosen instead of JSON by declaring a bean of this type: the local
+ * log and MongoDB, which writes encoded payloads as binary data to the {@code payload} field instead of the
+ * {@code update} subdocument. The JPA inbox keeps JSON in its {@code jsonb} column, so its schema does not depend on
+ * the codec.
+ * <p>
+ * A payload is decoded only when its update is processed, updates whose status is only changed are never decoded.
+ * Payloads encoded by one codec can not be read by another, so the codec should be changed only when the inbox has no
+ * pending updates.
+ *
+ * @author Ivan Galushko
+ * @see JacksonUpdatePayloadCodec
+ * @see KryoUpdatePayloadCodec
+ */
+public interface UpdatePayloadCodec {
+
+    /**
+     * Encodes the update.
+     *
+     * @param update the update
+     * @return the payload
+     * @throws IllegalStateException if the update cannot be encoded
+     */
+    byte[] encode(Update update);
+
+    /**
+     * Decodes the update.
+     *
+     * @param payload the payload written by {@link #encode(Update)}
+     * @return the update
+     * @throws IllegalArgumentException if the payload cannot be decoded
+     */
+    Update decode(byte[] payload);
+}
@@ -9,44 +9,71 @@ import io.github.drednote.telegram.datasource.session.UpdateInboxRepositoryAdapt
 import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
 import io.github.drednote.telegram.exception.type.SessionTelegramException;
 import io.github.drednote.telegram.response.TooManyRequestsTelegramResponse;
+import io.github.drednote.telegram.session.ConcurrencyKeyResolver;
+import io.github.drednote.telegram.session.DefaultConcurrencyKeyResolver;
 import io.github.drednote.telegram.session.SessionProperties;
 import io.github.drednote.telegram.utils.Assert;
+import java.io.Serial;
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
 /**
- * This implementation uses {@link LinkedBlockingQueue} as a place to save incoming messages. This approach is safe in terms of
- * multithreading, but it has a number of disadvantages. If the service crashes while processing messages, then the
- * messages will be lost. Also, if some user decides to spam a huge number of messages, there may be a situation where
- * the entire queue will be clogged with his messages, and they will block the processing of messages from other users.
+ * This implementation keeps incoming messages in memory. If the service crashes while processing messages, then the
+ * messages will be lost.
  * <p>
- * If this happens, you might want to adjust the {@code drednote.telegram.session.maxMessageInQueuePerUser} parameter.
- * But this will slow down the writing of messages to the queue.
+ * Updates are grouped by {@code entityId} resolved by {@link ConcurrencyKeyResolver}. Every entity has its own FIFO
+ * queue of new updates and a counter of updates in progress. Entities that have new updates and fewer than
+ * {@code maxThreadsPerUser} updates in progress are placed to a single ready queue, so {@link #findNextUpdate()} takes
+ * the head of the next ready entity without looking through the whole backlog. After an update is taken, the entity
+ * goes to the end of the ready queue if it is still under its limit, so a user spamming messages does not block
+ * processing of messages from other users. Persisting, taking and completing an update are O(1), empty entities are
+ * removed.
+ * <p>
+ * The total number of stored updates is limited by {@code drednote.telegram.session.maxMessagesInQueue},
+ * {@link #persist(List)} waits if the limit is reached. The number of updates of one entity can be limited with
+ * {@code drednote.telegram.session.scheduler-processor.maxMessageInQueuePerUser}.
  *
  * @author Ivan Galushko
  */
 public class InMemoryUpdateInboxRepositoryAdapter implements UpdateInboxRepositoryAdapter<InMemoryUpdateInbox> {
 
     private static final Logger log = LoggerFactory.getLogger(InMemoryUpdateInboxRepositoryAdapter.class);
+    /**
+     * The key of updates without {@code entityId}, they are not limited by {@code maxThreadsPerUser}
+     */
+    private static final Object NO_ENTITY = new Object();
 
-    private final LinkedBlockingQueue<InMemoryUpdateInbox> queue;
-    private final Lock lock;
+    private final Map<Object, Entity> entities = new ConcurrentHashMap<>();
+    private final Queue<Object> ready = new ConcurrentLinkedQueue<>();
+    private final Set<InMemoryUpdateInbox> inProgress = ConcurrentHashMap.newKeySet();
+    private final Capacity capacity;
+    /**
+     * The number of stored updates not taken by {@link #findNextUpdate()} yet
+     */
+    private final AtomicInteger pendingCount = new AtomicInteger();
 
     private final int maxThreadsPerUser;
     private final int maxMessageInQueuePerUser;
     private final TelegramMessageSource messageSource;
+    private ConcurrencyKeyResolver concurrencyKeyResolver;
 
     public InMemoryUpdateInboxRepositoryAdapter(SessionProperties sessionProperties, TelegramMessageSource messageSource) {
         Assert.required(sessionProperties, "SessionProperties");
         Assert.required(messageSource, "TelegramMessageSource");
 
         this.messageSource = messageSource;
+        this.concurrencyKeyResolver = new DefaultConcurrencyKeyResolver(sessionProperties.getConcurrencyKey());
         int maxMessagesInQueue =
             sessionProperties.getMaxMessagesInQueue() <= 0 ? Integer.MAX_VALUE
                 : sessionProperties.getMaxMessagesInQueue();
@@ -60,31 +87,36 @@ public class InMemoryUpdateInboxRepositoryAdapter implements UpdateInboxReposito
             throw new IllegalArgumentException("maxThreadsPerUser must be greater than or equal to 0");
         }
 
-        this.queue = new LinkedBlockingQueue<>(maxMessagesInQueue);
-        this.lock = new ReentrantLock();
+        this.capacity = new Capacity(maxMessagesInQueue);
+    }
+
+    /**
+     * Sets the resolver of {@code entityId} of updates. By default, {@link DefaultConcurrencyKeyResolver} configured
+     * by {@link SessionProperties#getConcurrencyKey()} is used.
+     *
+     * @param concurrencyKeyResolver the resolver, not null
+     */
+    public void setConcurrencyKeyResolver(ConcurrencyKeyResolver concurrencyKeyResolver) {
+        Assert.required(concurrencyKeyResolver, "ConcurrencyKeyResolver");
+        this.concurrencyKeyResolver = concurrencyKeyResolver;
     }
 
     @Override
     public void persist(List<Update> updates) {
         for (Update update : updates) {
             ParsedUpdateRequest request = new ParsedUpdateRequest(update, null);
-            InMemoryUpdateInbox inMemoryUpdateInbox = new InMemoryUpdateInbox();
-            inMemoryUpdateInbox.setUpdateId(update.getUpdateId());
-            inMemoryUpdateInbox.setUpdate(update);
-            inMemoryUpdateInbox.setStatus(UpdateInboxStatus.NEW);
-            String entityId = request.getUserId() != null ? request.getUserId().toString() : null;
-            inMemoryUpdateInbox.setEntityId(entityId);
+            InMemoryUpdateInbox inMemoryUpdateInbox = newInbox(update, request);
+            String entityId = inMemoryUpdateInbox.getEntityId();
             try {
-                if (maxMessageInQueuePerUser > 0 && entityId != null) {
-                    long countInQueue = queue.stream().filter(el -> entityId.equals(el.getEntityId())).count();
-                    if (countInQueue > maxMessageInQueuePerUser) {
-                        TooManyRequestsTelegramResponse response = new TooManyRequestsTelegramResponse();
-                        response.setMessageSource(messageSource);
-                        response.process(request);
-                        continue;
-                    }
+                if (maxMessageInQueuePerUser > 0 && entityId != null && countOf(entityId) > maxMessageInQueuePerUser) {
+                    TooManyRequestsTelegramResponse response = new TooManyRequestsTelegramResponse();
+                    response.setMessageSource(messageSource);
+                    response.process(request);
+                    onRejected(inMemoryUpdateInbox);
+                    continue;
                 }
-                queue.put(inMemoryUpdateInbox);
+                capacity.acquire();
+                enqueue(inMemoryUpdateInbox);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 throw new SessionTelegramException("Error while persisting update inbox", e);
@@ -94,47 +126,185 @@ public class InMemoryUpdateInboxRepositoryAdapter implements UpdateInboxReposito
         }
     }
 
+    /**
+     * Adds updates restored from a durable storage before the adapter is used. Neither {@code maxMessagesInQueue} nor
+     * {@code maxMessageInQueuePerUser} is checked, so restored updates are never rejected, and new updates wait until
+     * the number of stored updates goes below {@code maxMessagesInQueue}.
+     *
+     * @param updates restored updates in order of receiving
+     */
+    protected void restore(List<Update> updates) {
+        capacity.reducePermits(updates.size());
+        for (Update update : updates) {
+            enqueue(newInbox(update, new ParsedUpdateRequest(update, null)));
+        }
+    }
+
+    /**
+     * Called when a new update is rejected because of {@code maxMessageInQueuePerUser}. By default, does nothing.
+     *
+     * @param updateInbox the rejected update
+     */
+    protected void onRejected(InMemoryUpdateInbox updateInbox) {
+        // nothing to do
+    }
+
+    private InMemoryUpdateInbox newInbox(Update update, ParsedUpdateRequest request) {
+        InMemoryUpdateInbox inMemoryUpdateInbox = new InMemoryUpdateInbox();
+        inMemoryUpdateInbox.setUpdateId(update.getUpdateId());
+        inMemoryUpdateInbox.setUpdate(update);
+        inMemoryUpdateInbox.setStatus(UpdateInboxStatus.NEW);
+        inMemoryUpdateInbox.setEntityId(concurrencyKeyResolver.resolve(request));
+        return inMemoryUpdateInbox;
+    }
+
+    private int countOf(String entityId) {
+        Entity entity = entities.get(entityId);
+        return entity == null ? 0 : entity.count();
+    }
+
+    private void enqueue(InMemoryUpdateInbox inbox) {
+        Object key = keyOf(inbox);
+        boolean[] schedule = new boolean[1];
+        entities.compute(key, (k, entity) -> {
+            if (entity == null) {
+                entity = new Entity(key == NO_ENTITY || maxThreadsPerUser == 0 ? Integer.MAX_VALUE : maxThreadsPerUser);
+            }
+            entity.pending.add(inbox);
+            schedule[0] = entity.schedule();
+            return entity;
+        });
+        pendingCount.incrementAndGet();
+        if (schedule[0]) {
+            ready.add(key);
+        }
+    }
+
     @Override
     public void update(InMemoryUpdateInbox updateInbox) {
         if (updateInbox.getStatus() == PROCESSED || updateInbox.getStatus() == ERROR) {
             log.debug("Update {} finished with {} status", updateInbox.getUpdateId(), updateInbox.getStatus());
-            boolean remove = queue.remove(updateInbox);
-            if (!remove) {
+            if (!inProgress.remove(updateInbox)) {
                 log.warn("Something went wrong. Update {} already processed", updateInbox.getUpdateId());
+                return;
             }
+            complete(updateInbox);
+            capacity.release();
+        }
+    }
+
+    private void complete(InMemoryUpdateInbox inbox) {
+        Object key = keyOf(inbox);
+        boolean[] schedule = new boolean[1];
+        entities.computeIfPresent(key, (k, entity) -> {
+            entity.inProgress--;
+            schedule[0] = entity.schedule();
+            return entity.isEmpty() ? null : entity;
+        });
+        if (schedule[0]) {
+            ready.add(key);
         }
     }
 
     @Override
     public Optional<InMemoryUpdateInbox> findNextUpdate() {
-        try {
-            lock.lockInterruptibly();
-            Optional<InMemoryUpdateInbox> result = queue.stream()
-                .filter(el -> el.getStatus() == UpdateInboxStatus.NEW)
-                .filter(el -> {
-                    String entityId = el.getEntityId();
-                    if (entityId == null || maxThreadsPerUser == 0) {
-                        return true;
-                    }
-
-                    return queue.stream()
-                               .filter(subEl -> entityId.equals(subEl.getEntityId()))
-                               .filter(subEL -> subEL.getStatus() == UpdateInboxStatus.IN_PROGRESS)
-                               .count() < maxThreadsPerUser;
-                })
-                .findFirst();
-            result.ifPresent(inMemoryUpdateInbox -> inMemoryUpdateInbox.setStatus(UpdateInboxStatus.IN_PROGRESS));
-            return result;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new SessionTelegramException("Error while finding next update", e);
-        } finally {
-            lock.unlock();
+        Object key;
+        while ((key = ready.poll()) != null) {
+            InMemoryUpdateInbox[] next = new InMemoryUpdateInbox[1];
+            boolean[] schedule = new boolean[1];
+            entities.computeIfPresent(key, (k, entity) -> {
+                entity.scheduled = false;
+                next[0] = entity.pending.poll();
+                if (next[0] != null) {
+                    entity.inProgress++;
+                    next[0].setStatus(UpdateInboxStatus.IN_PROGRESS);
+                    inProgress.add(next[0]);
+                }
+                schedule[0] = entity.schedule();
+                return entity.isEmpty() ? null : entity;
+            });
+            if (schedule[0]) {
+                ready.add(key);
+            }
+            if (next[0] != null) {
+                pendingCount.decrementAndGet();
+                return Optional.of(next[0]);
+            }
         }
+        return Optional.empty();
+    }
+
+    @Override
+    public long countPending() {
+        return pendingCount.get();
     }
 
     @Override
     public void timeoutTasks() {
         // nothing to do
     }
+
+    private static Object keyOf(InMemoryUpdateInbox inbox) {
+        return inbox.getEntityId() != null ? inbox.getEntityId() : NO_ENTITY;
+    }
+
+    /**
+     * The number of updates that can be stored. Permits go below zero while restored updates exceed the limit.
+     */
+    private static final class Capacity extends Semaphore {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private Capacity(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    /**
+     * Updates of one entity. Guarded by {@link ConcurrentHashMap#compute} of its key.
+     */
+    private static final class Entity {
+
+        private final Queue<InMemoryUpdateInbox> pending = new ArrayDeque<>();
+        private final int limit;
+        /**
+         * The number of updates of this entity taken by {@link #findNextUpdate()} and not completed yet
+         */
+        private int inProgress = 0;
+        /**
+         * Whether the key of this entity is in the ready queue
+         */
+        private boolean scheduled = false;
+
+        private Entity(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Marks the entity as scheduled if it has new updates and is under its limit.
+         *
+         * @return true if the key should be added to the ready queue
+         */
+        private boolean schedule() {
+            if (!scheduled && !pending.isEmpty() && inProgress < limit) {
+                scheduled = true;
+                return true;
+            }
+            return false;
+        }
+
+        private int count() {
+            return pending.size() + inProgress;
+        }
+
+        private boolean isEmpty() {
+            return pending.isEmpty() && inProgress == 0 && !scheduled;
+        }
+    }
 }
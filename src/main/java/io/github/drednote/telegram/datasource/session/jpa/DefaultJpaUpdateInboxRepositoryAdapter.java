@@ -7,12 +7,16 @@ import io.github.drednote.telegram.utils.Assert;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceException;
 import java.time.Instant;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import org.hibernate.Session;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.metamodel.spi.MappingMetamodelImplementor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -48,6 +52,14 @@ public abstract class DefaultJpaUpdateInboxRepositoryAdapter extends
         return repository.findNextWithoutLimit();
     }
 
+    /**
+     * Locks up to {@code max} oldest new updates with one query, skipping rows locked by other readers.
+     */
+    @Override
+    protected List<JpaUpdateInbox> findAllWithoutLimit(int max) {
+        return repository.findNextWithoutLimit(PageRequest.of(0, max));
+    }
+
     @Override
     protected void persist(JpaUpdateInbox entity) {
         try {
@@ -59,16 +71,64 @@ public abstract class DefaultJpaUpdateInboxRepositoryAdapter extends
         }
     }
 
+    /**
+     * Skips entities whose ids are already saved with one query and inserts the rest in JDBC batches.
+     */
+    @Override
+    protected void persistAll(List<JpaUpdateInbox> entities) {
+        Set<Integer> ids = new HashSet<>(entities.size());
+        entities.forEach(entity -> ids.add(entity.getUpdateId()));
+        Set<Integer> existing = new HashSet<>(repository.findExistingIds(ids));
+
+        Session session = entityManager.unwrap(Session.class);
+        Integer batchSize = session.getJdbcBatchSize();
+        session.setJdbcBatchSize(entities.size());
+        try {
+            for (JpaUpdateInbox entity : entities) {
+                if (existing.add(entity.getUpdateId())) {
+                    persist(entity);
+                } else {
+                    log.warn("Cannot persist update inbox with id '{}'. Cause: it already exists",
+                        entity.getUpdateId());
+                }
+            }
+            entityManager.flush();
+        } finally {
+            session.setJdbcBatchSize(batchSize);
+        }
+    }
+
     @Override
     @Transactional
     public void persist(List<Update> updates) {
         super.persist(updates);
     }
 
+    /**
+     * Saves only the status and the error description with one statement, so the payload of the update is neither
+     * loaded to merge the entity nor written again.
+     */
     @Override
     @Transactional
     public void update(JpaUpdateInbox updateInbox) {
-        super.update(updateInbox);
+        Instant now = Instant.now();
+        groupByStatus(List.of(updateInbox)).forEach((change, ids) ->
+            updateStatus(ids, change, now));
+    }
+
+    /**
+     * Saves statuses with one bulk update per status and error description, without loading and merging entities.
+     */
+    @Override
+    @Transactional
+    public void updateAll(List<JpaUpdateInbox> updateInboxes) {
+        Instant now = Instant.now();
+        groupByStatus(updateInboxes).forEach((change, ids) ->
+            updateStatus(ids, change, now));
+    }
+
+    protected void updateStatus(List<Integer> ids, StatusChange change, Instant now) {
+        repository.updateStatus(ids, change.status(), change.errorDescription(), now);
     }
 
     @Override
@@ -77,12 +137,44 @@ public abstract class DefaultJpaUpdateInboxRepositoryAdapter extends
         return super.findNextUpdate();
     }
 
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public List<JpaUpdateInbox> findNextUpdates(int max) {
+        return super.findNextUpdates(max);
+    }
+
     @Override
     @Transactional
     public void timeoutTasks() {
         super.timeoutTasks();
     }
 
+    /**
+     * Deletes the oldest updates with the status with two statements: the first one finds their ids by the
+     * {@code (status, updated_at)} index, the second one deletes them.
+     */
+    @Override
+    @Transactional
+    public int purge(UpdateInboxStatus status, Instant before, int batchSize) {
+        List<Integer> ids = repository.findIdsUpdatedBefore(status, before, PageRequest.of(0, batchSize));
+        return ids.isEmpty() ? 0 : repository.deleteAllByIds(ids);
+    }
+
+    @Override
+    public long size() {
+        return repository.count();
+    }
+
+    @Override
+    public long countPending() {
+        return repository.countByStatus(UpdateInboxStatus.NEW);
+    }
+
+    @Override
+    public int findLastUpdateId() {
+        return repository.findMaxUpdateId();
+    }
+
     protected String getTable() {
         SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory()
             .unwrap(SessionFactoryImplementor.class);
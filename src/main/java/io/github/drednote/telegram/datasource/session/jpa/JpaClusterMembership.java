@@ -0,0 +1,92 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import io.github.drednote.telegram.datasource.session.ClusterMembership;
+import io.github.drednote.telegram.datasource.session.node.jpa.JpaSessionNode;
+import io.github.drednote.telegram.utils.Assert;
+import jakarta.persistence.EntityManager;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * {@link ClusterMembership} with heartbeats in the {@code session_nodes} table.
+ *
+ * <p>Every heartbeat updates the row of this instance, or inserts it on the first heartbeat, deletes rows that are
+ * not updated during {@code nodeTimeout} and reads the rest. Expiration is compared with the clock of instances, so
+ * clocks should be synchronized with an accuracy much better than {@code nodeTimeout}.
+ *
+ * <p>{@link JpaSessionNode} must be added to {@code @EntityScan}.
+ *
+ * @author Ivan Galushko
+ * @see JpaSessionNode
+ */
+public class JpaClusterMembership implements ClusterMembership {
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final String nodeId;
+    private final Duration nodeTimeout;
+
+    /**
+     * @param entityManager      the shared entity manager
+     * @param transactionManager the transaction manager of the entity manager
+     * @param nodeId             the id of this instance, unique in the cluster
+     * @param nodeTimeout        how long an instance is considered live after its last heartbeat
+     */
+    public JpaClusterMembership(
+        EntityManager entityManager, PlatformTransactionManager transactionManager, String nodeId,
+        Duration nodeTimeout
+    ) {
+        Assert.required(entityManager, "EntityManager");
+        Assert.required(transactionManager, "PlatformTransactionManager");
+        Assert.required(nodeId, "Node id");
+        Assert.required(nodeTimeout, "Node timeout");
+
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.nodeId = nodeId;
+        this.nodeTimeout = nodeTimeout;
+    }
+
+    @Override
+    public List<String> heartbeat() {
+        Instant now = Instant.now();
+        List<String> nodes = transactionTemplate.execute(status -> {
+            int updated = entityManager.createQuery("""
+                    UPDATE JpaSessionNode n SET n.heartbeatAt = :now WHERE n.nodeId = :nodeId
+                    """)
+                .setParameter("now", now)
+                .setParameter("nodeId", nodeId)
+                .executeUpdate();
+            if (updated == 0) {
+                JpaSessionNode node = new JpaSessionNode();
+                node.setNodeId(nodeId);
+                node.setHeartbeatAt(now);
+                entityManager.persist(node);
+                entityManager.flush();
+            }
+            Instant expired = now.minus(nodeTimeout);
+            entityManager.createQuery("DELETE FROM JpaSessionNode n WHERE n.heartbeatAt < :expired")
+                .setParameter("expired", expired)
+                .executeUpdate();
+            return entityManager.createQuery("""
+                    SELECT n.nodeId FROM JpaSessionNode n ORDER BY n.nodeId
+                    """, String.class)
+                .getResultList();
+        });
+        return nodes == null ? List.of(nodeId) : nodes;
+    }
+
+    @Override
+    public void leave() {
+        transactionTemplate.executeWithoutResult(status -> entityManager.createQuery("""
+                DELETE FROM JpaSessionNode n WHERE n.nodeId = :nodeId
+                """)
+            .setParameter("nodeId", nodeId)
+            .executeUpdate());
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import io.github.drednote.telegram.datasource.session.leader.jpa.JpaSessionLeader;
+import io.github.drednote.telegram.session.LeaderElector;
+import io.github.drednote.telegram.utils.Assert;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * {@link LeaderElector} with a lock row in the {@code session_leaders} table, that works with any database supported
+ * by Hibernate.
+ *
+ * <p>The row holds the id of the leader and the time when the leadership expires. An instance takes the leadership
+ * with one conditional update if the row is expired or already belongs to it, and renews it with the same update.
+ * The row is inserted by the first instance, if two instances insert it at the same time, one of them fails on the
+ * primary key and stays a follower.
+ *
+ * <p>Expiration is compared with the clock of instances, so clocks should be synchronized with an accuracy much
+ * better than {@code leaseDuration}. A failed leader is replaced after {@code leaseDuration}.
+ *
+ * <p>{@link JpaSessionLeader} must be added to {@code @EntityScan}.
+ *
+ * @author Ivan Galushko
+ * @see JpaSessionLeader
+ */
+public class JpaLeaderElector implements LeaderElector {
+
+    private static final Logger log = LoggerFactory.getLogger(JpaLeaderElector.class);
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final String lockName;
+    private final String nodeId;
+    private final Duration leaseDuration;
+
+    /**
+     * @param entityManager      the shared entity manager
+     * @param transactionManager the transaction manager of the entity manager
+     * @param lockName           the name of the lock row
+     * @param nodeId             the id of this instance, unique in the cluster
+     * @param leaseDuration      how long the leadership is kept without renewal
+     */
+    public JpaLeaderElector(
+        EntityManager entityManager, PlatformTransactionManager transactionManager, String lockName, String nodeId,
+        Duration leaseDuration
+    ) {
+        Assert.required(entityManager, "EntityManager");
+        Assert.required(transactionManager, "PlatformTransactionManager");
+        Assert.required(lockName, "Lock name");
+        Assert.required(nodeId, "Node id");
+        Assert.required(leaseDuration, "Lease duration");
+
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.lockName = lockName;
+        this.nodeId = nodeId;
+        this.leaseDuration = leaseDuration;
+    }
+
+    /**
+     * @throws RuntimeException if the database fails for a reason other than the lock row inserted by another
+     *                          instance at the same time
+     */
+    @Override
+    public boolean tryAcquire() {
+        try {
+            return Boolean.TRUE.equals(transactionTemplate.execute(status -> acquire(Instant.now())));
+        } catch (DataIntegrityViolationException e) {
+            log.debug("The lock row '{}' is inserted by another instance", lockName, e);
+            return false;
+        } catch (PersistenceException e) {
+            if (!isConstraintViolation(e)) {
+                throw e;
+            }
+            log.debug("The lock row '{}' is inserted by another instance", lockName, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the cause is a violation of an integrity constraint, SQLSTATE class 23
+     */
+    private static boolean isConstraintViolation(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && sqlException.getSQLState() != null
+                && sqlException.getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean acquire(Instant now) {
+        int updated = entityManager.createQuery("""
+                UPDATE JpaSessionLeader l
+                    SET l.ownerId = :nodeId, l.expiresAt = :expiresAt
+                    WHERE l.name = :name AND (l.ownerId = :nodeId OR l.expiresAt < :now)
+                """)
+            .setParameter("nodeId", nodeId)
+            .setParameter("expiresAt", now.plus(leaseDuration))
+            .setParameter("name", lockName)
+            .setParameter("now", now)
+            .executeUpdate();
+        if (updated > 0) {
+            return true;
+        }
+        if (entityManager.find(JpaSessionLeader.class, lockName) != null) {
+            return false;
+        }
+        JpaSessionLeader leader = new JpaSessionLeader();
+        leader.setName(lockName);
+        leader.setOwnerId(nodeId);
+        leader.setExpiresAt(now.plus(leaseDuration));
+        entityManager.persist(leader);
+        entityManager.flush();
+        return true;
+    }
+
+    /**
+     * Expires the lock row if it belongs to this instance.
+     */
+    @Override
+    public void release() {
+        transactionTemplate.executeWithoutResult(status -> entityManager.createQuery("""
+                UPDATE JpaSessionLeader l
+                    SET l.expiresAt = :expiresAt
+                    WHERE l.name = :name AND l.ownerId = :nodeId
+                """)
+            .setParameter("expiresAt", Instant.EPOCH)
+            .setParameter("name", lockName)
+            .setParameter("nodeId", nodeId)
+            .executeUpdate());
+    }
+}
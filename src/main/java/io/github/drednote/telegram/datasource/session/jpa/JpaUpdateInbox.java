@@ -1,7 +1,9 @@
 package io.github.drednote.telegram.datasource.session.jpa;
 
+import io.github.drednote.telegram.datasource.session.JacksonUpdatePayloadCodec;
 import io.github.drednote.telegram.datasource.session.UpdateInbox;
 import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.UpdatePayloadCodec;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
@@ -9,8 +11,11 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.Id;
 import jakarta.persistence.Index;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Objects;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import org.hibernate.annotations.CreationTimestamp;
@@ -25,11 +30,14 @@ import org.telegram.telegrambots.meta.api.objects.Update;
 @Entity
 @Table(name = "update_inbox", indexes = {
     @Index(name = "idx_update_inbox_created_at", columnList = "created_at"),
-    @Index(name = "idx_update_inbox_entity_id", columnList = "entity_id"),
-    @Index(name = "idx_update_inbox_status", columnList = "status"),
+    @Index(name = "idx_update_inbox_status_created_at", columnList = "status, created_at"),
+    @Index(name = "idx_update_inbox_entity_id_status", columnList = "entity_id, status"),
+    @Index(name = "idx_update_inbox_status_updated_at", columnList = "status, updated_at"),
 })
 public class JpaUpdateInbox extends UpdateInbox {
 
+    private static final UpdatePayloadCodec CODEC = new JacksonUpdatePayloadCodec();
+
     @Id
     @Column(name = "update_id", nullable = false)
     private Integer updateId;
@@ -37,8 +45,20 @@ public class JpaUpdateInbox extends UpdateInbox {
     @Nullable
     @Column(name = "entity_id")
     private String entityId;
+    /**
+     * The update as JSON, kept as it is read from the database and decoded only by {@link #getUpdate()}
+     */
+    @Setter(AccessLevel.NONE)
     @JdbcTypeCode(SqlTypes.JSON)
     @Column(name = "update", nullable = false)
+    private String payload;
+    /**
+     * The decoded payload
+     */
+    @Nullable
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
     private Update update;
     @Enumerated(EnumType.STRING)
     @Column(name = "status", nullable = false)
@@ -53,6 +73,26 @@ public class JpaUpdateInbox extends UpdateInbox {
     @Column(name = "updated_at", nullable = false)
     private Instant updatedAt;
 
+    /**
+     * Returns the update, decoding the payload on the first call. So the payload of an update is decoded by the worker
+     * processing it, and never if only the status of the update is changed.
+     *
+     * @return the update
+     */
+    @Override
+    public Update getUpdate() {
+        if (update == null) {
+            update = CODEC.decode(payload.getBytes(StandardCharsets.UTF_8));
+        }
+        return update;
+    }
+
+    @Override
+    public void setUpdate(Update update) {
+        this.payload = new String(CODEC.encode(update), StandardCharsets.UTF_8);
+        this.update = update;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -1,17 +1,22 @@
 package io.github.drednote.telegram.datasource.session.jpa;
 
 import io.github.drednote.telegram.datasource.session.UpdateInboxRepository;
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
 import jakarta.persistence.LockModeType;
 import jakarta.persistence.QueryHint;
 import jakarta.persistence.criteria.CriteriaBuilder.In;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.NoRepositoryBean;
+import org.springframework.lang.Nullable;
 import org.springframework.transaction.annotation.Transactional;
 
 @NoRepositoryBean
@@ -31,6 +36,18 @@ public interface JpaUpdateInboxRepository
     })
     Optional<JpaUpdateInbox> findNextWithoutLimit();
 
+    @Query(value = """
+            SELECT m FROM JpaUpdateInbox m
+                WHERE m.status = 'NEW'
+                ORDER BY m.createdAt
+        """)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Transactional
+    @QueryHints({
+        @QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2") // skip locked
+    })
+    List<JpaUpdateInbox> findNextWithoutLimit(Pageable pageable);
+
     @Query(value = """
             SELECT m FROM JpaUpdateInbox m
                 WHERE m.entityId = null or m.entityId = (SELECT m.entityId FROM JpaUpdateInbox m
@@ -49,6 +66,36 @@ public interface JpaUpdateInboxRepository
     })
     List<JpaUpdateInbox> findNextWithLimit(Integer count);
 
+    @Query("SELECT m.updateId FROM JpaUpdateInbox m WHERE m.updateId IN :ids")
+    List<Integer> findExistingIds(Collection<Integer> ids);
+
+    @Modifying
+    @Query(value = """
+            UPDATE JpaUpdateInbox m
+                SET m.status = :status, m.errorDescription = :errorDescription, m.updatedAt = :updatedAt
+                WHERE m.updateId IN :ids
+        """)
+    @Transactional
+    int updateStatus(
+        Collection<Integer> ids, UpdateInboxStatus status, @Nullable String errorDescription, Instant updatedAt);
+
+    @Query(value = """
+            SELECT m.updateId FROM JpaUpdateInbox m
+                WHERE m.status = :status AND m.updatedAt < :before
+                ORDER BY m.updatedAt
+        """)
+    List<Integer> findIdsUpdatedBefore(UpdateInboxStatus status, Instant before, Pageable pageable);
+
+    @Modifying
+    @Query("DELETE FROM JpaUpdateInbox m WHERE m.updateId IN :ids")
+    @Transactional
+    int deleteAllByIds(Collection<Integer> ids);
+
+    @Query("SELECT COALESCE(MAX(m.updateId), 0) FROM JpaUpdateInbox m")
+    int findMaxUpdateId();
+
+    long countByStatus(UpdateInboxStatus status);
+
     @Query(value = """
              select m from JpaUpdateInbox m\s
              where m.status = 'IN_PROGRESS'
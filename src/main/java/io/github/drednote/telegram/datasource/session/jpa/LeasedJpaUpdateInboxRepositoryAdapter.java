@@ -0,0 +1,386 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import static io.github.drednote.telegram.datasource.session.UpdateInboxStatus.IN_PROGRESS;
+import static io.github.drednote.telegram.datasource.session.UpdateInboxStatus.NEW;
+
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.lease.jpa.JpaUpdateInboxEntityLease;
+import io.github.drednote.telegram.session.SessionProperties;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.TypedQuery;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * {@link JpaUpdateInboxRepositoryAdapter} that limits the number of updates in progress per entity with counters in
+ * the {@code update_inbox_entity_leases} table instead of counting updates in progress for every candidate.
+ *
+ * <p>A search reads pages of the oldest new updates by the {@code (status, created_at)} index, leaving out entities
+ * which counters reached {@code maxThreadsPerUser} and entities which reach it with updates chosen from the previous
+ * pages, until enough updates are chosen. Then it locks the chosen updates, skipping updates locked by other readers,
+ * locks the lease rows of their entities in the order of {@code entity_id} and claims updates of entities which
+ * counters are still under the limit. Counters and statuses are changed in one transaction, so they cannot diverge.
+ * The counter is decremented when an update in progress gets a final status, including {@code TIMEOUT}. A single
+ * update is claimed the same way.
+ *
+ * <p>Lease rows are inserted on the first search of their entity. If two readers insert the lease of the same entity
+ * at the same time, one of them fails and its search is rolled back, the updates are claimed by the next search.
+ * Leases without updates in progress are removed by {@link #timeoutTasks()}.
+ *
+ * <p>Only standard JPQL and pessimistic locks are used, so the adapter works with MySQL, MariaDB, H2, Oracle and
+ * other databases supported by Hibernate. {@link JpaUpdateInboxEntityLease} must be added to {@code @EntityScan}.
+ *
+ * @author Ivan Galushko
+ * @see JpaUpdateInboxEntityLease
+ */
+public class LeasedJpaUpdateInboxRepositoryAdapter extends JpaUpdateInboxRepositoryAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(LeasedJpaUpdateInboxRepositoryAdapter.class);
+    /**
+     * The minimum number of new updates read to find updates to claim
+     */
+    private static final int MIN_CANDIDATES = 64;
+    private static final String SKIP_LOCKED_HINT = "jakarta.persistence.lock.timeout";
+    private static final int SKIP_LOCKED = -2;
+
+    public LeasedJpaUpdateInboxRepositoryAdapter(
+        JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties properties
+    ) {
+        super(repository, entityManager, properties);
+    }
+
+    /**
+     * Claims one update with {@link #findAllWithMaxThreadsPerUser(int, int)}, so the lease of its entity is taken
+     * like for a batch.
+     */
+    @Override
+    protected Optional<JpaUpdateInbox> findWithMaxThreadsPerUser(int maxThreadsPerUser) {
+        return findAllWithMaxThreadsPerUser(maxThreadsPerUser, 1).stream().findFirst();
+    }
+
+    @Override
+    protected List<JpaUpdateInbox> findAllWithMaxThreadsPerUser(int maxThreadsPerUser, int max) {
+        List<Integer> planned = plan(maxThreadsPerUser, max);
+        if (planned.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // updates taken by other readers since the search are skipped
+        List<JpaUpdateInbox> candidates = entityManager.createQuery("""
+                SELECT m FROM JpaUpdateInbox m
+                    WHERE m.updateId IN :ids AND m.status = :status
+                    ORDER BY m.createdAt, m.updateId
+                """, JpaUpdateInbox.class)
+            .setParameter("ids", planned)
+            .setParameter("status", NEW)
+            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+            .setHint(SKIP_LOCKED_HINT, SKIP_LOCKED)
+            .getResultList();
+
+        Set<String> entityIds = new TreeSet<>();
+        for (JpaUpdateInbox candidate : candidates) {
+            if (candidate.getEntityId() != null) {
+                entityIds.add(candidate.getEntityId());
+            }
+        }
+        Map<String, JpaUpdateInboxEntityLease> leases = lockLeases(entityIds);
+
+        // counters may be changed by other readers since the search, so they are checked again under the lock
+        List<JpaUpdateInbox> claimed = new ArrayList<>(candidates.size());
+        Instant now = Instant.now();
+        for (JpaUpdateInbox inbox : candidates) {
+            if (inbox.getEntityId() != null) {
+                JpaUpdateInboxEntityLease lease = leases.get(inbox.getEntityId());
+                if (lease.getInProgress() >= maxThreadsPerUser) {
+                    continue;
+                }
+                lease.setInProgress(lease.getInProgress() + 1);
+                lease.setUpdatedAt(now);
+            }
+            inbox.setStatus(IN_PROGRESS);
+            claimed.add(inbox);
+        }
+        entityManager.flush();
+        log.trace("Claimed {} of {} planned updates", claimed.size(), planned.size());
+        return claimed;
+    }
+
+    /**
+     * Chooses up to {@code max} ids of the oldest new updates, as if they were claimed one by one, without locks. New
+     * updates are read by pages in order of creation. Entities which leases are saturated are excluded by the query,
+     * and entities which reach the limit with chosen updates are excluded from the next pages, so a backlog of one
+     * entity does not hide updates of other entities behind it.
+     */
+    private List<Integer> plan(int maxThreadsPerUser, int max) {
+        int pageSize = Math.max(max * 4, MIN_CANDIDATES);
+        Map<String, Integer> used = new HashMap<>();
+        Set<String> full = new HashSet<>();
+        List<Integer> chosen = new ArrayList<>(max);
+        Object[] last = null;
+        while (chosen.size() < max) {
+            List<Object[]> page = findCandidates(maxThreadsPerUser, full, last, pageSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            Set<String> unknown = new HashSet<>();
+            for (Object[] candidate : page) {
+                if (candidate[1] != null && !used.containsKey((String) candidate[1])) {
+                    unknown.add((String) candidate[1]);
+                }
+            }
+            if (!unknown.isEmpty()) {
+                used.putAll(readInProgress(unknown));
+            }
+            for (Object[] candidate : page) {
+                if (chosen.size() >= max) {
+                    break;
+                }
+                String entityId = (String) candidate[1];
+                if (entityId != null) {
+                    int inProgress = used.getOrDefault(entityId, 0);
+                    if (inProgress >= maxThreadsPerUser) {
+                        full.add(entityId);
+                        continue;
+                    }
+                    used.put(entityId, inProgress + 1);
+                    if (inProgress + 1 >= maxThreadsPerUser) {
+                        full.add(entityId);
+                    }
+                }
+                chosen.add((Integer) candidate[0]);
+            }
+            if (page.size() < pageSize) {
+                break;
+            }
+            last = page.get(page.size() - 1);
+        }
+        return chosen;
+    }
+
+    /**
+     * @return rows of {@code [updateId, entityId, createdAt]} of new updates after {@code last}
+     */
+    private List<Object[]> findCandidates(
+        int maxThreadsPerUser, Set<String> full, @Nullable Object[] last, int pageSize
+    ) {
+        StringBuilder query = new StringBuilder("""
+            SELECT m.updateId, m.entityId, m.createdAt FROM JpaUpdateInbox m
+                WHERE m.status = :status
+                  AND NOT EXISTS (SELECT l FROM JpaUpdateInboxEntityLease l
+                                  WHERE l.entityId = m.entityId AND l.inProgress >= :maxThreadsPerUser)
+            """);
+        if (!full.isEmpty()) {
+            query.append("  AND (m.entityId IS NULL OR m.entityId NOT IN :full)\n");
+        }
+        if (last != null) {
+            query.append("  AND (m.createdAt > :createdAt OR (m.createdAt = :createdAt AND m.updateId > :updateId))\n");
+        }
+        query.append("ORDER BY m.createdAt, m.updateId");
+        TypedQuery<Object[]> typedQuery = entityManager.createQuery(query.toString(), Object[].class)
+            .setParameter("status", NEW)
+            .setParameter("maxThreadsPerUser", maxThreadsPerUser)
+            .setMaxResults(pageSize);
+        if (!full.isEmpty()) {
+            typedQuery.setParameter("full", full);
+        }
+        if (last != null) {
+            typedQuery.setParameter("createdAt", last[2]);
+            typedQuery.setParameter("updateId", last[0]);
+        }
+        return typedQuery.getResultList();
+    }
+
+    private Map<String, Integer> readInProgress(Set<String> entityIds) {
+        Map<String, Integer> inProgress = new HashMap<>();
+        entityManager.createQuery("""
+                SELECT l.entityId, l.inProgress FROM JpaUpdateInboxEntityLease l
+                    WHERE l.entityId IN :ids
+                """, Object[].class)
+            .setParameter("ids", entityIds)
+            .getResultList()
+            .forEach(row -> inProgress.put((String) row[0], (Integer) row[1]));
+        return inProgress;
+    }
+
+    /**
+     * Locks leases of entities in the order of ids, so that readers do not deadlock, and inserts absent leases.
+     */
+    private Map<String, JpaUpdateInboxEntityLease> lockLeases(Set<String> entityIds) {
+        Map<String, JpaUpdateInboxEntityLease> leases = new HashMap<>();
+        if (entityIds.isEmpty()) {
+            return leases;
+        }
+        entityManager.createQuery("""
+                SELECT l FROM JpaUpdateInboxEntityLease l
+                    WHERE l.entityId IN :ids
+                    ORDER BY l.entityId
+                """, JpaUpdateInboxEntityLease.class)
+            .setParameter("ids", entityIds)
+            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+            .getResultList()
+            .forEach(lease -> leases.put(lease.getEntityId(), lease));
+        if (leases.size() < entityIds.size()) {
+            Instant now = Instant.now();
+            for (String entityId : entityIds) {
+                if (!leases.containsKey(entityId)) {
+                    JpaUpdateInboxEntityLease lease = new JpaUpdateInboxEntityLease();
+                    lease.setEntityId(entityId);
+                    lease.setInProgress(0);
+                    lease.setUpdatedAt(now);
+                    entityManager.persist(lease);
+                    leases.put(entityId, lease);
+                }
+            }
+            entityManager.flush();
+        }
+        return leases;
+    }
+
+    /**
+     * Saves the final status and releases the lease of the entity if the update was in progress, so the lease is
+     * released only once even if the update is saved again after the timeout.
+     */
+    @Override
+    @Transactional
+    public void update(JpaUpdateInbox updateInbox) {
+        if (isInProgress(updateInbox.getStatus())) {
+            super.update(updateInbox);
+            return;
+        }
+        Instant now = Instant.now();
+        if (complete(updateInbox, now) && updateInbox.getEntityId() != null) {
+            releaseLease(updateInbox.getEntityId(), 1, now);
+        }
+    }
+
+    /**
+     * Saves statuses one by one and releases leases at the end in the order of entity ids.
+     */
+    @Override
+    @Transactional
+    public void updateAll(List<JpaUpdateInbox> updateInboxes) {
+        Instant now = Instant.now();
+        Map<String, Integer> released = new TreeMap<>();
+        for (JpaUpdateInbox updateInbox : updateInboxes) {
+            if (isInProgress(updateInbox.getStatus())) {
+                super.update(updateInbox);
+            } else if (complete(updateInbox, now) && updateInbox.getEntityId() != null) {
+                released.merge(updateInbox.getEntityId(), 1, Integer::sum);
+            }
+        }
+        released.forEach((entityId, count) -> releaseLease(entityId, count, now));
+    }
+
+    private static boolean isInProgress(@Nullable UpdateInboxStatus status) {
+        return status == NEW || status == IN_PROGRESS;
+    }
+
+    /**
+     * @return true if the update was in progress
+     */
+    private boolean complete(JpaUpdateInbox updateInbox, Instant now) {
+        // pending changes of a managed entity would be flushed before the query and hide the previous status
+        if (entityManager.contains(updateInbox)) {
+            entityManager.detach(updateInbox);
+        }
+        int updated = entityManager.createQuery("""
+                UPDATE JpaUpdateInbox m
+                    SET m.status = :status, m.errorDescription = :errorDescription, m.updatedAt = :updatedAt
+                    WHERE m.updateId = :id AND m.status = :inProgress
+                """)
+            .setParameter("status", updateInbox.getStatus())
+            .setParameter("errorDescription", updateInbox.getErrorDescription())
+            .setParameter("updatedAt", now)
+            .setParameter("id", updateInbox.getUpdateId())
+            .setParameter("inProgress", IN_PROGRESS)
+            .executeUpdate();
+        if (updated == 0) {
+            repository.updateStatus(List.of(updateInbox.getUpdateId()), updateInbox.getStatus(),
+                updateInbox.getErrorDescription(), now);
+            return false;
+        }
+        return true;
+    }
+
+    private void releaseLease(String entityId, int count, Instant now) {
+        entityManager.createQuery("""
+                UPDATE JpaUpdateInboxEntityLease l
+                    SET l.inProgress = CASE WHEN l.inProgress > :count THEN l.inProgress - :count ELSE 0 END,
+                        l.updatedAt = :updatedAt
+                    WHERE l.entityId = :id
+                """)
+            .setParameter("count", count)
+            .setParameter("updatedAt", now)
+            .setParameter("id", entityId)
+            .executeUpdate();
+    }
+
+    /**
+     * Marks idle updates as timed out and then removes leases without updates in progress, that are not changed
+     * during {@code idleInterval}, and fixes counters that differ from the number of updates in progress.
+     */
+    @Override
+    @Transactional
+    public void timeoutTasks() {
+        super.timeoutTasks();
+        int idleInterval = properties.getSchedulerProcessor().getIdleInterval();
+        reconcileLeases(Instant.now().minus(idleInterval, ChronoUnit.MILLIS));
+    }
+
+    private void reconcileLeases(Instant before) {
+        entityManager.createQuery("""
+                DELETE FROM JpaUpdateInboxEntityLease l
+                    WHERE l.inProgress = 0 AND l.updatedAt < :before
+                """)
+            .setParameter("before", before)
+            .executeUpdate();
+        List<JpaUpdateInboxEntityLease> leases = entityManager.createQuery("""
+                SELECT l FROM JpaUpdateInboxEntityLease l
+                    WHERE l.updatedAt < :before
+                    ORDER BY l.entityId
+                """, JpaUpdateInboxEntityLease.class)
+            .setParameter("before", before)
+            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+            .setHint(SKIP_LOCKED_HINT, SKIP_LOCKED)
+            .getResultList();
+        if (leases.isEmpty()) {
+            return;
+        }
+        Map<String, Long> actual = entityManager.createQuery("""
+                SELECT m.entityId, count(m) FROM JpaUpdateInbox m
+                    WHERE m.entityId IN :ids AND m.status = :status
+                    GROUP BY m.entityId
+                """, Object[].class)
+            .setParameter("ids", leases.stream().map(JpaUpdateInboxEntityLease::getEntityId).toList())
+            .setParameter("status", IN_PROGRESS)
+            .getResultList()
+            .stream()
+            .collect(Collectors.toMap(row -> (String) row[0], row -> (Long) row[1]));
+        Instant now = Instant.now();
+        for (JpaUpdateInboxEntityLease lease : leases) {
+            long count = actual.getOrDefault(lease.getEntityId(), 0L);
+            if (count == 0) {
+                entityManager.remove(lease);
+            } else if (lease.getInProgress() != count) {
+                log.warn("Fix the number of updates in progress of entity '{}' from {} to {}",
+                    lease.getEntityId(), lease.getInProgress(), count);
+                lease.setInProgress((int) count);
+                lease.setUpdatedAt(now);
+            }
+        }
+    }
+}
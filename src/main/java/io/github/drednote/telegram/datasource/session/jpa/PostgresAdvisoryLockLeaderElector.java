@@ -0,0 +1,125 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import io.github.drednote.telegram.session.LeaderElector;
+import io.github.drednote.telegram.utils.Assert;
+import io.github.drednote.telegram.utils.Fnv1aHash;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.lang.Nullable;
+
+/**
+ * {@link LeaderElector} with a session level advisory lock of Postgres.
+ *
+ * <p>The leader holds one connection of the {@code DataSource} with the lock taken by
+ * {@code pg_try_advisory_lock} until the leadership is released. Renewal only checks that the
+ * connection is alive. If the leader fails, Postgres releases the lock as soon as its connection is
+ * closed, so another instance takes the leadership on its next attempt without waiting for an
+ * expiration, and clocks of instances do not matter.
+ *
+ * <p>The key of the lock is a 64-bit FNV-1a hash of the lock name. Session level locks do not work
+ * through a connection pooler in the transaction mode, use {@link JpaLeaderElector} in this case.
+ *
+ * @author Ivan Galushko
+ */
+public class PostgresAdvisoryLockLeaderElector implements LeaderElector {
+
+    private static final Logger log = LoggerFactory.getLogger(PostgresAdvisoryLockLeaderElector.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final DataSource dataSource;
+    private final long key;
+    /**
+     * The connection holding the lock. Null if this instance is not the leader
+     */
+    @Nullable
+    private Connection connection;
+
+    /**
+     * @param dataSource the data source of Postgres
+     * @param lockName   the name of the lock
+     */
+    public PostgresAdvisoryLockLeaderElector(DataSource dataSource, String lockName) {
+        Assert.required(dataSource, "DataSource");
+        Assert.required(lockName, "Lock name");
+
+        this.dataSource = dataSource;
+        this.key = Fnv1aHash.hash(lockName);
+    }
+
+    @Override
+    public synchronized boolean tryAcquire() {
+        if (connection != null) {
+            if (isValid(connection)) {
+                return true;
+            }
+            log.warn("The connection holding the advisory lock is lost");
+            close(connection);
+            connection = null;
+        }
+        Connection newConnection = null;
+        try {
+            newConnection = dataSource.getConnection();
+            newConnection.setAutoCommit(true);
+            if (execute(newConnection, "SELECT pg_try_advisory_lock(?)")) {
+                connection = newConnection;
+                return true;
+            }
+            close(newConnection);
+            return false;
+        } catch (SQLException e) {
+            if (newConnection != null) {
+                close(newConnection);
+            }
+            throw new DataAccessResourceFailureException("Cannot take the advisory lock", e);
+        }
+    }
+
+    /**
+     * Unlocks the lock and returns the connection to the data source.
+     */
+    @Override
+    public synchronized void release() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            execute(connection, "SELECT pg_advisory_unlock(?)");
+        } catch (SQLException e) {
+            log.warn("Cannot unlock the advisory lock, it is released when the connection is closed", e);
+        } finally {
+            close(connection);
+            connection = null;
+        }
+    }
+
+    private boolean execute(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, key);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Cannot close the connection", e);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import io.github.drednote.telegram.session.processor.SchedulerTelegramUpdateProcessorProperties;
+import io.github.drednote.telegram.utils.Assert;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * Listens to the Postgres channel which {@link PostgresUpdateInboxRepositoryAdapter} notifies
+ * after new updates are saved, so that readers of all instances can take new updates right after
+ * they are committed instead of waiting for the next poll.
+ *
+ * <p>The listener holds one connection of the {@code DataSource} with {@code LISTEN} on a
+ * dedicated daemon thread and calls {@code onNotification} once for every bunch of received
+ * notifications. If the connection fails, it is opened again after
+ * {@link #RECONNECT_DELAY_MILLIS}. Notifications sent while the connection is being opened are
+ * lost, so polling stays as a fallback.
+ *
+ * @author Ivan Galushko
+ * @see SchedulerTelegramUpdateProcessorProperties#getNotifyChannel()
+ */
+public class PostgresUpdateInboxListener implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PostgresUpdateInboxListener.class);
+    private static final Pattern CHANNEL = Pattern.compile("[A-Za-z_][A-Za-z0-9_]{0,62}");
+    /**
+     * The maximum time to wait for notifications before checking that the listener is not closed
+     */
+    private static final int WAIT_MILLIS = 500;
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final DataSource dataSource;
+    private final String channel;
+    private final Runnable onNotification;
+    private volatile boolean running = false;
+    @Nullable
+    private Thread thread;
+
+    /**
+     * @param dataSource     the data source of Postgres
+     * @param channel        the name of the channel, a valid unquoted identifier
+     * @param onNotification the action to run when notifications are received
+     * @throws IllegalArgumentException if the channel name is not valid
+     */
+    public PostgresUpdateInboxListener(DataSource dataSource, String channel, Runnable onNotification) {
+        Assert.required(dataSource, "DataSource");
+        Assert.required(onNotification, "Runnable");
+        validateChannel(channel);
+
+        this.dataSource = dataSource;
+        this.channel = channel;
+        this.onNotification = onNotification;
+    }
+
+    static void validateChannel(@Nullable String channel) {
+        if (channel == null || !CHANNEL.matcher(channel).matches()) {
+            throw new IllegalArgumentException("Channel '" + channel + "' is not a valid Postgres identifier");
+        }
+    }
+
+    /**
+     * Starts listening on a new thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::listen, "telegram-update-inbox-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                // LISTEN takes effect only when its transaction is committed
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN \"" + channel + "\"");
+                }
+                log.debug("Listening to Postgres channel '{}'", channel);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(WAIT_MILLIS);
+                    if (notifications != null && notifications.length > 0) {
+                        runOnNotification();
+                    }
+                }
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("UNLISTEN \"" + channel + "\"");
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (running) {
+                    log.warn("Cannot listen to Postgres channel '{}', retrying in {} ms. Cause: {}",
+                        channel, RECONNECT_DELAY_MILLIS, e.getMessage());
+                    log.debug(e.getMessage(), e);
+                    sleep();
+                }
+            }
+        }
+    }
+
+    private void runOnNotification() {
+        try {
+            onNotification.run();
+        } catch (RuntimeException e) {
+            log.error("An unhandled error occurred while handling notification of Postgres channel '{}'",
+                channel, e);
+        }
+    }
+
+    private void sleep() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    /**
+     * Stops listening and waits until the connection is returned to the data source.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        Thread current = thread;
+        if (current != null) {
+            try {
+                current.join(WAIT_MILLIS * 2L + RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+}
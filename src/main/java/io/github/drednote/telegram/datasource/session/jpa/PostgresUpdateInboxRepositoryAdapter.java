@@ -1,21 +1,68 @@
 package io.github.drednote.telegram.datasource.session.jpa;
 
+import io.github.drednote.telegram.datasource.session.UpdateInboxSharding;
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
 import io.github.drednote.telegram.session.SessionProperties;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.Query;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import org.hibernate.query.TypedParameterValue;
+import org.hibernate.type.StandardBasicTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.lang.Nullable;
+import org.springframework.transaction.annotation.Transactional;
 
 public class PostgresUpdateInboxRepositoryAdapter extends DefaultJpaUpdateInboxRepositoryAdapter {
 
+    private static final Logger log = LoggerFactory.getLogger(PostgresUpdateInboxRepositoryAdapter.class);
+    /**
+     * The maximum number of rows in one insert statement, keeps the number of bind parameters far below the limit of
+     * the Postgres protocol
+     */
+    private static final int MAX_ROWS_PER_INSERT = 1000;
+
     @Nullable
     private String sql;
+    @Nullable
+    private String batchSql;
+    @Nullable
+    private final String notifyChannel;
+    @Nullable
+    private UpdateInboxSharding sharding;
 
     public PostgresUpdateInboxRepositoryAdapter(
         JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties sessionProperties
     ) {
         super(repository, entityManager,sessionProperties);
+        this.notifyChannel = sessionProperties.getSchedulerProcessor().getNotifyChannel();
+        if (notifyChannel != null) {
+            PostgresUpdateInboxListener.validateChannel(notifyChannel);
+        }
+    }
+
+    /**
+     * Sets the sharding of updates between instances, so that only updates of entities from shards of this instance
+     * and updates without {@code entityId} are claimed. The shard of an entity is
+     * {@code mod(hashtext(entity_id) & 2147483647, shards)}.
+     *
+     * @param sharding the sharding or null to claim updates of all entities
+     */
+    public void setSharding(@Nullable UpdateInboxSharding sharding) {
+        this.sharding = sharding;
+        this.sql = null;
+        this.batchSql = null;
+    }
+
+    /**
+     * @return the sharding of updates between instances or null if updates of all entities are claimed
+     */
+    @Nullable
+    public UpdateInboxSharding getSharding() {
+        return sharding;
     }
 
     @Override
@@ -24,18 +71,202 @@ public class PostgresUpdateInboxRepositoryAdapter extends DefaultJpaUpdateInboxR
         String sql = getSql();
         Query query = entityManager.createNativeQuery(sql, JpaUpdateInbox.class);
         query.setParameter("count", maxThreadsPerUser);
+        setShardParameters(query);
         List<JpaUpdateInbox> resultList = query.getResultList();
 
         return resultList.isEmpty() ? Optional.empty() : Optional.of(resultList.get(0));
     }
 
+    /**
+     * Inserts entities with multi-row {@code INSERT ... ON CONFLICT (update_id) DO NOTHING} statements, so the whole
+     * poll from Telegram is saved with one statement and already saved updates are skipped without failing the
+     * transaction. If the notify channel is set, the channel is notified in the same transaction, so listeners receive
+     * the notification when new rows are committed.
+     */
+    @Override
+    protected void persistAll(List<JpaUpdateInbox> entities) {
+        int inserted = 0;
+        for (int from = 0; from < entities.size(); from += MAX_ROWS_PER_INSERT) {
+            List<JpaUpdateInbox> rows = entities.subList(from, Math.min(entities.size(), from + MAX_ROWS_PER_INSERT));
+            Query query = entityManager.createNativeQuery(getInsertSql(rows.size()));
+            int position = 1;
+            for (JpaUpdateInbox row : rows) {
+                query.setParameter(position++, row.getUpdateId());
+                query.setParameter(position++, new TypedParameterValue<>(StandardBasicTypes.STRING, row.getEntityId()));
+                // the payload is inserted as it was encoded, without encoding the update again
+                query.setParameter(position++, row.getPayload());
+                query.setParameter(position++, row.getStatus().name());
+            }
+            int count = query.executeUpdate();
+            if (count < rows.size()) {
+                log.warn("Skipped {} update inboxes that already exist", rows.size() - count);
+            }
+            inserted += count;
+        }
+        if (inserted > 0 && notifyChannel != null) {
+            entityManager.createNativeQuery("SELECT 1 FROM (SELECT pg_notify(?, '')) AS notification")
+                .setParameter(1, notifyChannel)
+                .getResultList();
+        }
+    }
+
+    /**
+     * Saves the status of a group with {@code UPDATE ... WHERE update_id = ANY(?)}, so the statement is the same for any
+     * number of ids.
+     */
+    @Override
+    protected void updateStatus(List<Integer> ids, StatusChange change, Instant now) {
+        Query query = entityManager.createNativeQuery("""
+            UPDATE $table
+            SET status = ?, error_description = ?, updated_at = ?
+            WHERE update_id = ANY(?)
+            """.replace("$table", getTable()));
+        query.setParameter(1, change.status().name());
+        query.setParameter(2, new TypedParameterValue<>(StandardBasicTypes.STRING, change.errorDescription()));
+        query.setParameter(3, now);
+        query.setParameter(4, ids.toArray(new Integer[0]));
+        query.executeUpdate();
+    }
+
+    /**
+     * Deletes the oldest updates with the status with one statement, skipping rows locked by other transactions.
+     */
+    @Override
+    @Transactional
+    public int purge(UpdateInboxStatus status, Instant before, int batchSize) {
+        Query query = entityManager.createNativeQuery("""
+            DELETE FROM $table
+            WHERE update_id IN (SELECT update_id
+                                FROM $table
+                                WHERE status = ? AND updated_at < ?
+                                ORDER BY updated_at
+                                LIMIT ? FOR UPDATE SKIP LOCKED)
+            """.replace("$table", getTable()));
+        query.setParameter(1, status.name());
+        query.setParameter(2, before);
+        query.setParameter(3, batchSize);
+        return query.executeUpdate();
+    }
+
+    /**
+     * Returns the number of rows estimated by the planner statistics, so the size is got without scanning the table.
+     */
+    @Override
+    public long size() {
+        Object size = entityManager.createNativeQuery(
+                "SELECT CAST(GREATEST(reltuples, 0) AS bigint) FROM pg_class WHERE oid = to_regclass(?)")
+            .setParameter(1, getTable())
+            .getSingleResult();
+        return ((Number) size).longValue();
+    }
+
+    private String getInsertSql(int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(getTable())
+            .append(" (update_id, entity_id, \"update\", status, created_at, updated_at) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, CAST(? AS jsonb), ?, clock_timestamp(), clock_timestamp())");
+        }
+        return sql.append(" ON CONFLICT (update_id) DO NOTHING").toString();
+    }
+
+    /**
+     * Claims up to {@code max} updates with one statement. Candidates are ranked by creation time inside every entity,
+     * so that an entity gets no more than {@code maxThreadsPerUser} updates in progress including already running
+     * ones, then the oldest candidates are locked skipping rows locked by other readers and marked as
+     * {@code IN_PROGRESS}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected List<JpaUpdateInbox> findAllWithMaxThreadsPerUser(int maxThreadsPerUser, int max) {
+        Query query = entityManager.createNativeQuery(getBatchSql(), JpaUpdateInbox.class);
+        query.setParameter("count", maxThreadsPerUser);
+        query.setParameter("max", max);
+        setShardParameters(query);
+        return query.getResultList();
+    }
+
+    @Override
+    protected Optional<JpaUpdateInbox> findNextWithoutLimit() {
+        if (sharding == null) {
+            return super.findNextWithoutLimit();
+        }
+        return findAllWithoutLimit(1).stream().findFirst();
+    }
+
+    /**
+     * Locks up to {@code max} oldest new updates of shards of this instance, skipping rows locked by other readers. If
+     * the sharding is not set, the default query is used.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected List<JpaUpdateInbox> findAllWithoutLimit(int max) {
+        if (sharding == null) {
+            return super.findAllWithoutLimit(max);
+        }
+        Query query = entityManager.createNativeQuery("""
+            SELECT m.*
+            FROM $table m
+            WHERE m.status = 'NEW' $shardFilter
+            ORDER BY m.created_at
+            LIMIT :max FOR UPDATE SKIP LOCKED
+            """.replace("$table", getTable()).replace("$shardFilter", getShardFilter()), JpaUpdateInbox.class);
+        query.setParameter("max", max);
+        setShardParameters(query);
+        return query.getResultList();
+    }
+
+    private void setShardParameters(Query query) {
+        UpdateInboxSharding current = sharding;
+        if (current != null) {
+            query.setParameter("shards", current.getShards());
+            query.setParameter("owned", Arrays.stream(current.getOwnedShards()).boxed().toArray(Integer[]::new));
+        }
+    }
+
+    private String getShardFilter() {
+        return sharding == null
+            ? ""
+            : "AND (m.entity_id IS NULL OR mod(hashtext(m.entity_id) & 2147483647, :shards) = ANY(:owned))";
+    }
+
+    private String getBatchSql() {
+        if (batchSql == null) {
+            String table = getTable();
+            batchSql = """
+                WITH Candidates AS (SELECT c.update_id
+                                    FROM (SELECT m.update_id, m.entity_id, m.created_at,
+                                                 row_number() OVER (PARTITION BY m.entity_id
+                                                                    ORDER BY m.created_at) AS position
+                                          FROM $table m
+                                          WHERE m.status = 'NEW' $shardFilter) c
+                                    WHERE c.entity_id IS NULL
+                                       OR c.position + (select count(*)
+                                                        FROM $table m2
+                                                        WHERE m2.entity_id = c.entity_id
+                                                          AND m2.status = 'IN_PROGRESS') <= :count
+                                    ORDER BY c.created_at
+                                    LIMIT :max),
+                     Selected AS (SELECT m.update_id
+                                  FROM $table m
+                                  WHERE m.update_id IN (SELECT update_id FROM Candidates)
+                                    AND m.status = 'NEW'
+                                  FOR UPDATE SKIP LOCKED)
+                   UPDATE $table
+                   SET status = 'IN_PROGRESS', updated_at = now()
+                   WHERE update_id IN (SELECT update_id FROM Selected)
+                   RETURNING *
+                """.replace("$table", table).replace("$shardFilter", getShardFilter());
+        }
+        return batchSql;
+    }
+
     private String getSql() {
         if (sql == null) {
             String table = getTable();
             sql = """
                 WITH Selected AS (SELECT m.*
                                      FROM update_inbox m
-                                     WHERE m.status = 'NEW'
+                                     WHERE m.status = 'NEW' $shardFilter
                                        AND (select count(*)
                                             FROM update_inbox m2
                                             WHERE m2.entity_id = m.entity_id
@@ -46,7 +277,7 @@ public class PostgresUpdateInboxRepositoryAdapter extends DefaultJpaUpdateInboxR
                    SET status = 'IN_PROGRESS'
                    WHERE update_id = (SELECT update_id FROM Selected)
                    RETURNING *
-                """.replace("$table", table);
+                """.replace("$table", table).replace("$shardFilter", getShardFilter());
         }
         return sql;
     }
@@ -0,0 +1,61 @@
+package io.github.drednote.telegram.datasource.session.leader.jpa;
+
+import io.github.drednote.telegram.datasource.session.jpa.JpaLeaderElector;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import java.util.Objects;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The lock row of the leader receiving updates in the cluster mode, used by {@link JpaLeaderElector}.
+ *
+ * <p>The entity is kept apart from {@code JpaUpdateInbox}, so scanning the package of the inbox does not map the
+ * {@code session_leaders} table. Add this package to {@code @EntityScan} only if the cluster mode is enabled with
+ * {@link JpaLeaderElector}.
+ *
+ * @author Ivan Galushko
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "session_leaders")
+public class JpaSessionLeader {
+
+    @Id
+    @Column(name = "name", nullable = false)
+    private String name;
+    @Column(name = "owner_id", nullable = false)
+    private String ownerId;
+    @Column(name = "expires_at", nullable = false)
+    private Instant expiresAt;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        JpaSessionLeader that = (JpaSessionLeader) o;
+        return Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(name);
+    }
+
+    @Override
+    public String toString() {
+        return "JpaSessionLeader{" +
+               "name='" + name + '\'' +
+               ", ownerId='" + ownerId + '\'' +
+               ", expiresAt=" + expiresAt +
+               '}';
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.drednote.telegram.datasource.session.lease.jpa;
+
+import io.github.drednote.telegram.datasource.session.jpa.LeasedJpaUpdateInboxRepositoryAdapter;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import java.util.Objects;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The number of updates in progress of one entity, used by {@link LeasedJpaUpdateInboxRepositoryAdapter}.
+ *
+ * <p>The entity is kept apart from {@code JpaUpdateInbox}, so scanning the package of the inbox does not map the
+ * {@code update_inbox_entity_leases} table. Add this package to {@code @EntityScan} only if {@code entityLeases} is
+ * enabled.
+ *
+ * @author Ivan Galushko
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "update_inbox_entity_leases")
+public class JpaUpdateInboxEntityLease {
+
+    @Id
+    @Column(name = "entity_id", nullable = false)
+    private String entityId;
+    @Column(name = "in_progress", nullable = false)
+    private int inProgress;
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        JpaUpdateInboxEntityLease that = (JpaUpdateInboxEntityLease) o;
+        return Objects.equals(entityId, that.entityId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(entityId);
+    }
+
+    @Override
+    public String toString() {
+        return "JpaUpdateInboxEntityLease{" +
+               "entityId='" + entityId + '\'' +
+               ", inProgress=" + inProgress +
+               '}';
+    }
+}
@@ -0,0 +1,6 @@
+@NonNullApi
+@NonNullFields
+package io.github.drednote.telegram.datasource.session.lease.jpa;
+
+import org.springframework.lang.NonNullApi;
+import org.springframework.lang.NonNullFields;
\ No newline at end of file
@@ -0,0 +1,180 @@
+package io.github.drednote.telegram.datasource.session.log;
+
+import static io.github.drednote.telegram.datasource.session.UpdateInboxStatus.ERROR;
+import static io.github.drednote.telegram.datasource.session.UpdateInboxStatus.PROCESSED;
+
+import io.github.drednote.telegram.core.TelegramMessageSource;
+import io.github.drednote.telegram.datasource.session.JacksonUpdatePayloadCodec;
+import io.github.drednote.telegram.datasource.session.UpdatePayloadCodec;
+import io.github.drednote.telegram.datasource.session.inmemory.InMemoryUpdateInbox;
+import io.github.drednote.telegram.datasource.session.inmemory.InMemoryUpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.exception.type.SessionTelegramException;
+import io.github.drednote.telegram.session.ConcurrencyKeyResolver;
+import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.session.processor.SchedulerTelegramUpdateProcessor;
+import io.github.drednote.telegram.session.processor.SchedulerTelegramUpdateProcessorProperties;
+import io.github.drednote.telegram.utils.Assert;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * {@link InMemoryUpdateInboxRepositoryAdapter} that keeps pending updates in a local append-only log of memory-mapped
+ * segment files, so they are processed after a restart or a crash of the service without an external database.
+ * <p>
+ * {@link #persist(List)} writes updates to the log and returns after they are forced to the disk. Updates received at
+ * the same time share one fsync, which is done at most every {@code logFlushInterval}. Updates are taken and
+ * processed from memory exactly as by {@link InMemoryUpdateInboxRepositoryAdapter}, so
+ * {@link SchedulerTelegramUpdateProcessor} works with this adapter unchanged. When an update is processed, it is
+ * marked as finished in the log without waiting for the disk. After a crash, updates which mark was not forced yet are
+ * processed again, so the delivery is at least once.
+ * <p>
+ * On start, the log is read and pending updates are queued again in order of their ids. A record torn by a crash is
+ * dropped, Telegram sends the update again because it was not confirmed.
+ * <p>
+ * The directory of the log must be used by one instance of the application.
+ *
+ * @author Ivan Galushko
+ * @see SchedulerTelegramUpdateProcessorProperties#getLogDirectory()
+ */
+public class LogUpdateInboxRepositoryAdapter extends InMemoryUpdateInboxRepositoryAdapter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(LogUpdateInboxRepositoryAdapter.class);
+
+    private final UpdatePayloadCodec payloadCodec;
+    private final UpdateInboxLog inboxLog;
+
+    /**
+     * Opens the log and restores pending updates from it. Updates are written to the log as JSON.
+     *
+     * @param sessionProperties      the session properties
+     * @param messageSource          the message source
+     * @param concurrencyKeyResolver the resolver of {@code entityId} of updates, used for restored updates too
+     * @throws IllegalArgumentException if {@code logSegmentSize} is not positive or {@code logFlushInterval} is
+     *                                  negative
+     * @throws SessionTelegramException if the log cannot be opened
+     */
+    public LogUpdateInboxRepositoryAdapter(
+        SessionProperties sessionProperties, TelegramMessageSource messageSource,
+        ConcurrencyKeyResolver concurrencyKeyResolver
+    ) {
+        this(sessionProperties, messageSource, concurrencyKeyResolver, new JacksonUpdatePayloadCodec());
+    }
+
+    /**
+     * Opens the log and restores pending updates from it. The log must be written by the same codec.
+     *
+     * @param sessionProperties      the session properties
+     * @param messageSource          the message source
+     * @param concurrencyKeyResolver the resolver of {@code entityId} of updates, used for restored updates too
+     * @param payloadCodec           the codec of updates in the log
+     * @throws IllegalArgumentException if {@code logSegmentSize} is not positive or {@code logFlushInterval} is
+     *                                  negative
+     * @throws SessionTelegramException if the log cannot be opened
+     */
+    public LogUpdateInboxRepositoryAdapter(
+        SessionProperties sessionProperties, TelegramMessageSource messageSource,
+        ConcurrencyKeyResolver concurrencyKeyResolver, UpdatePayloadCodec payloadCodec
+    ) {
+        super(sessionProperties, messageSource);
+        Assert.required(concurrencyKeyResolver, "ConcurrencyKeyResolver");
+        Assert.required(payloadCodec, "UpdatePayloadCodec");
+        this.payloadCodec = payloadCodec;
+        SchedulerTelegramUpdateProcessorProperties properties = sessionProperties.getSchedulerProcessor();
+        Assert.required(properties.getLogDirectory(), "Log directory");
+        if (properties.getLogSegmentSize() <= 0) {
+            throw new IllegalArgumentException("logSegmentSize must be greater than 0");
+        }
+        if (properties.getLogFlushInterval() < 0) {
+            throw new IllegalArgumentException("logFlushInterval must be greater than or equal to 0");
+        }
+
+        setConcurrencyKeyResolver(concurrencyKeyResolver);
+        Path directory = Path.of(properties.getLogDirectory());
+        try {
+            this.inboxLog = new UpdateInboxLog(
+                directory, properties.getLogSegmentSize(), properties.getLogFlushInterval());
+        } catch (IOException e) {
+            throw new SessionTelegramException("Cannot open the update inbox log in " + directory, e);
+        }
+        restore(readPending());
+    }
+
+    /**
+     * Decodes pending updates. An update that cannot be decoded is completed, so it is not read again on every start
+     * and does not keep its segment from compaction.
+     */
+    private List<Update> readPending() {
+        SortedMap<Integer, byte[]> payloads = inboxLog.readPending();
+        List<Update> updates = new ArrayList<>(payloads.size());
+        payloads.forEach((updateId, payload) -> {
+            try {
+                updates.add(payloadCodec.decode(payload));
+            } catch (IllegalArgumentException e) {
+                log.error("Cannot read update {} from the update inbox log, it is dropped", updateId, e);
+                inboxLog.complete(updateId);
+            }
+        });
+        return updates;
+    }
+
+    @Override
+    public void persist(List<Update> updates) {
+        List<Update> appended = new ArrayList<>(updates.size());
+        try {
+            for (Update update : updates) {
+                if (inboxLog.append(update.getUpdateId(), payloadCodec.encode(update))) {
+                    appended.add(update);
+                } else {
+                    log.debug("Update {} is already stored", update.getUpdateId());
+                }
+            }
+            inboxLog.awaitFlushed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SessionTelegramException("Error while persisting update inbox", e);
+        } catch (Exception e) {
+            throw new SessionTelegramException("Error while persisting update inbox", e);
+        }
+        super.persist(appended);
+    }
+
+    @Override
+    protected void onRejected(InMemoryUpdateInbox updateInbox) {
+        inboxLog.complete(updateInbox.getUpdateId());
+    }
+
+    @Override
+    public void update(InMemoryUpdateInbox updateInbox) {
+        if (updateInbox.getStatus() == PROCESSED || updateInbox.getStatus() == ERROR) {
+            inboxLog.complete(updateInbox.getUpdateId());
+        }
+        super.update(updateInbox);
+    }
+
+    /**
+     * @return the number of pending updates in the log
+     */
+    @Override
+    public long size() {
+        return inboxLog.size();
+    }
+
+    @Override
+    public int findLastUpdateId() {
+        return inboxLog.getLastUpdateId();
+    }
+
+    /**
+     * Forces the log to the disk and closes it.
+     */
+    @Override
+    public void close() {
+        inboxLog.close();
+    }
+}
@@ -0,0 +1,665 @@
+package io.github.drednote.telegram.datasource.session.log;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * Append-only log of pending updates in memory-mapped segment files of one directory.
+ *
+ * <p>Every record is {@code [length][crc32][type][updateId][payload]}. {@link #append} writes a {@code PUT} record
+ * with the payload of a new update, {@link #complete} writes a {@code DONE} record without payload when the update is
+ * finished. Records are written to the mapped buffer of the active segment, and a background thread forces the
+ * segment to the disk at most every {@code flushInterval}, so all writers waiting in {@link #awaitFlushed()} at the
+ * same time are released by one fsync.
+ *
+ * <p>When the active segment is full, it is forced and a new segment is created. Segments without pending updates are
+ * deleted from the head of the log. If at most a quarter of the oldest segment is taken by pending updates, they are
+ * copied to the active segment and the oldest segment is deleted, so a few long pending updates do not keep old
+ * segments on the disk. The compaction is requested by {@link #complete} and done by the flusher thread: payloads are
+ * read from the sealed segment and the copies are forced without the lock, so writers wait only while the copies are
+ * appended.
+ *
+ * <p>On opening, segments are read in order until a record with zero length or a wrong checksum. A record torn by a
+ * crash is dropped together with the rest of the last segment, which is zeroed before new records are written.
+ *
+ * @author Ivan Galushko
+ */
+class UpdateInboxLog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(UpdateInboxLog.class);
+
+    private static final String SUFFIX = ".log";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("\\d{20}\\.log");
+    private static final byte PUT = 1;
+    private static final byte DONE = 2;
+    private static final byte[] EMPTY = new byte[0];
+    /**
+     * The length and the checksum of the body
+     */
+    private static final int HEADER_SIZE = 8;
+    /**
+     * The type and the update id
+     */
+    private static final int BODY_HEADER_SIZE = 5;
+    /**
+     * The oldest segment is compacted if pending updates take less than 1/COMPACTION_RATIO of it
+     */
+    private static final int COMPACTION_RATIO = 4;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long flushIntervalMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushRequested = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    /**
+     * Segments from the oldest to the active one
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    /**
+     * {@code PUT} records of pending updates by update id
+     */
+    private final Map<Integer, Location> pending = new HashMap<>();
+    private final Thread flusher;
+    /**
+     * The position up to which waiting writers need the log to be forced
+     */
+    private long requestedPosition;
+    /**
+     * The position up to which the log is forced
+     */
+    private long flushedPosition;
+    private int lastUpdateId = 0;
+    /**
+     * True if the oldest segment can be compacted, set by writers and cleared by the flusher
+     */
+    private boolean compactionRequested = false;
+    private boolean closed = false;
+    @Nullable
+    private RuntimeException failure;
+
+    /**
+     * Opens the log in the directory and reads pending updates from it.
+     *
+     * @param directory           the directory of segment files, created if it does not exist
+     * @param segmentSize         the size of a segment file in bytes
+     * @param flushIntervalMillis how long the flusher waits for more records before forcing the log
+     * @throws IOException if the directory cannot be read
+     */
+    UpdateInboxLog(Path directory, int segmentSize, long flushIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+
+        Files.createDirectories(directory);
+        recover();
+        this.flushedPosition = segments.getLast().end();
+        this.requestedPosition = flushedPosition;
+        this.flusher = new Thread(this::flush, "telegram-inbox-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                .sorted(Comparator.comparingLong(UpdateInboxLog::baseOf))
+                .toList();
+        }
+        for (Path file : files) {
+            Segment segment = Segment.open(file, baseOf(file));
+            segments.addLast(segment);
+            scan(segment);
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(Segment.create(directory, 0, segmentSize));
+        } else {
+            Segment active = segments.getLast();
+            if (active.clear()) {
+                log.warn("The torn tail of the update inbox log {} after {} is dropped", active.path, active.position);
+                active.buffer.force();
+            }
+        }
+        truncate();
+        log.info("Opened the update inbox log in {} with {} pending updates", directory, pending.size());
+    }
+
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        CRC32 crc = new CRC32();
+        int offset = 0;
+        while (offset + HEADER_SIZE + BODY_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length < BODY_HEADER_SIZE || length > buffer.capacity() - offset - HEADER_SIZE) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(offset + HEADER_SIZE, length));
+            if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+                break;
+            }
+            byte type = buffer.get(offset + HEADER_SIZE);
+            int updateId = buffer.getInt(offset + HEADER_SIZE + 1);
+            if (type == PUT) {
+                track(updateId, new Location(segment, offset, HEADER_SIZE + length));
+            } else {
+                untrack(updateId);
+            }
+            offset += HEADER_SIZE + length;
+        }
+        segment.position = offset;
+    }
+
+    private static long baseOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Writes the update to the log if it is not pending already. The record is durable after
+     * {@link #awaitFlushed()}.
+     *
+     * @param updateId the id of the update
+     * @param payload  the serialized update
+     * @return false if the update is already pending
+     */
+    boolean append(int updateId, byte[] payload) {
+        lock.lock();
+        try {
+            checkOpen();
+            if (pending.containsKey(updateId)) {
+                return false;
+            }
+            track(updateId, write(PUT, updateId, payload));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the update as finished, so it is not read again after the restart. Does not wait until the record is
+     * forced, if it is lost in a crash, the update is processed again.
+     *
+     * @param updateId the id of the update
+     */
+    void complete(int updateId) {
+        lock.lock();
+        try {
+            checkOpen();
+            if (untrack(updateId) == null) {
+                return;
+            }
+            write(DONE, updateId, EMPTY);
+            if (!compactionRequested && segments.size() > 1 && isCompactable(segments.getFirst())) {
+                compactionRequested = true;
+                flushRequested.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all records written before the call are forced to the disk.
+     *
+     * @throws InterruptedException  if the thread is interrupted while waiting
+     * @throws IllegalStateException if the log is closed or cannot be forced
+     */
+    void awaitFlushed() throws InterruptedException {
+        lock.lock();
+        try {
+            long position = segments.getLast().end();
+            if (position > requestedPosition) {
+                requestedPosition = position;
+                flushRequested.signal();
+            }
+            while (flushedPosition < position) {
+                if (failure != null) {
+                    throw new IllegalStateException("Cannot flush the update inbox log", failure);
+                }
+                checkOpen();
+                flushed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return payloads of pending updates by their ids, in order of the ids
+     */
+    SortedMap<Integer, byte[]> readPending() {
+        lock.lock();
+        try {
+            SortedMap<Integer, byte[]> payloads = new TreeMap<>();
+            pending.forEach((updateId, location) -> payloads.put(updateId, location.payload()));
+            return payloads;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of pending updates
+     */
+    int size() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the biggest id of updates written to the log since it was created or 0
+     */
+    int getLastUpdateId() {
+        lock.lock();
+        try {
+            return lastUpdateId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The update inbox log is closed");
+        }
+    }
+
+    private Location write(byte type, int updateId, byte[] payload) {
+        int length = BODY_HEADER_SIZE + payload.length;
+        int size = HEADER_SIZE + length;
+        Segment segment = segments.getLast();
+        if (segment.position + size > segment.buffer.capacity()) {
+            segment = roll(size);
+        }
+        int offset = segment.position;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.put(offset + HEADER_SIZE, type);
+        buffer.putInt(offset + HEADER_SIZE + 1, updateId);
+        buffer.put(offset + HEADER_SIZE + BODY_HEADER_SIZE, payload);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + HEADER_SIZE, length));
+        buffer.putInt(offset + Integer.BYTES, (int) crc.getValue());
+        // the length is written last, the reader stops at a record without it
+        buffer.putInt(offset, length);
+        segment.position += size;
+        return new Location(segment, offset, size);
+    }
+
+    private Segment roll(int size) {
+        Segment sealed = segments.getLast();
+        sealed.buffer.force();
+        flushedPosition = Math.max(flushedPosition, sealed.end());
+        flushed.signalAll();
+        try {
+            Segment next = Segment.create(
+                directory, sealed.base + sealed.buffer.capacity(), Math.max(segmentSize, size));
+            segments.addLast(next);
+            return next;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create a segment of the update inbox log", e);
+        }
+    }
+
+    private void track(int updateId, Location location) {
+        Location previous = pending.put(updateId, location);
+        if (previous != null) {
+            previous.segment.release(previous);
+        }
+        location.segment.pendingCount++;
+        location.segment.pendingBytes += location.size;
+        lastUpdateId = Math.max(lastUpdateId, updateId);
+    }
+
+    @Nullable
+    private Location untrack(int updateId) {
+        Location location = pending.remove(updateId);
+        if (location != null) {
+            location.segment.release(location);
+        }
+        return location;
+    }
+
+    /**
+     * @return true if the segment has no pending updates or they take a small part of it
+     */
+    private static boolean isCompactable(Segment segment) {
+        return segment.pendingCount == 0 || segment.pendingBytes * COMPACTION_RATIO <= segment.buffer.capacity();
+    }
+
+    /**
+     * Deletes old segments without pending updates and moves pending updates out of the oldest segment if they take
+     * a small part of it. Called by the flusher thread, takes the lock only to read and change the state of the log.
+     */
+    private void compact() {
+        while (true) {
+            Segment oldest;
+            List<Map.Entry<Integer, Location>> moved;
+            lock.lock();
+            try {
+                if (closed || segments.size() <= 1 || !isCompactable(segments.getFirst())) {
+                    return;
+                }
+                oldest = segments.getFirst();
+                moved = new ArrayList<>(oldest.pendingCount);
+                for (Map.Entry<Integer, Location> entry : pending.entrySet()) {
+                    if (entry.getValue().segment == oldest) {
+                        moved.add(Map.entry(entry.getKey(), entry.getValue()));
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!moved.isEmpty() && !relocate(oldest, moved)) {
+                return;
+            }
+            lock.lock();
+            try {
+                if (closed || oldest.pendingCount > 0) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // nothing is written to a sealed segment without pending updates, so the file is deleted without the lock
+            delete(oldest);
+            lock.lock();
+            try {
+                segments.removeFirst();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Copies pending updates of the sealed segment to the active one and forces the copies.
+     *
+     * @return false if the log is closed
+     */
+    private boolean relocate(Segment segment, List<Map.Entry<Integer, Location>> moved) {
+        moved.sort(Comparator.comparingInt(entry -> entry.getValue().offset));
+        // the segment is sealed, so its records do not change
+        List<byte[]> payloads = new ArrayList<>(moved.size());
+        for (Map.Entry<Integer, Location> entry : moved) {
+            payloads.add(entry.getValue().payload());
+        }
+        Segment target;
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            for (int i = 0; i < moved.size(); i++) {
+                int updateId = moved.get(i).getKey();
+                // the update could be completed while the payloads were read
+                if (pending.get(updateId) == moved.get(i).getValue()) {
+                    track(updateId, write(PUT, updateId, payloads.get(i)));
+                }
+            }
+            target = segments.getLast();
+        } finally {
+            lock.unlock();
+        }
+        // copies must be durable before the segment is deleted, the previous segments are forced by the roll
+        target.buffer.force();
+        log.debug("Moved {} pending updates out of the update inbox log {}", moved.size(), segment.path);
+        return true;
+    }
+
+    private void truncate() {
+        while (segments.size() > 1 && segments.getFirst().pendingCount == 0) {
+            delete(segments.removeFirst());
+        }
+    }
+
+    private static void delete(Segment segment) {
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Cannot delete the segment {} of the update inbox log", segment.path, e);
+        }
+    }
+
+    /**
+     * The loop of the flusher thread. Waits for a request, sleeps {@code flushInterval} to collect more records and
+     * forces the active segment once for all of them. Compacts the log if it is requested.
+     */
+    private void flush() {
+        while (true) {
+            boolean flushNeeded;
+            boolean compactionNeeded;
+            lock.lock();
+            try {
+                while (!closed && requestedPosition <= flushedPosition && !compactionRequested) {
+                    flushRequested.awaitUninterruptibly();
+                }
+                if (closed) {
+                    return;
+                }
+                flushNeeded = requestedPosition > flushedPosition;
+                compactionNeeded = compactionRequested;
+                compactionRequested = false;
+            } finally {
+                lock.unlock();
+            }
+            if (flushNeeded && !force()) {
+                return;
+            }
+            if (compactionNeeded) {
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    log.warn("Cannot compact the update inbox log", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the active segment for waiting writers.
+     *
+     * @return false if the segment cannot be forced or the flusher is interrupted
+     */
+    private boolean force() {
+        if (flushIntervalMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(flushIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        Segment segment;
+        long position;
+        lock.lock();
+        try {
+            segment = segments.getLast();
+            position = segment.end();
+        } finally {
+            lock.unlock();
+        }
+        RuntimeException error = null;
+        try {
+            segment.buffer.force();
+        } catch (RuntimeException e) {
+            log.error("Cannot flush the update inbox log", e);
+            error = e;
+        }
+        lock.lock();
+        try {
+            if (error == null) {
+                flushedPosition = Math.max(flushedPosition, position);
+            } else {
+                failure = error;
+            }
+            flushed.signalAll();
+            return error == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the flusher, forces the active segment and closes segment files.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flushRequested.signalAll();
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            segments.getLast().buffer.force();
+            for (Segment segment : segments) {
+                segment.channel.close();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Cannot close the update inbox log", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The place of a {@code PUT} record in a segment
+     */
+    private record Location(Segment segment, int offset, int size) {
+
+        private byte[] payload() {
+            byte[] payload = new byte[size - HEADER_SIZE - BODY_HEADER_SIZE];
+            segment.buffer.get(offset + HEADER_SIZE + BODY_HEADER_SIZE, payload);
+            return payload;
+        }
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        /**
+         * The position of the segment in the log, segments are named by it
+         */
+        private final long base;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        /**
+         * The offset of the next record
+         */
+        private int position = 0;
+        private int pendingCount = 0;
+        private long pendingBytes = 0;
+
+        private Segment(Path path, long base, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.base = base;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private static Segment create(Path directory, long base, int size) throws IOException {
+            Path path = directory.resolve(String.format("%020d%s", base, SUFFIX));
+            FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+            try {
+                MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+                // the size of the new file must be durable before records in it are acknowledged
+                channel.force(true);
+                return new Segment(path, base, channel, buffer);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private static Segment open(Path path, long base) throws IOException {
+            FileChannel channel = FileChannel.open(path, READ, WRITE);
+            try {
+                return new Segment(path, base, channel, channel.map(MapMode.READ_WRITE, 0, channel.size()));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private long end() {
+            return base + position;
+        }
+
+        private void release(Location location) {
+            pendingCount--;
+            pendingBytes -= location.size;
+        }
+
+        /**
+         * Zeroes bytes after the last record.
+         *
+         * @return true if there were non-zero bytes
+         */
+        private boolean clear() {
+            boolean dirty = false;
+            for (int i = position; i < buffer.capacity(); i++) {
+                if (buffer.get(i) != 0) {
+                    buffer.put(i, (byte) 0);
+                    dirty = true;
+                }
+            }
+            return dirty;
+        }
+    }
+}
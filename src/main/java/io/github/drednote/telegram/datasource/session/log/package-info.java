@@ -0,0 +1,6 @@
+@NonNullApi
+@NonNullFields
+package io.github.drednote.telegram.datasource.session.log;
+
+import org.springframework.lang.NonNullApi;
+import org.springframework.lang.NonNullFields;
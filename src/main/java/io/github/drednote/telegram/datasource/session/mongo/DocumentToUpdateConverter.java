@@ -1,6 +1,5 @@
 package io.github.drednote.telegram.datasource.session.mongo;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.drednote.telegram.exception.type.TelegramException;
 import org.bson.Document;
@@ -19,12 +18,14 @@ public class DocumentToUpdateConverter implements Converter<Document, Update> {
             objectMapper != null ? objectMapper : new ObjectMapper().findAndRegisterModules();
     }
 
+    /**
+     * Converts the document to the update directly with Jackson tokens, without writing and parsing JSON text.
+     */
     @Override
     public Update convert(Document source) {
         try {
-            String json = source.toJson();
-            return objectMapper.readValue(json, Update.class);
-        } catch (JsonProcessingException e) {
+            return objectMapper.convertValue(source, Update.class);
+        } catch (IllegalArgumentException e) {
             throw new TelegramException("Cannot deserialize Telegram Update to mongo repository", e) {};
         }
     }
@@ -0,0 +1,263 @@
+package io.github.drednote.telegram.datasource.session.mongo;
+
+import static io.github.drednote.telegram.datasource.session.UpdateInboxStatus.IN_PROGRESS;
+import static io.github.drednote.telegram.datasource.session.UpdateInboxStatus.NEW;
+
+import com.mongodb.client.result.UpdateResult;
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.session.SessionProperties;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.lang.Nullable;
+
+/**
+ * {@link MongoUpdateInboxRepositoryAdapter} that limits the number of updates in progress per entity with counters
+ * instead of joining the whole collection on every search.
+ *
+ * <p>Every entity with updates in progress has a lease document in {@link #LEASES_COLLECTION} with the number of its
+ * updates in progress. To claim an update, the counter of its entity is incremented with one {@code findAndModify}
+ * guarded by {@code maxThreadsPerUser}, and then the update is moved from {@code NEW} to {@code IN_PROGRESS}. If the
+ * update is taken by another reader, the counter is decremented back. The counter is decremented when an update in
+ * progress gets a final status, including {@code TIMEOUT}. So a search reads pages of the oldest new updates by the
+ * {@code (status, createdAt)} index instead of joining the whole collection. Entities which counters reached the limit
+ * are left out of the next pages, so a backlog of one entity does not hide updates of other entities behind it.
+ *
+ * <p>A counter can leak if the application stops between its increment and the claim of the update. Such counters
+ * are fixed by {@link #timeoutTasks()}: counters not changed during {@code idleInterval} are compared with the number
+ * of updates in progress and leases without updates in progress are removed.
+ *
+ * @author Ivan Galushko
+ */
+public class LeasedMongoUpdateInboxRepositoryAdapter extends MongoUpdateInboxRepositoryAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(LeasedMongoUpdateInboxRepositoryAdapter.class);
+
+    /**
+     * The name of the collection with counters of updates in progress
+     */
+    public static final String LEASES_COLLECTION = "update_inbox_entity_leases";
+    static final String IN_PROGRESS_COUNT = "inProgress";
+    private static final String ID = "_id";
+    private static final String ERROR_DESCRIPTION = "errorDescription";
+    /**
+     * The minimum number of new updates read to find updates to claim
+     */
+    private static final int MIN_CANDIDATES = 64;
+
+    private final MongoTemplate mongoTemplate;
+    /**
+     * Returns the lease before the upsert, so null means that the lease is inserted
+     */
+    private final FindAndModifyOptions insertLeaseOptions = FindAndModifyOptions.options().upsert(true);
+    private final FindAndModifyOptions claimOptions = FindAndModifyOptions.options().returnNew(true);
+
+    public LeasedMongoUpdateInboxRepositoryAdapter(
+        SessionProperties sessionProperties, MongoUpdateInboxRepository mongoUpdateInboxRepository,
+        MongoTemplate mongoTemplate
+    ) {
+        super(sessionProperties, mongoUpdateInboxRepository, mongoTemplate);
+        this.mongoTemplate = mongoTemplate;
+        ensureIndexes();
+    }
+
+    private void ensureIndexes() {
+        IndexOperations indexOperations = mongoTemplate.indexOps(MongoUpdateInbox.class);
+        indexOperations.ensureIndex(new Index()
+            .on(STATUS, Direction.ASC).on(CREATED_AT, Direction.ASC).named("status_created_at"));
+        indexOperations.ensureIndex(new Index()
+            .on(ENTITY_ID, Direction.ASC).on(STATUS, Direction.ASC).named("entity_id_status"));
+    }
+
+    /**
+     * Claims one update with {@link #findAllWithMaxThreadsPerUser(int, int)}, so the lease of its entity is taken
+     * like for a batch.
+     */
+    @Override
+    protected Optional<MongoUpdateInbox> findWithMaxThreadsPerUser(int maxThreadsPerUser) {
+        return findAllWithMaxThreadsPerUser(maxThreadsPerUser, 1).stream().findFirst();
+    }
+
+    /**
+     * Reads pages of the oldest new updates and claims them in order, skipping updates of entities which counters
+     * reached {@code maxThreadsPerUser}. Such entities are excluded from the next pages.
+     */
+    @Override
+    protected List<MongoUpdateInbox> findAllWithMaxThreadsPerUser(int maxThreadsPerUser, int max) {
+        int pageSize = Math.max(max * 4, MIN_CANDIDATES);
+        List<MongoUpdateInbox> found = new ArrayList<>(Math.min(max, 16));
+        Set<String> saturated = new HashSet<>();
+        MongoUpdateInbox last = null;
+        while (found.size() < max) {
+            List<MongoUpdateInbox> candidates = findCandidates(saturated, last, pageSize);
+            for (MongoUpdateInbox candidate : candidates) {
+                if (found.size() >= max) {
+                    break;
+                }
+                String entityId = candidate.getEntityId();
+                if (entityId != null) {
+                    if (saturated.contains(entityId)) {
+                        continue;
+                    }
+                    if (!acquireLease(entityId, maxThreadsPerUser)) {
+                        saturated.add(entityId);
+                        continue;
+                    }
+                }
+                MongoUpdateInbox claimed = claim(candidate.getUpdateId());
+                if (claimed != null) {
+                    found.add(claimed);
+                } else {
+                    log.debug("Skip {} due to another thread took to work", candidate.getUpdateId());
+                    if (entityId != null) {
+                        releaseLease(entityId);
+                    }
+                }
+            }
+            if (candidates.size() < pageSize) {
+                break;
+            }
+            last = candidates.get(candidates.size() - 1);
+        }
+        return found;
+    }
+
+    /**
+     * Reads ids, entities and creation times of new updates after {@code last}, leaving out saturated entities.
+     */
+    private List<MongoUpdateInbox> findCandidates(
+        Set<String> saturated, @Nullable MongoUpdateInbox last, int pageSize
+    ) {
+        Criteria criteria = Criteria.where(STATUS).is(NEW);
+        if (!saturated.isEmpty()) {
+            criteria.and(ENTITY_ID).nin(saturated);
+        }
+        if (last != null) {
+            criteria.orOperator(
+                Criteria.where(CREATED_AT).gt(last.getCreatedAt()),
+                Criteria.where(CREATED_AT).is(last.getCreatedAt()).and(ID).gt(last.getUpdateId()));
+        }
+        Query query = new Query(criteria)
+            .with(Sort.by(Direction.ASC, CREATED_AT, ID))
+            .limit(pageSize);
+        query.fields().include(ENTITY_ID, CREATED_AT);
+        return mongoTemplate.find(query, MongoUpdateInbox.class);
+    }
+
+    private boolean acquireLease(String entityId, int maxThreadsPerUser) {
+        Instant now = Instant.now();
+        Query query = new Query(Criteria.where(ID).is(entityId).and(IN_PROGRESS_COUNT).lt(maxThreadsPerUser));
+        Update increment = new Update().inc(IN_PROGRESS_COUNT, 1).set(UPDATED_AT, now);
+        if (mongoTemplate.findAndModify(query, increment, Document.class, LEASES_COLLECTION) != null) {
+            return true;
+        }
+        // either the counter reached the limit or there is no lease yet, insert it if it is absent
+        Update insert = new Update().setOnInsert(IN_PROGRESS_COUNT, 1).setOnInsert(UPDATED_AT, now);
+        try {
+            Document existing = mongoTemplate.findAndModify(new Query(Criteria.where(ID).is(entityId)), insert,
+                insertLeaseOptions, Document.class, LEASES_COLLECTION);
+            return existing == null;
+        } catch (DuplicateKeyException e) {
+            // another reader inserted the lease at the same time, so the guarded increment decides
+            log.debug("Lease of entity '{}' is inserted by another reader", entityId);
+            return mongoTemplate.findAndModify(query, increment, Document.class, LEASES_COLLECTION) != null;
+        }
+    }
+
+    private void releaseLease(String entityId) {
+        Query query = new Query(Criteria.where(ID).is(entityId).and(IN_PROGRESS_COUNT).gt(0));
+        Update update = new Update().inc(IN_PROGRESS_COUNT, -1).set(UPDATED_AT, Instant.now());
+        mongoTemplate.updateFirst(query, update, LEASES_COLLECTION);
+    }
+
+    @Nullable
+    private MongoUpdateInbox claim(Integer updateId) {
+        Query query = new Query(Criteria.where(ID).is(updateId).and(STATUS).is(NEW));
+        Update update = new Update().set(STATUS, IN_PROGRESS).set(UPDATED_AT, Instant.now());
+        return mongoTemplate.findAndModify(query, update, claimOptions, MongoUpdateInbox.class);
+    }
+
+    /**
+     * Saves the final status and releases the lease of the entity if the update was in progress, so the lease is
+     * released only once even if the update is saved again after the timeout.
+     */
+    @Override
+    public void update(MongoUpdateInbox updateInbox) {
+        UpdateInboxStatus status = updateInbox.getStatus();
+        if (status == NEW || status == IN_PROGRESS) {
+            super.update(updateInbox);
+            return;
+        }
+        Instant now = Instant.now();
+        Update update = new Update()
+            .set(STATUS, status)
+            .set(ERROR_DESCRIPTION, updateInbox.getErrorDescription())
+            .set(UPDATED_AT, now)
+            .set(EXPIRE_AT, expireAt(status, now));
+        UpdateResult result = mongoTemplate.updateFirst(
+            new Query(Criteria.where(ID).is(updateInbox.getUpdateId()).and(STATUS).is(IN_PROGRESS)),
+            update, MongoUpdateInbox.class);
+        if (result.getModifiedCount() > 0) {
+            if (updateInbox.getEntityId() != null) {
+                releaseLease(updateInbox.getEntityId());
+            }
+        } else {
+            mongoTemplate.updateFirst(new Query(Criteria.where(ID).is(updateInbox.getUpdateId())),
+                update, MongoUpdateInbox.class);
+        }
+    }
+
+    /**
+     * Saves updates one by one, since every update in progress releases the lease of its entity.
+     */
+    @Override
+    public void updateAll(List<MongoUpdateInbox> updateInboxes) {
+        updateInboxes.forEach(this::update);
+    }
+
+    @Override
+    public void timeoutTasks() {
+        super.timeoutTasks();
+        int idleInterval = properties.getSchedulerProcessor().getIdleInterval();
+        reconcileLeases(Instant.now().minus(idleInterval, ChronoUnit.MILLIS));
+    }
+
+    private void reconcileLeases(Instant before) {
+        List<Document> leases = mongoTemplate.find(
+            new Query(Criteria.where(UPDATED_AT).lt(before)), Document.class, LEASES_COLLECTION);
+        for (Document lease : leases) {
+            Object entityId = lease.get(ID);
+            Object count = lease.get(IN_PROGRESS_COUNT);
+            long actual = mongoTemplate.count(
+                new Query(Criteria.where(ENTITY_ID).is(entityId).and(STATUS).is(IN_PROGRESS)), MongoUpdateInbox.class);
+            Query unchanged = new Query(
+                Criteria.where(ID).is(entityId).and(IN_PROGRESS_COUNT).is(count).and(UPDATED_AT).lt(before));
+            if (actual == 0) {
+                mongoTemplate.remove(unchanged, LEASES_COLLECTION);
+            } else if (count instanceof Number number && number.longValue() != actual) {
+                log.warn("Fix the number of updates in progress of entity '{}' from {} to {}",
+                    entityId, count, actual);
+                mongoTemplate.updateFirst(unchanged,
+                    new Update().set(IN_PROGRESS_COUNT, (int) actual).set(UPDATED_AT, Instant.now()),
+                    LEASES_COLLECTION);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.drednote.telegram.datasource.session.mongo;
+
+import io.github.drednote.telegram.session.LeaderElector;
+import io.github.drednote.telegram.utils.Assert;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * {@link LeaderElector} with a lease document in {@link #COLLECTION}.
+ *
+ * <p>The document holds the id of the leader and the time when the leadership expires. An instance takes the
+ * leadership with one conditional upsert if the lease is expired or already belongs to it, and renews it with the
+ * same upsert. If the lease belongs to another instance, the upsert fails on the {@code _id} and the instance stays a
+ * follower.
+ *
+ * <p>Expiration is compared with the clock of instances, so clocks should be synchronized with an accuracy much
+ * better than {@code leaseDuration}. A failed leader is replaced after {@code leaseDuration}.
+ *
+ * @author Ivan Galushko
+ */
+public class MongoLeaderElector implements LeaderElector {
+
+    private static final Logger log = LoggerFactory.getLogger(MongoLeaderElector.class);
+
+    /**
+     * The name of the collection with leases of leaders
+     */
+    public static final String COLLECTION = "session_leaders";
+    private static final String ID = "_id";
+    private static final String OWNER_ID = "ownerId";
+    private static final String EXPIRES_AT = "expiresAt";
+
+    private final MongoTemplate mongoTemplate;
+    private final String lockName;
+    private final String nodeId;
+    private final Duration leaseDuration;
+
+    /**
+     * @param mongoTemplate the template of the database
+     * @param lockName      the id of the lease document
+     * @param nodeId        the id of this instance, unique in the cluster
+     * @param leaseDuration how long the leadership is kept without renewal
+     */
+    public MongoLeaderElector(MongoTemplate mongoTemplate, String lockName, String nodeId, Duration leaseDuration) {
+        Assert.required(mongoTemplate, "MongoTemplate");
+        Assert.required(lockName, "Lock name");
+        Assert.required(nodeId, "Node id");
+        Assert.required(leaseDuration, "Lease duration");
+
+        this.mongoTemplate = mongoTemplate;
+        this.lockName = lockName;
+        this.nodeId = nodeId;
+        this.leaseDuration = leaseDuration;
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        Instant now = Instant.now();
+        Query query = new Query(Criteria.where(ID).is(lockName)
+            .orOperator(Criteria.where(OWNER_ID).is(nodeId), Criteria.where(EXPIRES_AT).lt(Date.from(now))));
+        Update update = new Update()
+            .set(OWNER_ID, nodeId)
+            .set(EXPIRES_AT, Date.from(now.plus(leaseDuration)));
+        try {
+            mongoTemplate.upsert(query, update, COLLECTION);
+            return true;
+        } catch (DuplicateKeyException e) {
+            log.trace("The lease '{}' belongs to another instance", lockName);
+            return false;
+        }
+    }
+
+    /**
+     * Expires the lease if it belongs to this instance.
+     */
+    @Override
+    public void release() {
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where(ID).is(lockName).and(OWNER_ID).is(nodeId)),
+            new Update().set(EXPIRES_AT, Date.from(Instant.EPOCH)),
+            COLLECTION);
+    }
+}
@@ -2,21 +2,32 @@ package io.github.drednote.telegram.datasource.session.mongo;
 
 import io.github.drednote.telegram.datasource.session.UpdateInbox;
 import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.UpdatePayloadCodec;
 import java.time.Instant;
 import java.util.Objects;
+import java.util.function.Function;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
 import org.springframework.lang.Nullable;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
 @Getter
 @Setter
 @Document(collection = "update_inbox")
+@CompoundIndexes({
+    @CompoundIndex(name = "status_created_at", def = "{'status': 1, 'createdAt': 1}"),
+    @CompoundIndex(name = "entity_id_status", def = "{'entityId': 1, 'status': 1}"),
+})
 public class MongoUpdateInbox extends UpdateInbox {
 
     @Id
@@ -25,7 +36,33 @@ public class MongoUpdateInbox extends UpdateInbox {
     @Nullable
     @Indexed
     private String entityId;
+    /**
+     * The update as a subdocument, written when no {@link UpdatePayloadCodec} is configured
+     */
+    @Nullable
+    @Field(MongoUpdateInboxRepositoryAdapter.PAYLOAD)
+    private org.bson.Document document;
+    /**
+     * The update encoded by the configured {@link UpdatePayloadCodec}, stored as binary data
+     */
+    @Nullable
+    @Field(MongoUpdateInboxRepositoryAdapter.BINARY_PAYLOAD)
+    private byte[] payload;
+    /**
+     * The decoded payload
+     */
+    @Nullable
+    @Transient
+    @Getter(AccessLevel.NONE)
     private Update update;
+    /**
+     * Decodes the payload, set by the adapter that read the entity
+     */
+    @Nullable
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.PACKAGE)
+    private Function<MongoUpdateInbox, Update> decoder;
     @Indexed
     private UpdateInboxStatus status;
     private String errorDescription;
@@ -35,6 +72,40 @@ public class MongoUpdateInbox extends UpdateInbox {
     private Instant createdAt;
     @LastModifiedDate
     private Instant updatedAt;
+    /**
+     * The time after which the document is deleted by the TTL index, null - the document is kept forever
+     */
+    @Nullable
+    private Instant expireAt;
+
+    /**
+     * Returns the update, decoding the payload on the first call. So the payload of an update is decoded by the worker
+     * processing it, and never if only the status of the update is changed.
+     *
+     * <p>If the entity was not read by {@link MongoUpdateInboxRepositoryAdapter}, for example it was found by
+     * {@link MongoUpdateInboxRepository}, the subdocument is converted by {@link DocumentToUpdateConverter} with the
+     * default mapper.
+     *
+     * @return the update
+     * @throws IllegalStateException if the update has no payload, or it has a binary payload and the entity was not
+     *                               read by {@link MongoUpdateInboxRepositoryAdapter} with the codec
+     */
+    @Override
+    public Update getUpdate() {
+        if (update == null) {
+            if (decoder != null) {
+                update = decoder.apply(this);
+            } else if (document != null) {
+                update = DefaultConverterHolder.CONVERTER.convert(document);
+            } else if (payload != null) {
+                throw new IllegalStateException("Update '" + updateId + "' has a binary payload, it can be decoded "
+                                                + "only by MongoUpdateInboxRepositoryAdapter with UpdatePayloadCodec");
+            } else {
+                throw new IllegalStateException("Update '" + updateId + "' has no payload");
+            }
+        }
+        return update;
+    }
 
     @Override
     public boolean equals(Object o) {
@@ -59,4 +130,12 @@ public class MongoUpdateInbox extends UpdateInbox {
                "updateId=" + updateId +
                '}';
     }
+
+    /**
+     * Creates the mapper of the default converter only if it is used
+     */
+    private static final class DefaultConverterHolder {
+
+        private static final DocumentToUpdateConverter CONVERTER = new DocumentToUpdateConverter(null);
+    }
 }
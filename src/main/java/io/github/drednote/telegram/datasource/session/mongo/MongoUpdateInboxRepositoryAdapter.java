@@ -3,39 +3,56 @@ package io.github.drednote.telegram.datasource.session.mongo;
 import static io.github.drednote.telegram.datasource.session.UpdateInboxStatus.IN_PROGRESS;
 import static io.github.drednote.telegram.datasource.session.UpdateInboxStatus.NEW;
 
+import com.mongodb.bulk.BulkWriteError;
 import io.github.drednote.telegram.datasource.session.AbstractUpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.UpdatePayloadCodec;
 import io.github.drednote.telegram.session.SessionProperties;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.aggregation.ArrayOperators.Filter;
 import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.lang.Nullable;
 import org.springframework.transaction.annotation.Transactional;
 
 public class MongoUpdateInboxRepositoryAdapter extends AbstractUpdateInboxRepositoryAdapter<MongoUpdateInbox> {
 
     private static final Logger log = LoggerFactory.getLogger(MongoUpdateInboxRepositoryAdapter.class);
 
-    private static final String STATUS = "status";
-    private static final String UPDATED_AT = "updatedAt";
-    private static final String CREATED_AT = "createdAt";
-    private static final String ENTITY_ID = "entityId";
+    static final String STATUS = "status";
+    static final String UPDATED_AT = "updatedAt";
+    static final String CREATED_AT = "createdAt";
+    static final String ENTITY_ID = "entityId";
+    static final String EXPIRE_AT = "expireAt";
+    static final String PAYLOAD = "update";
+    static final String BINARY_PAYLOAD = "payload";
+    private static final int DUPLICATE_KEY = 11000;
 
     private final FindAndModifyOptions findAndModifyOptions;
     private final MongoUpdateInboxRepository mongoUpdateInboxRepository;
     private final MongoTemplate mongoTemplate;
+    @Nullable
+    private UpdatePayloadCodec payloadCodec;
 
     public MongoUpdateInboxRepositoryAdapter(
         SessionProperties sessionProperties, MongoUpdateInboxRepository mongoUpdateInboxRepository,
@@ -45,6 +62,7 @@ public class MongoUpdateInboxRepositoryAdapter extends AbstractUpdateInboxReposi
         this.mongoUpdateInboxRepository = mongoUpdateInboxRepository;
         this.mongoTemplate = mongoTemplate;
         this.findAndModifyOptions = FindAndModifyOptions.options().returnNew(true);
+        ensureExpireIndex();
     }
 
     public MongoUpdateInboxRepositoryAdapter(
@@ -55,16 +73,125 @@ public class MongoUpdateInboxRepositoryAdapter extends AbstractUpdateInboxReposi
         this.mongoUpdateInboxRepository = mongoUpdateInboxRepository;
         this.mongoTemplate = mongoTemplate;
         this.findAndModifyOptions = findAndModifyOptions;
+        ensureExpireIndex();
+    }
+
+    /**
+     * Creates the TTL index that deletes documents after {@link MongoUpdateInbox#getExpireAt()}, if the retention of
+     * any status is configured.
+     */
+    private void ensureExpireIndex() {
+        if (!properties.getSchedulerProcessor().getRetention().isEmpty()) {
+            mongoTemplate.indexOps(MongoUpdateInbox.class).ensureIndex(new Index()
+                .on(EXPIRE_AT, Direction.ASC).expire(Duration.ZERO).named("expire_at"));
+        }
+    }
+
+    /**
+     * Sets the codec of new updates. Without the codec, updates are written as subdocuments to the
+     * {@value #PAYLOAD} field, with the codec they are encoded to binary data in the {@value #BINARY_PAYLOAD} field.
+     * Updates written before are still read from the field they were written to, but binary payloads can be decoded
+     * only by the codec that encoded them.
+     *
+     * @param payloadCodec the codec or null to write subdocuments
+     */
+    public void setPayloadCodec(@Nullable UpdatePayloadCodec payloadCodec) {
+        this.payloadCodec = payloadCodec;
+    }
+
+    /**
+     * Returns the time after which an update with the status is deleted by the TTL index.
+     *
+     * @param status the status of the update
+     * @param now    the time the status is saved
+     * @return the time of the expiration or null if updates with the status are kept forever
+     */
+    @Nullable
+    protected Instant expireAt(UpdateInboxStatus status, Instant now) {
+        Long retention = properties.getSchedulerProcessor().getRetention().get(status);
+        return retention != null && retention > 0 ? now.plusMillis(retention) : null;
     }
 
     @Override
     protected void persist(MongoUpdateInbox entity) {
         entity.setCreatedAt(Instant.now());
+        encode(entity);
         mongoUpdateInboxRepository.insert(entity);
     }
 
+    /**
+     * Inserts entities with one unordered bulk write. Already saved updates fail with a duplicate key error that does
+     * not stop the insertion of the others and is only logged. All entities get the same creation time, so the search
+     * of the next update orders updates with the same creation time by id.
+     */
+    @Override
+    protected void persistAll(List<MongoUpdateInbox> entities) {
+        Instant now = Instant.now();
+        entities.forEach(entity -> {
+            entity.setCreatedAt(now);
+            encode(entity);
+        });
+        try {
+            mongoTemplate.bulkOps(BulkMode.UNORDERED, MongoUpdateInbox.class).insert(entities).execute();
+        } catch (BulkOperationException e) {
+            List<BulkWriteError> errors = e.getErrors();
+            if (!errors.stream().allMatch(error -> error.getCode() == DUPLICATE_KEY)) {
+                throw e;
+            }
+            log.warn("Skipped {} update inboxes that already exist", errors.size());
+        }
+    }
+
+    /**
+     * Saves only the status, the error description and the times, so the payload of the update is not encoded and
+     * written again.
+     */
+    @Override
+    public void update(MongoUpdateInbox updateInbox) {
+        Instant now = Instant.now();
+        updateInbox.setUpdatedAt(now);
+        updateInbox.setExpireAt(expireAt(updateInbox.getStatus(), now));
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(updateInbox.getUpdateId())),
+            new Update()
+                .set(STATUS, updateInbox.getStatus())
+                .set("errorDescription", updateInbox.getErrorDescription())
+                .set(UPDATED_AT, now)
+                .set(EXPIRE_AT, updateInbox.getExpireAt()),
+            MongoUpdateInbox.class);
+    }
+
+    /**
+     * Saves statuses with one unordered bulk write that has one update per status and error description.
+     */
+    @Override
+    public void updateAll(List<MongoUpdateInbox> updateInboxes) {
+        if (updateInboxes.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        BulkOperations operations = mongoTemplate.bulkOps(BulkMode.UNORDERED, MongoUpdateInbox.class);
+        groupByStatus(updateInboxes).forEach((change, ids) -> operations.updateMulti(
+            new Query(Criteria.where("_id").in(ids)),
+            new Update()
+                .set(STATUS, change.status())
+                .set("errorDescription", change.errorDescription())
+                .set(UPDATED_AT, now)
+                .set(EXPIRE_AT, expireAt(change.status(), now))));
+        operations.execute();
+    }
+
     @Override
     protected Optional<MongoUpdateInbox> findWithMaxThreadsPerUser(int maxThreadsPerUser) {
+        List<MongoUpdateInbox> found = findAllWithMaxThreadsPerUser(maxThreadsPerUser, 1);
+        return found.isEmpty() ? Optional.empty() : Optional.of(found.get(0));
+    }
+
+    /**
+     * Finds the oldest new update of every entity that has no updates in progress with one aggregation and then claims
+     * them one by one until {@code max} updates are claimed.
+     */
+    @Override
+    protected List<MongoUpdateInbox> findAllWithMaxThreadsPerUser(int maxThreadsPerUser, int max) {
         Aggregation agg = Aggregation.newAggregation(
             Aggregation.match(Criteria.where(STATUS).is(NEW)),
             Aggregation.lookup(getCollection(), ENTITY_ID, ENTITY_ID, "allEntities"),
@@ -74,7 +201,7 @@ public class MongoUpdateInboxRepositoryAdapter extends AbstractUpdateInboxReposi
             ).build(),
             Aggregation.match(new Criteria().orOperator(
                 Criteria.where("inProgressEntities").size(0), Criteria.where(ENTITY_ID).isNull())),
-            Aggregation.sort(Sort.by(Sort.Direction.ASC, ENTITY_ID, "createdAt")),
+            Aggregation.sort(Sort.by(Sort.Direction.ASC, ENTITY_ID, "createdAt", "_id")),
             Aggregation.group(ENTITY_ID).first(Aggregation.ROOT).as("doc"),
             Aggregation.replaceRoot("doc"),
             Aggregation.project().andExclude("allEntities", "inProgressEntities")
@@ -84,7 +211,11 @@ public class MongoUpdateInboxRepositoryAdapter extends AbstractUpdateInboxReposi
             agg, MongoUpdateInbox.class, MongoUpdateInbox.class);
         List<MongoUpdateInbox> documents = results.getMappedResults();
 
+        List<MongoUpdateInbox> found = new ArrayList<>(Math.min(max, documents.size()));
         for (MongoUpdateInbox updateInbox : documents) {
+            if (found.size() >= max) {
+                break;
+            }
             Query query = new Query();
             Integer updateId = updateInbox.getUpdateId();
             query.addCriteria(Criteria.where(STATUS).is(NEW).and("_id").is(updateId));
@@ -97,13 +228,13 @@ public class MongoUpdateInboxRepositoryAdapter extends AbstractUpdateInboxReposi
             MongoUpdateInbox andModify = mongoTemplate.findAndModify(query, update, findAndModifyOptions,
                 MongoUpdateInbox.class);
             if (andModify != null) {
-                return Optional.of(andModify);
+                found.add(andModify);
             } else {
                 log.debug("Skip {} due to another thread took to work", updateId);
             }
         }
 
-        return Optional.empty();
+        return found;
     }
 
     @NotNull
@@ -118,14 +249,55 @@ public class MongoUpdateInboxRepositoryAdapter extends AbstractUpdateInboxReposi
     @Override
     @Transactional
     public Optional<MongoUpdateInbox> findNextUpdate() {
-        return super.findNextUpdate();
+        Optional<MongoUpdateInbox> next = super.findNextUpdate();
+        next.ifPresent(entity -> entity.setDecoder(this::decode));
+        return next;
+    }
+
+    @Override
+    @Transactional
+    public List<MongoUpdateInbox> findNextUpdates(int max) {
+        List<MongoUpdateInbox> next = super.findNextUpdates(max);
+        next.forEach(entity -> entity.setDecoder(this::decode));
+        return next;
+    }
+
+    /**
+     * Writes the update of a new entity to its payload, with the codec if it is set or as a subdocument with the
+     * converter of the {@link MongoTemplate}, exactly as the update field was written before.
+     */
+    private void encode(MongoUpdateInbox entity) {
+        if (payloadCodec != null) {
+            entity.setPayload(payloadCodec.encode(entity.getUpdate()));
+        } else {
+            entity.setDocument((org.bson.Document) mongoTemplate.getConverter().convertToMongoType(entity.getUpdate()));
+        }
+    }
+
+    /**
+     * Decodes the payload of an entity, called by the worker that processes the update.
+     */
+    private org.telegram.telegrambots.meta.api.objects.Update decode(MongoUpdateInbox entity) {
+        byte[] payload = entity.getPayload();
+        if (payload != null) {
+            if (payloadCodec == null) {
+                throw new IllegalStateException(
+                    "Update '" + entity.getUpdateId() + "' has a binary payload, but no UpdatePayloadCodec is set");
+            }
+            return payloadCodec.decode(payload);
+        }
+        org.bson.Document document = entity.getDocument();
+        if (document == null) {
+            throw new IllegalStateException("Update '" + entity.getUpdateId() + "' has no payload");
+        }
+        return mongoTemplate.getConverter().read(org.telegram.telegrambots.meta.api.objects.Update.class, document);
     }
 
     @Override
     protected Optional<MongoUpdateInbox> findNextWithoutLimit() {
         Query query = new Query();
         query.addCriteria(Criteria.where(STATUS).is(NEW));
-        query.with(Sort.by(Sort.Direction.ASC, CREATED_AT));
+        query.with(Sort.by(Sort.Direction.ASC, CREATED_AT, "_id"));
         query.limit(1);
 
         Update update = new Update()
@@ -136,10 +308,54 @@ public class MongoUpdateInboxRepositoryAdapter extends AbstractUpdateInboxReposi
             mongoTemplate.findAndModify(query, update, findAndModifyOptions, MongoUpdateInbox.class));
     }
 
+    /**
+     * Deletes documents without {@link MongoUpdateInbox#getExpireAt()}, for example saved before the retention was
+     * configured. Other documents are deleted by the TTL index.
+     */
+    @Override
+    public int purge(UpdateInboxStatus status, Instant before, int batchSize) {
+        Query query = new Query(Criteria.where(STATUS).is(status).and(UPDATED_AT).lt(before).and(EXPIRE_AT).is(null))
+            .with(Sort.by(Sort.Direction.ASC, UPDATED_AT))
+            .limit(batchSize);
+        query.fields().include("_id");
+        List<Integer> ids = mongoTemplate.find(query, MongoUpdateInbox.class).stream()
+            .map(MongoUpdateInbox::getUpdateId)
+            .toList();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return (int) mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), MongoUpdateInbox.class)
+            .getDeletedCount();
+    }
+
+    /**
+     * Returns the number of documents estimated from the collection metadata.
+     */
+    @Override
+    public long size() {
+        return mongoTemplate.estimatedCount(MongoUpdateInbox.class);
+    }
+
+    @Override
+    public long countPending() {
+        return mongoTemplate.count(
+            Query.query(Criteria.where(STATUS).is(NEW)), MongoUpdateInbox.class);
+    }
+
+    @Override
+    public int findLastUpdateId() {
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "_id")).limit(1);
+        query.fields().include("_id");
+        MongoUpdateInbox last = mongoTemplate.findOne(query, MongoUpdateInbox.class);
+        return last == null ? 0 : last.getUpdateId();
+    }
+
     @Override
     protected List<MongoUpdateInbox> getIdleEntities(Instant date) {
         Query query = new Query();
         query.addCriteria(Criteria.where(STATUS).is(IN_PROGRESS).and(UPDATED_AT).lt(date));
+        // only statuses of idle updates are changed, so their payloads are not read
+        query.fields().exclude(PAYLOAD, BINARY_PAYLOAD);
         return mongoTemplate.find(query, MongoUpdateInbox.class);
     }
 }
@@ -1,8 +1,9 @@
 package io.github.drednote.telegram.datasource.session.mongo;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.drednote.telegram.exception.type.TelegramException;
+import java.util.Map;
 import org.bson.Document;
 import org.springframework.core.convert.converter.Converter;
 import org.springframework.data.convert.WritingConverter;
@@ -12,18 +13,22 @@ import org.telegram.telegrambots.meta.api.objects.Update;
 @WritingConverter
 public class UpdateToDocumentConverter implements Converter<Update, Document> {
 
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
     private final ObjectMapper objectMapper;
 
     public UpdateToDocumentConverter(@Nullable ObjectMapper objectMapper) {
         this.objectMapper = objectMapper != null ? objectMapper : new ObjectMapper().findAndRegisterModules();
     }
 
+    /**
+     * Converts the update to the document directly with Jackson tokens, without writing and parsing JSON text.
+     */
     @Override
     public Document convert(Update source) {
         try {
-            String json = objectMapper.writeValueAsString(source);
-            return Document.parse(json);
-        } catch (JsonProcessingException e) {
+            return new Document(objectMapper.convertValue(source, MAP_TYPE));
+        } catch (IllegalArgumentException e) {
             throw new TelegramException("Cannot serialize Telegram Update to mongo repository", e) {};
         }
     }
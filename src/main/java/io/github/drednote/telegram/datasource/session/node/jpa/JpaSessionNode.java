@@ -0,0 +1,57 @@
+package io.github.drednote.telegram.datasource.session.node.jpa;
+
+import io.github.drednote.telegram.datasource.session.jpa.JpaClusterMembership;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import java.util.Objects;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The heartbeat of an instance consuming updates, used by {@link JpaClusterMembership}.
+ *
+ * <p>The entity is kept apart from {@code JpaUpdateInbox}, so scanning the package of the inbox does not map the
+ * {@code session_nodes} table. Add this package to {@code @EntityScan} only if the sharding is enabled.
+ *
+ * @author Ivan Galushko
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "session_nodes")
+public class JpaSessionNode {
+
+    @Id
+    @Column(name = "node_id", nullable = false)
+    private String nodeId;
+    @Column(name = "heartbeat_at", nullable = false)
+    private Instant heartbeatAt;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        JpaSessionNode that = (JpaSessionNode) o;
+        return Objects.equals(nodeId, that.nodeId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(nodeId);
+    }
+
+    @Override
+    public String toString() {
+        return "JpaSessionNode{" +
+               "nodeId='" + nodeId + '\'' +
+               ", heartbeatAt=" + heartbeatAt +
+               '}';
+    }
+}
@@ -4,6 +4,8 @@ import io.github.drednote.telegram.filter.post.NotHandledUpdateFilter;
 import io.github.drednote.telegram.filter.pre.AccessPermissionFilter;
 import io.github.drednote.telegram.session.UserRateLimitRequestFilter;
 import io.github.drednote.telegram.response.NotHandledTelegramResponse;
+import io.github.drednote.telegram.response.TooManyRequestsTelegramResponse;
+import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import lombok.Getter;
 import lombok.Setter;
@@ -63,6 +65,22 @@ public class FilterProperties {
    */
   @NonNull
   private ChronoUnit userRateLimitCacheExpireUnit = ChronoUnit.HOURS;
+  /**
+   * The implementation of the per-user rate limit
+   *
+   * @see UserRateLimitRequestFilter
+   */
+  @NonNull
+  private RateLimitEngine userRateLimitEngine = RateLimitEngine.BUCKET4J;
+  /**
+   * The number of users in the table of {@link RateLimitEngine#TOKEN_TABLE} engine. The table does
+   * not grow, users that exceeded it are not limited until slots of inactive users are expired
+   * after {@link #userRateLimitCacheExpire}
+   *
+   * @see UserRateLimitRequestFilter
+   */
+  @NonNull
+  private int userRateLimitTableSize = 1 << 16;
   /**
    * If at the end of update handling and post filtering, the response is null, set
    * {@link NotHandledTelegramResponse} as response
@@ -71,5 +89,58 @@ public class FilterProperties {
    */
   @NonNull
   private boolean setDefaultAnswer = true;
+  /**
+   * Properties of notifications sent to users whose updates are rejected by rate limits
+   *
+   * @see TooManyRequestsTelegramResponse
+   */
+  @NonNull
+  private RateLimitNotificationProperties rateLimitNotification = new RateLimitNotificationProperties();
 
+  @Getter
+  @Setter
+  public static class RateLimitNotificationProperties {
+
+    /**
+     * Send notifications. If false, rejected updates are silently dropped
+     */
+    private boolean enabled = true;
+    /**
+     * How often pending notifications are sent. All updates of one chat rejected during the
+     * window produce one notification
+     */
+    @NonNull
+    private Duration window = Duration.ofSeconds(1);
+    /**
+     * After a chat is notified, further rejections in this chat are not notified for this time
+     */
+    @NonNull
+    private Duration suppression = Duration.ofSeconds(10);
+    /**
+     * The maximum number of notifications sent at the same time
+     */
+    @NonNull
+    private int maxParallelSends = 4;
+    /**
+     * The maximum number of chats waiting for a notification. Rejections in other chats are not
+     * notified until pending notifications are sent
+     */
+    @NonNull
+    private int maxPending = 1000;
+  }
+
+  /**
+   * The implementation of the per-user rate limit
+   */
+  public enum RateLimitEngine {
+    /**
+     * A Bucket4j bucket per user stored in a Caffeine cache
+     */
+    BUCKET4J,
+    /**
+     * Token buckets of users packed into a lock-free hash table with primitive keys. Does not
+     * allocate on the hot path
+     */
+    TOKEN_TABLE
+  }
 }
@@ -6,6 +6,7 @@ import io.github.drednote.telegram.core.request.UpdateRequestMappingBuilder;
 import io.github.drednote.telegram.utils.Assert;
 import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.Set;
 import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanPostProcessor;
@@ -17,7 +18,8 @@ import org.springframework.lang.NonNull;
 /**
  * A {@code BeanPostProcessor} that processes beans annotated with {@link TelegramController}. It
  * identifies methods annotated with {@link TelegramRequest} and registers them with the
- * {@link ControllerRegistrar}.
+ * {@link ControllerRegistrar}. Mappings of a controller with {@link TelegramController#bots()}
+ * match only updates of these bots.
  * <p>
  * This post-processor is responsible for identifying and registering methods in Telegram
  * controllers that should handle incoming requests.
@@ -47,12 +49,13 @@ public class TelegramControllerBeanPostProcessor implements BeanPostProcessor {
     TelegramController telegramController = AnnotationUtils.findAnnotation(targetClass,
         TelegramController.class);
     if (telegramController != null) {
+      Set<String> bots = Set.of(telegramController.bots());
       var annotatedMethods = findAnnotatedMethodsTelegramRequest(targetClass);
       if (!annotatedMethods.isEmpty()) {
         annotatedMethods.forEach((method, mappingInfoBuilder) -> {
           Method invocableMethod = AopUtils.selectInvocableMethod(method, targetClass);
-          mappingInfoBuilder.forEach(
-              mappingInfo -> registrar.register(bean, invocableMethod, mappingInfo));
+          mappingInfoBuilder.forEach(mappingInfo -> registrar.register(bean, invocableMethod,
+              bots.isEmpty() ? mappingInfo : mappingInfo.withBots(bots)));
         });
       }
     }
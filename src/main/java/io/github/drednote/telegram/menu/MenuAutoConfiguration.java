@@ -35,14 +35,15 @@ public class MenuAutoConfiguration implements ApplicationListener<ApplicationRea
   private static final Logger log = LoggerFactory.getLogger(MenuAutoConfiguration.class);
 
   private final MenuProperties properties;
-  private final TelegramClient absSender;
+  private final ObjectProvider<TelegramClient> absSender;
   private final ObjectProvider<BotMenu> menuProvider;
 
   public MenuAutoConfiguration(
-      MenuProperties properties, TelegramClient absSender, ObjectProvider<BotMenu> menuProvider
+      MenuProperties properties, ObjectProvider<TelegramClient> absSender,
+      ObjectProvider<BotMenu> menuProvider
   ) {
     Assert.required(properties, "MenuProperties");
-    Assert.required(absSender, "AbsSender");
+    Assert.required(absSender, "AbsSender provider");
     Assert.required(menuProvider, "BotMenu provider");
 
     this.properties = properties;
@@ -67,7 +68,8 @@ public class MenuAutoConfiguration implements ApplicationListener<ApplicationRea
    * <p>This method is triggered when the application is ready. If the send policy is set to
    * {@link SendPolicy#ON_STARTUP}, it retrieves the bot menu from the menu provider and sends the
    * menu commands to the bot using an {@link TelegramClient}. If the menu is empty, a log message is
-   * generated.
+   * generated. If there is no {@link TelegramClient}, for example only bots of multi-bot mode are
+   * served, the menu is not updated.
    *
    * @param event The application ready event
    */
@@ -75,11 +77,14 @@ public class MenuAutoConfiguration implements ApplicationListener<ApplicationRea
   public void onApplicationEvent(@NonNull ApplicationReadyEvent event) {
     if (properties.getSendPolicy() == SendPolicy.ON_STARTUP) {
       BotMenu botMenu = menuProvider.getObject();
-      if (botMenu.isEmpty()) {
+      TelegramClient telegramClient = absSender.getIfAvailable();
+      if (telegramClient == null) {
+        log.info("Skip menu update due to missing drednote.telegram.token");
+      } else if (botMenu.isEmpty()) {
         log.info("Skip menu update due to empty commands list");
       } else {
         try {
-          botMenu.updateMenu(absSender);
+          botMenu.updateMenu(telegramClient);
           log.info("Update menu with commands {}", botMenu.getCommands());
         } catch (Exception e) {
           log.error("Skip menu update due to error", e);
@@ -0,0 +1,189 @@
+package io.github.drednote.telegram.session;
+
+import io.github.drednote.telegram.session.SessionProperties.AdaptivePollingProperties;
+import io.github.drednote.telegram.session.SessionProperties.LongPollingSessionProperties;
+import io.github.drednote.telegram.utils.Assert;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controls the limit of updates per getUpdates request of {@link LongPollingSession} based on the
+ * load of {@link TelegramUpdateProcessor}.
+ *
+ * <p>Before every request the session asks for a {@link Decision}:
+ * <ul>
+ *     <li>{@link Decision#PAUSE} if the processor queue occupancy reached
+ *     {@code saturationThreshold}. No request is issued, so the backlog stays on the Telegram
+ *     side, and the limit is halved</li>
+ *     <li>{@link Decision#SHRINK} if the occupancy is above {@code highLoadThreshold} or handing the
+ *     previous batch to the processor took longer than {@code maxDispatchLatency}. The limit is
+ *     halved, but not below {@code minUpdateLimit}</li>
+ *     <li>{@link Decision#GROW} if the processor is idle or does not report its load. The limit is
+ *     increased by a tenth of {@code updateLimit}, but not above it</li>
+ *     <li>{@link Decision#HOLD} otherwise</li>
+ * </ul>
+ *
+ * <p>The controller is used by one polling thread, the current limit and the number of decisions
+ * can be read from any thread, for example as metrics.
+ *
+ * @author Ivan Galushko
+ * @see AdaptivePollingProperties
+ * @see ProcessorLoad
+ */
+public class AdaptivePollingController {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptivePollingController.class);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int step;
+    private final double highLoadThreshold;
+    private final double saturationThreshold;
+    private final long maxDispatchLatencyNanos;
+    private final long pauseIntervalMillis;
+    private final Map<Decision, AtomicLong> decisions = new EnumMap<>(Decision.class);
+
+    private volatile int limit;
+    private volatile double occupancy = 0;
+    private long lastDispatchNanos = 0;
+
+    /**
+     * Constructs an {@code AdaptivePollingController}.
+     *
+     * @param properties long polling properties, {@code updateLimit} is the maximum limit
+     * @throws IllegalArgumentException if the properties are invalid
+     */
+    public AdaptivePollingController(LongPollingSessionProperties properties) {
+        Assert.required(properties, "LongPollingSessionProperties");
+        AdaptivePollingProperties adaptive = properties.getAdaptive();
+        Assert.required(adaptive, "AdaptivePollingProperties");
+
+        int updateLimit = properties.getUpdateLimit();
+        if (adaptive.getMinUpdateLimit() < 1 || adaptive.getMinUpdateLimit() > updateLimit) {
+            throw new IllegalArgumentException(
+                "minUpdateLimit must be between 1 and updateLimit (" + updateLimit + ")");
+        }
+        if (adaptive.getSaturationThreshold() <= 0 || adaptive.getSaturationThreshold() > 1) {
+            throw new IllegalArgumentException("saturationThreshold must be in range (0, 1]");
+        }
+        if (adaptive.getHighLoadThreshold() <= 0
+            || adaptive.getHighLoadThreshold() > adaptive.getSaturationThreshold()) {
+            throw new IllegalArgumentException(
+                "highLoadThreshold must be in range (0, saturationThreshold]");
+        }
+        Assert.required(adaptive.getMaxDispatchLatency(), "maxDispatchLatency");
+        Assert.required(adaptive.getPauseInterval(), "pauseInterval");
+
+        this.minLimit = adaptive.getMinUpdateLimit();
+        this.maxLimit = updateLimit;
+        this.step = Math.max(1, updateLimit / 10);
+        this.highLoadThreshold = adaptive.getHighLoadThreshold();
+        this.saturationThreshold = adaptive.getSaturationThreshold();
+        this.maxDispatchLatencyNanos = adaptive.getMaxDispatchLatency().toNanos();
+        this.pauseIntervalMillis = adaptive.getPauseInterval().toMillis();
+        this.limit = updateLimit;
+        for (Decision decision : Decision.values()) {
+            decisions.put(decision, new AtomicLong());
+        }
+    }
+
+    /**
+     * Decides whether the next request should be issued and adapts the limit.
+     *
+     * @param load the current load of the processor
+     * @return the decision
+     */
+    public Decision decide(ProcessorLoad load) {
+        Assert.required(load, "ProcessorLoad");
+        double currentOccupancy = load.occupancy();
+        this.occupancy = currentOccupancy;
+
+        Decision decision;
+        if (load.isKnown() && currentOccupancy >= saturationThreshold) {
+            shrink();
+            decision = Decision.PAUSE;
+        } else if ((load.isKnown() && currentOccupancy > highLoadThreshold)
+                   || lastDispatchNanos > maxDispatchLatencyNanos) {
+            decision = shrink() ? Decision.SHRINK : Decision.HOLD;
+        } else if ((!load.isKnown() || load.isIdle()) && limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + step);
+            decision = Decision.GROW;
+        } else {
+            decision = Decision.HOLD;
+        }
+        lastDispatchNanos = 0;
+        decisions.get(decision).incrementAndGet();
+        if (decision != Decision.HOLD) {
+            log.trace("Polling decision {}, limit {}, occupancy {}", decision, limit, currentOccupancy);
+        }
+        return decision;
+    }
+
+    private boolean shrink() {
+        int current = limit;
+        int shrunk = Math.max(minLimit, current / 2);
+        limit = shrunk;
+        return shrunk != current;
+    }
+
+    /**
+     * Records how long handing the received batch to the processor took. Taken into account by the
+     * next {@link #decide(ProcessorLoad)}.
+     *
+     * @param nanos the time in nanoseconds
+     */
+    public void recordDispatch(long nanos) {
+        this.lastDispatchNanos = nanos;
+    }
+
+    /**
+     * @return the limit of updates for the next request
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the occupancy of the processor queue seen by the last decision
+     */
+    public double getOccupancy() {
+        return occupancy;
+    }
+
+    /**
+     * @return the time to wait before the next decision if polling is paused
+     */
+    public long getPauseIntervalMillis() {
+        return pauseIntervalMillis;
+    }
+
+    /**
+     * @param decision the decision
+     * @return how many times the decision was made
+     */
+    public long getDecisionCount(Decision decision) {
+        return decisions.get(decision).get();
+    }
+
+    public enum Decision {
+        /**
+         * The limit is increased
+         */
+        GROW,
+        /**
+         * The limit is decreased
+         */
+        SHRINK,
+        /**
+         * The limit is not changed
+         */
+        HOLD,
+        /**
+         * The processor is saturated, the request is not issued
+         */
+        PAUSE
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.drednote.telegram.session;
+
+import io.github.drednote.telegram.session.AdaptivePollingController.Decision;
+import io.github.drednote.telegram.utils.Assert;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Locale;
+
+/**
+ * Exposes decisions of {@link AdaptivePollingController} as metrics:
+ * <ul>
+ *     <li>{@code telegram.polling.limit} - the limit of updates for the next request</li>
+ *     <li>{@code telegram.polling.occupancy} - the processor queue occupancy seen by the last
+ *     decision</li>
+ *     <li>{@code telegram.polling.decisions} - the number of decisions, tagged by
+ *     {@code decision}</li>
+ * </ul>
+ *
+ * @author Ivan Galushko
+ */
+public class AdaptivePollingMetrics implements MeterBinder {
+
+    private final AdaptivePollingController controller;
+
+    public AdaptivePollingMetrics(AdaptivePollingController controller) {
+        Assert.required(controller, "AdaptivePollingController");
+        this.controller = controller;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("telegram.polling.limit", controller, AdaptivePollingController::getLimit)
+            .description("The limit of updates for the next getUpdates request")
+            .register(registry);
+        Gauge.builder("telegram.polling.occupancy", controller, AdaptivePollingController::getOccupancy)
+            .description("The occupancy of the update processor queue")
+            .register(registry);
+        for (Decision decision : Decision.values()) {
+            FunctionCounter.builder("telegram.polling.decisions", controller,
+                    it -> it.getDecisionCount(decision))
+                .description("The number of adaptive polling decisions")
+                .tag("decision", decision.name().toLowerCase(Locale.ROOT))
+                .register(registry);
+        }
+    }
+}
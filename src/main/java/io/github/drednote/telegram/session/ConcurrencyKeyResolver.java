@@ -0,0 +1,35 @@
+package io.github.drednote.telegram.session;
+
+import io.github.drednote.telegram.core.request.UpdateRequest;
+import io.github.drednote.telegram.datasource.session.UpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.session.SessionProperties.ConcurrencyKey;
+import org.springframework.lang.Nullable;
+
+/**
+ * Resolves the key of the entity an update belongs to. Updates with the same key are processed
+ * with respect to {@code maxThreadsPerUser}, queued in order by the partitioned executor, counted
+ * together by per-entity queue limits and stored with the same {@code entity_id} in the update
+ * inbox.
+ *
+ * <p>To use a custom strategy, declare a bean of this type, otherwise
+ * {@link DefaultConcurrencyKeyResolver} with {@link SessionProperties#getConcurrencyKey()} is used.
+ *
+ * @author Ivan Galushko
+ * @see ConcurrencyKey
+ * @see TelegramUpdateProcessor
+ * @see UpdateInboxRepositoryAdapter
+ */
+@FunctionalInterface
+public interface ConcurrencyKeyResolver {
+
+    /**
+     * Resolves the key of the update. The key is stored as {@code entity_id} of the update inbox,
+     * so it should not change between application versions.
+     *
+     * @param request the parsed update
+     * @return the key or null if the update is not bound to any entity and can be processed in
+     * parallel with any other update
+     */
+    @Nullable
+    String resolve(UpdateRequest request);
+}
@@ -0,0 +1,94 @@
+package io.github.drednote.telegram.session;
+
+import io.github.drednote.telegram.core.request.UpdateRequest;
+import io.github.drednote.telegram.session.SessionProperties.ConcurrencyKey;
+import io.github.drednote.telegram.utils.Assert;
+import org.springframework.lang.Nullable;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+
+/**
+ * Implementation of {@link ConcurrencyKeyResolver} for built-in {@link ConcurrencyKey} strategies.
+ *
+ * <p>If the update has no value for the strategy, the next coarser value is used: the thread falls
+ * back to the chat, the business connection falls back to the chat, the chat falls back to the
+ * user and the user falls back to the chat. Ids of users and chats are used as is, so private chats
+ * have the same key as their users and keys of {@link ConcurrencyKey#USER} strategy are compatible
+ * with {@code entity_id} stored by previous versions. Updates with neither a user nor a chat, like
+ * polls, are keyed by their own id, for example {@code poll:<id>}, and null is returned only if
+ * there is no such id.
+ *
+ * @author Ivan Galushko
+ */
+public class DefaultConcurrencyKeyResolver implements ConcurrencyKeyResolver {
+
+    private final ConcurrencyKey strategy;
+
+    /**
+     * Constructs a {@code DefaultConcurrencyKeyResolver}
+     *
+     * @param strategy the strategy to resolve keys
+     */
+    public DefaultConcurrencyKeyResolver(ConcurrencyKey strategy) {
+        Assert.required(strategy, "ConcurrencyKey");
+        this.strategy = strategy;
+    }
+
+    @Override
+    @Nullable
+    public String resolve(UpdateRequest request) {
+        return switch (strategy) {
+            case USER -> request.getUserId() != null
+                ? request.getUserId().toString() : resolveChat(request);
+            case CHAT -> resolveChat(request);
+            case CHAT_THREAD -> resolveThread(request);
+            case BUSINESS_CONNECTION -> resolveBusinessConnection(request);
+        };
+    }
+
+    @Nullable
+    private static String resolveChat(UpdateRequest request) {
+        if (request.getChat() != null) {
+            return request.getChat().getId().toString();
+        }
+        if (request.getUserId() != null) {
+            return request.getUserId().toString();
+        }
+        return resolveOther(request.getOrigin());
+    }
+
+    @Nullable
+    private static String resolveThread(UpdateRequest request) {
+        Message message = request.getMessage();
+        if (message != null && Boolean.TRUE.equals(message.getIsTopicMessage())
+            && message.getMessageThreadId() != null) {
+            return message.getChatId() + ":" + message.getMessageThreadId();
+        }
+        return resolveChat(request);
+    }
+
+    @Nullable
+    private static String resolveBusinessConnection(UpdateRequest request) {
+        Update update = request.getOrigin();
+        String connectionId = null;
+        if (update.getBusinessConnection() != null) {
+            connectionId = update.getBusinessConnection().getId();
+        } else if (update.getDeletedBusinessMessages() != null) {
+            connectionId = update.getDeletedBusinessMessages().getBusinessConnectionId();
+        } else if (request.getMessage() != null) {
+            connectionId = request.getMessage().getBusinessConnectionId();
+        }
+        return connectionId != null ? "business:" + connectionId : resolveChat(request);
+    }
+
+    @Nullable
+    private static String resolveOther(Update update) {
+        if (update.getPoll() != null) {
+            return "poll:" + update.getPoll().getId();
+        }
+        if (update.getPollAnswer() != null) {
+            return "poll:" + update.getPollAnswer().getPollId();
+        }
+        return null;
+    }
+}
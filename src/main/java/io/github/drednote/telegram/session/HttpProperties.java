@@ -0,0 +1,65 @@
+package io.github.drednote.telegram.session;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.lang.NonNull;
+
+/**
+ * Properties of the HTTP transport shared by the client consuming updates and the client sending
+ * requests to Telegram API.
+ *
+ * @see TelegramHttpTransport
+ */
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties("drednote.telegram.http")
+public class HttpProperties {
+
+    /**
+     * The maximum number of idle connections to keep in the pool
+     */
+    @NonNull
+    private int maxIdleConnections = 20;
+    /**
+     * How long an idle connection is kept in the pool
+     */
+    @NonNull
+    private Duration keepAlive = Duration.ofMinutes(5);
+    /**
+     * The maximum number of asynchronous requests executing at the same time
+     */
+    @NonNull
+    private int maxRequests = 64;
+    /**
+     * The maximum number of asynchronous requests executing at the same time to one host. Since
+     * all requests go to Telegram API, this is effectively the limit of concurrent asynchronous
+     * requests, so it should not be less than the number of threads sending responses
+     */
+    @NonNull
+    private int maxRequestsPerHost = 64;
+    /**
+     * Connect timeout
+     */
+    @NonNull
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    /**
+     * Read timeout of requests sending to Telegram API. For getUpdates requests this value is added
+     * to the long polling timeout ({@code drednote.telegram.session.long-polling.update-timeout}),
+     * so a long polling request is not interrupted while Telegram holds it
+     */
+    @NonNull
+    private Duration readTimeout = Duration.ofSeconds(30);
+    /**
+     * Write timeout
+     */
+    @NonNull
+    private Duration writeTimeout = Duration.ofSeconds(30);
+    /**
+     * Enable HTTP/2. If the server does not support it, HTTP/1.1 is used
+     */
+    private boolean http2 = false;
+}
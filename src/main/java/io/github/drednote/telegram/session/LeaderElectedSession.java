@@ -0,0 +1,190 @@
+package io.github.drednote.telegram.session;
+
+import io.github.drednote.telegram.session.SessionProperties.ClusterProperties;
+import io.github.drednote.telegram.session.processor.SchedulerTelegramUpdateProcessor;
+import io.github.drednote.telegram.utils.Assert;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * {@link TelegramBotSession} of the cluster mode, that receives updates only while this instance
+ * is the leader elected by {@link LeaderElector}.
+ *
+ * <p>The leadership is acquired or renewed every {@code renewInterval} on a dedicated thread.
+ * When this instance becomes the leader, a new session is created by the factory and started.
+ * When the leadership is lost or cannot be renewed because the storage is not available, the
+ * session is stopped at once: stopping cancels the getUpdates request in flight and drops its
+ * updates, see {@link LongPollingSession#stop()}. The leader notices the loss not later than one
+ * {@code renewInterval} after the last renewal, and another instance takes the leadership only
+ * after {@code leaseDuration}, so two instances do not receive updates at the same time while the
+ * storage answers in time. A new session is created for every term, because sessions cannot be
+ * started again after they are stopped.
+ *
+ * <p>The factory is expected to start the session after the last update saved to the shared
+ * storage, so a new leader continues from the offset of the previous one. Updates that the
+ * previous leader received but did not save are received again, because Telegram keeps updates
+ * until they are confirmed by the next request.
+ *
+ * <p>This session only receives updates, every instance processes them from the shared storage
+ * with {@link SchedulerTelegramUpdateProcessor} regardless of the leadership.
+ *
+ * @author Ivan Galushko
+ * @see ClusterProperties
+ */
+public class LeaderElectedSession implements TelegramBotSession {
+
+    private static final Logger log = LoggerFactory.getLogger(LeaderElectedSession.class);
+    private static final long STOP_TIMEOUT_MILLIS = 10_000;
+
+    private final LeaderElector elector;
+    private final Supplier<? extends TelegramBotSession> sessionFactory;
+    private final long renewIntervalMillis;
+    private final ScheduledExecutorService timer;
+    private boolean running = false;
+    /**
+     * The session of the current term. Null if this instance is not the leader
+     */
+    @Nullable
+    private TelegramBotSession session;
+
+    /**
+     * @param elector        the elector of the leader
+     * @param sessionFactory creates a session receiving updates for every term of the leadership
+     * @param properties     the cluster properties
+     * @throws IllegalArgumentException if {@code renewInterval} is not positive or not less than
+     *                                  {@code leaseDuration}
+     */
+    public LeaderElectedSession(
+        LeaderElector elector, Supplier<? extends TelegramBotSession> sessionFactory,
+        ClusterProperties properties
+    ) {
+        Assert.required(elector, "LeaderElector");
+        Assert.required(sessionFactory, "Session factory");
+        Assert.required(properties, "ClusterProperties");
+        long renewInterval = properties.getRenewInterval().toMillis();
+        if (renewInterval <= 0) {
+            throw new IllegalArgumentException("renewInterval must be greater than 0");
+        }
+        if (renewInterval >= properties.getLeaseDuration().toMillis()) {
+            throw new IllegalArgumentException("renewInterval must be less than leaseDuration");
+        }
+
+        this.elector = elector;
+        this.sessionFactory = sessionFactory;
+        this.renewIntervalMillis = renewInterval;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "telegram-leader-election");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the election. Updates are received after this instance becomes the leader.
+     *
+     * @throws IllegalStateException If the session is already running or stopped
+     */
+    @Override
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("Session already running");
+        }
+        if (timer.isShutdown()) {
+            throw new IllegalStateException("Session is stopped");
+        }
+        running = true;
+        timer.scheduleWithFixedDelay(this::elect, 0, renewIntervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Started the election of the leader receiving updates");
+    }
+
+    /**
+     * Stops receiving updates and releases the leadership, so another instance takes it without
+     * waiting for the expiration.
+     */
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        timer.shutdown();
+        try {
+            // the leadership must not be acquired again after it is released
+            if (!timer.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.warn("The election is not finished in {} ms", STOP_TIMEOUT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            stopSession();
+        }
+        try {
+            elector.release();
+        } catch (Exception e) {
+            log.warn("Cannot release the leadership", e);
+        }
+    }
+
+    /**
+     * @return true if this instance is the leader and receives updates
+     */
+    public synchronized boolean isLeader() {
+        return session != null;
+    }
+
+    void elect() {
+        boolean acquired;
+        try {
+            acquired = elector.tryAcquire();
+        } catch (Exception e) {
+            log.warn("Cannot acquire the leadership", e);
+            acquired = false;
+        }
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            if (acquired && session == null) {
+                startSession();
+            } else if (!acquired && session != null) {
+                log.info("The leadership is lost, stop receiving updates");
+                stopSession();
+            }
+        }
+    }
+
+    private void startSession() {
+        log.info("This instance is elected as the leader, start receiving updates");
+        try {
+            TelegramBotSession newSession = sessionFactory.get();
+            newSession.start();
+            session = newSession;
+        } catch (Exception e) {
+            log.error("Cannot start the session, release the leadership", e);
+            try {
+                elector.release();
+            } catch (Exception ex) {
+                log.warn("Cannot release the leadership", ex);
+            }
+        }
+    }
+
+    private void stopSession() {
+        if (session != null) {
+            try {
+                session.stop();
+            } catch (Exception e) {
+                log.warn("Cannot stop the session", e);
+            }
+            session = null;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package io.github.drednote.telegram.session;
+
+/**
+ * Elects one leader among instances of the application sharing one storage. Used by
+ * {@link LeaderElectedSession}, so that only one instance receives updates from Telegram.
+ *
+ * <p>Implementations are called from one thread at a time.
+ *
+ * @author Ivan Galushko
+ * @see SessionProperties.ClusterProperties
+ */
+public interface LeaderElector {
+
+    /**
+     * Acquires the leadership if it is free or renews it if this instance is already the leader.
+     * Must be called more often than the leadership expires.
+     *
+     * @return true if this instance is the leader
+     * @throws RuntimeException if the storage is not available, the leadership should be
+     *                          considered lost
+     */
+    boolean tryAcquire();
+
+    /**
+     * Releases the leadership if this instance is the leader, so that another instance can take
+     * it without waiting for the expiration.
+     */
+    void release();
+}
@@ -1,15 +1,22 @@
 package io.github.drednote.telegram.session;
 
 import io.github.drednote.telegram.TelegramProperties;
+import io.github.drednote.telegram.session.AdaptivePollingController.Decision;
+import io.github.drednote.telegram.session.SessionProperties.UpdateProcessorType;
 import io.github.drednote.telegram.utils.Assert;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
 import org.telegram.telegrambots.longpolling.interfaces.BackOff;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
@@ -27,6 +34,30 @@ import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
  * and handling exceptions that may occur during the session and not caught with exception handling
  * strategy.
  *
+ * <p>If {@link SessionProperties.LongPollingSessionProperties#getMaxBatchesInFlight()} is greater
+ * than 1, the session works in pipelined mode: the next getUpdates request is issued as soon as the
+ * previous response is parsed, and received batches are handed off to a separate dispatcher thread
+ * through a bounded ring. When the ring is full, the polling thread waits until the dispatcher takes
+ * the oldest batch, so the number of fetched but not yet processed batches stays bounded. The next
+ * request confirms the previous batches to Telegram before they are handed to the processor, so they
+ * are lost if the application crashes. That is why pipelined mode cannot be used with processors
+ * that save updates to a durable inbox.
+ *
+ * <p>If {@link StreamingTelegramConsumeClient} is passed, the response of getUpdates is read with a
+ * streaming parser, see {@link SessionProperties.LongPollingSessionProperties#isStreaming()}. With
+ * {@link UpdateProcessorType#ON_FLY} every update is handed to the processor as soon as it is
+ * parsed. Other processors save updates to an inbox in batches, so the updates of a response are
+ * handed to them at once after the whole response is read.
+ *
+ * <p>When the session is stopped, the polling thread is interrupted and, if
+ * {@link TelegramHttpTransport} is set, the getUpdates request in flight is cancelled. Updates of
+ * a response received after the stop are not handed to the processor, Telegram sends them again
+ * to the next session because they are not confirmed.
+ *
+ * <p>If adaptive polling is enabled, the limit of updates per request is adapted to the load of
+ * the processor by {@link AdaptivePollingController}, and no request is issued while the processor
+ * is saturated.
+ *
  * @author Ivan Galushko
  * @see TelegramConsumeClient
  * @see TelegramUpdateProcessor
@@ -35,16 +66,40 @@ import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 public class LongPollingSession implements TelegramBotSession, Runnable {
 
     private static final Logger log = LoggerFactory.getLogger(LongPollingSession.class);
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
 
     private final ScheduledExecutorService readerService;
     private final TelegramConsumeClient telegramClient;
+    @Nullable
+    private final StreamingTelegramConsumeClient streamingClient;
     private final AtomicBoolean running = new AtomicBoolean(false);
     protected final SessionProperties sessionProperties;
     protected final TelegramProperties telegramProperties;
     private final BackOff backOff;
     private final TelegramUpdateProcessor processor;
+    /**
+     * Bounded ring of fetched batches waiting for dispatching. Null if pipelining is disabled
+     */
+    @Nullable
+    private final BlockingQueue<List<Update>> batches;
+    @Nullable
+    private final ExecutorService dispatcherService;
+    /**
+     * Adapts the limit of updates to the processor load. Null if adaptive polling is disabled
+     */
+    @Nullable
+    private AdaptivePollingController pollingController;
+    /**
+     * Cancels the request in flight on stop. Null if the request is not cancelled
+     */
+    @Nullable
+    private TelegramHttpTransport transport;
 
     private int lastReceivedUpdate = 0;
+    /**
+     * Time spent in handing updates of the current poll to the processor
+     */
+    private long dispatchNanos = 0;
 
     /**
      * Constructs a LongPollingSession with the provided Telegram client, session properties, and
@@ -59,11 +114,31 @@ public class LongPollingSession implements TelegramBotSession, Runnable {
      * @throws UnsupportedOperationException If the callback is not an instance of
      *                                       {@code DefaultTelegramBot} or if the options of the
      *                                       callback are not {@code DefaultBotOptions}
+     * @throws IllegalArgumentException      If {@code maxBatchesInFlight} is not positive or is
+     *                                       greater than 1 with a durable update processor type
      */
     public LongPollingSession(
         TelegramConsumeClient telegramConsumeClient, SessionProperties properties,
         TelegramProperties telegramProperties, BackOff backOff,
         TelegramUpdateProcessor processor
+    ) {
+        this(telegramConsumeClient, null, properties, telegramProperties, backOff, processor);
+    }
+
+    /**
+     * Constructs a LongPollingSession that reads updates with the streaming client if it is not
+     * null.
+     *
+     * @param telegramConsumeClient The Telegram client for fetching updates
+     * @param streamingClient       The Telegram client for fetching updates in streaming mode. If
+     *                              null, {@code telegramConsumeClient} is used
+     * @param properties            The session properties containing bot configuration
+     */
+    public LongPollingSession(
+        TelegramConsumeClient telegramConsumeClient,
+        @Nullable StreamingTelegramConsumeClient streamingClient, SessionProperties properties,
+        TelegramProperties telegramProperties, BackOff backOff,
+        TelegramUpdateProcessor processor
     ) {
         Assert.required(telegramConsumeClient, "TelegramClient");
         Assert.required(properties, "SessionProperties");
@@ -77,6 +152,33 @@ public class LongPollingSession implements TelegramBotSession, Runnable {
         this.sessionProperties = properties;
         this.readerService = Executors.newSingleThreadScheduledExecutor();
         this.telegramClient = telegramConsumeClient;
+        this.streamingClient = streamingClient;
+
+        int maxBatchesInFlight = properties.getLongPolling().getMaxBatchesInFlight();
+        if (maxBatchesInFlight < 1) {
+            throw new IllegalArgumentException("maxBatchesInFlight must be greater than 0");
+        }
+        if (maxBatchesInFlight > 1 && isDurable(properties.getUpdateProcessorType())) {
+            throw new IllegalArgumentException(
+                "maxBatchesInFlight greater than 1 cannot be used with the update processor type "
+                    + properties.getUpdateProcessorType()
+                    + ", updates waiting in the ring are confirmed to Telegram before they are saved");
+        }
+        if (maxBatchesInFlight > 1) {
+            this.batches = new ArrayBlockingQueue<>(maxBatchesInFlight - 1);
+            this.dispatcherService = Executors.newSingleThreadExecutor();
+        } else {
+            this.batches = null;
+            this.dispatcherService = null;
+        }
+        this.pollingController = properties.getLongPolling().getAdaptive().isEnabled()
+            ? new AdaptivePollingController(properties.getLongPolling())
+            : null;
+    }
+
+    private static boolean isDurable(UpdateProcessorType type) {
+        return type == UpdateProcessorType.SCHEDULER_WITH_CRUD
+            || type == UpdateProcessorType.SCHEDULER_WITH_LOG;
     }
 
     /**
@@ -92,23 +194,92 @@ public class LongPollingSession implements TelegramBotSession, Runnable {
             throw new IllegalStateException("Session already running");
         }
 
-        readerService.scheduleWithFixedDelay(this, 0, 1, TimeUnit.MILLISECONDS);
         running.set(true);
+        if (dispatcherService != null && batches != null) {
+            dispatcherService.execute(() -> dispatchLoop(batches));
+        }
+        readerService.scheduleWithFixedDelay(this, 0, 1, TimeUnit.MILLISECONDS);
 
         log.info("Started listen messages");
     }
 
+    /**
+     * Sets the id of the last received update, so the session starts reading updates after it.
+     * Telegram considers all updates up to this id as confirmed with the first request.
+     *
+     * @param lastReceivedUpdate the id of the last received update
+     * @throws IllegalStateException If the session is already running
+     */
+    public synchronized void setLastReceivedUpdate(int lastReceivedUpdate) {
+        if (running.get()) {
+            throw new IllegalStateException("Session already running");
+        }
+        this.lastReceivedUpdate = lastReceivedUpdate;
+    }
+
+    /**
+     * Sets the transport of the consume client, so the getUpdates request in flight is cancelled
+     * when the session is stopped. Without it, the request is finished by Telegram or by the read
+     * timeout, and its updates are dropped.
+     *
+     * @param transport the transport used by the consume client
+     * @throws IllegalStateException If the session is already running
+     */
+    public synchronized void setTransport(TelegramHttpTransport transport) {
+        Assert.required(transport, "TelegramHttpTransport");
+        if (running.get()) {
+            throw new IllegalStateException("Session already running");
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Sets the controller of adaptive polling instead of the one created from the properties, so
+     * sessions replacing each other, like sessions of {@link LeaderElectedSession} terms, share
+     * one controller and its metrics.
+     *
+     * @param pollingController the controller, or null to disable adaptive polling
+     * @throws IllegalStateException If the session is already running
+     */
+    public synchronized void setPollingController(
+        @Nullable AdaptivePollingController pollingController
+    ) {
+        if (running.get()) {
+            throw new IllegalStateException("Session already running");
+        }
+        this.pollingController = pollingController;
+    }
+
     /**
      * Stops the long polling session.
      *
-     * <p>This method shuts down the reader service and invokes the onClosing method of the
-     * callback to perform any necessary cleanup.
+     * <p>This method interrupts the polling thread and cancels the getUpdates request in flight,
+     * then waits a short time until the polling thread finishes. Updates received after this
+     * method is called are not handed to the processor. In pipelined mode batches that were
+     * already fetched are still handed to the processor before the dispatcher stops.
      */
     public synchronized void stop() {
         if (running.get()) {
-            readerService.shutdown();
-
             running.set(false);
+            readerService.shutdownNow();
+            cancelRequest();
+            try {
+                if (!readerService.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // the request could be sent after it was cancelled first time
+                    cancelRequest();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (dispatcherService != null) {
+                dispatcherService.shutdown();
+            }
+        }
+    }
+
+    private void cancelRequest() {
+        if (transport != null) {
+            transport.cancelUpdateRequests(telegramProperties.getToken());
         }
     }
 
@@ -120,29 +291,175 @@ public class LongPollingSession implements TelegramBotSession, Runnable {
      */
     @Override
     public void run() {
+        if (!running.get()) {
+            return;
+        }
         try {
-            List<Update> updates = getUpdatesFromServer();
-            log.trace("Updates size {}", updates.size());
+            int limit = sessionProperties.getLongPolling().getUpdateLimit();
+            if (pollingController != null) {
+                if (pollingController.decide(processor.getLoad()) == Decision.PAUSE) {
+                    log.trace("Processor is saturated, polling is paused");
+                    Thread.sleep(pollingController.getPauseIntervalMillis());
+                    return;
+                }
+                limit = pollingController.getLimit();
+            }
+            dispatchNanos = 0;
+            if (streamingClient != null) {
+                receiveStreaming(streamingClient, limit);
+            } else {
+                receive(limit);
+            }
+            if (pollingController != null) {
+                pollingController.recordDispatch(dispatchNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception global) {
+            log.error(global.getLocalizedMessage(), global);
+        }
+    }
+
+    private void receive(int limit) throws InterruptedException {
+        List<Update> updates = getUpdatesFromServer(limit);
+        log.trace("Updates size {}", updates.size());
+        receive(updates);
+    }
+
+    /**
+     * Drops already received updates from the batch, advances the offset and dispatches the rest.
+     *
+     * @param updates the updates of one response, mutable
+     */
+    private void receive(List<Update> updates) throws InterruptedException {
+        if (!running.get()) {
+            log.debug("Session is stopped, {} received updates are dropped", updates.size());
+            return;
+        }
+        if (!updates.isEmpty()) {
+            // single pass: find the new offset and check if there are already received updates
+            int last = lastReceivedUpdate;
+            int max = last;
+            boolean hasReceived = false;
+            for (Update update : updates) {
+                int updateId = update.getUpdateId();
+                if (updateId <= last) {
+                    hasReceived = true;
+                } else if (updateId > max) {
+                    max = updateId;
+                }
+            }
+            if (hasReceived) {
+                updates.removeIf(update -> update.getUpdateId() <= last);
+            }
+            lastReceivedUpdate = max;
             if (!updates.isEmpty()) {
-                updates.removeIf(x -> x.getUpdateId() < lastReceivedUpdate);
-                lastReceivedUpdate = updates.stream()
-                    .map(Update::getUpdateId)
-                    .max(Integer::compareTo)
-                    .orElse(0);
+                dispatch(updates);
+            }
+        }
+    }
+
+    /**
+     * Hands the received batch to the processor. In pipelined mode the batch is put to the ring
+     * and this method blocks only while the ring is full.
+     *
+     * @param updates received updates, not empty
+     * @throws InterruptedException if interrupted while waiting for free space in the ring
+     */
+    private void dispatch(List<Update> updates) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            if (batches == null) {
                 processor.process(updates);
+            } else {
+                batches.put(updates);
+                log.trace("Batch put to the ring, batches in ring {}", batches.size());
+            }
+        } finally {
+            dispatchNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * The loop of the dispatcher thread in pipelined mode. Takes batches from the ring in order
+     * of receiving and passes them to the processor until the session is stopped and the ring is
+     * drained.
+     *
+     * @param ring the ring with received batches
+     */
+    private void dispatchLoop(BlockingQueue<List<Update>> ring) {
+        while (running.get() || !ring.isEmpty()) {
+            try {
+                List<Update> updates = ring.poll(100, TimeUnit.MILLISECONDS);
+                if (updates != null) {
+                    processor.process(updates);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception global) {
+                log.error(global.getLocalizedMessage(), global);
+            }
+        }
+    }
+
+    /**
+     * Reads updates with the streaming client. With {@link UpdateProcessorType#ON_FLY} every update
+     * is dispatched as soon as it is parsed, and the offset is tracked on the way. Otherwise the
+     * updates of the response are dispatched as one batch after the response is read.
+     */
+    private void receiveStreaming(StreamingTelegramConsumeClient client, int limit)
+        throws InterruptedException {
+        boolean oneByOne = sessionProperties.getUpdateProcessorType() == UpdateProcessorType.ON_FLY;
+        List<Update> received = new ArrayList<>();
+        try {
+            log.trace("Started request");
+            int count = client.getUpdates(
+                telegramProperties.getToken(),
+                lastReceivedUpdate + 1,
+                limit,
+                sessionProperties.getLongPolling().getUpdateTimeout(),
+                sessionProperties.getLongPolling().getAllowedUpdates(),
+                oneByOne ? this::dispatchStreamed : received::add
+            );
+            backOff.reset();
+            log.trace("Finished request, updates size {}", count);
+            if (!received.isEmpty()) {
+                receive(received);
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception exception) {
+            if (!running.get()) {
+                log.debug("The request is cancelled because the session is stopped");
+                return;
             }
+            log.error("Error while reading updates", exception);
+            Thread.sleep(backOff.nextBackOffMillis());
+        }
+    }
+
+    private void dispatchStreamed(Update update) throws InterruptedException {
+        if (!running.get() || update.getUpdateId() <= lastReceivedUpdate) {
+            return;
+        }
+        lastReceivedUpdate = update.getUpdateId();
+        try {
+            dispatch(List.of(update));
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception global) {
             log.error(global.getLocalizedMessage(), global);
         }
     }
 
-    private List<Update> getUpdatesFromServer() {
+    private List<Update> getUpdatesFromServer(int limit) {
         try {
             log.trace("Started request");
             TelegramConsumeClient.UpdateResponse response = telegramClient.getUpdates(
                 telegramProperties.getToken(),
                 lastReceivedUpdate + 1,
-                sessionProperties.getLongPolling().getUpdateLimit(),
+                limit,
                 sessionProperties.getLongPolling().getUpdateTimeout(),
                 sessionProperties.getLongPolling().getAllowedUpdates()
             );
@@ -153,6 +470,10 @@ public class LongPollingSession implements TelegramBotSession, Runnable {
             log.trace("Finished request");
             return response.getResult();
         } catch (Exception exception) {
+            if (!running.get()) {
+                log.debug("The request is cancelled because the session is stopped");
+                return Collections.emptyList();
+            }
             log.error("Error while reading updates", exception);
             try {
                 Thread.sleep(backOff.nextBackOffMillis());
@@ -162,4 +483,12 @@ public class LongPollingSession implements TelegramBotSession, Runnable {
         }
         return Collections.emptyList();
     }
+
+    /**
+     * @return the controller of adaptive polling, or null if adaptive polling is disabled
+     */
+    @Nullable
+    public AdaptivePollingController getPollingController() {
+        return pollingController;
+    }
 }
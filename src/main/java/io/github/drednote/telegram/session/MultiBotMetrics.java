@@ -0,0 +1,51 @@
+package io.github.drednote.telegram.session;
+
+import io.github.drednote.telegram.session.MultiBotSession.Bot;
+import io.github.drednote.telegram.utils.Assert;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Exposes statistics of bots served by {@link MultiBotSession} as metrics tagged by {@code bot}:
+ * <ul>
+ *     <li>{@code telegram.bot.updates.received} - the number of received updates</li>
+ *     <li>{@code telegram.bot.updates.handled} - the number of handled updates</li>
+ *     <li>{@code telegram.bot.updates.failed} - the number of updates failed with an exception</li>
+ *     <li>{@code telegram.bot.updates.pending} - the number of received but not handled updates</li>
+ *     <li>{@code telegram.bot.poll.errors} - the number of failed getUpdates requests</li>
+ * </ul>
+ *
+ * @author Ivan Galushko
+ */
+public class MultiBotMetrics implements MeterBinder {
+
+    private final MultiBotSession session;
+
+    public MultiBotMetrics(MultiBotSession session) {
+        Assert.required(session, "MultiBotSession");
+        this.session = session;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Bot bot : session.getBots()) {
+            FunctionCounter.builder("telegram.bot.updates.received", bot, Bot::getReceivedCount)
+                .tag("bot", bot.getName())
+                .register(registry);
+            FunctionCounter.builder("telegram.bot.updates.handled", bot, Bot::getHandledCount)
+                .tag("bot", bot.getName())
+                .register(registry);
+            FunctionCounter.builder("telegram.bot.updates.failed", bot, Bot::getFailedCount)
+                .tag("bot", bot.getName())
+                .register(registry);
+            FunctionCounter.builder("telegram.bot.poll.errors", bot, Bot::getPollErrorCount)
+                .tag("bot", bot.getName())
+                .register(registry);
+            Gauge.builder("telegram.bot.updates.pending", bot, Bot::getPendingCount)
+                .tag("bot", bot.getName())
+                .register(registry);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.drednote.telegram.session;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * Properties of multi-bot mode, in which many bots are served by one {@link MultiBotSession} over
+ * shared worker threads, a shared timer and a shared HTTP connection pool.
+ *
+ * @see MultiBotSession
+ */
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties("drednote.telegram.multi-bot")
+public class MultiBotProperties {
+
+    /**
+     * Enable multi-bot mode
+     */
+    private boolean enabled = false;
+    /**
+     * Bot definitions by name. The name is used in logs and as a tag of metrics
+     */
+    @NonNull
+    private Map<String, BotDefinition> bots = new LinkedHashMap<>();
+    /**
+     * The number of worker threads shared by all bots
+     */
+    @NonNull
+    private int workerThreads = 10;
+    /**
+     * The maximum number of updates of one bot handled at the same time. Other updates of the bot
+     * wait while workers serve the other bots
+     */
+    @NonNull
+    private int maxThreadsPerBot = 2;
+    /**
+     * The maximum number of received but not handled updates of one bot. When it is reached, the
+     * bot stops polling until some updates are handled, the other bots are not affected
+     */
+    @NonNull
+    private int maxUpdatesPerBot = 100;
+
+    @Getter
+    @Setter
+    public static class BotDefinition {
+
+        /**
+         * The token of a bot.
+         * <p>
+         * <b>Required</b>
+         */
+        @Nullable
+        private String token;
+        /**
+         * Serve the bot
+         */
+        private boolean enabled = true;
+        /**
+         * A list of the update types the bot receives. If not specified,
+         * {@code drednote.telegram.session.long-polling.allowed-updates} is used
+         */
+        @Nullable
+        private List<String> allowedUpdates;
+    }
+}
@@ -0,0 +1,377 @@
+package io.github.drednote.telegram.session;
+
+import io.github.drednote.telegram.core.request.UpdateRequest;
+import io.github.drednote.telegram.session.MultiBotProperties.BotDefinition;
+import io.github.drednote.telegram.session.TelegramConsumeClient.UpdateResponse;
+import io.github.drednote.telegram.session.processor.BoundedExecutor;
+import io.github.drednote.telegram.session.processor.PartitionedExecutor;
+import io.github.drednote.telegram.session.processor.VirtualThreadExecutor;
+import io.github.drednote.telegram.session.processor.WorkerPoolExecutor;
+import io.github.drednote.telegram.utils.Assert;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.telegram.telegrambots.longpolling.interfaces.BackOff;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+/**
+ * {@link TelegramBotSession} serving many bots in one JVM with long polling.
+ *
+ * <p>Every bot has its own {@link TelegramUpdateProcessor}, created by {@link BotProcessorFactory},
+ * so rate limits and {@code maxThreadsPerUser} are applied per user of each bot. Bots do not own
+ * worker threads. All of them share:
+ * <ul>
+ *     <li>one pool of {@code workerThreads} worker threads. Every bot hands its updates to the
+ *     pool through its own {@link PartitionedExecutor}, partitioned by user. So updates of one
+ *     user of a bot are handled in order, not more than {@code maxThreadsPerBot} updates of one
+ *     bot are handled at the same time and a busy bot can not starve the others</li>
+ *     <li>one timer scheduling the next getUpdates request of every bot, for example after a
+ *     back off, and periodic tasks of processors, such as rate limit notifications</li>
+ *     <li>one {@link TelegramConsumeClient} and so one HTTP connection pool</li>
+ * </ul>
+ * Every bot can hold not more than {@code maxUpdatesPerBot} received but not handled updates. When
+ * this limit is reached, only this bot stops polling until its updates are handled.
+ *
+ * <p>A getUpdates request is blocking, so a poller thread is held for the whole long poll of a
+ * bot, up to {@code updateTimeout}. On Java 21 or newer pollers are virtual threads, and a pending
+ * request costs no platform thread. On older versions pollers are platform threads of a cached
+ * pool, one per bot waiting for updates, so there it is recommended to keep the number of bots
+ * moderate.
+ *
+ * @author Ivan Galushko
+ * @see MultiBotProperties
+ */
+public class MultiBotSession implements TelegramBotSession {
+
+    private static final Logger log = LoggerFactory.getLogger(MultiBotSession.class);
+
+    private final TelegramConsumeClient consumeClient;
+    private final SessionProperties sessionProperties;
+    private final List<Bot> bots;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final ScheduledExecutorService timer;
+    private final ExecutorService pollers;
+    private final WorkerPoolExecutor workers;
+    @Nullable
+    private TelegramHttpTransport transport;
+
+    /**
+     * Constructs a {@code MultiBotSession}.
+     *
+     * @param consumeClient     the client to receive updates, shared by all bots
+     * @param sessionProperties session properties, long polling settings, back off strategy and
+     *                          {@code maxThreadsPerUser} are applied to every bot
+     * @param properties        multi-bot properties
+     * @param processorFactory  creates the processor of updates of every bot
+     * @param backOffFactory    creates a back off for every bot
+     * @throws IllegalArgumentException if the properties are invalid
+     */
+    public MultiBotSession(
+        TelegramConsumeClient consumeClient, SessionProperties sessionProperties,
+        MultiBotProperties properties, BotProcessorFactory processorFactory,
+        Supplier<BackOff> backOffFactory
+    ) {
+        Assert.required(consumeClient, "TelegramConsumeClient");
+        Assert.required(sessionProperties, "SessionProperties");
+        Assert.required(properties, "MultiBotProperties");
+        Assert.required(processorFactory, "BotProcessorFactory");
+        Assert.required(backOffFactory, "BackOff factory");
+        if (properties.getWorkerThreads() <= 0) {
+            throw new IllegalArgumentException("workerThreads must be greater than 0");
+        }
+        if (properties.getMaxThreadsPerBot() <= 0) {
+            throw new IllegalArgumentException("maxThreadsPerBot must be greater than 0");
+        }
+        if (properties.getMaxUpdatesPerBot() <= 0) {
+            throw new IllegalArgumentException("maxUpdatesPerBot must be greater than 0");
+        }
+        if (sessionProperties.getMaxThreadsPerUser() < 0) {
+            throw new IllegalArgumentException("maxThreadsPerUser must be greater than or equal to 0");
+        }
+
+        this.workers = new WorkerPoolExecutor(
+            namedThreadFactory("telegram-worker-"), properties.getWorkerThreads(), 0);
+        this.timer = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("telegram-timer-"));
+        List<Bot> definedBots = new ArrayList<>();
+        try {
+            for (Map.Entry<String, BotDefinition> entry : properties.getBots().entrySet()) {
+                BotDefinition definition = entry.getValue();
+                if (definition == null || !definition.isEnabled()) {
+                    continue;
+                }
+                if (definition.getToken() == null || definition.getToken().isBlank()) {
+                    throw new IllegalArgumentException(
+                        "Token is required for bot '" + entry.getKey() + "'");
+                }
+                PartitionedExecutor executor = new PartitionedExecutor(workers,
+                    properties.getMaxThreadsPerBot(), properties.getMaxUpdatesPerBot(),
+                    sessionProperties.getMaxThreadsPerUser());
+                TelegramUpdateProcessor processor = processorFactory.create(
+                    entry.getKey(), definition, executor, timer);
+                Assert.required(processor, "TelegramUpdateProcessor");
+                definedBots.add(new Bot(entry.getKey(), definition, processor, executor,
+                    backOffFactory.get()));
+            }
+            if (definedBots.isEmpty()) {
+                throw new IllegalArgumentException("At least one enabled bot must be defined");
+            }
+        } catch (RuntimeException e) {
+            // processors already created may have scheduled tasks on the timer
+            definedBots.forEach(Bot::close);
+            timer.shutdownNow();
+            workers.shutdown();
+            throw e;
+        }
+
+        this.consumeClient = consumeClient;
+        this.sessionProperties = sessionProperties;
+        this.bots = Collections.unmodifiableList(definedBots);
+        this.pollers = Executors.newCachedThreadPool(pollerThreadFactory());
+    }
+
+    private static ThreadFactory pollerThreadFactory() {
+        try {
+            return VirtualThreadExecutor.newVirtualThreadFactory("telegram-poller-");
+        } catch (IllegalStateException e) {
+            log.debug("Virtual threads are not supported, pollers are platform threads");
+            return namedThreadFactory("telegram-poller-");
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        return runnable -> {
+            Thread thread = defaultFactory.newThread(runnable);
+            thread.setName(prefix + counter.incrementAndGet());
+            return thread;
+        };
+    }
+
+    /**
+     * Starts polling of all bots.
+     *
+     * @throws IllegalStateException If the session is already running
+     */
+    @Override
+    public synchronized void start() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Session already running");
+        }
+        bots.forEach(bot -> bot.schedule(0));
+        log.info("Started listen messages for {} bots", bots.size());
+    }
+
+    /**
+     * Sets the transport of the consume client, so getUpdates requests in flight are cancelled
+     * when the session is stopped.
+     *
+     * @param transport the transport used by the consume client
+     * @throws IllegalStateException If the session is already running
+     */
+    public synchronized void setTransport(TelegramHttpTransport transport) {
+        Assert.required(transport, "TelegramHttpTransport");
+        if (running.get()) {
+            throw new IllegalStateException("Session already running");
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Stops polling of all bots and closes their processors. Pending requests are interrupted and
+     * cancelled, updates already admitted to workers are still handled.
+     */
+    @Override
+    public synchronized void stop() {
+        if (running.compareAndSet(true, false)) {
+            timer.shutdownNow();
+            pollers.shutdownNow();
+            if (transport != null) {
+                bots.forEach(bot -> transport.cancelUpdateRequests(bot.definition.getToken()));
+            }
+            bots.forEach(Bot::close);
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * @return the bots served by this session
+     */
+    public Collection<Bot> getBots() {
+        return bots;
+    }
+
+    /**
+     * Creates the processor of updates of a bot served by {@link MultiBotSession}.
+     */
+    @FunctionalInterface
+    public interface BotProcessorFactory {
+
+        /**
+         * Creates the processor of updates of the bot. The processor should run updates on the
+         * given executor and should set the name of the bot to {@link UpdateRequest}, so handlers
+         * can be scoped to the bot.
+         *
+         * @param name       the name of the bot
+         * @param definition the definition of the bot
+         * @param executor   the executor of the bot, partitioned by user and backed by the worker
+         *                   threads shared by all bots. Owned by the session
+         * @param timer      the timer shared by all bots, for periodic tasks of the processor.
+         *                   Owned by the session
+         * @return the processor of updates of the bot, closed when the session is stopped
+         */
+        TelegramUpdateProcessor create(
+            String name, BotDefinition definition, BoundedExecutor executor, ScheduledExecutorService timer);
+    }
+
+    /**
+     * A bot served by {@link MultiBotSession} and its statistics.
+     */
+    public final class Bot {
+
+        private final String name;
+        private final BotDefinition definition;
+        private final TelegramUpdateProcessor processor;
+        private final PartitionedExecutor executor;
+        private final BackOff backOff;
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong pollErrors = new AtomicLong();
+        /**
+         * Accessed only by the poller thread of the current request, requests of one bot never
+         * overlap
+         */
+        private int lastReceivedUpdate = 0;
+
+        private Bot(
+            String name, BotDefinition definition, TelegramUpdateProcessor processor,
+            PartitionedExecutor executor, BackOff backOff
+        ) {
+            this.name = name;
+            this.definition = definition;
+            this.processor = processor;
+            this.executor = executor;
+            this.backOff = backOff;
+        }
+
+        private void schedule(long delayMillis) {
+            if (!running.get()) {
+                return;
+            }
+            try {
+                timer.schedule(() -> pollers.execute(this::poll), delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("Session is stopped, bot '{}' will not poll", name);
+            }
+        }
+
+        private void poll() {
+            long delay = 0;
+            try {
+                List<Update> updates = new ArrayList<>();
+                for (Update update : getUpdates()) {
+                    if (update.getUpdateId() > lastReceivedUpdate) {
+                        lastReceivedUpdate = update.getUpdateId();
+                        updates.add(update);
+                    }
+                }
+                if (!updates.isEmpty() && running.get()) {
+                    received.addAndGet(updates.size());
+                    // blocks while the bot has maxUpdatesPerBot pending updates
+                    processor.process(updates);
+                }
+                backOff.reset();
+            } catch (Exception exception) {
+                if (!running.get()) {
+                    log.debug("Session is stopped, bot '{}' stops polling", name);
+                    return;
+                }
+                pollErrors.incrementAndGet();
+                log.error("Error while reading updates of bot '{}'", name, exception);
+                delay = backOff.nextBackOffMillis();
+            }
+            schedule(delay);
+        }
+
+        private void close() {
+            executor.shutdown();
+            try {
+                processor.close();
+            } catch (Exception e) {
+                log.error("Cannot close the processor of bot '{}'", name, e);
+            }
+        }
+
+        private List<Update> getUpdates() throws TelegramApiException {
+            SessionProperties.LongPollingSessionProperties longPolling = sessionProperties.getLongPolling();
+            UpdateResponse response = consumeClient.getUpdates(
+                definition.getToken(),
+                lastReceivedUpdate + 1,
+                longPolling.getUpdateLimit(),
+                longPolling.getUpdateTimeout(),
+                definition.getAllowedUpdates() != null
+                    ? definition.getAllowedUpdates()
+                    : longPolling.getAllowedUpdates()
+            );
+            if (!response.isOk()) {
+                throw new TelegramApiException("Telegram api return not ok for bot '" + name + "'");
+            }
+            return response.getResult() != null ? response.getResult() : List.of();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of received updates
+         */
+        public long getReceivedCount() {
+            return received.get();
+        }
+
+        /**
+         * @return the number of handled updates, including failed. Updates rejected by rate limits
+         * are not handled
+         */
+        public long getHandledCount() {
+            return executor.getCompletedTaskCount();
+        }
+
+        /**
+         * @return the number of updates failed with an unhandled exception
+         */
+        public long getFailedCount() {
+            return executor.getFailedTaskCount();
+        }
+
+        /**
+         * @return the number of failed getUpdates requests
+         */
+        public long getPollErrorCount() {
+            return pollErrors.get();
+        }
+
+        /**
+         * @return the number of admitted but not yet handled updates
+         */
+        public int getPendingCount() {
+            return executor.getQueueSize() + executor.getActiveCount();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.drednote.telegram.session;
+
+import io.github.drednote.telegram.utils.Assert;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.lang.Nullable;
+
+/**
+ * {@link ClientHttpRequestFactory} executing requests of {@code RestClient} with the given
+ * {@link OkHttpClient}, so {@link TelegramConsumeClient} shares the connection pool with the
+ * client sending requests to Telegram API.
+ *
+ * <p>The response body is not buffered and is read directly from the connection.
+ *
+ * @author Ivan Galushko
+ * @see TelegramHttpTransport
+ */
+class OkHttpClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+    private final OkHttpClient client;
+
+    OkHttpClientHttpRequestFactory(OkHttpClient client) {
+        Assert.required(client, "OkHttpClient");
+        this.client = client;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new OkHttpClientHttpRequest(client, uri, httpMethod);
+    }
+
+    private static final class OkHttpClientHttpRequest extends AbstractClientHttpRequest {
+
+        private final OkHttpClient client;
+        private final URI uri;
+        private final HttpMethod method;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+
+        private OkHttpClientHttpRequest(
+            OkHttpClient client, URI uri, HttpMethod method
+        ) {
+            this.client = client;
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            Request.Builder builder = new Request.Builder().url(uri.toURL());
+            headers.forEach((name, values) -> values.forEach(value -> builder.addHeader(name, value)));
+
+            RequestBody requestBody = null;
+            if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+                String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+                requestBody = RequestBody.create(body.toByteArray(),
+                    contentType != null ? MediaType.parse(contentType) : null);
+            }
+            builder.method(method.name(), requestBody);
+
+            return new OkHttpClientHttpResponse(client.newCall(builder.build()).execute());
+        }
+    }
+
+    private static final class OkHttpClientHttpResponse implements ClientHttpResponse {
+
+        private final Response response;
+        @Nullable
+        private HttpHeaders headers;
+
+        private OkHttpClientHttpResponse(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatusCode.valueOf(response.code());
+        }
+
+        @Override
+        public String getStatusText() {
+            return response.message();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            if (headers == null) {
+                HttpHeaders result = new HttpHeaders();
+                response.headers().forEach(header -> result.add(header.getFirst(), header.getSecond()));
+                headers = result;
+            }
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            ResponseBody responseBody = response.body();
+            return responseBody != null ? responseBody.byteStream() : InputStream.nullInputStream();
+        }
+
+        @Override
+        public void close() {
+            response.close();
+        }
+    }
+}
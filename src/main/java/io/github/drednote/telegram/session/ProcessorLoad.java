@@ -0,0 +1,48 @@
+package io.github.drednote.telegram.session;
+
+/**
+ * A snapshot of the load of {@link TelegramUpdateProcessor}, used by the session to adapt polling.
+ *
+ * @param queued   the number of updates waiting for a worker
+ * @param capacity the maximum number of waiting updates. 0 - not bounded
+ * @param active   the number of updates being handled
+ * @param workers  the maximum number of updates handled at the same time. 0 - the load is unknown
+ * @author Ivan Galushko
+ * @see TelegramUpdateProcessor#getLoad()
+ * @see AdaptivePollingController
+ */
+public record ProcessorLoad(int queued, int capacity, int active, int workers) {
+
+    /**
+     * The load of a processor that does not report it
+     */
+    public static final ProcessorLoad UNKNOWN = new ProcessorLoad(0, 0, 0, 0);
+
+    /**
+     * @return true if the processor reports its load
+     */
+    public boolean isKnown() {
+        return workers > 0;
+    }
+
+    /**
+     * Returns the occupancy of the queue. If the queue is not bounded, the number of waiting updates
+     * is related to the number of workers, so 1.0 means one waiting update per worker.
+     *
+     * @return the occupancy of the queue, from 0.0 to 1.0
+     */
+    public double occupancy() {
+        int reference = capacity > 0 ? capacity : workers;
+        if (reference <= 0) {
+            return 0;
+        }
+        return Math.min(1.0, (double) queued / reference);
+    }
+
+    /**
+     * @return true if nothing waits in the queue and some workers are free
+     */
+    public boolean isIdle() {
+        return queued == 0 && active < workers;
+    }
+}
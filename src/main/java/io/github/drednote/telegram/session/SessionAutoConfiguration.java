@@ -1,31 +1,35 @@
 package io.github.drednote.telegram.session;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.drednote.telegram.TelegramProperties;
+import io.github.drednote.telegram.core.DefaultTelegramBot;
 import io.github.drednote.telegram.core.TelegramBot;
 import io.github.drednote.telegram.core.TelegramMessageSource;
+import io.github.drednote.telegram.datasource.session.JacksonUpdatePayloadCodec;
 import io.github.drednote.telegram.datasource.session.UpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.UpdatePayloadCodec;
 import io.github.drednote.telegram.datasource.session.inmemory.InMemoryUpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.log.LogUpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.exception.ExceptionHandler;
 import io.github.drednote.telegram.filter.FilterProperties;
-import io.github.drednote.telegram.session.SessionProperties.ProxyType;
-import io.github.drednote.telegram.session.SessionProperties.ProxyUrl;
+import io.github.drednote.telegram.filter.UpdateFilterProvider;
+import io.github.drednote.telegram.filter.internal.TelegramResponseEnricher;
+import io.github.drednote.telegram.handler.UpdateHandler;
+import io.github.drednote.telegram.session.SessionProperties.UpdateProcessorType;
 import io.github.drednote.telegram.session.processor.OnFlyTelegramUpdateProcessor;
 import io.github.drednote.telegram.session.processor.SchedulerTelegramUpdateProcessor;
 import io.github.drednote.telegram.session.processor.TelegramUpdateReader;
+import io.github.drednote.telegram.session.processor.UpdateInboxMetrics;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import java.lang.reflect.InvocationTargetException;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.Proxy.Type;
-import java.util.function.Consumer;
-import okhttp3.OkHttpClient;
-import org.apache.hc.client5.http.auth.AuthScope;
-import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
-import org.apache.hc.client5.http.classic.HttpClient;
-import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
-import org.apache.hc.core5.http.HttpHost;
+import java.util.Collection;
+import java.util.concurrent.Executors;
 import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnSingleCandidate;
@@ -34,10 +38,8 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.event.EventListener;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.lang.Nullable;
 import org.springframework.web.client.RestClient;
-import org.springframework.web.client.RestClient.Builder;
 import org.springframework.web.client.support.RestClientAdapter;
 import org.springframework.web.service.invoker.HttpServiceProxyFactory;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
@@ -52,7 +54,9 @@ import org.telegram.telegrambots.meta.generics.TelegramClient;
  * including long polling and webhooks, based on properties defined in the application's configuration.
  */
 @AutoConfiguration
-@EnableConfigurationProperties(SessionProperties.class)
+@EnableConfigurationProperties({
+    SessionProperties.class, HttpProperties.class, MultiBotProperties.class
+})
 public class SessionAutoConfiguration {
 
     /**
@@ -65,20 +69,80 @@ public class SessionAutoConfiguration {
     @Bean(destroyMethod = "stop")
     @ConditionalOnProperty(
         prefix = "drednote.telegram.session",
-        name = "type",
+        name = "update-strategy",
         havingValue = "LONG_POLLING",
         matchIfMissing = true
     )
-    @ConditionalOnMissingBean
+    @ConditionalOnMissingBean(ignored = MultiBotSession.class)
+    @ConditionalOnExpression("!'${drednote.telegram.token:}'.isBlank()")
     public TelegramBotSession longPollingTelegramBotSession(
         TelegramConsumeClient telegramConsumeClient, SessionProperties properties,
-        TelegramProperties telegramProperties, TelegramUpdateProcessor processor
+        TelegramProperties telegramProperties, TelegramUpdateProcessor processor,
+        TelegramHttpTransport transport, ObjectProvider<LeaderElector> electors,
+        ObjectProvider<UpdateInboxRepositoryAdapter<?>> adapters,
+        ObjectProvider<AdaptivePollingController> pollingControllers
     ) {
+        AdaptivePollingController pollingController = pollingControllers.getIfUnique();
+        StreamingTelegramConsumeClient streamingClient = properties.getLongPolling().isStreaming()
+            ? new StreamingTelegramConsumeClient(consumeRestClient(transport), null)
+            : null;
+        if (!properties.getCluster().isEnabled()) {
+            LongPollingSession session = new LongPollingSession(telegramConsumeClient, streamingClient,
+                properties, telegramProperties, newBackOff(properties), processor);
+            session.setTransport(transport);
+            if (pollingController != null) {
+                session.setPollingController(pollingController);
+            }
+            return session;
+        }
+
+        if (properties.getUpdateProcessorType() != UpdateProcessorType.SCHEDULER_WITH_CRUD) {
+            throw new BeanCreationException(
+                "Cluster mode requires update processor type SCHEDULER_WITH_CRUD");
+        }
+        LeaderElector elector = electors.getIfAvailable();
+        UpdateInboxRepositoryAdapter<?> adapter = adapters.getIfAvailable();
+        if (elector == null || adapter == null) {
+            throw new BeanCreationException(
+                "Cluster mode requires LeaderElector and UpdateInboxRepositoryAdapter beans");
+        }
+        return new LeaderElectedSession(elector, () -> {
+            LongPollingSession session = new LongPollingSession(telegramConsumeClient,
+                streamingClient, properties, telegramProperties, newBackOff(properties), processor);
+            // continue after updates saved by the previous leader
+            session.setLastReceivedUpdate(adapter.findLastUpdateId());
+            session.setTransport(transport);
+            if (pollingController != null) {
+                // one controller for all terms keeps its state and metrics
+                session.setPollingController(pollingController);
+            }
+            return session;
+        }, properties.getCluster());
+    }
+
+    /**
+     * Configures the controller of adaptive polling shared by long polling sessions, so its metrics
+     * are bound once, even if the session is created again for every term of the leadership.
+     *
+     * @param properties Configuration properties for the session
+     * @return The configured controller
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(
+        prefix = "drednote.telegram.session.long-polling.adaptive",
+        name = "enabled",
+        havingValue = "true"
+    )
+    @ConditionalOnExpression("!'${drednote.telegram.token:}'.isBlank()")
+    public AdaptivePollingController adaptivePollingController(SessionProperties properties) {
+        return new AdaptivePollingController(properties.getLongPolling());
+    }
+
+    private static BackOff newBackOff(SessionProperties properties) {
         try {
             Class<? extends BackOff> backOffClazz = properties.getBackOffStrategy();
-            BackOff backOff = backOffClazz.getDeclaredConstructor().newInstance();
-            return new LongPollingSession(
-                telegramConsumeClient, properties, telegramProperties, backOff, processor);
+            return backOffClazz.getDeclaredConstructor().newInstance();
         } catch (InstantiationException | IllegalAccessException | InvocationTargetException |
                  NoSuchMethodException e) {
             throw new BeanCreationException("Cannot initiate BackOff", e);
@@ -88,20 +152,25 @@ public class SessionAutoConfiguration {
     /**
      * Configures a bean for the Telegram bot session using webhooks.
      *
-     * <p><b>Throws {@link UnsupportedOperationException} because webhooks are not yet
-     * implemented</b>
-     *
+     * @param telegramClient The Telegram client used to set and delete the webhook
+     * @param properties     Configuration properties for the session
+     * @param processor      The processor which received updates are handed to
+     * @param objectMapper   The mapper of the context to parse updates, if any
      * @return The configured Telegram bot session
      */
     @Bean(destroyMethod = "stop")
     @ConditionalOnProperty(
         prefix = "drednote.telegram.session",
-        name = "type",
+        name = "update-strategy",
         havingValue = "WEBHOOKS"
     )
-    @ConditionalOnMissingBean
-    public TelegramBotSession webhooksTelegramBotSession() {
-        throw new UnsupportedOperationException("Webhooks not implemented yet");
+    @ConditionalOnMissingBean(ignored = MultiBotSession.class)
+    @ConditionalOnExpression("!'${drednote.telegram.token:}'.isBlank()")
+    public TelegramBotSession webhooksTelegramBotSession(
+        TelegramClient telegramClient, SessionProperties properties, TelegramUpdateProcessor processor,
+        ObjectProvider<ObjectMapper> objectMapper
+    ) {
+        return new WebhookSession(telegramClient, properties, processor, objectMapper.getIfAvailable());
     }
 
     @EventListener(value = ApplicationReadyEvent.class)
@@ -109,35 +178,78 @@ public class SessionAutoConfiguration {
         ConfigurableApplicationContext context = event.getApplicationContext();
         SessionProperties properties = context.getBean(SessionProperties.class);
         if (properties.getSchedulerProcessor().isAutoSessionStart()) {
-            TelegramUpdateReader reader = context.getBean(TelegramUpdateReader.class);
-            reader.start();
+            // there is no reader if only bots of multi-bot mode are served
+            context.getBeanProvider(TelegramUpdateReader.class).ifAvailable(TelegramUpdateReader::start);
         }
         if (properties.isAutoSessionStart()) {
-            TelegramBotSession session = context.getBean(TelegramBotSession.class);
-            session.start();
+            // the session of the bot and the session of multi-bot mode, if any
+            context.getBeanProvider(TelegramBotSession.class).orderedStream()
+                .forEach(TelegramBotSession::start);
         }
     }
 
+    /**
+     * Configures a bean for resolving keys which updates are processed with respect to
+     * {@code maxThreadsPerUser}.
+     *
+     * @param properties Session properties
+     * @return The configured resolver
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public ConcurrencyKeyResolver concurrencyKeyResolver(SessionProperties properties) {
+        return new DefaultConcurrencyKeyResolver(properties.getConcurrencyKey());
+    }
+
+    /**
+     * Configures a bean of the update inbox kept in a local log, if the update processor type is
+     * {@link UpdateProcessorType#SCHEDULER_WITH_LOG}. Pending updates are restored from the log when the bean is
+     * created. Updates are written as JSON, unless a bean of {@link UpdatePayloadCodec} is declared.
+     *
+     * @param properties             Session properties
+     * @param messageSource          The message source
+     * @param concurrencyKeyResolver The resolver of keys of updates
+     * @param payloadCodec           The codec of updates in the log
+     * @return The configured adapter
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnExpression(
+        value = "#{environment.getProperty('drednote.telegram.session.update-processor-type')?.equalsIgnoreCase('SCHEDULER_WITH_LOG')}"
+    )
+    @ConditionalOnMissingBean(UpdateInboxRepositoryAdapter.class)
+    public LogUpdateInboxRepositoryAdapter logUpdateInboxRepositoryAdapter(
+        SessionProperties properties, TelegramMessageSource messageSource,
+        ConcurrencyKeyResolver concurrencyKeyResolver, ObjectProvider<UpdatePayloadCodec> payloadCodec
+    ) {
+        return new LogUpdateInboxRepositoryAdapter(properties, messageSource, concurrencyKeyResolver,
+            payloadCodec.getIfAvailable(JacksonUpdatePayloadCodec::new));
+    }
+
     @Bean
     @ConditionalOnMissingBean
     @ConditionalOnSingleCandidate(TelegramBot.class)
     public TelegramUpdateProcessor defaultTelegramUpdateProcessor(
         SessionProperties properties, FilterProperties filterProperties, TelegramBot telegramBot,
         TelegramClient telegramClient, TelegramMessageSource messageSource,
+        ConcurrencyKeyResolver concurrencyKeyResolver,
         @Nullable @Autowired(required = false) UpdateInboxRepositoryAdapter<?> adapter
     ) {
         switch (properties.getUpdateProcessorType()) {
             case ON_FLY -> {
                 return new OnFlyTelegramUpdateProcessor(
-                    properties, filterProperties, telegramBot, telegramClient, messageSource);
+                    properties, filterProperties, telegramBot, telegramClient,
+                    Executors.defaultThreadFactory(), messageSource, concurrencyKeyResolver);
             }
-            case SCHEDULER_WITH_CRUD -> {
+            case SCHEDULER_WITH_CRUD, SCHEDULER_WITH_LOG -> {
                 return new SchedulerTelegramUpdateProcessor<>(
                     telegramBot, adapter, properties, filterProperties, telegramClient, messageSource);
             }
             default -> {
                 if (adapter == null) {
-                    adapter = new InMemoryUpdateInboxRepositoryAdapter(properties, messageSource);
+                    InMemoryUpdateInboxRepositoryAdapter inMemoryAdapter =
+                        new InMemoryUpdateInboxRepositoryAdapter(properties, messageSource);
+                    inMemoryAdapter.setConcurrencyKeyResolver(concurrencyKeyResolver);
+                    adapter = inMemoryAdapter;
                 }
                 return new SchedulerTelegramUpdateProcessor<>(
                     telegramBot, adapter, properties, filterProperties, telegramClient, messageSource);
@@ -152,68 +264,146 @@ public class SessionAutoConfiguration {
      */
     @Bean
     @ConditionalOnMissingBean
-    public TelegramConsumeClient telegramClient(SessionProperties properties) {
-        return getFactory(builder -> {
-            if (properties.getProxyType() == ProxyType.HTTP) {
-                throwIfProxyNull(properties);
-                builder.requestFactory(configureProxy(properties.getProxyUrl()));
-            }
-        }).createClient(TelegramConsumeClient.class);
+    public TelegramConsumeClient telegramClient(TelegramHttpTransport transport) {
+        RestClientAdapter adapter = RestClientAdapter.create(consumeRestClient(transport));
+        return HttpServiceProxyFactory.builderFor(adapter).build()
+            .createClient(TelegramConsumeClient.class);
     }
 
-    private static HttpServiceProxyFactory getFactory(Consumer<Builder> additionalSettings) {
-        RestClient.Builder builder = RestClient.builder();
-
-        additionalSettings.accept(builder);
-
-        RestClient restClient = builder
+    private static RestClient consumeRestClient(TelegramHttpTransport transport) {
+        return RestClient.builder()
+            .requestFactory(transport.getConsumeRequestFactory())
             .baseUrl(
                 TelegramUrl.DEFAULT_URL.getSchema() + "://" + TelegramUrl.DEFAULT_URL.getHost())
             .build();
+    }
 
-        RestClientAdapter adapter = RestClientAdapter.create(restClient);
-        return HttpServiceProxyFactory.builderFor(adapter).build();
+    /**
+     * Configures a bean for the HTTP transport shared by clients receiving updates and sending
+     * requests to Telegram API.
+     *
+     * @return The configured transport
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean
+    public TelegramHttpTransport telegramHttpTransport(
+        HttpProperties httpProperties, SessionProperties properties
+    ) {
+        return new TelegramHttpTransport(httpProperties, properties);
     }
 
-    private static HttpComponentsClientHttpRequestFactory configureProxy(ProxyUrl proxyUrl) {
-        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
-        HttpHost myProxy = new HttpHost(proxyUrl.getHost(), proxyUrl.getPort());
-        HttpClientBuilder clientBuilder = HttpClientBuilder.create();
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnExpression("!'${drednote.telegram.token:}'.isBlank()")
+    public TelegramClient absSender(
+        TelegramHttpTransport transport, TelegramProperties telegramProperties
+    ) {
+        return new OkHttpTelegramClient(transport.getSendingClient(), telegramProperties.getToken());
+    }
 
-        clientBuilder.setProxy(myProxy).disableCookieManagement();
+    @AutoConfiguration
+    @ConditionalOnClass(MeterBinder.class)
+    @ConditionalOnProperty(
+        prefix = "drednote.telegram.session.long-polling.adaptive",
+        name = "enabled",
+        havingValue = "true"
+    )
+    public static class AdaptivePollingMetricsAutoConfiguration {
 
-        if (proxyUrl.getUserName() != null) {
-            BasicCredentialsProvider credsProvider = new BasicCredentialsProvider();
-            credsProvider.setCredentials(
-                new AuthScope(myProxy),
-                new UsernamePasswordCredentials(proxyUrl.getUserName(), proxyUrl.getPassword())
-            );
-            clientBuilder.setDefaultCredentialsProvider(credsProvider);
+        /**
+         * Binds metrics of the controller of adaptive polling shared by long polling sessions.
+         *
+         * @param controllers the provider of the controller
+         * @return the binder of metrics
+         */
+        @Bean
+        public MeterBinder adaptivePollingMetrics(
+            ObjectProvider<AdaptivePollingController> controllers
+        ) {
+            return registry -> controllers.ifUnique(
+                controller -> new AdaptivePollingMetrics(controller).bindTo(registry));
         }
-
-        HttpClient httpClient = clientBuilder.build();
-        requestFactory.setHttpClient(httpClient);
-        return requestFactory;
     }
 
-    @Bean
-    @ConditionalOnMissingBean
-    public TelegramClient absSender(
-        SessionProperties properties, TelegramProperties telegramProperties) {
-        OkHttpClient.Builder okHttpClient = new OkHttpClient.Builder();
-        if (properties.getProxyType() == ProxyType.HTTP) {
-            ProxyUrl proxyUrl = properties.getProxyUrl();
-            throwIfProxyNull(properties);
-            okHttpClient.proxy(new Proxy(Type.HTTP,
-                new InetSocketAddress(proxyUrl.getHost(), proxyUrl.getPort())));
+    @AutoConfiguration
+    @ConditionalOnClass(MeterBinder.class)
+    public static class UpdateInboxMetricsAutoConfiguration {
+
+        /**
+         * Binds metrics of the purge of expired updates if the processor is
+         * {@link SchedulerTelegramUpdateProcessor} with configured retention.
+         *
+         * @param processors the provider of the processor
+         * @return the binder of metrics
+         */
+        @Bean
+        public MeterBinder updateInboxMetrics(ObjectProvider<TelegramUpdateProcessor> processors) {
+            return registry -> processors.ifAvailable(processor -> {
+                if (processor instanceof SchedulerTelegramUpdateProcessor<?> schedulerProcessor
+                    && schedulerProcessor.getPurger() != null) {
+                    new UpdateInboxMetrics(schedulerProcessor.getPurger()).bindTo(registry);
+                }
+            });
         }
-        OkHttpClient httpClient = okHttpClient.build();
-        return new OkHttpTelegramClient(httpClient, telegramProperties.getToken());
     }
 
-    private static void throwIfProxyNull(SessionProperties properties) {
-        if (properties.getProxyUrl() == null) {
-            throw new IllegalArgumentException("If proxy is enabled, proxy url is required");
+    @AutoConfiguration
+    @ConditionalOnProperty(
+        prefix = "drednote.telegram.multi-bot",
+        name = "enabled",
+        havingValue = "true"
+    )
+    public static class MultiBotAutoConfiguration {
+
+        /**
+         * Configures a session serving bots from {@link MultiBotProperties#getBots()}. Every bot
+         * has its own {@link TelegramClient} and {@link OnFlyTelegramUpdateProcessor}, but all of
+         * them share update handlers, filters, worker threads and the HTTP transport. Handlers are
+         * scoped to bots with {@code TelegramController#bots()}.
+         *
+         * @return The configured multi-bot session
+         */
+        @Bean(destroyMethod = "stop")
+        @ConditionalOnMissingBean
+        public MultiBotSession multiBotSession(
+            TelegramConsumeClient consumeClient, SessionProperties properties,
+            FilterProperties filterProperties, MultiBotProperties multiBotProperties,
+            TelegramHttpTransport transport, Collection<UpdateHandler> updateHandlers,
+            ExceptionHandler exceptionHandler, UpdateFilterProvider updateFilterProvider,
+            TelegramResponseEnricher enricher, TelegramMessageSource messageSource,
+            ConcurrencyKeyResolver concurrencyKeyResolver
+        ) {
+            MultiBotSession session = new MultiBotSession(consumeClient, properties, multiBotProperties,
+                (name, definition, executor, timer) -> {
+                    TelegramClient telegramClient =
+                        new OkHttpTelegramClient(transport.getSendingClient(), definition.getToken());
+                    TelegramBot telegramBot = new DefaultTelegramBot(updateHandlers, exceptionHandler,
+                        updateFilterProvider, telegramClient, enricher, name);
+                    return new OnFlyTelegramUpdateProcessor(properties, filterProperties, telegramBot,
+                        telegramClient, messageSource, concurrencyKeyResolver, executor,
+                        multiBotProperties.getMaxThreadsPerBot(), multiBotProperties.getMaxUpdatesPerBot(),
+                        timer);
+                },
+                () -> newBackOff(properties));
+            session.setTransport(transport);
+            return session;
+        }
+
+        @AutoConfiguration
+        @ConditionalOnClass(MeterBinder.class)
+        public static class MultiBotMetricsAutoConfiguration {
+
+            /**
+             * Binds metrics of bots served by {@link MultiBotSession}.
+             *
+             * @param sessions the provider of the session
+             * @return the binder of metrics
+             */
+            @Bean
+            public MeterBinder multiBotMetrics(ObjectProvider<MultiBotSession> sessions) {
+                return registry -> sessions.ifAvailable(
+                    session -> new MultiBotMetrics(session).bindTo(registry));
+            }
         }
     }
 }
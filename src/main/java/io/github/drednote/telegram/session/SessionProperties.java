@@ -4,12 +4,20 @@ import io.github.drednote.telegram.core.DefaultTelegramBot;
 import io.github.drednote.telegram.core.request.RequestType;
 import io.github.drednote.telegram.datasource.DataSourceAutoConfiguration;
 import io.github.drednote.telegram.datasource.session.UpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.UpdateInboxSharding;
 import io.github.drednote.telegram.datasource.session.inmemory.InMemoryUpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.log.LogUpdateInboxRepositoryAdapter;
 import io.github.drednote.telegram.response.TooManyRequestsTelegramResponse;
 import io.github.drednote.telegram.session.processor.OnFlyTelegramUpdateProcessor;
+import io.github.drednote.telegram.session.processor.PartitionedExecutor;
 import io.github.drednote.telegram.session.processor.SchedulerTelegramUpdateProcessor;
 import io.github.drednote.telegram.session.processor.SchedulerTelegramUpdateProcessorProperties;
+import io.github.drednote.telegram.session.processor.VirtualThreadExecutor;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -38,6 +46,16 @@ public class SessionProperties {
      */
     @NonNull
     private LongPollingSessionProperties longPolling = new LongPollingSessionProperties();
+    /**
+     * Webhook properties
+     */
+    @NonNull
+    private WebhookSessionProperties webhook = new WebhookSessionProperties();
+    /**
+     * Cluster mode properties
+     */
+    @NonNull
+    private ClusterProperties cluster = new ClusterProperties();
     /**
      * SchedulerTelegramUpdateProcessor properties.
      */
@@ -59,6 +77,22 @@ public class SessionProperties {
      */
     @NonNull
     private int maxThreadsPerUser = 1;
+    /**
+     * The type of executor used by {@link TelegramUpdateProcessor} to run updates.
+     *
+     * @see ExecutorType
+     */
+    @NonNull
+    private ExecutorType executorType = ExecutorType.FIXED;
+    /**
+     * The entity which updates are processed with respect to {@link #maxThreadsPerUser}, ordered by partitioned
+     * executor and stored with the same entity id in the update inbox. Ignored if a bean of
+     * {@link ConcurrencyKeyResolver} is declared.
+     *
+     * @see ConcurrencyKey
+     */
+    @NonNull
+    private ConcurrencyKey concurrencyKey = ConcurrencyKey.USER;
     /**
      * Cache lifetime used in {@link OnFlyTelegramUpdateProcessor}. This parameter needed just to delete staled buckets
      * to free up memory
@@ -77,7 +111,6 @@ public class SessionProperties {
     /**
      * The strategy to receive updates from Telegram API
      *
-     * @apiNote type WebHooks not implemented yet
      * @see <a href="https://core.telegram.org/bots/api#getting-updates">Getting updates</a>
      */
     @NonNull
@@ -163,6 +196,229 @@ public class SessionProperties {
          */
         @Nullable
         private List<String> allowedUpdates;
+        /**
+         * The number of getUpdates batches that can be in flight at the same time. With 1 the next request to
+         * Telegram is issued only after the previous batch is handed to {@link TelegramUpdateProcessor}. Values
+         * greater than 1 enable pipelined polling: the next request is issued as soon as the previous response is
+         * parsed, and up to (maxBatchesInFlight - 1) received batches wait in a bounded ring for dispatching.
+         * <p>
+         * Batches in the ring are already confirmed to Telegram by the next request, so they are lost if the
+         * application crashes (at most once delivery). Values greater than 1 are rejected for
+         * {@link UpdateProcessorType#SCHEDULER_WITH_CRUD} and {@link UpdateProcessorType#SCHEDULER_WITH_LOG}.
+         *
+         * @see LongPollingSession
+         */
+        @NonNull
+        private int maxBatchesInFlight = 1;
+        /**
+         * Read the getUpdates response with a streaming parser. With {@link UpdateProcessorType#ON_FLY} every update
+         * is handed to {@link TelegramUpdateProcessor} as soon as it is parsed, instead of waiting for the whole
+         * response, which reduces the time to the first handler. Other processors persist updates in batches, so they
+         * receive the updates of a response at once after it is read. Updates are never handed over if the response
+         * is not ok.
+         *
+         * @see StreamingTelegramConsumeClient
+         */
+        private boolean streaming = false;
+        /**
+         * Adaptive polling properties
+         */
+        @NonNull
+        private AdaptivePollingProperties adaptive = new AdaptivePollingProperties();
+    }
+
+    /**
+     * Properties of adaptive long polling. The limit of updates per request starts with {@code updateLimit} and
+     * is adapted to the load of {@link TelegramUpdateProcessor}, so the backlog stays on the Telegram side instead
+     * of the heap.
+     *
+     * @see AdaptivePollingController
+     */
+    @Getter
+    @Setter
+    public static class AdaptivePollingProperties {
+
+        /**
+         * Enable adaptive polling
+         */
+        private boolean enabled = false;
+        /**
+         * The minimum limit of updates per request
+         */
+        @NonNull
+        private int minUpdateLimit = 1;
+        /**
+         * The occupancy of the processor queue (0.0-1.0) above which the limit is shrunk
+         */
+        @NonNull
+        private double highLoadThreshold = 0.5;
+        /**
+         * The occupancy of the processor queue (0.0-1.0) at which getUpdates requests are paused until the
+         * processor catches up
+         */
+        @NonNull
+        private double saturationThreshold = 0.9;
+        /**
+         * If handing the previous batch to the processor took longer, the limit is shrunk
+         */
+        @NonNull
+        private Duration maxDispatchLatency = Duration.ofSeconds(1);
+        /**
+         * How long to wait before checking the processor load again while polling is paused
+         */
+        @NonNull
+        private Duration pauseInterval = Duration.ofMillis(100);
+    }
+
+    /**
+     * Properties of the cluster mode. If several instances of the application share one
+     * {@link UpdateInboxRepositoryAdapter}, only the elected leader receives updates with long polling, and every
+     * instance processes updates from the shared storage, so instances do not conflict with each other on getUpdates
+     * requests.
+     *
+     * @see LeaderElectedSession
+     */
+    @Getter
+    @Setter
+    public static class ClusterProperties {
+
+        /**
+         * Enable the cluster mode. Requires {@link UpdateProcessorType#SCHEDULER_WITH_CRUD} and a
+         * {@link LeaderElector}, which is configured automatically for Postgres, other JPA databases and MongoDB
+         */
+        private boolean enabled = false;
+        /**
+         * The name of the lock. Instances with the same lock name elect one leader
+         */
+        @NonNull
+        private String lockName = "telegram-long-polling";
+        /**
+         * The id of this instance, unique in the cluster. Defaults to the host name with a random suffix
+         */
+        @Nullable
+        private String nodeId;
+        /**
+         * How long the leadership is kept without renewal. Other instances take the leadership of a failed leader
+         * after this time. Not used by the Postgres advisory lock, which is released when the connection of the
+         * leader is closed
+         */
+        @NonNull
+        private Duration leaseDuration = Duration.ofSeconds(15);
+        /**
+         * How often the leadership is acquired or renewed. Must be less than {@code leaseDuration}
+         */
+        @NonNull
+        private Duration renewInterval = Duration.ofSeconds(5);
+        /**
+         * Sharding of updates between instances
+         */
+        @NonNull
+        private ShardingProperties sharding = new ShardingProperties();
+
+        public String getNodeId() {
+            if (nodeId == null) {
+                nodeId = defaultNodeId();
+            }
+            return nodeId;
+        }
+
+        private static String defaultNodeId() {
+            String host;
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                host = "unknown";
+            }
+            return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+    }
+
+    /**
+     * Properties of the sharding of updates between instances consuming updates from one shared storage. Updates of
+     * one entity are claimed by one instance, so its local caches are not missed. Does not require the election of the
+     * leader.
+     *
+     * @see UpdateInboxSharding
+     */
+    @Getter
+    @Setter
+    public static class ShardingProperties {
+
+        /**
+         * Enable the sharding. Applied only for {@link UpdateProcessorType#SCHEDULER_WITH_CRUD} with Postgres
+         */
+        private boolean enabled = false;
+        /**
+         * The number of shards, must be the same for all instances and much bigger than the number of instances
+         */
+        @NonNull
+        private int shards = 256;
+        /**
+         * How often the heartbeat of the instance is saved and shards are rebalanced
+         */
+        @NonNull
+        private Duration heartbeatInterval = Duration.ofSeconds(5);
+        /**
+         * How long an instance is considered live after its last heartbeat. Must be greater than
+         * {@code heartbeatInterval}
+         */
+        @NonNull
+        private Duration nodeTimeout = Duration.ofSeconds(15);
+    }
+
+    @Getter
+    @Setter
+    public static class WebhookSessionProperties {
+
+        /**
+         * The public HTTPS url which Telegram will send updates to. Passed to setWebhook on session start
+         */
+        @Nullable
+        private String url;
+        /**
+         * The path of the embedded endpoint which accepts updates
+         */
+        @NonNull
+        private String path = "/";
+        /**
+         * The address the embedded endpoint binds to
+         */
+        @NonNull
+        private String host = "0.0.0.0";
+        /**
+         * The port the embedded endpoint listens on. 0 - any free port
+         */
+        @NonNull
+        private int port = 8443;
+        /**
+         * A secret token to be sent by Telegram in the "X-Telegram-Bot-Api-Secret-Token" header in every
+         * webhook request. Requests without a matching header are rejected with 401. 1-256 characters, only
+         * A-Z, a-z, 0-9, _ and - are allowed
+         */
+        @Nullable
+        private String secretToken;
+        /**
+         * The maximum allowed number of simultaneous HTTPS connections to the webhook for update delivery,
+         * 1-100. The embedded endpoint handles that many requests at the same time
+         */
+        @NonNull
+        private int maxConnections = 40;
+        /**
+         * The number of received updates that can wait to be accepted by {@link TelegramUpdateProcessor}. When
+         * the queue is full or the processor is saturated, Telegram receives 429 and redelivers the update later
+         */
+        @NonNull
+        private int queueCapacity = 1000;
+        /**
+         * Drop all pending updates when the webhook is set or deleted
+         */
+        private boolean dropPendingUpdates = false;
+        /**
+         * A list of the update types you want your bot to receive. See {@link RequestType} for a complete list
+         * of available update types. If not specified, the previous setting will be used
+         */
+        @Nullable
+        private List<String> allowedUpdates;
     }
 
     public enum ProxyType {
@@ -176,11 +432,64 @@ public class SessionProperties {
          */
         LONG_POLLING,
         /**
-         * WebHooks not implemented yet
+         * @see WebhookSession
          */
         WEBHOOKS
     }
 
+    public enum ExecutorType {
+        /**
+         * Updates are run on a fixed pool of {@link #consumeMaxThreads} platform threads.
+         */
+        FIXED,
+        /**
+         * Every update is run on its own virtual thread. The number of updates running at the same time is bounded
+         * by {@link #consumeMaxThreads} with a semaphore instead of the pool size, so it can be much bigger than
+         * with {@link #FIXED} for handlers that mostly wait on blocking I/O.
+         * <p>
+         * <b>Requires Java 21 or newer.</b>
+         *
+         * @see VirtualThreadExecutor
+         */
+        VIRTUAL,
+        /**
+         * Updates are run on a fixed pool of {@link #consumeMaxThreads} platform threads, but updates of one user
+         * wait in the user's mailbox in order of receiving instead of being rejected when {@link #maxThreadsPerUser}
+         * is reached. Updates of different users run in parallel, and an idle thread always takes the next user with
+         * pending updates. Waiting updates of one user do not take places of {@link #maxMessagesInQueue}, instead not
+         * more than {@code consumeMaxThreads + maxMessagesInQueue} of them wait, the next ones are rejected.
+         * <p>
+         * Affects only {@link OnFlyTelegramUpdateProcessor}. {@link SchedulerTelegramUpdateProcessor} already takes
+         * updates of one user in order from {@link UpdateInboxRepositoryAdapter} and uses {@link #FIXED} pool.
+         *
+         * @see PartitionedExecutor
+         */
+        PARTITIONED
+    }
+
+    /**
+     * Built-in strategies of {@link DefaultConcurrencyKeyResolver}.
+     */
+    public enum ConcurrencyKey {
+        /**
+         * Updates of one user. Updates without a user are keyed by their chat.
+         */
+        USER,
+        /**
+         * Updates of one chat, so users of a group do not change the state of the chat in parallel. Updates without
+         * a chat are keyed by their user.
+         */
+        CHAT,
+        /**
+         * Updates of one forum topic of a chat. Updates outside of topics are keyed by their chat.
+         */
+        CHAT_THREAD,
+        /**
+         * Updates of one business connection. Updates without a business connection are keyed by their chat.
+         */
+        BUSINESS_CONNECTION
+    }
+
     public enum UpdateProcessorType {
         /**
          * Using the default processor. Points to {@link UpdateProcessorType#SCHEDULER} instance.
@@ -211,6 +520,18 @@ public class SessionProperties {
          */
         SCHEDULER_WITH_CRUD,
 
+        /**
+         * Using {@link SchedulerTelegramUpdateProcessor} instance with {@link LogUpdateInboxRepositoryAdapter} as a
+         * persisting adapter.
+         * <p>
+         * Updates are processed from memory like with {@link #SCHEDULER}, but are also written to a local log on the
+         * disk, so they are not lost if the service is restarted or crashes. Does not require a database, but the log
+         * belongs to one instance of the application.
+         *
+         * @see LogUpdateInboxRepositoryAdapter
+         */
+        SCHEDULER_WITH_LOG,
+
         /**
          * Using {@link OnFlyTelegramUpdateProcessor} instance without any {@link UpdateInboxRepositoryAdapter}.
          * <p>
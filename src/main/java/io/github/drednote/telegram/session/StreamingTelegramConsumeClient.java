@@ -0,0 +1,183 @@
+package io.github.drednote.telegram.session;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.drednote.telegram.utils.Assert;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.lang.Nullable;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.util.UriBuilder;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+/**
+ * Client for the "getUpdates" endpoint of the Telegram Bot API that does not materialize the whole
+ * response.
+ *
+ * <p>Unlike {@link TelegramConsumeClient}, the response body is read with a Jackson streaming
+ * parser and every {@link Update} is handed to the {@link UpdateHandler} as soon as its JSON object
+ * is closed. So the first update can be processed before the rest of the response is received, and
+ * only one parsed update is held by the client at a time.
+ *
+ * <p>Updates are handed to the handler only if the response is ok. Telegram writes the {@code ok}
+ * field before the {@code result}, so updates are streamed. If the {@code result} comes first,
+ * updates are held until {@code ok} is read, and are dropped if the response is not ok.
+ *
+ * @author Ivan Galushko
+ * @see TelegramConsumeClient
+ * @see LongPollingSession
+ */
+public class StreamingTelegramConsumeClient {
+
+    private final RestClient restClient;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Constructs a StreamingTelegramConsumeClient
+     *
+     * @param restClient   the client with the base url of Telegram API
+     * @param objectMapper the mapper to parse updates. If null, the default one will be created
+     */
+    public StreamingTelegramConsumeClient(RestClient restClient, @Nullable ObjectMapper objectMapper) {
+        Assert.required(restClient, "RestClient");
+
+        this.restClient = restClient;
+        this.objectMapper = objectMapper != null ? objectMapper : new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * Retrieves updates from the Telegram Bot API and passes them to the handler one by one, in
+     * order of the response.
+     *
+     * @param token          The bot token used for authentication
+     * @param offset         The offset of the first update to be retrieved
+     * @param limit          The maximum number of updates to be retrieved
+     * @param timeout        The maximum time in seconds for long polling
+     * @param allowedUpdates A list of allowed update types
+     * @param handler        The handler of received updates
+     * @return the number of received updates
+     * @throws TelegramApiException if Telegram returns not ok response or the response cannot be
+     *                              read
+     * @throws InterruptedException if the handler is interrupted
+     */
+    public int getUpdates(
+        String token, @Nullable Integer offset, @Nullable Integer limit, @Nullable Integer timeout,
+        @Nullable List<String> allowedUpdates, UpdateHandler handler
+    ) throws TelegramApiException, InterruptedException {
+        Result result = restClient.get()
+            .uri(builder -> buildUri(builder, token, offset, limit, timeout, allowedUpdates))
+            .exchange((request, response) -> read(response.getBody(), handler), true);
+
+        if (result == null) {
+            throw new TelegramApiException("Empty response from Telegram api");
+        }
+        if (result.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (!result.ok()) {
+            throw new TelegramApiException("Telegram api return not ok: " + result.description());
+        }
+        return result.count();
+    }
+
+    private URI buildUri(
+        UriBuilder builder, String token, @Nullable Integer offset, @Nullable Integer limit,
+        @Nullable Integer timeout, @Nullable List<String> allowedUpdates
+    ) {
+        builder.path("/bot{token}/getUpdates");
+        if (offset != null) {
+            builder.queryParam("offset", offset);
+        }
+        if (limit != null) {
+            builder.queryParam("limit", limit);
+        }
+        if (timeout != null) {
+            builder.queryParam("timeout", timeout);
+        }
+        if (allowedUpdates != null) {
+            builder.queryParam("allowed_updates", "{allowedUpdates}");
+            try {
+                return builder.build(token, objectMapper.writeValueAsString(allowedUpdates));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot serialize allowedUpdates", e);
+            }
+        }
+        return builder.build(token);
+    }
+
+    private Result read(InputStream body, UpdateHandler handler) throws IOException {
+        boolean ok = false;
+        String description = null;
+        int count = 0;
+        // updates parsed before the ok field
+        List<Update> unconfirmed = new ArrayList<>();
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Unexpected response from Telegram api");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("ok".equals(name)) {
+                    ok = parser.getValueAsBoolean();
+                } else if ("description".equals(name)) {
+                    description = parser.getValueAsString();
+                } else if ("result".equals(name) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        Update update = objectMapper.readValue(parser, Update.class);
+                        count++;
+                        if (!ok) {
+                            unconfirmed.add(update);
+                        } else if (!handle(handler, update)) {
+                            return new Result(true, description, count, true);
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (ok) {
+            for (Update update : unconfirmed) {
+                if (!handle(handler, update)) {
+                    return new Result(true, description, count, true);
+                }
+            }
+        }
+        return new Result(ok, description, count, false);
+    }
+
+    /**
+     * @return false if the handler is interrupted
+     */
+    private static boolean handle(UpdateHandler handler, Update update) {
+        try {
+            handler.handle(update);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Handler of updates received by {@link StreamingTelegramConsumeClient}.
+     */
+    @FunctionalInterface
+    public interface UpdateHandler {
+
+        /**
+         * @param update the received update
+         * @throws InterruptedException if interrupted while handling the update
+         */
+        void handle(Update update) throws InterruptedException;
+    }
+
+    private record Result(boolean ok, @Nullable String description, int count, boolean interrupted) {}
+}
@@ -0,0 +1,153 @@
+package io.github.drednote.telegram.session;
+
+import io.github.drednote.telegram.session.SessionProperties.ProxyType;
+import io.github.drednote.telegram.session.SessionProperties.ProxyUrl;
+import io.github.drednote.telegram.utils.Assert;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Proxy.Type;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.http.client.ClientHttpRequestFactory;
+
+/**
+ * The HTTP transport to Telegram API shared by {@link TelegramConsumeClient} and the
+ * {@code TelegramClient} sending requests.
+ *
+ * <p>Both clients use one connection pool and one dispatcher configured by {@link HttpProperties},
+ * so connections to Telegram API are reused between receiving and sending. They differ only in the
+ * read timeout: for the consume client it is extended by the long polling timeout, so a getUpdates
+ * request held by Telegram is not interrupted.
+ *
+ * @author Ivan Galushko
+ * @see HttpProperties
+ */
+public class TelegramHttpTransport {
+
+    private final OkHttpClient sendingClient;
+    private final OkHttpClient consumeClient;
+
+    /**
+     * Constructs a {@code TelegramHttpTransport}.
+     *
+     * @param httpProperties    properties of the transport
+     * @param sessionProperties session properties, used for proxy and long polling timeout
+     * @throws IllegalArgumentException if the properties are invalid
+     */
+    public TelegramHttpTransport(HttpProperties httpProperties, SessionProperties sessionProperties) {
+        Assert.required(httpProperties, "HttpProperties");
+        Assert.required(sessionProperties, "SessionProperties");
+        if (httpProperties.getMaxRequests() <= 0) {
+            throw new IllegalArgumentException("maxRequests must be greater than 0");
+        }
+        if (httpProperties.getMaxRequestsPerHost() <= 0) {
+            throw new IllegalArgumentException("maxRequestsPerHost must be greater than 0");
+        }
+        if (httpProperties.getMaxIdleConnections() < 0) {
+            throw new IllegalArgumentException("maxIdleConnections must be greater than or equal to 0");
+        }
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(httpProperties.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(httpProperties.getMaxRequestsPerHost());
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+            .dispatcher(dispatcher)
+            .connectionPool(new ConnectionPool(httpProperties.getMaxIdleConnections(),
+                httpProperties.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS))
+            .connectTimeout(httpProperties.getConnectTimeout())
+            .readTimeout(httpProperties.getReadTimeout())
+            .writeTimeout(httpProperties.getWriteTimeout())
+            .retryOnConnectionFailure(true)
+            .protocols(httpProperties.isHttp2()
+                ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                : List.of(Protocol.HTTP_1_1));
+        configureProxy(builder, sessionProperties);
+
+        this.sendingClient = builder.build();
+        Duration pollingTimeout = Duration.ofSeconds(sessionProperties.getLongPolling().getUpdateTimeout());
+        // newBuilder() shares the connection pool and the dispatcher with the sending client
+        this.consumeClient = sendingClient.newBuilder()
+            .readTimeout(httpProperties.getReadTimeout().plus(pollingTimeout))
+            .build();
+    }
+
+    private static void configureProxy(OkHttpClient.Builder builder, SessionProperties properties) {
+        if (properties.getProxyType() != ProxyType.HTTP) {
+            return;
+        }
+        ProxyUrl proxyUrl = properties.getProxyUrl();
+        if (proxyUrl == null) {
+            throw new IllegalArgumentException("If proxy is enabled, proxy url is required");
+        }
+        builder.proxy(new Proxy(Type.HTTP,
+            new InetSocketAddress(proxyUrl.getHost(), proxyUrl.getPort())));
+        if (proxyUrl.getUserName() != null) {
+            String credentials = Credentials.basic(proxyUrl.getUserName(),
+                proxyUrl.getPassword() != null ? new String(proxyUrl.getPassword()) : "");
+            builder.proxyAuthenticator((route, response) -> {
+                if (response.request().header("Proxy-Authorization") != null) {
+                    // already failed with these credentials
+                    return null;
+                }
+                return response.request().newBuilder()
+                    .header("Proxy-Authorization", credentials)
+                    .build();
+            });
+        }
+    }
+
+    /**
+     * @return the client to send requests to Telegram API
+     */
+    public OkHttpClient getSendingClient() {
+        return sendingClient;
+    }
+
+    /**
+     * @return the client to receive updates from Telegram API
+     */
+    public OkHttpClient getConsumeClient() {
+        return consumeClient;
+    }
+
+    /**
+     * @return the request factory for {@code RestClient} receiving updates from Telegram API
+     */
+    public ClientHttpRequestFactory getConsumeRequestFactory() {
+        return new OkHttpClientHttpRequestFactory(consumeClient);
+    }
+
+    /**
+     * Cancels getUpdates requests of the bot that are in flight, so a stopped session does not keep
+     * a long poll open until the polling timeout.
+     *
+     * @param token the token of the bot
+     */
+    public void cancelUpdateRequests(String token) {
+        Assert.required(token, "Token");
+        for (Call call : consumeClient.dispatcher().runningCalls()) {
+            List<String> segments = call.request().url().pathSegments();
+            int size = segments.size();
+            if (size >= 2 && "getUpdates".equals(segments.get(size - 1))
+                && ("bot" + token).equals(segments.get(size - 2))) {
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * Closes idle connections and stops the dispatcher threads.
+     */
+    public void shutdown() {
+        sendingClient.dispatcher().executorService().shutdown();
+        sendingClient.connectionPool().evictAll();
+    }
+}
@@ -11,4 +11,21 @@ public interface TelegramUpdateProcessor {
      * @param update update from telegram
      */
     void process(List<Update> update);
+
+    /**
+     * Returns the current load of the processor. The session uses it to adapt polling if
+     * {@link SessionProperties.AdaptivePollingProperties#isEnabled()} is true.
+     *
+     * @return the load, or {@link ProcessorLoad#UNKNOWN} if the processor does not report it
+     */
+    default ProcessorLoad getLoad() {
+        return ProcessorLoad.UNKNOWN;
+    }
+
+    /**
+     * Releases resources owned by the processor, for example threads sending notifications. By
+     * default, does nothing.
+     */
+    default void close() {
+    }
 }
@@ -0,0 +1,212 @@
+package io.github.drednote.telegram.session;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets of many keys in a fixed size open addressing hash table with lock-free updates.
+ *
+ * <p>Every slot holds the primitive key and the state of its bucket packed into one {@code long}:
+ * the number of tokens in the upper 16 bits and the time of the last refill in microseconds since
+ * the table creation in the lower 48 bits. Consuming a token is a single CAS of the state, so
+ * {@link #tryConsume(long, long)} neither locks nor allocates. Tokens are refilled lazily from the
+ * elapsed time when the bucket is touched, {@code refillPeriod} adds one token.
+ *
+ * <p>Slots are never removed. A slot which bucket was last refilled more than {@code expireAfter}
+ * ago is expired: its bucket is full again, so the slot can be given to another key when the key
+ * is inserted, and there is no need in a cleaner thread. If two
+ * threads insert the same key at the same time, the key can get two buckets for a short time, since
+ * both of them are full, at most {@code capacity} additional tokens can be consumed.
+ *
+ * <p>If there is neither a free nor an expired slot, the key is not limited and
+ * {@link #tryConsume(long, long)} returns true, the number of such calls is returned by
+ * {@link #getOverflowCount()}.
+ *
+ * @author Ivan Galushko
+ * @see UserRateLimitRequestFilter
+ */
+final class TokenBucketTable {
+
+    /**
+     * The key of a free slot
+     */
+    static final long EMPTY = Long.MIN_VALUE;
+    /**
+     * The state of a slot while it is given to another key
+     */
+    private static final long RESERVED = -1L;
+    /**
+     * The state of a slot that has not been consumed yet, the bucket is full
+     */
+    private static final long FULL = 0L;
+    private static final int TIME_BITS = 48;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+    private static final int MAX_CAPACITY = (1 << 15) - 1;
+
+    private final AtomicLongArray keys;
+    private final AtomicLongArray states;
+    private final int mask;
+    private final int capacity;
+    private final long refillPeriodMicros;
+    private final long expireAfterMicros;
+    private final long epochNanos;
+    private final LongAdder overflow = new LongAdder();
+
+    /**
+     * @param slots        the number of slots, rounded up to a power of two
+     * @param capacity     the maximum number of tokens in a bucket
+     * @param refillPeriod the time to refill one token in nanoseconds
+     * @param expireAfter  the time in nanoseconds after which an untouched slot can be given to
+     *                     another key. Not less than the time to refill the whole bucket
+     * @param epochNanos   the current time in nanoseconds
+     * @throws IllegalArgumentException if any of arguments is out of range
+     */
+    TokenBucketTable(int slots, int capacity, long refillPeriod, long expireAfter, long epochNanos) {
+        if (slots <= 0 || slots > 1 << 30) {
+            throw new IllegalArgumentException("slots must be in range 1.." + (1 << 30));
+        }
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be in range 1.." + MAX_CAPACITY);
+        }
+        this.refillPeriodMicros = TimeUnit.NANOSECONDS.toMicros(refillPeriod);
+        if (refillPeriodMicros <= 0) {
+            throw new IllegalArgumentException("refillPeriod must be at least 1 microsecond");
+        }
+        int size = Integer.highestOneBit(slots);
+        if (size < slots) {
+            size <<= 1;
+        }
+        this.keys = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            keys.set(i, EMPTY);
+        }
+        this.states = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.capacity = capacity;
+        this.expireAfterMicros = Math.max(
+            TimeUnit.NANOSECONDS.toMicros(expireAfter), refillPeriodMicros * capacity);
+        this.epochNanos = epochNanos;
+    }
+
+    /**
+     * Consumes one token from the bucket of the key.
+     *
+     * @param key      the key, not {@link #EMPTY}
+     * @param nowNanos the current time in nanoseconds
+     * @return true if the token is consumed, false if the bucket is empty
+     */
+    boolean tryConsume(long key, long nowNanos) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("key must not be " + EMPTY);
+        }
+        long now = (nowNanos - epochNanos) / 1000;
+        for (; ; ) {
+            int slot = locate(key, now);
+            if (slot < 0) {
+                overflow.increment();
+                return true;
+            }
+            long state = states.get(slot);
+            if (state == RESERVED || keys.get(slot) != key) {
+                // the slot is being given to another key, look for the key again
+                Thread.onSpinWait();
+                continue;
+            }
+            long tokens;
+            long refilledAt;
+            if (state == FULL) {
+                tokens = capacity;
+                refilledAt = now;
+            } else {
+                tokens = state >>> TIME_BITS;
+                refilledAt = (state & TIME_MASK) - 1;
+                long refills = (now - refilledAt) / refillPeriodMicros;
+                if (refills > 0) {
+                    tokens = Math.min(capacity, tokens + refills);
+                    refilledAt = tokens == capacity ? now : refilledAt + refills * refillPeriodMicros;
+                }
+            }
+            if (tokens == 0) {
+                return false;
+            }
+            if (states.compareAndSet(slot, state, pack(tokens - 1, refilledAt))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finds the slot of the key or inserts the key into a free or expired slot.
+     *
+     * @return the slot or -1 if the table is full
+     */
+    private int locate(long key, long now) {
+        int expired = -1;
+        int slot = hash(key) & mask;
+        for (int probes = 0; probes <= mask; ) {
+            long current = keys.get(slot);
+            if (current == key) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                if (expired >= 0 && reserve(expired, key, now)) {
+                    return expired;
+                }
+                if (keys.compareAndSet(slot, EMPTY, key)) {
+                    return slot;
+                }
+                // the slot is taken by another thread, check it again
+                continue;
+            }
+            if (expired < 0 && isExpired(states.get(slot), now)) {
+                expired = slot;
+            }
+            slot = (slot + 1) & mask;
+            probes++;
+        }
+        return expired >= 0 && reserve(expired, key, now) ? expired : -1;
+    }
+
+    private boolean reserve(int slot, long key, long now) {
+        long state = states.get(slot);
+        if (isExpired(state, now) && states.compareAndSet(slot, state, RESERVED)) {
+            keys.set(slot, key);
+            states.set(slot, FULL);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isExpired(long state, long now) {
+        return state != RESERVED && state != FULL
+            && now - ((state & TIME_MASK) - 1) >= expireAfterMicros;
+    }
+
+    /**
+     * The time is stored incremented by one, so that the packed state is never equal to
+     * {@link #FULL}
+     */
+    private static long pack(long tokens, long refilledAt) {
+        return tokens << TIME_BITS | (refilledAt + 1) & TIME_MASK;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return the number of calls that were not limited because the table was full
+     */
+    long getOverflowCount() {
+        return overflow.sum();
+    }
+
+    /**
+     * @return the number of slots
+     */
+    int getSlots() {
+        return mask + 1;
+    }
+}
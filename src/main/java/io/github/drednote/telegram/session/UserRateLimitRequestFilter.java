@@ -12,6 +12,7 @@ import io.github.bucket4j.Refill;
 import io.github.bucket4j.local.LocalBucket;
 import io.github.bucket4j.local.SynchronizationStrategy;
 import io.github.drednote.telegram.filter.FilterProperties;
+import io.github.drednote.telegram.filter.FilterProperties.RateLimitEngine;
 import io.github.drednote.telegram.utils.Assert;
 import java.time.Duration;
 import org.springframework.lang.NonNull;
@@ -24,12 +25,21 @@ import org.springframework.lang.Nullable;
  * the rate of incoming requests per user, and if the rate limit is exceeded, it returns false,
  * otherwise true.
  *
+ * <p>With {@link RateLimitEngine#BUCKET4J} every user has a Bucket4j bucket stored in a Caffeine
+ * cache. With {@link RateLimitEngine#TOKEN_TABLE} buckets are packed into {@link TokenBucketTable}
+ * keyed by the primitive user id, checking the limit does not allocate and does not lock, and
+ * buckets of inactive users are reused lazily instead of being evicted, so the
+ * {@link #setCacheEvictionCallback(RemovalListener) eviction callback} is not called.
+ *
  * @author Ivan Galushko
  */
 public class UserRateLimitRequestFilter {
 
     private final FilterProperties filterProperties;
+    @Nullable
     private final Cache<Long, LocalBucket> cache;
+    @Nullable
+    private final TokenBucketTable table;
     private final Duration duration;
     /**
      * Callback that called on remove cached LocalBucket. Using in testing, but you can use this if
@@ -50,10 +60,18 @@ public class UserRateLimitRequestFilter {
         this.filterProperties = filterProperties;
         this.duration = Duration.of(filterProperties.getUserRateLimit(),
             filterProperties.getUserRateLimitUnit());
-        this.cache = Caffeine.newBuilder()
-            .expireAfterAccess(getCacheLiveDuration())
-            .evictionListener(this::onRemoval)
-            .build();
+        if (filterProperties.getUserRateLimitEngine() == RateLimitEngine.TOKEN_TABLE
+            && filterProperties.getUserRateLimit() > 0) {
+            this.cache = null;
+            this.table = new TokenBucketTable(filterProperties.getUserRateLimitTableSize(), 1,
+                duration.toNanos(), getCacheLiveDuration().toNanos(), System.nanoTime());
+        } else {
+            this.table = null;
+            this.cache = Caffeine.newBuilder()
+                .expireAfterAccess(getCacheLiveDuration())
+                .evictionListener(this::onRemoval)
+                .build();
+        }
     }
 
     private Duration getCacheLiveDuration() {
@@ -74,11 +92,24 @@ public class UserRateLimitRequestFilter {
     public boolean filter(@NonNull Long userId) {
         Assert.notNull(userId, "userId");
 
-        if (filterProperties.getUserRateLimit() > 0) {
-            LocalBucket bucket = getBucket(userId);
-            return bucket.tryConsume(1);
+        return filter(userId.longValue());
+    }
+
+    /**
+     * Checks the rate limit of the user without boxing the id.
+     *
+     * @param userId The user id
+     * @return if the rate limit is exceeded, it returns false, otherwise true.
+     * @see #filter(Long)
+     */
+    public boolean filter(long userId) {
+        if (filterProperties.getUserRateLimit() <= 0) {
+            return true;
+        }
+        if (table != null) {
+            return table.tryConsume(userId, System.nanoTime());
         }
-        return true;
+        return getBucket(userId).tryConsume(1);
     }
 
     private LocalBucket getBucket(Long chatId) {
@@ -0,0 +1,342 @@
+package io.github.drednote.telegram.session;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.drednote.telegram.exception.type.SessionTelegramException;
+import io.github.drednote.telegram.session.SessionProperties.WebhookSessionProperties;
+import io.github.drednote.telegram.utils.Assert;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.telegram.telegrambots.meta.api.methods.updates.DeleteWebhook;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+/**
+ * Implementation of the {@link TelegramBotSession} interface for receiving updates from the
+ * Telegram Bot API through a webhook.
+ *
+ * <p>On start the session runs an embedded HTTP endpoint and registers it in Telegram with
+ * setWebhook. On stop the webhook is deleted and the endpoint is closed.
+ *
+ * <p>Telegram receives 200 only after the update is accepted by
+ * {@link TelegramUpdateProcessor#process(List)}, so with a durable inbox the update is saved before
+ * Telegram considers it delivered. Each update is offered to a bounded queue of admissions, and a
+ * single dispatcher thread drains it and passes updates to the processor in batches, the same way
+ * {@link LongPollingSession} does, while the HTTP threads wait for the result of their batch. If the
+ * processor reports that it is saturated or the queue of admissions is full, the endpoint answers
+ * 429, so Telegram redelivers the update later instead of the application buffering it without
+ * limits. If the processor fails, the endpoint answers 500 and Telegram redelivers the update too.
+ *
+ * <p>If {@link WebhookSessionProperties#getSecretToken()} is set, requests without a matching
+ * {@code X-Telegram-Bot-Api-Secret-Token} header are rejected with 401.
+ *
+ * @author Ivan Galushko
+ * @see WebhookSessionProperties
+ * @see TelegramUpdateProcessor
+ */
+public class WebhookSession implements TelegramBotSession {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookSession.class);
+
+    static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final long ADMISSION_TIMEOUT_SECONDS = 30;
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
+    private final TelegramClient telegramClient;
+    private final WebhookSessionProperties properties;
+    private final TelegramUpdateProcessor processor;
+    private final ObjectMapper objectMapper;
+    private final BlockingQueue<Admission> queue;
+    @Nullable
+    private final byte[] secretToken;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    @Nullable
+    private HttpServer server;
+    @Nullable
+    private ExecutorService serverService;
+    @Nullable
+    private ExecutorService dispatcherService;
+
+    /**
+     * Constructs a WebhookSession
+     *
+     * @param telegramClient the client used to call setWebhook and deleteWebhook
+     * @param properties     the session properties containing webhook configuration
+     * @param processor      the processor which received updates are handed to
+     * @param objectMapper   the mapper to parse updates. If null, the default one will be created
+     * @throws IllegalArgumentException if webhook url is not set or queue capacity is not positive
+     */
+    public WebhookSession(
+        TelegramClient telegramClient, SessionProperties properties,
+        TelegramUpdateProcessor processor, @Nullable ObjectMapper objectMapper
+    ) {
+        Assert.required(telegramClient, "TelegramClient");
+        Assert.required(properties, "SessionProperties");
+        Assert.required(processor, "TelegramUpdateProcessor");
+
+        this.telegramClient = telegramClient;
+        this.properties = properties.getWebhook();
+        this.processor = processor;
+        this.objectMapper = objectMapper != null ? objectMapper : new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+        if (this.properties.getUrl() == null || this.properties.getUrl().isBlank()) {
+            throw new IllegalArgumentException("Webhook url is required");
+        }
+        if (this.properties.getQueueCapacity() < 1) {
+            throw new IllegalArgumentException("Webhook queueCapacity must be greater than 0");
+        }
+        this.queue = new ArrayBlockingQueue<>(this.properties.getQueueCapacity());
+        String token = this.properties.getSecretToken();
+        this.secretToken = token != null ? token.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Starts the embedded endpoint and registers the webhook in Telegram.
+     *
+     * @throws IllegalStateException    If the session is already running
+     * @throws SessionTelegramException If the endpoint cannot be started or the webhook cannot be
+     *                                  set
+     */
+    @Override
+    public synchronized void start() {
+        if (running.get()) {
+            throw new IllegalStateException("Session already running");
+        }
+        try {
+            HttpServer httpServer = HttpServer.create(
+                new InetSocketAddress(properties.getHost(), properties.getPort()), 0);
+            // HTTP threads wait until their updates are accepted by the processor
+            ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, properties.getMaxConnections()));
+            httpServer.setExecutor(executor);
+            httpServer.createContext(properties.getPath(), this::handle);
+
+            running.set(true);
+            this.server = httpServer;
+            this.serverService = executor;
+            this.dispatcherService = Executors.newSingleThreadExecutor();
+            dispatcherService.execute(this::dispatchLoop);
+            httpServer.start();
+        } catch (IOException e) {
+            stop();
+            throw new SessionTelegramException("Cannot start webhook endpoint", e);
+        }
+
+        try {
+            SetWebhook setWebhook = SetWebhook.builder()
+                .url(properties.getUrl())
+                .maxConnections(properties.getMaxConnections())
+                .dropPendingUpdates(properties.isDropPendingUpdates())
+                .build();
+            setWebhook.setAllowedUpdates(properties.getAllowedUpdates());
+            setWebhook.setSecretToken(properties.getSecretToken());
+            telegramClient.execute(setWebhook);
+        } catch (TelegramApiException | RuntimeException e) {
+            stop();
+            throw new SessionTelegramException("Cannot set webhook", e);
+        }
+
+        log.info("Started listen messages on port {}", getPort());
+    }
+
+    /**
+     * Deletes the webhook in Telegram and stops the embedded endpoint. Updates that were already
+     * offered to the queue are still handed to the processor, this method waits until the
+     * dispatcher stops, so the processor can be stopped after it.
+     */
+    @Override
+    public synchronized void stop() {
+        if (running.get()) {
+            running.set(false);
+            try {
+                telegramClient.execute(DeleteWebhook.builder()
+                    .dropPendingUpdates(properties.isDropPendingUpdates())
+                    .build());
+            } catch (TelegramApiException e) {
+                log.error("Cannot delete webhook", e);
+            }
+            if (server != null) {
+                server.stop(0);
+                server = null;
+            }
+            if (serverService != null) {
+                serverService.shutdown();
+            }
+            if (dispatcherService != null) {
+                dispatcherService.shutdown();
+                try {
+                    if (!dispatcherService.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        log.warn("Updates in queue are not dispatched in {} seconds", STOP_TIMEOUT_SECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the actual port of the embedded endpoint or -1 if the session is not started
+     */
+    public int getPort() {
+        HttpServer httpServer = this.server;
+        return httpServer != null ? httpServer.getAddress().getPort() : -1;
+    }
+
+    /**
+     * @return the number of updates waiting to be passed to the processor
+     */
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange; InputStream body = exchange.getRequestBody()) {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                reject(exchange, 405);
+                return;
+            }
+            if (!isSecretTokenValid(exchange.getRequestHeaders().getFirst(SECRET_TOKEN_HEADER))) {
+                reject(exchange, 401);
+                return;
+            }
+            if (!running.get()) {
+                reject(exchange, 503);
+                return;
+            }
+
+            Update update;
+            try {
+                update = objectMapper.readValue(body, Update.class);
+            } catch (IOException e) {
+                log.warn("Cannot parse update: {}", e.getMessage());
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            if (isSaturated(processor.getLoad())) {
+                log.debug("Processor is saturated, rejecting update {}", update.getUpdateId());
+                exchange.sendResponseHeaders(429, -1);
+                return;
+            }
+            Admission admission = new Admission(update, new CompletableFuture<>());
+            if (!queue.offer(admission)) {
+                log.debug("Update queue is full, rejecting update {}", update.getUpdateId());
+                exchange.sendResponseHeaders(429, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(await(admission), -1);
+        }
+    }
+
+    /**
+     * Answers without reading the body. The connection is closed, so the unread body is not taken
+     * as the next request.
+     */
+    private static void reject(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private static boolean isSaturated(ProcessorLoad load) {
+        return load.isKnown() && load.capacity() > 0 && load.queued() >= load.capacity();
+    }
+
+    /**
+     * Waits until the update is accepted by the processor. If it is not accepted in time, the
+     * update is withdrawn from the queue and Telegram redelivers it later. An update already taken
+     * by the dispatcher cannot be withdrawn, so its result is awaited without a timeout, otherwise
+     * it would be processed twice.
+     *
+     * @return the status of the response
+     */
+    private int await(Admission admission) {
+        try {
+            try {
+                admission.accepted.get(ADMISSION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                if (queue.remove(admission)) {
+                    log.warn("Update {} is not accepted by the processor in {} seconds",
+                        admission.update.getUpdateId(), ADMISSION_TIMEOUT_SECONDS);
+                    return 503;
+                }
+                admission.accepted.get();
+            }
+            return 200;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queue.remove(admission);
+            return 503;
+        } catch (ExecutionException e) {
+            log.error("Cannot process update {}", admission.update.getUpdateId(), e.getCause());
+            return 500;
+        }
+    }
+
+    private boolean isSecretTokenValid(@Nullable String header) {
+        if (secretToken == null) {
+            return true;
+        }
+        return header != null
+               && MessageDigest.isEqual(secretToken, header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void dispatchLoop() {
+        List<Admission> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running.get() || !queue.isEmpty()) {
+            try {
+                Admission admission = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (admission == null) {
+                    continue;
+                }
+                batch.add(admission);
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                List<Update> updates = new ArrayList<>(batch.size());
+                for (Admission it : batch) {
+                    updates.add(it.update);
+                }
+                processor.process(updates);
+                batch.forEach(it -> it.accepted.complete(null));
+                log.trace("Dispatched {} updates, updates in queue {}", batch.size(), queue.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.forEach(it -> it.accepted.completeExceptionally(e));
+                return;
+            } catch (Exception global) {
+                batch.forEach(it -> it.accepted.completeExceptionally(global));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * An update waiting to be accepted by the processor. Admissions are equal only if they have the
+     * same future, so a redelivered update does not withdraw the admission of the first delivery
+     */
+    private record Admission(Update update, CompletableFuture<Void> accepted) {}
+}
@@ -1,22 +1,14 @@
 package io.github.drednote.telegram.session.processor;
 
+import io.github.drednote.telegram.session.ProcessorLoad;
 import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.session.SessionProperties.ExecutorType;
 import io.github.drednote.telegram.session.TelegramUpdateProcessor;
 import io.github.drednote.telegram.utils.Assert;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
 /**
@@ -25,20 +17,29 @@ import org.telegram.telegrambots.meta.api.objects.Update;
  * foundational functionalities for managing the processing of updates with a thread pool and limits
  * on the number of messages in queue.
  *
- * <p>This class handles the configuration of thread pool settings and ensures proper
- * synchronization when processing updates.</p>
+ * <p>Updates are admitted to a {@link BoundedExecutor}. If the limit of messages in queue is
+ * reached, {@link #process(List)} blocks until some update is finished. By default, it is
+ * {@link WorkerPoolExecutor} with a lock-free queue, so neither admission nor completion of updates
+ * takes a lock.</p>
+ *
+ * <p>If {@link SessionProperties#getExecutorType()} is {@link ExecutorType#VIRTUAL}, updates are
+ * run on virtual threads by {@link VirtualThreadExecutor} and the thread factory is ignored. If it
+ * is {@link ExecutorType#PARTITIONED}, updates are run by {@link PartitionedExecutor}.</p>
+ *
+ * <p>An executor created by the processor is shut down by {@link #close()}, an executor given to
+ * the constructor is owned by the caller and is not shut down.</p>
  *
  * @author Ivan Galushko
  */
 public abstract class AbstractOnFlyTelegramUpdateProcessor implements TelegramUpdateProcessor {
 
-    private static final Logger log = LoggerFactory.getLogger(
-        AbstractOnFlyTelegramUpdateProcessor.class);
-    final ThreadPoolExecutor executorService;
-    private final int maxMessageInQueue;
-
-    private final ReadWriteLock maxMessagesLock = new ReentrantReadWriteLock();
-    private final Condition maxMessagesLimit = maxMessagesLock.writeLock().newCondition();
+    final BoundedExecutor executorService;
+    /**
+     * True if the executor is created by this processor and is shut down by {@link #close()}
+     */
+    private final boolean ownsExecutor;
+    private final int maxThreads;
+    private final int maxMessagesInQueue;
 
     /**
      * Constructs an {@code AbstractOnFlyTelegramUpdateProcessor} with specified properties and thread
@@ -52,36 +53,112 @@ public abstract class AbstractOnFlyTelegramUpdateProcessor implements TelegramUp
     protected AbstractOnFlyTelegramUpdateProcessor(
         SessionProperties properties, ThreadFactory threadFactory
     ) {
+        this(createExecutor(properties, threadFactory), properties.getConsumeMaxThreads(),
+            properties.getMaxMessagesInQueue(), true);
+    }
+
+    /**
+     * Constructs an {@code AbstractOnFlyTelegramUpdateProcessor} that submits updates to the given
+     * executor. The executor is owned by the caller, it limits the number of updates in queue by
+     * itself.
+     *
+     * @param executor           the executor to run updates.
+     * @param maxThreads         the number of threads of the executor, reported by
+     *                           {@link #getLoad()}.
+     * @param maxMessagesInQueue the limit of updates in queue of the executor, reported by
+     *                           {@link #getLoad()}. 0 means no limit.
+     * @throws IllegalArgumentException if {@code maxMessagesInQueue} is negative or
+     *                                  {@code maxThreads} is not positive.
+     */
+    protected AbstractOnFlyTelegramUpdateProcessor(
+        BoundedExecutor executor, int maxThreads, int maxMessagesInQueue
+    ) {
+        this(executor, maxThreads, maxMessagesInQueue, false);
+    }
+
+    /**
+     * Constructs an {@code AbstractOnFlyTelegramUpdateProcessor} that submits updates to the given
+     * executor.
+     *
+     * @param executor           the executor to run updates.
+     * @param maxThreads         the number of threads of the executor, reported by
+     *                           {@link #getLoad()}.
+     * @param maxMessagesInQueue the limit of updates in queue of the executor, reported by
+     *                           {@link #getLoad()}. 0 means no limit.
+     * @param ownsExecutor       true if the executor is created for this processor and is shut
+     *                           down by {@link #close()}.
+     * @throws IllegalArgumentException if {@code maxMessagesInQueue} is negative or
+     *                                  {@code maxThreads} is not positive.
+     */
+    AbstractOnFlyTelegramUpdateProcessor(
+        BoundedExecutor executor, int maxThreads, int maxMessagesInQueue, boolean ownsExecutor
+    ) {
+        Assert.required(executor, "BoundedExecutor");
+        checkLimits(maxThreads, maxMessagesInQueue);
+        this.executorService = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.maxThreads = maxThreads;
+        this.maxMessagesInQueue = maxMessagesInQueue;
+    }
+
+    /**
+     * Constructs an {@code AbstractOnFlyTelegramUpdateProcessor} with default thread factory.
+     *
+     * @param properties configuration settings for the session.
+     */
+    protected AbstractOnFlyTelegramUpdateProcessor(SessionProperties properties) {
+        this(properties, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Creates the executor of updates configured by {@link SessionProperties#getExecutorType()}.
+     *
+     * @param properties    configuration settings for the session.
+     * @param threadFactory the factory to create threads for the executor service.
+     * @return the executor, owned by the caller
+     * @throws IllegalArgumentException if {@code maxMessagesInQueue} is negative or
+     *                                  {@code consumeMaxThreads} is not positive.
+     */
+    static BoundedExecutor createExecutor(SessionProperties properties, ThreadFactory threadFactory) {
         Assert.required(properties, "SessionProperties");
         Assert.required(threadFactory, "ThreadFactory");
 
         int consumeMaxThreads = properties.getConsumeMaxThreads();
         int maxMessagesInQueue = properties.getMaxMessagesInQueue();
+        // checked before the executor is created, with the same errors as in the constructor
+        checkLimits(consumeMaxThreads, maxMessagesInQueue);
+
+        int maxMessageInQueue = maxMessagesInQueue == 0 ? Integer.MAX_VALUE : maxMessagesInQueue;
+        return switch (properties.getExecutorType()) {
+            case VIRTUAL -> new VirtualThreadExecutor(
+                "telegram-update-", consumeMaxThreads, maxMessageInQueue);
+            case PARTITIONED -> new PartitionedExecutor(
+                threadFactory, consumeMaxThreads,
+                (int) Math.min(Integer.MAX_VALUE, (long) consumeMaxThreads + maxMessageInQueue),
+                properties.getMaxThreadsPerUser());
+            case FIXED -> new WorkerPoolExecutor(threadFactory, consumeMaxThreads, maxMessagesInQueue);
+        };
+    }
+
+    private static void checkLimits(int maxThreads, int maxMessagesInQueue) {
         if (maxMessagesInQueue < 0) {
             throw new IllegalArgumentException(
                 "maxMessageInQueue must be greater than or equal to 0");
         }
-        if (consumeMaxThreads <= 0) {
+        if (maxThreads <= 0) {
             throw new IllegalArgumentException("maxThreads must be greater than 0");
         }
-
-        this.maxMessageInQueue = maxMessagesInQueue == 0 ? Integer.MAX_VALUE : maxMessagesInQueue;
-        this.executorService = new ThreadPoolExecutor(
-            consumeMaxThreads, consumeMaxThreads,
-            0L, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<>(this.maxMessageInQueue),
-            threadFactory,
-            new WaitUntilAvailablePolicy()
-        );
     }
 
     /**
-     * Constructs an {@code AbstractOnFlyTelegramUpdateProcessor} with default thread factory.
-     *
-     * @param properties configuration settings for the session.
+     * Shuts down the executor if it is created by this processor. Already admitted updates are
+     * still processed, then the threads of the executor finish.
      */
-    protected AbstractOnFlyTelegramUpdateProcessor(SessionProperties properties) {
-        this(properties, Executors.defaultThreadFactory());
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executorService.shutdown();
+        }
     }
 
     /**
@@ -89,72 +166,51 @@ public abstract class AbstractOnFlyTelegramUpdateProcessor implements TelegramUp
      *
      * @param updates The list of updates to be processed
      */
-    public synchronized void process(List<Update> updates) {
+    public void process(List<Update> updates) {
         for (Update update : updates) {
-            getRunnable(update).ifPresent(runnable -> {
-                executorService.submit(() -> {
-                    try {
-                        runnable.run();
-                    } finally {
-                        releaseSpace();
-                    }
-                });
-            });
+            processUpdate(update);
         }
     }
 
+    @Override
+    public ProcessorLoad getLoad() {
+        return new ProcessorLoad(executorService.getQueueSize(), maxMessagesInQueue,
+            executorService.getActiveCount(), maxThreads);
+    }
+
     /**
-     * Returns an optional runnable task for the given update.
+     * Processes the given update. Implementations decide whether the update should be executed and
+     * submit it with {@link #execute(Object, Runnable)}.
      *
      * @param update the Telegram update to be processed.
-     * @return an {@code Optional<Runnable>} containing the task to execute or empty if not
-     * applicable.
      */
-    protected abstract Optional<Runnable> getRunnable(Update update);
-
-    private void releaseSpace() {
-        maxMessagesLock.readLock().lock();
-        try {
-            if (executorService.getQueue().size() >= maxMessageInQueue - 1) {
-                maxMessagesLock.readLock().unlock();
-                maxMessagesLock.writeLock().lock();
-                try {
-                    log.trace("Releasing waiting thread pool");
-                    maxMessagesLimit.signal();
-                    maxMessagesLock.readLock().lock();
-                } finally {
-                    maxMessagesLock.writeLock().unlock();
-                }
-            }
-        } finally {
-            maxMessagesLock.readLock().unlock();
+    protected abstract void processUpdate(Update update);
+
+    /**
+     * Submits the task to the executor service. Blocks while the limit of messages in queue is
+     * reached.
+     *
+     * <p>If the executor is partitioned, tasks with the same key are executed in order of
+     * submitting, see {@link PartitionedExecutor}. Otherwise, the key is ignored.
+     *
+     * @param key  the concurrency key of the update, usually the id of the user. Can be null
+     * @param task the task to execute
+     * @return false if the task is rejected, because too many tasks of the key wait in the
+     * partitioned executor
+     */
+    protected boolean execute(@Nullable Object key, Runnable task) {
+        if (executorService instanceof PartitionedExecutor partitionedExecutor) {
+            return partitionedExecutor.execute(key, task);
         }
+        executorService.execute(task);
+        return true;
     }
 
     /**
-     * {@code WaitUntilAvailablePolicy} is a custom rejection policy that handles rejected tasks by
-     * waiting until there is space available in the executor's queue.
+     * @return true if updates with the same key are ordered by the executor, so additional
+     * per-key limits are not needed
      */
-    private class WaitUntilAvailablePolicy implements RejectedExecutionHandler {
-
-        @Override
-        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-            log.trace("Waiting until thread pool will be available");
-            maxMessagesLock.writeLock().lock();
-            try {
-                while (!executor.getQueue().offer(r)) {
-                    if (executor.isShutdown()) {
-                        break;
-                    }
-                    maxMessagesLimit.await();
-                }
-                log.trace("Put task into queue");
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RejectedExecutionException("Interrupted", e);
-            } finally {
-                maxMessagesLock.writeLock().unlock();
-            }
-        }
+    protected boolean isPartitioned() {
+        return executorService instanceof PartitionedExecutor;
     }
 }
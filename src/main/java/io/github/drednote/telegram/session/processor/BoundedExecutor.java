@@ -0,0 +1,41 @@
+package io.github.drednote.telegram.session.processor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An {@link Executor} used by update processors. The number of admitted tasks is bounded: if the
+ * limit is reached, {@link #execute(Runnable)} blocks until some task is finished.
+ *
+ * @author Ivan Galushko
+ * @see WorkerPoolExecutor
+ * @see VirtualThreadExecutor
+ * @see PartitionedExecutor
+ */
+public interface BoundedExecutor extends Executor {
+
+    /**
+     * Executes the task. Blocks while the admission limit is reached.
+     *
+     * @param command the task to execute
+     * @throws RejectedExecutionException if the executor is shut down or the calling thread is
+     *                                    interrupted while waiting for admission
+     */
+    @Override
+    void execute(Runnable command);
+
+    /**
+     * @return the number of admitted tasks that wait for running
+     */
+    int getQueueSize();
+
+    /**
+     * @return the number of running tasks
+     */
+    int getActiveCount();
+
+    /**
+     * Stops accepting new tasks. Already admitted tasks are still executed.
+     */
+    void shutdown();
+}
@@ -0,0 +1,146 @@
+package io.github.drednote.telegram.session.processor;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.springframework.lang.Nullable;
+
+/**
+ * A lock-free bounded multi-producer multi-consumer queue based on a ring of slots with sequence
+ * numbers (D. Vyukov's bounded MPMC queue).
+ *
+ * <p>Producers and consumers claim a slot with a single CAS on the tail or head index, the slot
+ * sequence tells whether the slot is ready to be written or read, so neither side blocks and there
+ * is no shared lock. {@link #offer(Object)} returns {@code false} if the queue is full,
+ * {@link #poll()} returns {@code null} if it is empty. {@link #size()} is computed from the indexes
+ * in O(1) without traversing the queue.
+ *
+ * <p>The iterator is weakly consistent: it traverses a snapshot of elements taken when it is
+ * created, never throws {@link java.util.ConcurrentModificationException} and does not support
+ * {@link Iterator#remove()}, so {@link #remove(Object)} is not supported either.
+ *
+ * @param <E> the type of elements
+ * @author Ivan Galushko
+ */
+final class MpmcArrayQueue<E> extends AbstractQueue<E> {
+
+    private final int capacity;
+    /**
+     * The number of slots. The ring needs at least two slots to tell a written slot from a free one,
+     * so a queue with capacity 1 has two slots and checks the size on offer
+     */
+    private final int slots;
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of elements in the queue
+     * @throws IllegalArgumentException if {@code capacity} is not positive
+     */
+    MpmcArrayQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than 0");
+        }
+        this.capacity = capacity;
+        this.slots = Math.max(capacity, 2);
+        this.buffer = new AtomicReferenceArray<>(slots);
+        this.sequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long position = tail.get();
+        for (; ; ) {
+            int index = (int) (position % slots);
+            long difference = sequences.get(index) - position;
+            if (slots != capacity && position - head.get() >= capacity) {
+                return false;
+            }
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer.set(index, e);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the slot is not read yet since the previous round, the queue is full
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    @Override
+    @Nullable
+    public E poll() {
+        long position = head.get();
+        for (; ; ) {
+            int index = (int) (position % slots);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E e = buffer.get(index);
+                    buffer.set(index, null);
+                    sequences.set(index, position + slots);
+                    return e;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // the slot is not written yet, the queue is empty
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    @Override
+    @Nullable
+    public E peek() {
+        long position = head.get();
+        int index = (int) (position % slots);
+        return sequences.get(index) == position + 1 ? buffer.get(index) : null;
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        long position = head.get();
+        long end = tail.get();
+        List<E> snapshot = new ArrayList<>((int) Math.max(0, Math.min(end - position, capacity)));
+        for (; position < end; position++) {
+            int index = (int) (position % slots);
+            E e = buffer.get(index);
+            // the element belongs to the position only if the slot was not polled or reused meanwhile
+            if (e != null && sequences.get(index) == position + 1) {
+                snapshot.add(e);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
@@ -8,28 +8,27 @@ import io.github.drednote.telegram.core.TelegramMessageSource;
 import io.github.drednote.telegram.core.request.ParsedUpdateRequest;
 import io.github.drednote.telegram.core.request.UpdateRequest;
 import io.github.drednote.telegram.filter.FilterProperties;
+import io.github.drednote.telegram.filter.FilterProperties.RateLimitNotificationProperties;
 import io.github.drednote.telegram.response.TooManyRequestsTelegramResponse;
+import io.github.drednote.telegram.session.ConcurrencyKeyResolver;
+import io.github.drednote.telegram.session.DefaultConcurrencyKeyResolver;
 import io.github.drednote.telegram.session.SessionProperties;
 import io.github.drednote.telegram.session.TelegramUpdateProcessor;
 import io.github.drednote.telegram.session.UserRateLimitRequestFilter;
 import io.github.drednote.telegram.utils.Assert;
-import java.util.HashSet;
-import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.checkerframework.checker.index.qual.NonNegative;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.lang.Nullable;
 import org.telegram.telegrambots.meta.api.objects.Update;
-import org.telegram.telegrambots.meta.api.objects.User;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
 
 /**
@@ -48,11 +47,31 @@ public class OnFlyTelegramUpdateProcessor extends AbstractOnFlyTelegramUpdatePro
     private static final Logger log = LoggerFactory.getLogger(OnFlyTelegramUpdateProcessor.class);
     private final TelegramBot telegramBot;
     private final int maxThreadsPerUser;
-    private final Cache<Long, Semaphore> userProcessing;
-    private final Set<UpdateRequest> limitProcessing;
+    /**
+     * Semaphores limiting the number of updates of one concurrency key in processing. Null if the
+     * executor is partitioned and keeps the limit by itself
+     */
+    @Nullable
+    private final Cache<String, Semaphore> userProcessing;
+    /**
+     * Pending notifications of rejected updates, at most one per chat. Null if notifications are
+     * disabled
+     */
+    @Nullable
+    private final RateLimitNotificationCoalescer<UpdateRequest> rateLimitNotifications;
+    @Nullable
+    private final ThreadPoolExecutor rateLimitNotificationSender;
+    /**
+     * The timer sending pending notifications, if it is created by this processor. Null if
+     * notifications are disabled or the timer is owned by the caller
+     */
+    @Nullable
+    private final ScheduledExecutorService ownRateLimitNotificationTimer;
+    @Nullable
+    private final ScheduledFuture<?> rateLimitNotificationTask;
     private final UserRateLimitRequestFilter userRateLimitRequestFilter;
     private final TelegramClient telegramClient;
-    private final ReadWriteLock limitLock = new ReentrantReadWriteLock();
+    private final ConcurrencyKeyResolver concurrencyKeyResolver;
     @Nullable
     private final TelegramMessageSource messageSource;
 
@@ -65,19 +84,96 @@ public class OnFlyTelegramUpdateProcessor extends AbstractOnFlyTelegramUpdatePro
      * @param telegramBot      The telegram bot instance for sending messages.
      * @param telegramClient   The Telegram client instance used to interact with Telegram API.
      * @param threadFactory    The thread factory to create threads for processing requests.
+     * @param keyResolver      The resolver of keys which updates are processed with respect to
+     *                         {@code maxThreadsPerUser}.
      * @throws IllegalArgumentException if {@code maxThreadsPerUser} or {@code cacheLiveDuration} is
      *                                  invalid.
      */
     public OnFlyTelegramUpdateProcessor(
         SessionProperties properties, FilterProperties filterProperties, TelegramBot telegramBot,
         TelegramClient telegramClient, ThreadFactory threadFactory,
-        @Nullable TelegramMessageSource messageSource
+        @Nullable TelegramMessageSource messageSource, ConcurrencyKeyResolver keyResolver
+    ) {
+        this(properties, filterProperties, telegramBot, telegramClient, messageSource, keyResolver,
+            createExecutor(properties, threadFactory), properties.getConsumeMaxThreads(),
+            properties.getMaxMessagesInQueue(), null, true);
+    }
+
+    /**
+     * Constructs a {@code OnFlyTelegramUpdateProcessor} that runs updates on the given executor
+     * instead of creating its own. {@code consumeMaxThreads}, {@code maxMessagesInQueue} and
+     * {@code executorType} of the properties are not used. If the executor is a
+     * {@link PartitionedExecutor}, it should be created with {@code maxThreadsPerUser} as its limit
+     * per key.
+     *
+     * @param properties         Configuration settings for the session.
+     * @param filterProperties   Filter properties for controlling request processing.
+     * @param telegramBot        The telegram bot instance for sending messages.
+     * @param telegramClient     The Telegram client instance used to interact with Telegram API.
+     * @param keyResolver        The resolver of keys which updates are processed with respect to
+     *                           {@code maxThreadsPerUser}.
+     * @param executor           The executor to run updates, owned by the caller.
+     * @param maxThreads         The number of threads of the executor, reported as the load.
+     * @param maxMessagesInQueue The limit of updates in queue of the executor, reported as the
+     *                           load. 0 means no limit.
+     * @throws IllegalArgumentException if {@code maxThreadsPerUser} or {@code cacheLiveDuration} is
+     *                                  invalid.
+     */
+    public OnFlyTelegramUpdateProcessor(
+        SessionProperties properties, FilterProperties filterProperties, TelegramBot telegramBot,
+        TelegramClient telegramClient, @Nullable TelegramMessageSource messageSource,
+        ConcurrencyKeyResolver keyResolver, BoundedExecutor executor, int maxThreads,
+        int maxMessagesInQueue
+    ) {
+        this(properties, filterProperties, telegramBot, telegramClient, messageSource, keyResolver,
+            executor, maxThreads, maxMessagesInQueue, null);
+    }
+
+    /**
+     * Constructs a {@code OnFlyTelegramUpdateProcessor} that runs updates on the given executor and
+     * sends rate limit notifications by the given timer, so many processors can share one timer.
+     *
+     * @param properties         Configuration settings for the session.
+     * @param filterProperties   Filter properties for controlling request processing.
+     * @param telegramBot        The telegram bot instance for sending messages.
+     * @param telegramClient     The Telegram client instance used to interact with Telegram API.
+     * @param keyResolver        The resolver of keys which updates are processed with respect to
+     *                           {@code maxThreadsPerUser}.
+     * @param executor           The executor to run updates, owned by the caller.
+     * @param maxThreads         The number of threads of the executor, reported as the load.
+     * @param maxMessagesInQueue The limit of updates in queue of the executor, reported as the
+     *                           load. 0 means no limit.
+     * @param notificationTimer  The timer to send rate limit notifications, owned by the caller. If
+     *                           null, the processor creates its own timer, it is shut down by
+     *                           {@link #close()}.
+     * @throws IllegalArgumentException if {@code maxThreadsPerUser} or {@code cacheLiveDuration} is
+     *                                  invalid.
+     */
+    public OnFlyTelegramUpdateProcessor(
+        SessionProperties properties, FilterProperties filterProperties, TelegramBot telegramBot,
+        TelegramClient telegramClient, @Nullable TelegramMessageSource messageSource,
+        ConcurrencyKeyResolver keyResolver, BoundedExecutor executor, int maxThreads,
+        int maxMessagesInQueue, @Nullable ScheduledExecutorService notificationTimer
     ) {
-        super(properties, threadFactory);
+        this(properties, filterProperties, telegramBot, telegramClient, messageSource, keyResolver,
+            executor, maxThreads, maxMessagesInQueue, notificationTimer, false);
+    }
+
+    private OnFlyTelegramUpdateProcessor(
+        SessionProperties properties, FilterProperties filterProperties, TelegramBot telegramBot,
+        TelegramClient telegramClient, @Nullable TelegramMessageSource messageSource,
+        ConcurrencyKeyResolver keyResolver, BoundedExecutor executor, int maxThreads,
+        int maxMessagesInQueue, @Nullable ScheduledExecutorService notificationTimer,
+        boolean ownsExecutor
+    ) {
+        super(executor, maxThreads, maxMessagesInQueue, ownsExecutor);
+        Assert.required(properties, "SessionProperties");
         Assert.required(telegramBot, "TelegramBot");
         Assert.required(filterProperties, "FilterProperties");
         Assert.required(telegramClient, "TelegramClient");
+        Assert.required(keyResolver, "ConcurrencyKeyResolver");
 
+        this.concurrencyKeyResolver = keyResolver;
         this.messageSource = messageSource;
         this.telegramClient = telegramClient;
         this.telegramBot = telegramBot;
@@ -91,18 +187,44 @@ public class OnFlyTelegramUpdateProcessor extends AbstractOnFlyTelegramUpdatePro
                 "cacheLiveDuration must be greater or equals than 0");
         }
 
-        this.userProcessing = Caffeine.newBuilder()
+        this.userProcessing = maxThreadsPerUser == 0 || isPartitioned() ? null : Caffeine.newBuilder()
             .expireAfter(new UserProcessingExpiry(
                 properties.getCacheLiveDuration(),
                 properties.getCacheLiveDurationUnit(),
                 maxThreadsPerUser)
             )
             .build();
-        this.limitProcessing = ConcurrentHashMap.newKeySet();
         this.userRateLimitRequestFilter = new UserRateLimitRequestFilter(filterProperties);
-        ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(1);
-        executorService.scheduleWithFixedDelay(
-            this::sendRateLimitResponse, 0, 1, TimeUnit.SECONDS);
+
+        RateLimitNotificationProperties notification = filterProperties.getRateLimitNotification();
+        if (notification.isEnabled()) {
+            long windowMillis = notification.getWindow().toMillis();
+            if (windowMillis <= 0) {
+                throw new IllegalArgumentException("rateLimitNotification.window must be positive");
+            }
+            if (notification.getMaxParallelSends() <= 0) {
+                throw new IllegalArgumentException(
+                    "rateLimitNotification.maxParallelSends must be greater than 0");
+            }
+            this.rateLimitNotifications = new RateLimitNotificationCoalescer<>(
+                notification.getSuppression().toNanos(), notification.getMaxPending());
+            this.rateLimitNotificationSender = new ThreadPoolExecutor(
+                notification.getMaxParallelSends(), notification.getMaxParallelSends(),
+                1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(notification.getMaxPending()),
+                (task, sender) -> log.warn("Too many rate limit notifications, notification dropped"));
+            this.rateLimitNotificationSender.allowCoreThreadTimeOut(true);
+            ScheduledExecutorService timer = notificationTimer != null
+                ? notificationTimer
+                : Executors.newSingleThreadScheduledExecutor();
+            this.ownRateLimitNotificationTimer = notificationTimer != null ? null : timer;
+            this.rateLimitNotificationTask = timer.scheduleWithFixedDelay(
+                this::sendRateLimitResponse, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.rateLimitNotifications = null;
+            this.rateLimitNotificationSender = null;
+            this.ownRateLimitNotificationTimer = null;
+            this.rateLimitNotificationTask = null;
+        }
     }
 
     /**
@@ -122,115 +244,143 @@ public class OnFlyTelegramUpdateProcessor extends AbstractOnFlyTelegramUpdatePro
     }
 
     /**
-     * Retrieves a runnable task for processing the given update.
+     * Constructs a {@code OnFlyTelegramUpdateProcessor} with {@link DefaultConcurrencyKeyResolver}
+     * configured by {@link SessionProperties#getConcurrencyKey()}.
      *
-     * @param update the Telegram update to be processed.
-     * @return an {@code Optional<Runnable>} containing the task to execute or empty if rate limit
-     * exceeds.
+     * @param properties       Configuration settings for the session.
+     * @param filterProperties Filter properties for controlling request processing.
+     * @param telegramBot      The telegram bot instance for sending messages.
+     * @param telegramClient   The Telegram client instance used to interact with Telegram API.
+     * @param threadFactory    The thread factory to create threads for processing requests.
+     */
+    public OnFlyTelegramUpdateProcessor(
+        SessionProperties properties, FilterProperties filterProperties, TelegramBot telegramBot,
+        TelegramClient telegramClient, ThreadFactory threadFactory,
+        @Nullable TelegramMessageSource messageSource
+    ) {
+        this(properties, filterProperties, telegramBot, telegramClient, threadFactory, messageSource,
+            new DefaultConcurrencyKeyResolver(properties.getConcurrencyKey()));
+    }
+
+    /**
+     * Stops sending rate limit notifications and shuts down the threads created for them. Pending
+     * notifications are dropped. The executor of updates is shut down only if it is created by this
+     * processor.
      */
     @Override
-    protected Optional<Runnable> getRunnable(Update update) {
-        ParsedUpdateRequest request = new ParsedUpdateRequest(update, telegramClient);
-        User user = request.getUser();
-        if (user == null) {
-            return doProcessUpdate(update, null);
-        } else if (maxThreadsPerUser == 0) {
-            return processWithoutLimit(user.getId(), request);
-        } else {
-            return processWithLimitByUser(user.getId(), request);
+    public void close() {
+        super.close();
+        if (rateLimitNotificationTask != null) {
+            rateLimitNotificationTask.cancel(false);
+        }
+        if (ownRateLimitNotificationTimer != null) {
+            ownRateLimitNotificationTimer.shutdownNow();
+        }
+        if (rateLimitNotificationSender != null) {
+            rateLimitNotificationSender.shutdown();
         }
     }
 
     /**
-     * Processes the update without any thread limit for the user.
+     * Processes the given update: checks the rate limit of the user and submits the update for
+     * execution.
+     *
+     * <p>Updates are limited by the key of {@link ConcurrencyKeyResolver}, updates without a key
+     * are not limited. If the executor is partitioned, updates of one key are queued in order and
+     * {@code maxThreadsPerUser} is enforced by the executor, the update is rejected only if the
+     * queue of the key is full. Otherwise, the update is rejected with
+     * {@link TooManyRequestsTelegramResponse} if the key already has {@code maxThreadsPerUser}
+     * updates in processing.
      *
-     * @param userId  the ID of the user.
-     * @param request the UpdateRequest containing the update details.
-     * @return an {@code Optional<Runnable>} containing the task to execute or empty if not
-     * applicable.
+     * @param update the Telegram update to be processed.
      */
-    private Optional<Runnable> processWithoutLimit(Long userId, UpdateRequest request) {
-        Update update = request.getOrigin();
-        boolean limitNotExceeded = userRateLimitRequestFilter.filter(userId);
-        return limitNotExceeded
-            ? doProcessUpdate(update, null)
-            : addRateLimitResponseToProcess(request, userId);
+    @Override
+    protected void processUpdate(Update update) {
+        ParsedUpdateRequest request = new ParsedUpdateRequest(update, telegramClient);
+        Long userId = request.getUserId();
+        if (userId != null && !userRateLimitRequestFilter.filter(userId.longValue())) {
+            addRateLimitResponseToProcess(request, userId);
+            return;
+        }
+        String key = concurrencyKeyResolver.resolve(request);
+        if (key == null) {
+            execute(null, () -> doProcessUpdate(update));
+        } else if (userProcessing == null) {
+            if (!execute(key, () -> doProcessUpdate(update))) {
+                addRateLimitResponseToProcess(request, key);
+            }
+        } else {
+            processWithLimitByKey(key, request, userProcessing);
+        }
     }
 
     /**
-     * Processes the update applying user-specific thread limits.
+     * Processes the update applying thread limits of the concurrency key.
      *
-     * @param userId  the ID of the user.
-     * @param request the UpdateRequest containing the update details.
-     * @return an {@code Optional<Runnable>} containing the task to execute or empty if not
-     * applicable.
+     * @param key            the concurrency key of the update.
+     * @param request        the UpdateRequest containing the update details.
+     * @param userProcessing the semaphores of keys.
      */
-    private Optional<Runnable> processWithLimitByUser(Long userId, UpdateRequest request) {
-        Semaphore semaphore = userProcessing.get(userId, k -> new Semaphore(maxThreadsPerUser));
+    private void processWithLimitByKey(
+        String key, UpdateRequest request, Cache<String, Semaphore> userProcessing
+    ) {
+        Semaphore semaphore = userProcessing.get(key, k -> new Semaphore(maxThreadsPerUser));
         Update update = request.getOrigin();
 
-        if (userRateLimitRequestFilter.filter(userId) && semaphore.tryAcquire()) {
-            log.trace("Lock user {}", userId);
-            return doProcessUpdate(update, semaphore::release);
+        if (semaphore.tryAcquire()) {
+            log.trace("Lock key {}", key);
+            execute(key, () -> {
+                try {
+                    doProcessUpdate(update);
+                } finally {
+                    log.trace("Release update {}", update.getUpdateId());
+                    semaphore.release();
+                }
+            });
         } else {
-            return addRateLimitResponseToProcess(request, userId);
+            addRateLimitResponseToProcess(request, key);
         }
     }
 
-    /**
-     * Processes the given update and defines an action to perform once processing is finished.
-     *
-     * @param update         the Telegram update to be processed.
-     * @param actionOnFinish an optional runnable action to execute after processing is complete.
-     * @return an {@code Optional<Runnable>} containing the task to execute for processing.
-     */
-    private Optional<Runnable> doProcessUpdate(Update update, @Nullable Runnable actionOnFinish) {
-        return Optional.of(() -> {
-            try {
-                log.debug("Executing update {}", update.getUpdateId());
-                telegramBot.onUpdateReceived(update);
-            } finally {
-                log.trace("Release update {}", update.getUpdateId());
-                if (actionOnFinish != null) {
-                    actionOnFinish.run();
-                }
-            }
-        });
+    private void doProcessUpdate(Update update) {
+        log.debug("Executing update {}", update.getUpdateId());
+        telegramBot.onUpdateReceived(update);
     }
 
-    private Optional<Runnable> addRateLimitResponseToProcess(UpdateRequest request, Long userId) {
-        limitLock.readLock().lock();
-        try {
-            log.trace("Limit exceeded for user {}", userId);
-            limitProcessing.add(request);
-        } finally {
-            limitLock.readLock().unlock();
+    private void addRateLimitResponseToProcess(UpdateRequest request, Object key) {
+        log.trace("Limit exceeded for {}", key);
+        if (rateLimitNotifications != null) {
+            rateLimitNotifications.offer(request.getChatId(), request, System.nanoTime());
         }
-        return Optional.empty();
     }
 
     /**
-     * Processes and sends responses for requests that exceeded rate limits, clearing the limit
-     * processing set.
+     * Sends one {@link TooManyRequestsTelegramResponse} per chat with rejected updates. The
+     * responses are sent in parallel by a bounded sender, if it is full the notification is
+     * dropped.
      */
     private void sendRateLimitResponse() {
-        limitLock.writeLock().lock();
-        Set<UpdateRequest> updateRequests;
-        try {
-            updateRequests = new HashSet<>(limitProcessing);
-            limitProcessing.clear();
-        } finally {
-            limitLock.writeLock().unlock();
+        if (rateLimitNotifications == null || rateLimitNotificationSender == null) {
+            return;
         }
-        updateRequests.iterator().forEachRemaining(request -> {
-            try {
-                TooManyRequestsTelegramResponse response = new TooManyRequestsTelegramResponse();
-                response.setMessageSource(messageSource);
-                response.process(request);
-            } catch (Exception e) {
-                log.error("Cannot process response to telegram for request {}", request, e);
+        try {
+            for (UpdateRequest request : rateLimitNotifications.drain(System.nanoTime())) {
+                rateLimitNotificationSender.execute(() -> sendRateLimitResponse(request));
             }
-        });
+        } catch (Exception e) {
+            // the exception would cancel the next runs of the scheduler
+            log.error("Cannot send rate limit notifications", e);
+        }
+    }
+
+    private void sendRateLimitResponse(UpdateRequest request) {
+        try {
+            TooManyRequestsTelegramResponse response = new TooManyRequestsTelegramResponse();
+            response.setMessageSource(messageSource);
+            response.process(request);
+        } catch (Exception e) {
+            log.error("Cannot process response to telegram for request {}", request, e);
+        }
     }
 
     /**
@@ -269,21 +419,21 @@ public class OnFlyTelegramUpdateProcessor extends AbstractOnFlyTelegramUpdatePro
      *
      * @param <T> the type of value associated with the key.
      */
-    private static abstract class AbstractExpiry<T> implements Expiry<Long, T> {
+    private static abstract class AbstractExpiry<T> implements Expiry<String, T> {
 
         @Override
-        public long expireAfterCreate(Long key, T value, long currentTime) {
+        public long expireAfterCreate(String key, T value, long currentTime) {
             return getDuration(value);
         }
 
         @Override
-        public long expireAfterUpdate(Long key, T value, long currentTime,
+        public long expireAfterUpdate(String key, T value, long currentTime,
             @NonNegative long currentDuration) {
             return getDuration(value);
         }
 
         @Override
-        public long expireAfterRead(Long key, T value, long currentTime,
+        public long expireAfterRead(String key, T value, long currentTime,
             @NonNegative long currentDuration) {
             return getDuration(value);
         }
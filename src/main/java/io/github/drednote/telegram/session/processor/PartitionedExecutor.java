@@ -0,0 +1,408 @@
+package io.github.drednote.telegram.session.processor;
+
+import io.github.drednote.telegram.session.SessionProperties.ExecutorType;
+import io.github.drednote.telegram.utils.Assert;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * {@code PartitionedExecutor} runs tasks on a fixed number of worker threads, keeping the order of
+ * tasks with the same key.
+ *
+ * <p>Every key has its own mailbox. Tasks of one key are queued in the mailbox and not more than
+ * {@code maxConcurrencyPerKey} of them are running at the same time, the rest wait in order of
+ * submitting instead of being rejected. Mailboxes with work to do are placed to a single ready
+ * queue shared by all workers, so an idle worker always takes the next ready key and no worker
+ * stays idle while another one has a backlog. After a task is finished, the key goes to the end of
+ * the ready queue if its mailbox is not empty, so a user with many updates does not block the
+ * others. Empty mailboxes are removed.
+ *
+ * <p>Tasks without a key are not ordered and go directly to the ready queue.
+ *
+ * <p>The number of tasks in the ready queue or running is bounded by {@code maxAdmitted}. If this
+ * limit is reached, {@link #execute(Object, Runnable)} blocks until some task is finished. Tasks
+ * waiting in a mailbox behind {@code maxConcurrencyPerKey} running tasks of their key are not
+ * counted, so a user flooding its mailbox holds not more than {@code maxConcurrencyPerKey} places
+ * and does not block tasks of other users. Instead, not more than {@code maxAdmitted} tasks wait in
+ * one mailbox, the next tasks of the key are rejected until the mailbox is drained.
+ *
+ * <p>The executor can also run without own threads on top of a shared {@link Executor}. Then not
+ * more than {@code maxRunning} tasks from the ready queue are handed to the shared executor at the
+ * same time, the next one is handed when one of them is finished. So many partitioned executors,
+ * for example one per bot, share one pool of threads, and none of them takes more than
+ * {@code maxRunning} threads of it.
+ *
+ * @author Ivan Galushko
+ * @see ExecutorType#PARTITIONED
+ */
+public class PartitionedExecutor implements BoundedExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedExecutor.class);
+
+    private final Map<Object, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final BlockingQueue<Runnable> ready = new LinkedBlockingQueue<>();
+    private final Semaphore admission;
+    private final int maxAdmitted;
+    private final int maxConcurrencyPerKey;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    /**
+     * The executor running tasks from the ready queue. Null if the executor has own worker threads
+     */
+    @Nullable
+    private final Executor delegate;
+    private final int maxRunning;
+    /**
+     * The number of tasks handed to the delegate and not finished yet
+     */
+    private final AtomicInteger delegated = new AtomicInteger();
+    private volatile boolean shutdown = false;
+
+    /**
+     * Constructs a {@code PartitionedExecutor} and starts its workers.
+     *
+     * @param threadFactory        the factory to create worker threads
+     * @param threads              the number of worker threads
+     * @param maxAdmitted          the maximum number of admitted but not finished tasks
+     * @param maxConcurrencyPerKey the maximum number of tasks with the same key running at the same
+     *                             time. 0 - no restrictions
+     * @throws IllegalArgumentException if {@code threads} or {@code maxAdmitted} is not positive,
+     *                                  or {@code maxConcurrencyPerKey} is negative
+     */
+    public PartitionedExecutor(
+        ThreadFactory threadFactory, int threads, int maxAdmitted, int maxConcurrencyPerKey
+    ) {
+        this(maxAdmitted, maxConcurrencyPerKey, null, 0);
+        Assert.required(threadFactory, "ThreadFactory");
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be greater than 0");
+        }
+        for (int i = 0; i < threads; i++) {
+            threadFactory.newThread(this::work).start();
+        }
+    }
+
+    /**
+     * Constructs a {@code PartitionedExecutor} without own threads, running tasks on the given
+     * executor.
+     *
+     * @param executor             the executor running tasks, usually shared by several
+     *                             partitioned executors. It should not block on submitting
+     * @param maxRunning           the maximum number of tasks handed to the executor at the same
+     *                             time
+     * @param maxAdmitted          the maximum number of admitted but not finished tasks
+     * @param maxConcurrencyPerKey the maximum number of tasks with the same key running at the same
+     *                             time. 0 - no restrictions
+     * @throws IllegalArgumentException if {@code maxRunning} or {@code maxAdmitted} is not
+     *                                  positive, or {@code maxConcurrencyPerKey} is negative
+     */
+    public PartitionedExecutor(
+        Executor executor, int maxRunning, int maxAdmitted, int maxConcurrencyPerKey
+    ) {
+        this(maxAdmitted, maxConcurrencyPerKey, executor, maxRunning);
+        Assert.required(executor, "Executor");
+        if (maxRunning <= 0) {
+            throw new IllegalArgumentException("maxRunning must be greater than 0");
+        }
+    }
+
+    private PartitionedExecutor(
+        int maxAdmitted, int maxConcurrencyPerKey, @Nullable Executor delegate, int maxRunning
+    ) {
+        if (maxAdmitted <= 0) {
+            throw new IllegalArgumentException("maxAdmitted must be greater than 0");
+        }
+        if (maxConcurrencyPerKey < 0) {
+            throw new IllegalArgumentException("maxConcurrencyPerKey must be greater than or equal to 0");
+        }
+
+        this.maxAdmitted = maxAdmitted;
+        this.admission = new Semaphore(maxAdmitted);
+        this.maxConcurrencyPerKey = maxConcurrencyPerKey == 0 ? Integer.MAX_VALUE : maxConcurrencyPerKey;
+        this.delegate = delegate;
+        this.maxRunning = maxRunning;
+    }
+
+    /**
+     * Executes the task without ordering guarantees.
+     *
+     * @param command the task to execute
+     */
+    @Override
+    public void execute(Runnable command) {
+        execute(null, command);
+    }
+
+    /**
+     * Executes the task after all previously submitted tasks with the same key, or immediately if
+     * the key is null. Blocks while the admission limit is reached.
+     *
+     * @param key     the key of the task, usually the id of the user
+     * @param command the task to execute
+     * @return false if the task is rejected, because the mailbox of the key is full
+     * @throws RejectedExecutionException if the executor is shut down or the calling thread is
+     *                                    interrupted while waiting for admission
+     */
+    public boolean execute(@Nullable Object key, Runnable command) {
+        Assert.required(command, "Runnable");
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+        try {
+            admission.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted", e);
+        }
+
+        if (key == null) {
+            schedule(command);
+            return true;
+        }
+        Placement[] result = new Placement[1];
+        mailboxes.compute(key, (k, mailbox) -> {
+            if (mailbox == null) {
+                mailbox = new Mailbox();
+            }
+            if (mailbox.scheduled < maxConcurrencyPerKey) {
+                mailbox.scheduled++;
+                result[0] = Placement.SCHEDULED;
+            } else if (mailbox.waiting() < maxAdmitted) {
+                result[0] = Placement.WAITING;
+            } else {
+                result[0] = Placement.REJECTED;
+                return mailbox;
+            }
+            mailbox.tasks.add(command);
+            return mailbox;
+        });
+        switch (result[0]) {
+            case SCHEDULED -> schedule(new KeyTask(key));
+            // the waiting task takes the place of a finished task of the key later
+            case WAITING -> admission.release();
+            case REJECTED -> {
+                admission.release();
+                log.trace("Mailbox of key {} is full, task rejected", key);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void schedule(Runnable task) {
+        ready.add(task);
+        if (delegate != null) {
+            handOver(delegate);
+        }
+    }
+
+    /**
+     * Hands tasks from the ready queue to the delegate while less than {@code maxRunning} of them
+     * are running. Called after a task is added to the ready queue and after a task is finished,
+     * so a ready task is never left behind.
+     */
+    private void handOver(Executor executor) {
+        while (!ready.isEmpty()) {
+            int running = delegated.get();
+            if (running >= maxRunning) {
+                return;
+            }
+            if (!delegated.compareAndSet(running, running + 1)) {
+                continue;
+            }
+            Runnable task = ready.poll();
+            if (task == null) {
+                delegated.decrementAndGet();
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        run(task);
+                    } finally {
+                        delegated.decrementAndGet();
+                        handOver(executor);
+                    }
+                });
+            } catch (RuntimeException e) {
+                delegated.decrementAndGet();
+                if (task instanceof KeyTask keyTask) {
+                    // waiting tasks of the key are scheduled by the next task of the key
+                    keyTask.complete(false);
+                }
+                admission.release();
+                log.error("The task is rejected by the executor", e);
+            }
+        }
+    }
+
+    private void work() {
+        while (!shutdown || !ready.isEmpty()) {
+            Runnable task;
+            try {
+                task = ready.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (task == null) {
+                continue;
+            }
+            run(task);
+        }
+    }
+
+    private void run(Runnable task) {
+        active.incrementAndGet();
+        try {
+            task.run();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("An unhandled error occurred while executing task", e);
+        } finally {
+            completed.incrementAndGet();
+            active.decrementAndGet();
+            // the next task of the key takes the place of the finished one
+            if (task instanceof KeyTask keyTask && keyTask.complete(true)) {
+                schedule(keyTask);
+            } else {
+                admission.release();
+            }
+        }
+    }
+
+    /**
+     * @return the number of tasks in the ready queue. Tasks waiting in mailboxes for running tasks
+     * of their keys are not counted
+     */
+    @Override
+    public int getQueueSize() {
+        return Math.max(0, maxAdmitted - admission.availablePermits() - active.get());
+    }
+
+    @Override
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * @return the number of finished tasks, including failed
+     */
+    public long getCompletedTaskCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of tasks finished with an exception
+     */
+    public long getFailedTaskCount() {
+        return failed.get();
+    }
+
+    @Override
+    public void shutdown() {
+        this.shutdown = true;
+    }
+
+    /**
+     * The ready queue entry of a key. Takes the next task from the mailbox and runs it. After that
+     * {@link #complete()} decides if the key is scheduled again.
+     */
+    private final class KeyTask implements Runnable {
+
+        private final Object key;
+
+        private KeyTask(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            Runnable[] command = new Runnable[1];
+            mailboxes.computeIfPresent(key, (k, mailbox) -> {
+                command[0] = mailbox.tasks.poll();
+                mailbox.running++;
+                return mailbox;
+            });
+            if (command[0] != null) {
+                command[0].run();
+            }
+        }
+
+        /**
+         * Removes the key task taken from the ready queue from its mailbox.
+         *
+         * @param ran true if the task was run, false if it was rejected before running
+         * @return true if the task was run and the mailbox has waiting tasks, so the key must be
+         * scheduled again with the place of the finished task
+         */
+        private boolean complete(boolean ran) {
+            boolean[] schedule = new boolean[1];
+            mailboxes.compute(key, (k, mailbox) -> {
+                mailbox.scheduled--;
+                if (ran) {
+                    mailbox.running--;
+                }
+                if (ran && mailbox.waiting() > 0 && mailbox.scheduled < maxConcurrencyPerKey) {
+                    mailbox.scheduled++;
+                    schedule[0] = true;
+                }
+                return mailbox.scheduled == 0 && mailbox.tasks.isEmpty() ? null : mailbox;
+            });
+            return schedule[0];
+        }
+    }
+
+    private enum Placement {
+        /**
+         * The task is in the mailbox and the key is in the ready queue
+         */
+        SCHEDULED,
+        /**
+         * The task waits in the mailbox for a running task of the key
+         */
+        WAITING,
+        /**
+         * The mailbox is full
+         */
+        REJECTED
+    }
+
+    /**
+     * Tasks of one key.
+     */
+    private static final class Mailbox {
+
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        /**
+         * The number of tasks of this key that are either in the ready queue or running
+         */
+        private int scheduled = 0;
+        /**
+         * The number of running tasks of this key
+         */
+        private int running = 0;
+
+        /**
+         * @return the number of tasks that are not taken by any scheduled entry of the key
+         */
+        private int waiting() {
+            return tasks.size() - (scheduled - running);
+        }
+    }
+}
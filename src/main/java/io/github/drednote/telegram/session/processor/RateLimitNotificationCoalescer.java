@@ -0,0 +1,186 @@
+package io.github.drednote.telegram.session.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collapses rejected updates to at most one pending notification per chat.
+ *
+ * <p>Chats are kept in an open addressing hash table keyed by the primitive chat id, every slot
+ * holds the pending notification of the chat, if any, and the time when the chat was notified
+ * last. A rejection is recorded only if the chat has no pending notification and was not notified
+ * during the suppression time, other rejections are dropped. {@link #drain(long)} returns pending
+ * notifications and rebuilds the table without chats that are out of the suppression time, so the
+ * table holds only recently notified chats.
+ *
+ * <p>All methods are synchronized, the critical sections are short and do not allocate except
+ * for table growth.
+ *
+ * @param <T> the type of notification
+ * @author Ivan Galushko
+ */
+final class RateLimitNotificationCoalescer<T> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final long suppressionNanos;
+    private final int maxPending;
+
+    private long[] keys;
+    private Object[] pending;
+    private long[] notifiedAt;
+    private boolean[] used;
+    private int size = 0;
+    private int pendingCount = 0;
+    private long dropped = 0;
+
+    /**
+     * @param suppressionNanos the time after a notification during which the chat is not notified
+     *                         again
+     * @param maxPending       the maximum number of chats with a pending notification
+     */
+    RateLimitNotificationCoalescer(long suppressionNanos, int maxPending) {
+        if (suppressionNanos < 0) {
+            throw new IllegalArgumentException("suppression must be greater than or equal to 0");
+        }
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be greater than 0");
+        }
+        this.suppressionNanos = suppressionNanos;
+        this.maxPending = maxPending;
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.pending = new Object[capacity];
+        this.notifiedAt = new long[capacity];
+        this.used = new boolean[capacity];
+    }
+
+    /**
+     * Records the rejection in the chat.
+     *
+     * @param chatId       the id of the chat
+     * @param notification the notification to send if the chat is not notified yet
+     * @param now          the current time in nanoseconds
+     * @return true if the notification is pending, false if it is dropped
+     */
+    synchronized boolean offer(long chatId, T notification, long now) {
+        int slot = find(chatId);
+        if (slot >= 0 && (pending[slot] != null || now - notifiedAt[slot] < suppressionNanos)) {
+            dropped++;
+            return false;
+        }
+        if (pendingCount >= maxPending) {
+            dropped++;
+            return false;
+        }
+        if (slot < 0) {
+            if ((size + 1) * 2 > keys.length) {
+                rehash(keys.length * 2, now, false);
+            }
+            slot = insertionSlot(chatId);
+            used[slot] = true;
+            keys[slot] = chatId;
+            size++;
+        }
+        pending[slot] = notification;
+        pendingCount++;
+        return true;
+    }
+
+    /**
+     * Returns pending notifications, marks their chats as notified and forgets chats which are out
+     * of the suppression time.
+     *
+     * @param now the current time in nanoseconds
+     * @return pending notifications
+     */
+    @SuppressWarnings("unchecked")
+    synchronized List<T> drain(long now) {
+        List<T> result = new ArrayList<>(pendingCount);
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i] && pending[i] != null) {
+                result.add((T) pending[i]);
+                pending[i] = null;
+                notifiedAt[i] = now;
+            }
+        }
+        pendingCount = 0;
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 2) {
+            capacity *= 2;
+        }
+        rehash(capacity, now, true);
+        return result;
+    }
+
+    private void rehash(int capacity, long now, boolean evict) {
+        long[] oldKeys = keys;
+        Object[] oldPending = pending;
+        long[] oldNotifiedAt = notifiedAt;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i]) {
+                continue;
+            }
+            if (evict && oldPending[i] == null && now - oldNotifiedAt[i] >= suppressionNanos) {
+                continue;
+            }
+            int slot = insertionSlot(oldKeys[i]);
+            used[slot] = true;
+            keys[slot] = oldKeys[i];
+            pending[slot] = oldPending[i];
+            notifiedAt[slot] = oldNotifiedAt[i];
+            size++;
+        }
+    }
+
+    private int find(long chatId) {
+        int mask = keys.length - 1;
+        for (int slot = hash(chatId) & mask; used[slot]; slot = (slot + 1) & mask) {
+            if (keys[slot] == chatId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int insertionSlot(long chatId) {
+        int mask = keys.length - 1;
+        int slot = hash(chatId) & mask;
+        while (used[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return the number of chats with a pending notification
+     */
+    synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the number of chats tracked by the table
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of dropped rejections
+     */
+    synchronized long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -6,21 +6,27 @@ import io.github.drednote.telegram.core.request.ParsedUpdateRequest;
 import io.github.drednote.telegram.datasource.session.UpdateInbox;
 import io.github.drednote.telegram.datasource.session.UpdateInboxRepositoryAdapter;
 import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.inmemory.InMemoryUpdateInboxRepositoryAdapter;
 import io.github.drednote.telegram.filter.FilterProperties;
 import io.github.drednote.telegram.response.TooManyRequestsTelegramResponse;
+import io.github.drednote.telegram.session.ProcessorLoad;
 import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.session.SessionProperties.ExecutorType;
 import io.github.drednote.telegram.session.TelegramUpdateProcessor;
 import io.github.drednote.telegram.session.UserRateLimitRequestFilter;
 import io.github.drednote.telegram.utils.Assert;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.User;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
@@ -32,17 +38,42 @@ public class SchedulerTelegramUpdateProcessor<T extends UpdateInbox>
 
     private final TelegramBot telegramBot;
     private final UpdateInboxRepositoryAdapter<T> adapter;
-    private final ThreadPoolExecutor executor;
+    private final BoundedExecutor executor;
     private final SessionProperties sessionProperties;
     private final SchedulerTelegramUpdateProcessorProperties readerProperties;
     private final ScheduledThreadPoolExecutor scheduledExecutor;
-    private final AtomicBoolean isTaskRunning = new AtomicBoolean(false);
+    private final ScheduledThreadPoolExecutor maintenanceExecutor;
+    private final ScheduleTask scheduleTask = new ScheduleTask();
+    /**
+     * Whether the last read found no free workers, so the next finished update should wake up the reader
+     */
+    private final AtomicBoolean waitingForCredits = new AtomicBoolean(false);
+    /**
+     * The number of claimed updates which processing is not finished yet, whether they wait in the executor queue or
+     * run
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
     private final UserRateLimitRequestFilter userRateLimitRequestFilter;
     private final TelegramClient telegramClient;
     private final TelegramMessageSource messageSource;
+    @Nullable
+    private final UpdateInboxAcknowledger<T> acknowledger;
+    @Nullable
+    private final UpdateInboxPurger purger;
+
+    /**
+     * The number of new updates in the storage, counted at most every {@code backlogCheckInterval}
+     */
+    private volatile long backlog = 0;
+    private final AtomicLong nextBacklogCheck = new AtomicLong();
 
     private int delay;
     private boolean running = false;
+    /**
+     * The next pending read, guarded by {@link #scheduleTask}
+     */
+    @Nullable
+    private ScheduledFuture<?> nextRead;
 
     public SchedulerTelegramUpdateProcessor(
         TelegramBot telegramBot, UpdateInboxRepositoryAdapter<T> adapter, SessionProperties properties,
@@ -63,15 +94,41 @@ public class SchedulerTelegramUpdateProcessor<T extends UpdateInbox>
 
         Assert.required(this.readerProperties, "SchedulerTelegramUpdateProcessorProperties");
 
-        this.executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(properties.getConsumeMaxThreads());
+        if (properties.getExecutorType() == ExecutorType.VIRTUAL) {
+            this.executor = new VirtualThreadExecutor(
+                "telegram-update-", properties.getConsumeMaxThreads(), Integer.MAX_VALUE);
+        } else {
+            // read() does not submit more than consumeMaxThreads updates to the queue
+            this.executor = new WorkerPoolExecutor(Executors.defaultThreadFactory(),
+                properties.getConsumeMaxThreads(), properties.getConsumeMaxThreads());
+        }
         this.telegramBot = telegramBot;
         this.scheduledExecutor = new ScheduledThreadPoolExecutor(1);
         this.delay = readerProperties.getMaxInterval();
         this.userRateLimitRequestFilter = new UserRateLimitRequestFilter(filterProperties);
+        this.acknowledger = readerProperties.getAcknowledgeInterval() > 0
+            ? new UpdateInboxAcknowledger<>(adapter, readerProperties.getAcknowledgeInterval(),
+            readerProperties.getAcknowledgeBatchSize())
+            : null;
+
+        UpdateInboxPurger inboxPurger = new UpdateInboxPurger(adapter, readerProperties);
+        this.purger = inboxPurger.isEnabled() ? inboxPurger : null;
+
+        this.maintenanceExecutor = new ScheduledThreadPoolExecutor(1);
+        maintenanceExecutor.scheduleWithFixedDelay(new IdleScheduleTask(), readerProperties.getCheckIdleInterval(),
+            readerProperties.getCheckIdleInterval(), TimeUnit.MILLISECONDS);
+        if (purger != null) {
+            maintenanceExecutor.scheduleWithFixedDelay(new PurgeScheduleTask(), readerProperties.getPurgeInterval(),
+                readerProperties.getPurgeInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
 
-        new ScheduledThreadPoolExecutor(1)
-            .scheduleWithFixedDelay(new IdleScheduleTask(), readerProperties.getCheckIdleInterval(),
-                readerProperties.getCheckIdleInterval(), TimeUnit.MILLISECONDS);
+    /**
+     * @return the purger of expired updates or null if the retention is not configured
+     */
+    @Nullable
+    public UpdateInboxPurger getPurger() {
+        return purger;
     }
 
     @Override
@@ -80,6 +137,32 @@ public class SchedulerTelegramUpdateProcessor<T extends UpdateInbox>
         readImmediately();
     }
 
+    /**
+     * Reports updates waiting in the executor and new updates in the storage as queued, so the session pauses
+     * polling while the inbox has a backlog. The number of new updates is taken from
+     * {@link UpdateInboxRepositoryAdapter#countPending()} at most every {@code backlogCheckInterval}, so the load may
+     * be a bit stale.
+     *
+     * @return the load. {@code capacity} is {@code maxMessagesInQueue} for {@link InMemoryUpdateInboxRepositoryAdapter},
+     * which does not store more updates, and 0 for other adapters
+     */
+    @Override
+    public ProcessorLoad getLoad() {
+        long now = System.currentTimeMillis();
+        long next = nextBacklogCheck.get();
+        if (now >= next && nextBacklogCheck.compareAndSet(next, now + readerProperties.getBacklogCheckInterval())) {
+            try {
+                backlog = Math.max(0, adapter.countPending());
+            } catch (Exception e) {
+                log.warn("Cannot count new telegram updates", e);
+            }
+        }
+        int queued = (int) Math.min(Integer.MAX_VALUE, executor.getQueueSize() + backlog);
+        int capacity = adapter instanceof InMemoryUpdateInboxRepositoryAdapter
+            ? Math.max(0, sessionProperties.getMaxMessagesInQueue()) : 0;
+        return new ProcessorLoad(queued, capacity, executor.getActiveCount(), sessionProperties.getConsumeMaxThreads());
+    }
+
     @Override
     public synchronized void start() {
         if (!running) {
@@ -94,7 +177,13 @@ public class SchedulerTelegramUpdateProcessor<T extends UpdateInbox>
     @Override
     public synchronized void stop() {
         if (running) {
+            running = false;
             scheduledExecutor.shutdown();
+            maintenanceExecutor.shutdown();
+            executor.shutdown();
+            if (acknowledger != null) {
+                acknowledger.close();
+            }
             log.info("Stopped SchedulerTelegramUpdateProcessor");
         } else {
             throw new IllegalStateException("Reader already stopped");
@@ -103,29 +192,72 @@ public class SchedulerTelegramUpdateProcessor<T extends UpdateInbox>
 
     @Override
     public void readImmediately() {
-        scheduledExecutor.schedule(new ScheduleTask(), 0, TimeUnit.MILLISECONDS);
+        scheduleRead(0);
     }
 
+    /**
+     * Schedules the next read after the delay, unless a read is already scheduled earlier. There is at most one
+     * pending read, so wake-ups do not multiply reading chains.
+     */
+    private void scheduleRead(long delay) {
+        synchronized (scheduleTask) {
+            if (scheduledExecutor.isShutdown()) {
+                return;
+            }
+            if (nextRead != null && !nextRead.isDone()) {
+                if (nextRead.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                    return;
+                }
+                nextRead.cancel(false);
+            }
+            try {
+                nextRead = scheduledExecutor.schedule(scheduleTask, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("Reading of telegram updates is stopped");
+            }
+        }
+    }
+
+    /**
+     * Claims as many updates as there are free workers, that is {@code consumeMaxThreads} minus claimed updates which
+     * processing is not finished. Every finished update returns its credit and wakes up the reader if it waits for
+     * free workers, and a full batch is followed by the next read without delay, so a backlog is drained as fast as
+     * workers process it. The delay grows from {@code minInterval} to {@code maxInterval} only while the inbox has no
+     * new updates.
+     */
     public void read() {
-        if (executor.getQueue().size() < sessionProperties.getConsumeMaxThreads()) {
-            Optional<T> nextEntity = adapter.findNextUpdate();
-            if (nextEntity.isPresent()) {
-                T t = nextEntity.get();
-                log.trace("Telegram update found: {}", t.getUpdateId());
-                executor.submit(() -> {
+        int free = sessionProperties.getConsumeMaxThreads() - inFlight.get();
+        if (free > 0) {
+            int maxClaimSize = readerProperties.getMaxClaimSize();
+            int requested = maxClaimSize > 0 ? Math.min(free, maxClaimSize) : free;
+            List<T> entities = adapter.findNextUpdates(requested);
+            if (!entities.isEmpty()) {
+                for (T t : entities) {
+                    log.trace("Telegram update found: {}", t.getUpdateId());
+                    inFlight.incrementAndGet();
                     try {
-                        execute(t);
-                    } catch (Exception e) {
-                        log.error("An unhandled error occurred while processing the telegram update", e);
+                        executor.execute(() -> {
+                            try {
+                                execute(t);
+                            } catch (Exception e) {
+                                log.error("An unhandled error occurred while processing the telegram update", e);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // the claimed update is returned to processing by the idle check
+                        inFlight.decrementAndGet();
+                        log.debug("Processing of telegram update {} is rejected", t.getUpdateId());
                     }
-                });
-                delay = Math.max(delay - readerProperties.getReducingIntervalAmount(),
-                    readerProperties.getMinInterval());
+                }
+                // the inbox may have more updates if the batch is full
+                delay = entities.size() >= requested ? 0 : Math.max(
+                    delay - readerProperties.getReducingIntervalAmount(), readerProperties.getMinInterval());
             } else {
                 delay = Math.min(delay + readerProperties.getIncreasingIntervalAmount(),
                     readerProperties.getMaxInterval());
             }
         } else {
+            waitingForCredits.set(true);
             delay = readerProperties.getWaitInterval();
         }
     }
@@ -139,8 +271,23 @@ public class SchedulerTelegramUpdateProcessor<T extends UpdateInbox>
             entity.setStatus(UpdateInboxStatus.ERROR);
             entity.setErrorDescription(e.getMessage());
         } finally {
-            adapter.update(entity);
-            log.debug("Telegram update processing complete: {}", entity.getUpdateId());
+            try {
+                if (acknowledger != null) {
+                    acknowledger.acknowledge(entity);
+                } else {
+                    adapter.update(entity);
+                }
+                log.debug("Telegram update processing complete: {}", entity.getUpdateId());
+            } catch (Exception e) {
+                // the update stays in progress and is returned to processing by the idle check
+                log.error("Cannot save the status of the telegram update {}", entity.getUpdateId(), e);
+            } finally {
+                // the credit is returned even if the status is not saved, otherwise reading stops
+                inFlight.decrementAndGet();
+                if (waitingForCredits.compareAndSet(true, false)) {
+                    readImmediately();
+                }
+            }
         }
     }
 
@@ -175,6 +322,21 @@ public class SchedulerTelegramUpdateProcessor<T extends UpdateInbox>
         }
     }
 
+    /**
+     * Task for deleting expired messages.
+     */
+    private class PurgeScheduleTask implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                purger.purge();
+            } catch (Exception e) {
+                log.error("An unhandled error occurred while deleting expired telegram updates", e);
+            }
+        }
+    }
+
     /**
      * Task for processing messages.
      */
@@ -182,16 +344,16 @@ public class SchedulerTelegramUpdateProcessor<T extends UpdateInbox>
 
         @Override
         public void run() {
-            if (!isTaskRunning.compareAndSet(false, true)) {
-                return;
+            // reads run one by one on the single thread of scheduledExecutor
+            synchronized (this) {
+                nextRead = null;
             }
             try {
                 read();
             } catch (Exception e) {
                 log.error("An unhandled error occurred while processing the telegram update", e);
             } finally {
-                isTaskRunning.set(false);
-                scheduledExecutor.schedule(this, delay, TimeUnit.MILLISECONDS);
+                scheduleRead(delay);
             }
         }
     }
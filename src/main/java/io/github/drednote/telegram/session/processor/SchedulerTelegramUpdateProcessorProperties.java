@@ -3,10 +3,13 @@ package io.github.drednote.telegram.session.processor;
 import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
 import io.github.drednote.telegram.session.SessionProperties.UpdateProcessorType;
 import io.github.drednote.telegram.session.TelegramBotSession;
+import java.util.HashMap;
+import java.util.Map;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 
 @Configuration
 @Getter
@@ -47,11 +50,53 @@ public class SchedulerTelegramUpdateProcessorProperties {
     private int increasingIntervalAmount = 100;
 
     /**
-     * Interval after which to check for new messages for processing while all threads are busy. In milliseconds.
+     * Interval after which to check for new messages for processing while all threads are busy. The reader is also
+     * woken up as soon as any thread finishes, so this interval is only a fallback. In milliseconds.
      */
     @NonNull
     private int waitInterval = 30;
 
+    /**
+     * The maximum number of updates to claim from the storage with one query. Every read claims as many updates as
+     * there are free places in the processing queue, but not more than this value. 0 - no restrictions.
+     */
+    @NonNull
+    private int maxClaimSize = 0;
+
+    /**
+     * The maximum time a processed update waits until its status is saved. Statuses are saved in batches in background,
+     * so the worker is free as soon as the update is handled. 0 - the status is saved by the worker right after
+     * processing. In milliseconds.
+     */
+    @NonNull
+    private int acknowledgeInterval = 0;
+
+    /**
+     * The number of processed updates which statuses are saved without waiting for {@link #acknowledgeInterval}.
+     */
+    @NonNull
+    private int acknowledgeBatchSize = 100;
+
+    /**
+     * The name of the Postgres channel to notify all instances about new updates. When set, the Postgres adapter sends
+     * a notification after saving updates and every instance listens to the channel and reads new updates immediately,
+     * polling is kept as a fallback. Null - notifications are disabled.
+     * <p>
+     * Applied only for {@link UpdateProcessorType#SCHEDULER_WITH_CRUD} with Postgres
+     */
+    @Nullable
+    private String notifyChannel;
+
+    /**
+     * Limit updates in progress per entity with counters in a separate collection or table instead of counting updates
+     * in progress on every search. Makes the search independent of the size of the update inbox.
+     * <p>
+     * Applied only for {@link UpdateProcessorType#SCHEDULER_WITH_CRUD} with Mongo or JPA with databases other than
+     * Postgres
+     */
+    @NonNull
+    private boolean entityLeases = false;
+
     /**
      * Interval after tasks is marked {@link UpdateInboxStatus#TIMEOUT}. In milliseconds.
      */
@@ -64,12 +109,68 @@ public class SchedulerTelegramUpdateProcessorProperties {
     @NonNull
     private int checkIdleInterval = 5000;
 
+    /**
+     * The maximum age of the number of new updates in the storage, reported as a part of the load of
+     * {@link SchedulerTelegramUpdateProcessor} to the session for adaptive polling and webhook admission. The number is
+     * counted again on demand when it is older. In milliseconds.
+     */
+    @NonNull
+    private int backlogCheckInterval = 200;
+
+    /**
+     * How long updates with a final status are kept before they are deleted, by status. For example,
+     * {@code retention.processed=86400000} deletes processed updates a day after they are processed. Updates with
+     * statuses without value are kept forever, only {@link UpdateInboxStatus#PROCESSED},
+     * {@link UpdateInboxStatus#ERROR} and {@link UpdateInboxStatus#TIMEOUT} are allowed. In milliseconds.
+     * <p>
+     * Applied only for {@link UpdateProcessorType#SCHEDULER_WITH_CRUD}
+     */
+    @NonNull
+    private Map<UpdateInboxStatus, Long> retention = new HashMap<>();
+
+    /**
+     * Interval to delete updates which {@link #retention} is expired. In milliseconds.
+     */
+    @NonNull
+    private int purgeInterval = 60000;
+
+    /**
+     * The maximum number of updates deleted in one transaction.
+     */
+    @NonNull
+    private int purgeBatchSize = 1000;
+
     /**
      * Limits the number of updates to be store in memory queue for update processing for concrete user. 0 - no
      * restrictions.
      * <p>
-     * Applied only for {@link UpdateProcessorType#SCHEDULER}
+     * Applied only for {@link UpdateProcessorType#SCHEDULER} and {@link UpdateProcessorType#SCHEDULER_WITH_LOG}
      */
     @NonNull
     private int maxMessageInQueuePerUser = 0;
+
+    /**
+     * The directory of segment files of the update inbox log. Must not be shared by several instances.
+     * <p>
+     * Applied only for {@link UpdateProcessorType#SCHEDULER_WITH_LOG}
+     */
+    @NonNull
+    private String logDirectory = "telegram-inbox";
+
+    /**
+     * The size of one segment file of the update inbox log. Segments are mapped to memory as a whole. In bytes.
+     * <p>
+     * Applied only for {@link UpdateProcessorType#SCHEDULER_WITH_LOG}
+     */
+    @NonNull
+    private int logSegmentSize = 64 * 1024 * 1024;
+
+    /**
+     * How long new updates wait for other updates before the update inbox log is forced to the disk once for all of
+     * them. 0 - the log is forced as soon as possible. In milliseconds.
+     * <p>
+     * Applied only for {@link UpdateProcessorType#SCHEDULER_WITH_LOG}
+     */
+    @NonNull
+    private int logFlushInterval = 2;
 }
@@ -0,0 +1,151 @@
+package io.github.drednote.telegram.session.processor;
+
+import io.github.drednote.telegram.datasource.session.UpdateInbox;
+import io.github.drednote.telegram.datasource.session.UpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.utils.Assert;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers final statuses of processed updates and saves them in batches with
+ * {@link UpdateInboxRepositoryAdapter#updateAll(List)}.
+ *
+ * <p>{@link #acknowledge(UpdateInbox)} only puts the update to a lock-free queue, so the worker
+ * is free as soon as the update is handled. The queue is flushed every {@code interval}
+ * milliseconds by a single background thread or earlier, as soon as {@code batchSize} updates are
+ * pending. If a batch cannot be saved, its updates are saved one by one, an update that cannot be
+ * saved stays {@code IN_PROGRESS} and is marked as timed out later.
+ *
+ * <p>{@link #close()} stops the background thread and flushes pending updates on the calling
+ * thread, updates acknowledged after that are saved immediately.
+ *
+ * @param <T> the type of update inbox
+ * @author Ivan Galushko
+ * @see SchedulerTelegramUpdateProcessorProperties#getAcknowledgeInterval()
+ */
+final class UpdateInboxAcknowledger<T extends UpdateInbox> implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(UpdateInboxAcknowledger.class);
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final UpdateInboxRepositoryAdapter<T> adapter;
+    private final int batchSize;
+    private final Queue<T> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor flusher = new ScheduledThreadPoolExecutor(1);
+    private volatile boolean closed = false;
+
+    /**
+     * @param adapter   the adapter to save updates
+     * @param interval  the maximum time in milliseconds an update waits for saving
+     * @param batchSize the number of pending updates that are saved without waiting for the
+     *                  interval
+     * @throws IllegalArgumentException if {@code interval} or {@code batchSize} is not positive
+     */
+    UpdateInboxAcknowledger(UpdateInboxRepositoryAdapter<T> adapter, long interval, int batchSize) {
+        Assert.required(adapter, "UpdateInboxRepositoryAdapter");
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be greater than 0");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be greater than 0");
+        }
+        this.adapter = adapter;
+        this.batchSize = batchSize;
+        flusher.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules saving of the update.
+     *
+     * @param updateInbox the processed update with the final status
+     */
+    void acknowledge(T updateInbox) {
+        pending.offer(updateInbox);
+        int count = pendingCount.incrementAndGet();
+        if (closed) {
+            flush();
+        } else if (count == batchSize) {
+            try {
+                flusher.execute(this::flushSafely);
+            } catch (RejectedExecutionException e) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * @return the number of updates that are not saved yet
+     */
+    int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("An unhandled error occurred while saving processed telegram updates", e);
+        }
+    }
+
+    /**
+     * Saves all pending updates in batches of {@code batchSize}.
+     */
+    synchronized void flush() {
+        List<T> batch = new ArrayList<>(Math.min(batchSize, pendingCount.get()));
+        T updateInbox;
+        while ((updateInbox = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            batch.add(updateInbox);
+            if (batch.size() == batchSize) {
+                save(batch);
+                batch = new ArrayList<>(Math.min(batchSize, pendingCount.get()));
+            }
+        }
+        if (!batch.isEmpty()) {
+            save(batch);
+        }
+    }
+
+    private void save(List<T> batch) {
+        try {
+            adapter.updateAll(batch);
+            log.trace("Saved {} processed telegram updates", batch.size());
+        } catch (Exception e) {
+            log.warn("Cannot save {} processed telegram updates at once, saving them one by one. Cause: {}",
+                batch.size(), e.getMessage());
+            log.debug(e.getMessage(), e);
+            for (T updateInbox : batch) {
+                try {
+                    adapter.update(updateInbox);
+                } catch (Exception ex) {
+                    log.error("Cannot save telegram update {}", updateInbox.getUpdateId(), ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Saving of processed telegram updates did not finish in {} seconds",
+                    CLOSE_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.drednote.telegram.session.processor;
+
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.utils.Assert;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Locale;
+
+/**
+ * Exposes the work of {@link UpdateInboxPurger} as metrics:
+ * <ul>
+ *     <li>{@code telegram.inbox.size} - the number of stored updates, measured after every
+ *     purge</li>
+ *     <li>{@code telegram.inbox.purged} - the number of deleted updates, tagged by
+ *     {@code status}</li>
+ *     <li>{@code telegram.inbox.purge.duration} - the duration of the last purge in
+ *     milliseconds</li>
+ * </ul>
+ *
+ * @author Ivan Galushko
+ */
+public class UpdateInboxMetrics implements MeterBinder {
+
+    private final UpdateInboxPurger purger;
+
+    public UpdateInboxMetrics(UpdateInboxPurger purger) {
+        Assert.required(purger, "UpdateInboxPurger");
+        this.purger = purger;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("telegram.inbox.size", purger, it -> it.getSize() < 0 ? Double.NaN : it.getSize())
+            .description("The number of stored telegram updates")
+            .register(registry);
+        Gauge.builder("telegram.inbox.purge.duration", purger, UpdateInboxPurger::getLastDuration)
+            .description("The duration of the last purge of expired telegram updates")
+            .baseUnit("milliseconds")
+            .register(registry);
+        for (UpdateInboxStatus status : purger.getStatuses()) {
+            FunctionCounter.builder("telegram.inbox.purged", purger, it -> it.getPurgedCount(status))
+                .description("The number of deleted telegram updates")
+                .tag("status", status.name().toLowerCase(Locale.ROOT))
+                .register(registry);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.drednote.telegram.session.processor;
+
+import io.github.drednote.telegram.datasource.session.UpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.utils.Assert;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes updates with a final status which retention is expired with
+ * {@link UpdateInboxRepositoryAdapter#purge(UpdateInboxStatus, Instant, int)}.
+ *
+ * <p>Every call of {@link #purge()} deletes expired updates of every configured status in
+ * batches of {@code purgeBatchSize} until a batch is not full, so every transaction changes a
+ * bounded number of rows. After that the size of the storage is measured with
+ * {@link UpdateInboxRepositoryAdapter#size()}, so metrics do not query the storage.
+ *
+ * @author Ivan Galushko
+ * @see SchedulerTelegramUpdateProcessorProperties#getRetention()
+ */
+public class UpdateInboxPurger {
+
+    private static final Logger log = LoggerFactory.getLogger(UpdateInboxPurger.class);
+
+    private final UpdateInboxRepositoryAdapter<?> adapter;
+    private final Map<UpdateInboxStatus, Long> retention;
+    private final int batchSize;
+    private final AtomicLongArray purged = new AtomicLongArray(UpdateInboxStatus.values().length);
+    private final AtomicLong size = new AtomicLong(-1);
+    private final AtomicLong lastDuration = new AtomicLong();
+
+    /**
+     * @param adapter    the adapter to delete updates
+     * @param properties the properties with the retention of statuses
+     * @throws IllegalArgumentException if the retention is set for not final status or is
+     *                                  negative, or {@code purgeBatchSize} is not positive
+     */
+    public UpdateInboxPurger(
+        UpdateInboxRepositoryAdapter<?> adapter, SchedulerTelegramUpdateProcessorProperties properties
+    ) {
+        Assert.required(adapter, "UpdateInboxRepositoryAdapter");
+        Assert.required(properties, "SchedulerTelegramUpdateProcessorProperties");
+        if (properties.getPurgeBatchSize() <= 0) {
+            throw new IllegalArgumentException("purgeBatchSize must be greater than 0");
+        }
+        Map<UpdateInboxStatus, Long> retention = new EnumMap<>(UpdateInboxStatus.class);
+        properties.getRetention().forEach((status, value) -> {
+            if (status == UpdateInboxStatus.NEW || status == UpdateInboxStatus.IN_PROGRESS) {
+                throw new IllegalArgumentException("Retention cannot be set for status " + status);
+            }
+            if (value == null || value < 0) {
+                throw new IllegalArgumentException(
+                    "Retention of status " + status + " must be greater than or equal to 0");
+            }
+            if (value > 0) {
+                retention.put(status, value);
+            }
+        });
+        this.adapter = adapter;
+        this.retention = Collections.unmodifiableMap(retention);
+        this.batchSize = properties.getPurgeBatchSize();
+    }
+
+    /**
+     * @return true if the retention of any status is configured
+     */
+    public boolean isEnabled() {
+        return !retention.isEmpty();
+    }
+
+    /**
+     * Deletes all expired updates and measures the size of the storage.
+     */
+    public void purge() {
+        long start = System.nanoTime();
+        Instant now = Instant.now();
+        retention.forEach((status, value) -> {
+            Instant before = now.minusMillis(value);
+            long total = 0;
+            int deleted;
+            do {
+                deleted = adapter.purge(status, before, batchSize);
+                purged.addAndGet(status.ordinal(), deleted);
+                total += deleted;
+            } while (deleted >= batchSize);
+            if (total > 0) {
+                log.debug("Deleted {} telegram updates with status {}", total, status);
+            }
+        });
+        lastDuration.set((System.nanoTime() - start) / 1_000_000);
+        size.set(adapter.size());
+    }
+
+    /**
+     * @param status the status of deleted updates
+     * @return the number of deleted updates with the status since the start
+     */
+    public long getPurgedCount(UpdateInboxStatus status) {
+        return purged.get(status.ordinal());
+    }
+
+    /**
+     * @return the size of the storage measured by the last {@link #purge()} or -1 if it is unknown
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return the duration of the last {@link #purge()} in milliseconds
+     */
+    public long getLastDuration() {
+        return lastDuration.get();
+    }
+
+    /**
+     * @return statuses with configured retention
+     */
+    public Iterable<UpdateInboxStatus> getStatuses() {
+        return retention.keySet();
+    }
+}
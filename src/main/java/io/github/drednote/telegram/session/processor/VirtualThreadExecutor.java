@@ -0,0 +1,155 @@
+package io.github.drednote.telegram.session.processor;
+
+import io.github.drednote.telegram.session.SessionProperties.ExecutorType;
+import io.github.drednote.telegram.utils.Assert;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@code VirtualThreadExecutor} runs every task on its own thread, created by the given
+ * {@link ThreadFactory}, by default a virtual thread factory.
+ *
+ * <p>Unlike a thread pool, concurrency is bounded by semaphores instead of the number of threads:
+ * <ul>
+ *     <li>not more than {@code maxConcurrency} tasks are running at the same time</li>
+ *     <li>not more than {@code maxConcurrency + maxQueued} tasks are admitted at the same time. If
+ *     this limit is reached, {@link #execute(Runnable)} blocks until some task is finished</li>
+ * </ul>
+ * A task waiting for the concurrency permit is a parked virtual thread, so thousands of admitted
+ * updates do not require thousands of OS threads.
+ *
+ * @author Ivan Galushko
+ * @see ExecutorType#VIRTUAL
+ */
+public class VirtualThreadExecutor implements BoundedExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadExecutor.class);
+
+    private final ThreadFactory threadFactory;
+    private final Semaphore admission;
+    private final Semaphore concurrency;
+    private final int maxAdmitted;
+    private final int maxConcurrency;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Constructs a {@code VirtualThreadExecutor} running tasks on virtual threads.
+     *
+     * @param namePrefix     the prefix of names of created threads
+     * @param maxConcurrency the maximum number of tasks running at the same time
+     * @param maxQueued      the maximum number of tasks waiting for running
+     * @throws IllegalStateException if virtual threads are not supported by the current JVM
+     */
+    public VirtualThreadExecutor(String namePrefix, int maxConcurrency, int maxQueued) {
+        this(newVirtualThreadFactory(namePrefix), maxConcurrency, maxQueued);
+    }
+
+    /**
+     * Constructs a {@code VirtualThreadExecutor} running tasks on threads created by the
+     * {@code threadFactory}.
+     *
+     * @param threadFactory  the factory to create a thread per task
+     * @param maxConcurrency the maximum number of tasks running at the same time
+     * @param maxQueued      the maximum number of tasks waiting for running
+     * @throws IllegalArgumentException if {@code maxConcurrency} is not positive or
+     *                                  {@code maxQueued} is negative
+     */
+    VirtualThreadExecutor(ThreadFactory threadFactory, int maxConcurrency, int maxQueued) {
+        Assert.required(threadFactory, "ThreadFactory");
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be greater than 0");
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued must be greater than or equal to 0");
+        }
+
+        this.threadFactory = threadFactory;
+        this.maxConcurrency = maxConcurrency;
+        this.maxAdmitted = (int) Math.min(Integer.MAX_VALUE, (long) maxConcurrency + maxQueued);
+        this.admission = new Semaphore(maxAdmitted);
+        this.concurrency = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Starts the task on a new thread. Blocks while the admission limit is reached.
+     *
+     * @param command the task to execute
+     * @throws RejectedExecutionException if the executor is shut down or the calling thread is
+     *                                    interrupted while waiting for admission
+     */
+    @Override
+    public void execute(Runnable command) {
+        Assert.required(command, "Runnable");
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+        try {
+            admission.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted", e);
+        }
+        try {
+            threadFactory.newThread(() -> run(command)).start();
+        } catch (RuntimeException | Error e) {
+            admission.release();
+            throw e;
+        }
+    }
+
+    private void run(Runnable command) {
+        concurrency.acquireUninterruptibly();
+        try {
+            command.run();
+        } catch (Exception e) {
+            log.error("An unhandled error occurred while executing task", e);
+        } finally {
+            concurrency.release();
+            admission.release();
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        return Math.max(0, getAdmittedCount() - getActiveCount());
+    }
+
+    @Override
+    public int getActiveCount() {
+        return maxConcurrency - concurrency.availablePermits();
+    }
+
+    private int getAdmittedCount() {
+        return maxAdmitted - admission.availablePermits();
+    }
+
+    @Override
+    public void shutdown() {
+        this.shutdown = true;
+    }
+
+    /**
+     * Creates a factory of virtual threads. Virtual threads are accessed through reflection
+     * because the library is compiled for Java 17.
+     *
+     * @param namePrefix the prefix of names of created threads
+     * @return the factory of virtual threads
+     * @throws IllegalStateException if virtual threads are not supported by the current JVM
+     */
+    public static ThreadFactory newVirtualThreadFactory(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class)
+                .invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(
+                "ExecutorType.VIRTUAL requires Java 21 or newer, current version is "
+                + Runtime.version(), e);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package io.github.drednote.telegram.session.processor;
+
+import io.github.drednote.telegram.session.SessionProperties.ExecutorType;
+import io.github.drednote.telegram.utils.Assert;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@code WorkerPoolExecutor} runs tasks on a fixed number of worker threads taking tasks from a
+ * lock-free queue.
+ *
+ * <p>If the queue is bounded, it is {@link MpmcArrayQueue}: submitting and taking a task is a CAS on
+ * the queue index and no lock is taken neither on admission nor on task completion. When the queue
+ * is full, the submitting thread registers itself as a waiting producer and parks, and the worker
+ * that takes the next task unparks it. Idle workers park the same way and are unparked by
+ * producers. The producer registers before the last attempt to offer and the worker registers
+ * before the last check of the queue, so a signal can not be lost.
+ *
+ * <p>{@link #getQueueSize()} is computed from the queue indexes and does not touch any lock. If the
+ * queue is not bounded, {@link ConcurrentLinkedQueue} is used instead and producers never wait. Its
+ * {@code size()} walks the whole queue, so the number of its tasks is kept in a counter.
+ *
+ * @author Ivan Galushko
+ * @see ExecutorType#FIXED
+ */
+public class WorkerPoolExecutor implements BoundedExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerPoolExecutor.class);
+    /**
+     * The maximum time to park, just a safety net, normally threads are unparked explicitly
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Queue<Runnable> queue;
+    private final boolean bounded;
+    /**
+     * The number of tasks in the unbounded queue
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+    private final Queue<Thread> waitingProducers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile boolean shutdown = false;
+
+    /**
+     * Constructs a {@code WorkerPoolExecutor} and starts its workers.
+     *
+     * @param threadFactory the factory to create worker threads
+     * @param threads       the number of worker threads
+     * @param maxQueued     the maximum number of tasks waiting for running. 0 - no limit
+     * @throws IllegalArgumentException if {@code threads} is not positive or {@code maxQueued} is
+     *                                  negative
+     */
+    public WorkerPoolExecutor(ThreadFactory threadFactory, int threads, int maxQueued) {
+        Assert.required(threadFactory, "ThreadFactory");
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be greater than 0");
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued must be greater than or equal to 0");
+        }
+
+        this.bounded = maxQueued != 0 && maxQueued != Integer.MAX_VALUE;
+        this.queue = bounded ? new MpmcArrayQueue<>(maxQueued) : new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker();
+            worker.thread = threadFactory.newThread(worker);
+            worker.thread.start();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        Assert.required(command, "Runnable");
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+        if (!bounded) {
+            // counted before offering, so a worker taking the task never sees a negative size
+            queued.incrementAndGet();
+            queue.offer(command);
+        } else if (!queue.offer(command)) {
+            awaitOffer(command);
+        }
+        signalWorker();
+    }
+
+    private void awaitOffer(Runnable command) {
+        log.trace("Waiting until worker pool will be available");
+        Thread current = Thread.currentThread();
+        waitingProducers.offer(current);
+        try {
+            while (!queue.offer(command)) {
+                if (shutdown) {
+                    throw new RejectedExecutionException("Executor is shut down");
+                }
+                LockSupport.parkNanos(this, PARK_NANOS);
+                if (Thread.interrupted()) {
+                    current.interrupt();
+                    throw new RejectedExecutionException("Interrupted");
+                }
+            }
+        } finally {
+            waitingProducers.remove(current);
+        }
+    }
+
+    private void signalWorker() {
+        Worker worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            if (worker.parked.compareAndSet(true, false)) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private void signalProducer() {
+        Thread producer = waitingProducers.peek();
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        return bounded ? queue.size() : queued.get();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    @Override
+    public void shutdown() {
+        this.shutdown = true;
+        for (Worker worker : idleWorkers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        private final AtomicBoolean parked = new AtomicBoolean(false);
+        private Thread thread;
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task = queue.poll();
+                if (task != null) {
+                    if (bounded) {
+                        signalProducer();
+                    } else {
+                        queued.decrementAndGet();
+                    }
+                    runTask(task);
+                    continue;
+                }
+                if (shutdown) {
+                    return;
+                }
+
+                parked.set(true);
+                idleWorkers.offer(this);
+                if (!queue.isEmpty() && parked.compareAndSet(true, false)) {
+                    continue;
+                }
+                while (parked.get() && !shutdown) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                parked.set(false);
+            }
+        }
+
+        private void runTask(Runnable task) {
+            active.incrementAndGet();
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("An unhandled error occurred while executing task", e);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+}
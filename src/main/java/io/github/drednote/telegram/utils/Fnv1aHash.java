@@ -0,0 +1,27 @@
+package io.github.drednote.telegram.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The 64-bit FNV-1a hash of strings. The hash does not depend on the JVM, so all instances of the
+ * application compute the same values.
+ *
+ * @author Ivan Galushko
+ */
+public interface Fnv1aHash {
+
+  /**
+   * Computes the hash of the UTF-8 bytes of the value.
+   *
+   * @param value The value to hash
+   * @return The 64-bit FNV-1a hash
+   */
+  static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+}
@@ -1,6 +1,7 @@
 package io.github.drednote.telegram;
 
 import static org.assertj.core.api.Assertions.assertThatException;
+import static org.assertj.core.api.Assertions.assertThatNoException;
 
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -9,6 +10,7 @@ import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.ApplicationContext;
+import org.springframework.mock.env.MockEnvironment;
 import org.springframework.test.context.TestPropertySource;
 
 class TelegramAutoConfigurationTest {
@@ -24,9 +26,18 @@ class TelegramAutoConfigurationTest {
         @Test
         void shouldThrowExceptionIfTokenNotSet() {
             assertThatException()
-                .isThrownBy(() -> new TelegramAutoConfiguration(telegramProperties))
+                .isThrownBy(() -> new TelegramAutoConfiguration(telegramProperties, new MockEnvironment()))
                 .isInstanceOf(BeanCreationException.class);
         }
+
+        @Test
+        void shouldNotThrowExceptionIfTokenNotSetInMultiBotMode() {
+            MockEnvironment environment = new MockEnvironment()
+                .withProperty("drednote.telegram.multi-bot.enabled", "true");
+
+            assertThatNoException()
+                .isThrownBy(() -> new TelegramAutoConfiguration(telegramProperties, environment));
+        }
     }
 
     @Nested
@@ -0,0 +1,83 @@
+package io.github.drednote.telegram.datasource.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class UpdateInboxShardingTest {
+
+    private static final int SHARDS = 256;
+
+    @Test
+    void shouldAssignEveryShardToOneNode() {
+        List<String> nodes = List.of("a", "b", "c");
+        Set<Integer> assigned = new HashSet<>();
+        for (String node : nodes) {
+            int[] owned = UpdateInboxSharding.assign(nodes, node, SHARDS);
+            // the load is roughly even
+            assertThat(owned.length).isBetween(SHARDS / 6, SHARDS / 2);
+            for (int shard : owned) {
+                assertThat(assigned.add(shard)).isTrue();
+            }
+        }
+        assertThat(assigned).hasSize(SHARDS);
+    }
+
+    @Test
+    void shouldMoveOnlyShardsOfJoinedNode() {
+        List<String> before = List.of("a", "b");
+        List<String> after = List.of("a", "b", "c");
+
+        for (String node : before) {
+            Set<Integer> previous = toSet(UpdateInboxSharding.assign(before, node, SHARDS));
+            Set<Integer> current = toSet(UpdateInboxSharding.assign(after, node, SHARDS));
+            assertThat(previous).containsAll(current);
+        }
+        Set<Integer> joined = toSet(UpdateInboxSharding.assign(after, "c", SHARDS));
+        assertThat(joined).isNotEmpty();
+    }
+
+    @Test
+    void shouldRebalanceOnHeartbeatAndKeepAssignmentOnFailure() {
+        ClusterMembership membership = mock(ClusterMembership.class);
+        UpdateInboxSharding sharding = new UpdateInboxSharding(membership, "a", SHARDS, Duration.ofSeconds(1));
+        when(membership.heartbeat()).thenReturn(List.of("a"));
+
+        sharding.heartbeat();
+        assertThat(sharding.getOwnedShards()).hasSize(SHARDS);
+        assertThat(sharding.getNodes()).containsExactly("a");
+
+        when(membership.heartbeat()).thenReturn(List.of("b", "a"));
+        sharding.heartbeat();
+        int[] owned = sharding.getOwnedShards();
+        assertThat(owned).isEqualTo(UpdateInboxSharding.assign(List.of("a", "b"), "a", SHARDS));
+        assertThat(sharding.getNodes()).containsExactly("a", "b");
+
+        when(membership.heartbeat()).thenThrow(new IllegalStateException("storage is not available"));
+        sharding.heartbeat();
+        assertThat(sharding.getOwnedShards()).isEqualTo(owned);
+    }
+
+    @Test
+    void shouldValidateProperties() {
+        ClusterMembership membership = mock(ClusterMembership.class);
+
+        assertThatThrownBy(() -> new UpdateInboxSharding(membership, "a", 0, Duration.ofSeconds(1)))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new UpdateInboxSharding(membership, "a", 1, Duration.ZERO))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Set<Integer> toSet(int[] shards) {
+        return new HashSet<>(Arrays.stream(shards).boxed().toList());
+    }
+}
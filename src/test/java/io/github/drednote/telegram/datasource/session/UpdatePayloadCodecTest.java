@@ -0,0 +1,47 @@
+package io.github.drednote.telegram.datasource.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class UpdatePayloadCodecTest {
+
+    static Stream<UpdatePayloadCodec> codecs() {
+        return Stream.of(new JacksonUpdatePayloadCodec(), new KryoUpdatePayloadCodec());
+    }
+
+    @ParameterizedTest
+    @MethodSource("codecs")
+    void shouldDecodeEncodedUpdate(UpdatePayloadCodec codec) {
+        Update message = UpdateBuilder.create(10).withUser(5L).withChat(7L).withText("hello").message();
+        Update callback = UpdateBuilder.create(11).withUser(6L).callbackQuery();
+
+        assertThat(codec.decode(codec.encode(message))).isEqualTo(message);
+        assertThat(codec.decode(codec.encode(callback))).isEqualTo(callback);
+    }
+
+    @ParameterizedTest
+    @MethodSource("codecs")
+    void shouldThrowIfPayloadIsCorrupted(UpdatePayloadCodec codec) {
+        byte[] payload = "not an update".getBytes(StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> codec.decode(payload)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldWriteJsonByDefault() throws Exception {
+        Update update = UpdateBuilder.create(12).withUser(5L).withText("hello").message();
+
+        byte[] payload = new JacksonUpdatePayloadCodec().encode(update);
+
+        assertThat(payload).isEqualTo(new ObjectMapper().findAndRegisterModules().writeValueAsBytes(update));
+    }
+}
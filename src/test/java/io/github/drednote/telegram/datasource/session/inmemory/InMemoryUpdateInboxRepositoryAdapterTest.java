@@ -5,7 +5,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import io.github.drednote.telegram.core.TelegramMessageSource;
 import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
 import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.session.SessionProperties.ConcurrencyKey;
 import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -46,6 +48,103 @@ class InMemoryUpdateInboxRepositoryAdapterTest {
         assertThat(nextUpdate3.get().getUpdateId()).isEqualTo(2);
     }
 
+    @Test
+    void shouldFindNextUpdatesInBatch() {
+        SessionProperties properties = new SessionProperties();
+        InMemoryUpdateInboxRepositoryAdapter adapter = new InMemoryUpdateInboxRepositoryAdapter(properties,
+            new TelegramMessageSource());
+
+        adapter.persist(List.of(
+            UpdateBuilder.create(1).withUser(1L).message(),
+            UpdateBuilder.create(2).withUser(1L).message(),
+            UpdateBuilder.create(3).withUser(2L).message(),
+            UpdateBuilder.create(4).withUser(3L).message()));
+
+        List<InMemoryUpdateInbox> batch = adapter.findNextUpdates(10);
+        assertThat(batch).extracting(InMemoryUpdateInbox::getUpdateId).containsExactly(1, 3, 4);
+        assertThat(batch).allMatch(inbox -> inbox.getStatus() == UpdateInboxStatus.IN_PROGRESS);
+        assertThat(adapter.findNextUpdates(10)).isEmpty();
+
+        batch.get(0).setStatus(UpdateInboxStatus.PROCESSED);
+        adapter.update(batch.get(0));
+
+        assertThat(adapter.findNextUpdates(1)).extracting(InMemoryUpdateInbox::getUpdateId).containsExactly(2);
+    }
+
+    @Test
+    void shouldLimitUpdatesOfOneChat() {
+        SessionProperties properties = new SessionProperties();
+        properties.setConcurrencyKey(ConcurrencyKey.CHAT);
+        InMemoryUpdateInboxRepositoryAdapter adapter = new InMemoryUpdateInboxRepositoryAdapter(properties,
+            new TelegramMessageSource());
+
+        Update update = UpdateBuilder.create(1).withChat(-10L).withUser(1L).message();
+        Update update2 = UpdateBuilder.create(2).withChat(-10L).withUser(2L).message();
+        Update update3 = UpdateBuilder.create(3).withChat(-20L).withUser(1L).message();
+
+        adapter.persist(List.of(update, update2, update3));
+
+        assertThat(adapter.findNextUpdate()).get().extracting(InMemoryUpdateInbox::getEntityId).isEqualTo("-10");
+        assertThat(adapter.findNextUpdate()).get().extracting(InMemoryUpdateInbox::getUpdateId).isEqualTo(3);
+        assertThat(adapter.findNextUpdate()).isEmpty();
+    }
+
+    @Test
+    void shouldTakeUpdatesInOrderOfEntityWithLargeBacklog() {
+        SessionProperties properties = new SessionProperties();
+        properties.setMaxMessagesInQueue(0);
+        properties.setMaxThreadsPerUser(2);
+        InMemoryUpdateInboxRepositoryAdapter adapter = new InMemoryUpdateInboxRepositoryAdapter(properties,
+            new TelegramMessageSource());
+
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            updates.add(UpdateBuilder.create(i).withUser(1L).message());
+        }
+        updates.add(UpdateBuilder.create(10_000).withUser(2L).message());
+        adapter.persist(updates);
+
+        InMemoryUpdateInbox first = adapter.findNextUpdate().orElseThrow();
+        InMemoryUpdateInbox second = adapter.findNextUpdate().orElseThrow();
+        assertThat(adapter.findNextUpdate()).get().extracting(InMemoryUpdateInbox::getUpdateId).isEqualTo(1);
+        assertThat(adapter.findNextUpdate()).isEmpty();
+        assertThat(List.of(first.getUpdateId(), second.getUpdateId())).containsExactly(0, 10_000);
+
+        for (int i = 2; i < 10_000; i++) {
+            first.setStatus(UpdateInboxStatus.PROCESSED);
+            adapter.update(first);
+            first = adapter.findNextUpdate().orElseThrow();
+            assertThat(first.getUpdateId()).isEqualTo(i);
+        }
+        assertThat(adapter.findNextUpdate()).isEmpty();
+    }
+
+    @Test
+    void shouldReleaseCapacityOnlyOnce() throws InterruptedException {
+        SessionProperties properties = new SessionProperties();
+        properties.setMaxMessagesInQueue(1);
+        InMemoryUpdateInboxRepositoryAdapter adapter = new InMemoryUpdateInboxRepositoryAdapter(properties,
+            new TelegramMessageSource());
+
+        adapter.persist(List.of(UpdateBuilder.create(1).withUser(1L).message()));
+        InMemoryUpdateInbox inbox = adapter.findNextUpdate().orElseThrow();
+        inbox.setStatus(UpdateInboxStatus.ERROR);
+        adapter.update(inbox);
+        adapter.update(inbox);
+
+        adapter.persist(List.of(UpdateBuilder.create(2).withUser(1L).message()));
+        AtomicBoolean finished = new AtomicBoolean(false);
+        Thread thread = new Thread(() -> {
+            adapter.persist(List.of(UpdateBuilder.create(3).withUser(1L).message()));
+            finished.set(true);
+        });
+        thread.start();
+        Thread.sleep(100);
+
+        assertThat(finished).isFalse();
+        thread.interrupt();
+    }
+
     @Test
     void shouldCorrectWaitForEmpty() throws InterruptedException {
         SessionProperties properties = new SessionProperties();
@@ -0,0 +1,58 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.drednote.telegram.support.jpa.PostgresSqlTest;
+import jakarta.persistence.EntityManager;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class JpaClusterMembershipTest extends PostgresSqlTest {
+
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("delete from session_nodes");
+    }
+
+    @Test
+    void shouldTrackLiveNodes() {
+        JpaClusterMembership first = membership("first");
+        JpaClusterMembership second = membership("second");
+
+        assertThat(first.heartbeat()).containsExactly("first");
+        assertThat(second.heartbeat()).containsExactly("first", "second");
+        assertThat(first.heartbeat()).containsExactly("first", "second");
+
+        second.leave();
+
+        assertThat(first.heartbeat()).containsExactly("first");
+    }
+
+    @Test
+    void shouldRemoveExpiredNodes() {
+        JpaClusterMembership first = membership("first");
+        JpaClusterMembership second = membership("second");
+        first.heartbeat();
+        jdbcTemplate.update("update session_nodes set heartbeat_at = heartbeat_at - interval '1 hour'");
+
+        assertThat(second.heartbeat()).containsExactly("second");
+    }
+
+    private JpaClusterMembership membership(String nodeId) {
+        return new JpaClusterMembership(entityManager, transactionManager, nodeId, Duration.ofMinutes(1));
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.github.drednote.telegram.session.SessionProperties.ClusterProperties;
+import io.github.drednote.telegram.support.LeaderElectionUtils;
+import io.github.drednote.telegram.support.jpa.PostgresSqlTest;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class JpaLeaderElectorTest extends PostgresSqlTest {
+
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("delete from session_leaders");
+    }
+
+    @Test
+    void shouldElectOneLeader() {
+        JpaLeaderElector first = elector("first", Duration.ofMinutes(1));
+        JpaLeaderElector second = elector("second", Duration.ofMinutes(1));
+
+        assertThat(first.tryAcquire()).isTrue();
+        assertThat(second.tryAcquire()).isFalse();
+        assertThat(first.tryAcquire()).isTrue();
+
+        first.release();
+
+        assertThat(second.tryAcquire()).isTrue();
+        assertThat(first.tryAcquire()).isFalse();
+        assertThat(jdbcTemplate.queryForObject(
+            "select owner_id from session_leaders where name = 'test-lock'", String.class)).isEqualTo("second");
+    }
+
+    @Test
+    void shouldTakeExpiredLeadership() throws InterruptedException {
+        JpaLeaderElector first = elector("first", Duration.ofMillis(1));
+        JpaLeaderElector second = elector("second", Duration.ofMinutes(1));
+
+        assertThat(first.tryAcquire()).isTrue();
+        Thread.sleep(10);
+
+        assertThat(second.tryAcquire()).isTrue();
+        assertThat(first.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void shouldFailOverBetweenTwoInstances() throws InterruptedException {
+        ClusterProperties properties = LeaderElectionUtils.fastElection();
+
+        LeaderElectionUtils.assertOneLeaderWithFailover(
+            elector("first", properties.getLeaseDuration()), elector("second", properties.getLeaseDuration()),
+            properties);
+    }
+
+    @Test
+    void shouldThrowIfDatabaseFails() {
+        EntityManager failing = mock(EntityManager.class);
+        when(failing.createQuery(anyString())).thenThrow(new PersistenceException("Connection refused"));
+        JpaLeaderElector elector = new JpaLeaderElector(failing, transactionManager, "test-lock", "first",
+            Duration.ofMinutes(1));
+
+        assertThatThrownBy(elector::tryAcquire).isInstanceOf(PersistenceException.class);
+    }
+
+    private JpaLeaderElector elector(String nodeId, Duration leaseDuration) {
+        return new JpaLeaderElector(entityManager, transactionManager, "test-lock", nodeId, leaseDuration);
+    }
+}
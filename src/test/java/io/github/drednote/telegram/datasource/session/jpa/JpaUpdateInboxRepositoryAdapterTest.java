@@ -6,9 +6,12 @@ import static org.assertj.core.api.Assertions.fail;
 import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
 import io.github.drednote.telegram.datasource.session.jpa.JpaUpdateInboxRepositoryAdapterTest.Config;
 import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
 import io.github.drednote.telegram.support.jpa.PostgresSqlTest;
 import jakarta.persistence.EntityManager;
+import java.time.Instant;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -89,6 +92,35 @@ class JpaUpdateInboxRepositoryAdapterTest extends PostgresSqlTest {
         assertThat(jpaUpdateInboxRepository.findById(2).get().getStatus()).isEqualTo(UpdateInboxStatus.NEW);
     }
 
+    @Test
+    void shouldPersistBatchSkippingExistingUpdates() {
+        jpaAdapter.persist(List.of(
+            UpdateBuilder.create(100).withUser(5L).withText("first").message(),
+            UpdateBuilder.create(1).withUser(5L).withText("existing").message(),
+            UpdateBuilder.create(101).withUser(6L).withText("second").message()));
+
+        entityManager.clear();
+
+        assertThat(jpaUpdateInboxRepository.findById(100).orElseThrow().getUpdate().getMessage().getText())
+            .isEqualTo("first");
+        assertThat(jpaUpdateInboxRepository.findById(101)).isPresent();
+        assertThat(jpaUpdateInboxRepository.findById(1).orElseThrow().getEntityId()).isEqualTo("1");
+    }
+
+    @Test
+    void shouldPurgeExpiredUpdatesInBatches() {
+        jpaUpdateInboxRepository.updateStatus(
+            List.of(1, 2), UpdateInboxStatus.ERROR, "failed", Instant.parse("2025-06-02T00:00:00Z"));
+        Instant before = Instant.parse("2025-06-03T00:00:00Z");
+
+        assertThat(jpaAdapter.purge(UpdateInboxStatus.ERROR, before, 1)).isEqualTo(1);
+        assertThat(jpaAdapter.purge(UpdateInboxStatus.ERROR, before, 10)).isEqualTo(1);
+        assertThat(jpaAdapter.purge(UpdateInboxStatus.ERROR, before, 10)).isZero();
+
+        entityManager.clear();
+        assertThat(jpaUpdateInboxRepository.findAllById(List.of(1, 2))).isEmpty();
+    }
+
     static class TestUpdateInboxRepositoryAdapter extends JpaUpdateInboxRepositoryAdapter {
 
         private final CountDownLatch waitLatch;
@@ -0,0 +1,141 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.jpa.LeasedJpaUpdateInboxRepositoryAdapterTest.Config;
+import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import io.github.drednote.telegram.support.jpa.PostgresSqlTest;
+import jakarta.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+@Import(Config.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class LeasedJpaUpdateInboxRepositoryAdapterTest extends PostgresSqlTest {
+
+    @Autowired
+    private LeasedJpaUpdateInboxRepositoryAdapter adapter;
+    @Autowired
+    private JpaUpdateInboxRepository repository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+        jdbcTemplate.update("delete from update_inbox_entity_leases");
+    }
+
+    @Test
+    void shouldLimitUpdatesInProgressPerEntity() {
+        adapter.persist(List.of(
+            UpdateBuilder.create(1).withUser(1L).message(),
+            UpdateBuilder.create(2).withUser(1L).message(),
+            UpdateBuilder.create(3).withUser(1L).message(),
+            UpdateBuilder.create(4).withUser(2L).message()));
+
+        List<JpaUpdateInbox> claimed = adapter.findNextUpdates(10);
+
+        assertThat(claimed).extracting(JpaUpdateInbox::getUpdateId).containsExactly(1, 2, 4);
+        assertThat(claimed).allMatch(inbox -> inbox.getStatus() == UpdateInboxStatus.IN_PROGRESS);
+        assertThat(inProgressCount("1")).isEqualTo(2);
+        assertThat(inProgressCount("2")).isEqualTo(1);
+        assertThat(adapter.findNextUpdates(10)).isEmpty();
+
+        JpaUpdateInbox first = claimed.get(0);
+        first.setStatus(UpdateInboxStatus.PROCESSED);
+        adapter.updateAll(List.of(first));
+        assertThat(inProgressCount("1")).isEqualTo(1);
+        // saving the final status again does not release the lease twice
+        adapter.update(first);
+        assertThat(inProgressCount("1")).isEqualTo(1);
+
+        assertThat(adapter.findNextUpdates(10)).extracting(JpaUpdateInbox::getUpdateId).containsExactly(3);
+        assertThat(repository.findById(1).orElseThrow().getStatus()).isEqualTo(UpdateInboxStatus.PROCESSED);
+        assertThat(inProgressCount("1")).isEqualTo(2);
+    }
+
+    @Test
+    void shouldClaimUpdatesBehindBacklogOfSaturatedEntity() {
+        List<Update> updates = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            updates.add(UpdateBuilder.create(i).withUser(1L).message());
+        }
+        updates.add(UpdateBuilder.create(201).withUser(2L).message());
+        adapter.persist(updates);
+
+        assertThat(adapter.findNextUpdates(10)).extracting(JpaUpdateInbox::getUpdateId).containsExactly(1, 2, 201);
+
+        adapter.persist(List.of(UpdateBuilder.create(202).withUser(3L).message()));
+        // the lease of the first entity is saturated now
+        assertThat(adapter.findNextUpdates(10)).extracting(JpaUpdateInbox::getUpdateId).containsExactly(202);
+    }
+
+    @Test
+    void shouldTakeLeaseWhenClaimingOneUpdate() {
+        adapter.persist(List.of(
+            UpdateBuilder.create(20).withUser(4L).message(),
+            UpdateBuilder.create(21).withUser(4L).message(),
+            UpdateBuilder.create(22).withUser(4L).message()));
+
+        assertThat(adapter.findNextUpdate()).map(JpaUpdateInbox::getUpdateId).contains(20);
+        assertThat(inProgressCount("4")).isEqualTo(1);
+        assertThat(adapter.findNextUpdate()).map(JpaUpdateInbox::getUpdateId).contains(21);
+        assertThat(adapter.findNextUpdate()).isEmpty();
+        assertThat(inProgressCount("4")).isEqualTo(2);
+        assertThat(repository.findById(20).orElseThrow().getStatus()).isEqualTo(UpdateInboxStatus.IN_PROGRESS);
+    }
+
+    @Test
+    void shouldReleaseLeasesOfTimedOutUpdates() {
+        adapter.persist(List.of(
+            UpdateBuilder.create(10).withUser(3L).message(),
+            UpdateBuilder.create(11).withUser(3L).message()));
+        assertThat(adapter.findNextUpdates(10)).hasSize(2);
+        // pretend that the lease is leaked
+        jdbcTemplate.update("update update_inbox_entity_leases set in_progress = 5 where entity_id = '3'");
+
+        adapter.timeoutTasks();
+
+        assertThat(repository.findById(10).orElseThrow().getStatus()).isEqualTo(UpdateInboxStatus.TIMEOUT);
+        assertThat(repository.findById(11).orElseThrow().getStatus()).isEqualTo(UpdateInboxStatus.TIMEOUT);
+        assertThat(jdbcTemplate.queryForObject(
+            "select count(*) from update_inbox_entity_leases", Integer.class)).isZero();
+    }
+
+    private int inProgressCount(String entityId) {
+        return jdbcTemplate.queryForObject(
+            "select in_progress from update_inbox_entity_leases where entity_id = ?", Integer.class, entityId);
+    }
+
+    @TestConfiguration
+    static class Config {
+
+        @Bean
+        public LeasedJpaUpdateInboxRepositoryAdapter leasedJpaUpdateInboxRepositoryAdapter(
+            JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties sessionProperties
+        ) {
+            return new LeasedJpaUpdateInboxRepositoryAdapter(repository, entityManager, sessionProperties);
+        }
+
+        @Bean
+        public SessionProperties sessionProperties() {
+            SessionProperties properties = new SessionProperties();
+            properties.setMaxThreadsPerUser(2);
+            properties.getSchedulerProcessor().setIdleInterval(0);
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.drednote.telegram.support.LeaderElectionUtils;
+import io.github.drednote.telegram.support.jpa.PostgresSqlTest;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PostgresAdvisoryLockLeaderElectorTest extends PostgresSqlTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void shouldElectOneLeader() {
+        PostgresAdvisoryLockLeaderElector first = new PostgresAdvisoryLockLeaderElector(dataSource, "test-lock");
+        PostgresAdvisoryLockLeaderElector second = new PostgresAdvisoryLockLeaderElector(dataSource, "test-lock");
+        PostgresAdvisoryLockLeaderElector other = new PostgresAdvisoryLockLeaderElector(dataSource, "other-lock");
+        try {
+            assertThat(first.tryAcquire()).isTrue();
+            assertThat(second.tryAcquire()).isFalse();
+            assertThat(first.tryAcquire()).isTrue();
+            assertThat(other.tryAcquire()).isTrue();
+
+            first.release();
+
+            assertThat(second.tryAcquire()).isTrue();
+            assertThat(first.tryAcquire()).isFalse();
+        } finally {
+            first.release();
+            second.release();
+            other.release();
+        }
+    }
+
+    @Test
+    void shouldFailOverBetweenTwoInstances() throws InterruptedException {
+        LeaderElectionUtils.assertOneLeaderWithFailover(
+            new PostgresAdvisoryLockLeaderElector(dataSource, "test-lock"),
+            new PostgresAdvisoryLockLeaderElector(dataSource, "test-lock"),
+            LeaderElectionUtils.fastElection());
+    }
+}
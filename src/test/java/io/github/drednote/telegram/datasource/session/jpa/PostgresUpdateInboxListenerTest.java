@@ -0,0 +1,107 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.github.drednote.telegram.datasource.session.jpa.PostgresUpdateInboxListenerTest.Config;
+import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import io.github.drednote.telegram.support.jpa.PostgresSqlTest;
+import jakarta.persistence.EntityManager;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Import(Config.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PostgresUpdateInboxListenerTest extends PostgresSqlTest {
+
+    private static final String CHANNEL = "telegram_update_inbox";
+
+    @Autowired
+    private PostgresUpdateInboxRepositoryAdapter adapter;
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void shouldNotifyListenerAfterCommit() throws InterruptedException {
+        Semaphore notifications = new Semaphore(0);
+        try (PostgresUpdateInboxListener listener =
+                 new PostgresUpdateInboxListener(dataSource, CHANNEL, notifications::release)) {
+            listener.start();
+            awaitListening(notifications, 1);
+
+            adapter.persist(List.of(UpdateBuilder.create(100).withUser(1L).message()));
+            assertThat(notifications.tryAcquire(5, TimeUnit.SECONDS)).isTrue();
+
+            // nothing is inserted, so nobody is notified
+            adapter.persist(List.of(UpdateBuilder.create(100).withUser(1L).message()));
+            assertThat(notifications.tryAcquire(1, TimeUnit.SECONDS)).isFalse();
+        }
+    }
+
+    @Test
+    void shouldListenOnConnectionWithoutAutoCommit() throws InterruptedException {
+        DataSource withoutAutoCommit = new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                Connection connection = super.getConnection();
+                connection.setAutoCommit(false);
+                return connection;
+            }
+        };
+        Semaphore notifications = new Semaphore(0);
+        try (PostgresUpdateInboxListener listener =
+                 new PostgresUpdateInboxListener(withoutAutoCommit, CHANNEL, notifications::release)) {
+            listener.start();
+            awaitListening(notifications, 200);
+        }
+    }
+
+    /**
+     * LISTEN is executed asynchronously, so updates are inserted until one of them is notified.
+     */
+    private void awaitListening(Semaphore notifications, int firstId) throws InterruptedException {
+        boolean notified = false;
+        for (int id = firstId; id < firstId + 20 && !notified; id++) {
+            adapter.persist(List.of(UpdateBuilder.create(id).withUser(1L).message()));
+            notified = notifications.tryAcquire(500, TimeUnit.MILLISECONDS);
+        }
+        assertThat(notified).isTrue();
+    }
+
+    @Test
+    void shouldRejectInvalidChannel() {
+        assertThatThrownBy(() -> new PostgresUpdateInboxListener(dataSource, "inbox\"; drop table x", () -> {}))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @TestConfiguration
+    static class Config {
+
+        @Bean
+        public PostgresUpdateInboxRepositoryAdapter postgresUpdateInboxRepositoryAdapter(
+            JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties sessionProperties
+        ) {
+            return new PostgresUpdateInboxRepositoryAdapter(repository, entityManager, sessionProperties);
+        }
+
+        @Bean
+        public SessionProperties sessionProperties() {
+            SessionProperties properties = new SessionProperties();
+            properties.getSchedulerProcessor().setNotifyChannel(CHANNEL);
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.drednote.telegram.datasource.session.jpa;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.github.drednote.telegram.datasource.session.ClusterMembership;
+import io.github.drednote.telegram.datasource.session.UpdateInboxSharding;
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.jpa.PostgresUpdateInboxRepositoryAdapterTest.Config;
+import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import io.github.drednote.telegram.support.jpa.PostgresSqlTest;
+import jakarta.persistence.EntityManager;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.context.jdbc.Sql.ExecutionPhase;
+
+@Import(Config.class)
+@Sql(statements = {"""
+     insert into update_inbox(update_id, entity_id, update, status, error_description, created_at, updated_at) VALUES\s
+       (1, '1', '{}', 'IN_PROGRESS', null, '2025-06-02 22:00:00.000000', '2025-06-02 22:00:00.000000'),
+       (2, '1', '{}', 'NEW', null, '2025-06-02 22:01:00.000000', '2025-06-02 22:01:00.000000'),
+       (3, '1', '{}', 'NEW', null, '2025-06-02 22:02:00.000000', '2025-06-02 22:02:00.000000'),
+       (4, '2', '{}', 'NEW', null, '2025-06-02 22:03:00.000000', '2025-06-02 22:03:00.000000'),
+       (5, null, '{}', 'NEW', null, '2025-06-02 22:04:00.000000', '2025-06-02 22:04:00.000000'),
+       (6, '2', '{}', 'NEW', null, '2025-06-02 22:05:00.000000', '2025-06-02 22:05:00.000000'),
+       (7, '2', '{}', 'NEW', null, '2025-06-02 22:06:00.000000', '2025-06-02 22:06:00.000000');
+    \s"""
+}, executionPhase = ExecutionPhase.BEFORE_TEST_CLASS)
+class PostgresUpdateInboxRepositoryAdapterTest extends PostgresSqlTest {
+
+    @Autowired
+    private PostgresUpdateInboxRepositoryAdapter adapter;
+    @Autowired
+    private JpaUpdateInboxRepository repository;
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void shouldClaimBatchWithLimitPerEntity() {
+        List<JpaUpdateInbox> claimed = adapter.findNextUpdates(10);
+
+        assertThat(claimed).extracting(JpaUpdateInbox::getUpdateId).containsExactlyInAnyOrder(2, 4, 5, 6);
+        assertThat(claimed).allMatch(inbox -> inbox.getStatus() == UpdateInboxStatus.IN_PROGRESS);
+
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThat(repository.findById(3).orElseThrow().getStatus()).isEqualTo(UpdateInboxStatus.NEW);
+        assertThat(repository.findById(7).orElseThrow().getStatus()).isEqualTo(UpdateInboxStatus.NEW);
+        assertThat(adapter.findNextUpdates(10)).isEmpty();
+    }
+
+    @Test
+    void shouldPersistBatchSkippingExistingUpdates() {
+        adapter.persist(List.of(
+            UpdateBuilder.create(100).withUser(5L).withText("first").message(),
+            UpdateBuilder.create(1).withUser(5L).withText("existing").message(),
+            UpdateBuilder.create(101).withUser(6L).withText("second").message()));
+
+        entityManager.clear();
+
+        JpaUpdateInbox first = repository.findById(100).orElseThrow();
+        assertThat(first.getStatus()).isEqualTo(UpdateInboxStatus.NEW);
+        assertThat(first.getEntityId()).isEqualTo("5");
+        assertThat(first.getUpdate().getMessage().getText()).isEqualTo("first");
+        assertThat(first.getCreatedAt()).isBefore(repository.findById(101).orElseThrow().getCreatedAt());
+        assertThat(repository.findById(1).orElseThrow().getEntityId()).isEqualTo("1");
+    }
+
+    @Test
+    void shouldUpdateStatusesInBatch() {
+        JpaUpdateInbox processed = repository.findById(1).orElseThrow();
+        processed.setStatus(UpdateInboxStatus.PROCESSED);
+        JpaUpdateInbox failed = repository.findById(3).orElseThrow();
+        failed.setStatus(UpdateInboxStatus.ERROR);
+        failed.setErrorDescription("failed");
+        entityManager.clear();
+
+        adapter.updateAll(List.of(processed, failed));
+
+        assertThat(repository.findById(1).orElseThrow().getStatus()).isEqualTo(UpdateInboxStatus.PROCESSED);
+        JpaUpdateInbox saved = repository.findById(3).orElseThrow();
+        assertThat(saved.getStatus()).isEqualTo(UpdateInboxStatus.ERROR);
+        assertThat(saved.getErrorDescription()).isEqualTo("failed");
+    }
+
+    @Test
+    void shouldPurgeExpiredUpdatesInBatches() {
+        Instant expired = Instant.parse("2025-06-02T00:00:00Z");
+        repository.updateStatus(List.of(2, 3), UpdateInboxStatus.PROCESSED, null, expired);
+        repository.updateStatus(List.of(4), UpdateInboxStatus.PROCESSED, null, Instant.now());
+        Instant before = Instant.parse("2025-06-03T00:00:00Z");
+
+        assertThat(adapter.purge(UpdateInboxStatus.PROCESSED, before, 1)).isEqualTo(1);
+        assertThat(adapter.purge(UpdateInboxStatus.PROCESSED, before, 10)).isEqualTo(1);
+        assertThat(adapter.purge(UpdateInboxStatus.PROCESSED, before, 10)).isZero();
+
+        entityManager.clear();
+        assertThat(repository.findById(2)).isEmpty();
+        assertThat(repository.findById(3)).isEmpty();
+        assertThat(repository.findById(4)).isPresent();
+        assertThat(adapter.size()).isNotNegative();
+    }
+
+    @Test
+    void shouldCountPendingUpdates() {
+        long pending = adapter.countPending();
+
+        adapter.persist(List.of(UpdateBuilder.create(200).withUser(7L).message()));
+
+        assertThat(adapter.countPending()).isEqualTo(pending + 1);
+    }
+
+    @Test
+    void shouldFindLastUpdateId() {
+        assertThat(adapter.findLastUpdateId()).isEqualTo(7);
+    }
+
+    @Test
+    void shouldClaimOnlyUpdatesOfOwnShards() {
+        PostgresUpdateInboxRepositoryAdapter first = shardedAdapter("first");
+        PostgresUpdateInboxRepositoryAdapter second = shardedAdapter("second");
+
+        List<JpaUpdateInbox> claimedByFirst = first.findNextUpdates(10);
+        List<JpaUpdateInbox> claimedBySecond = second.findNextUpdates(10);
+
+        assertThat(Stream.concat(claimedByFirst.stream(), claimedBySecond.stream()))
+            .extracting(JpaUpdateInbox::getUpdateId)
+            .containsExactlyInAnyOrder(2, 4, 5, 6);
+        for (JpaUpdateInbox inbox : Stream.concat(claimedByFirst.stream(), claimedBySecond.stream()).toList()) {
+            if (inbox.getEntityId() != null) {
+                Object shard = entityManager.createNativeQuery("SELECT mod(hashtext(?) & 2147483647, 8)")
+                    .setParameter(1, inbox.getEntityId())
+                    .getSingleResult();
+                PostgresUpdateInboxRepositoryAdapter owner = claimedByFirst.contains(inbox) ? first : second;
+                assertThat(owner.getSharding().getOwnedShards()).contains(((Number) shard).intValue());
+            }
+        }
+    }
+
+    private PostgresUpdateInboxRepositoryAdapter shardedAdapter(String nodeId) {
+        SessionProperties properties = new SessionProperties();
+        properties.setMaxThreadsPerUser(2);
+        ClusterMembership membership = mock(ClusterMembership.class);
+        when(membership.heartbeat()).thenReturn(List.of("first", "second"));
+        UpdateInboxSharding sharding = new UpdateInboxSharding(membership, nodeId, 8, Duration.ofSeconds(5));
+        sharding.heartbeat();
+        PostgresUpdateInboxRepositoryAdapter sharded =
+            new PostgresUpdateInboxRepositoryAdapter(repository, entityManager, properties);
+        sharded.setSharding(sharding);
+        return sharded;
+    }
+
+    @TestConfiguration
+    static class Config {
+
+        @Bean
+        public PostgresUpdateInboxRepositoryAdapter postgresUpdateInboxRepositoryAdapter(
+            JpaUpdateInboxRepository repository, EntityManager entityManager, SessionProperties sessionProperties
+        ) {
+            return new PostgresUpdateInboxRepositoryAdapter(repository, entityManager, sessionProperties);
+        }
+
+        @Bean
+        public SessionProperties sessionProperties() {
+            SessionProperties properties = new SessionProperties();
+            properties.setMaxThreadsPerUser(2);
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.drednote.telegram.datasource.session.log;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.github.drednote.telegram.core.TelegramMessageSource;
+import io.github.drednote.telegram.datasource.session.KryoUpdatePayloadCodec;
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.UpdatePayloadCodec;
+import io.github.drednote.telegram.datasource.session.inmemory.InMemoryUpdateInbox;
+import io.github.drednote.telegram.session.DefaultConcurrencyKeyResolver;
+import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.session.SessionProperties.ConcurrencyKey;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LogUpdateInboxRepositoryAdapterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldRestorePendingUpdatesAfterRestart() {
+        SessionProperties properties = properties();
+        LogUpdateInboxRepositoryAdapter adapter = newAdapter(properties);
+        adapter.persist(List.of(
+            UpdateBuilder.create(1).withUser(1L).withText("first").message(),
+            UpdateBuilder.create(2).withUser(1L).withText("second").message(),
+            UpdateBuilder.create(3).withUser(2L).withText("third").message()));
+
+        List<InMemoryUpdateInbox> taken = adapter.findNextUpdates(10);
+        assertThat(taken).extracting(InMemoryUpdateInbox::getUpdateId).containsExactly(1, 3);
+        taken.get(0).setStatus(UpdateInboxStatus.PROCESSED);
+        adapter.update(taken.get(0));
+        assertThat(adapter.size()).isEqualTo(2);
+        adapter.close();
+
+        LogUpdateInboxRepositoryAdapter restored = newAdapter(properties);
+        try {
+            assertThat(restored.size()).isEqualTo(2);
+            assertThat(restored.findLastUpdateId()).isEqualTo(3);
+            List<InMemoryUpdateInbox> next = restored.findNextUpdates(10);
+            assertThat(next).extracting(InMemoryUpdateInbox::getUpdateId).containsExactly(2, 3);
+            assertThat(next.get(0).getUpdate().getMessage().getText()).isEqualTo("second");
+            assertThat(next.get(0).getEntityId()).isEqualTo("1");
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    void shouldNotStoreUpdateTwice() {
+        SessionProperties properties = properties();
+        LogUpdateInboxRepositoryAdapter adapter = newAdapter(properties);
+        try {
+            adapter.persist(List.of(UpdateBuilder.create(1).withUser(1L).message()));
+            adapter.persist(List.of(
+                UpdateBuilder.create(1).withUser(1L).message(),
+                UpdateBuilder.create(2).withUser(2L).message()));
+
+            assertThat(adapter.size()).isEqualTo(2);
+            assertThat(adapter.findNextUpdates(10)).extracting(InMemoryUpdateInbox::getUpdateId)
+                .containsExactly(1, 2);
+        } finally {
+            adapter.close();
+        }
+    }
+
+    @Test
+    void shouldRestoreUpdatesWrittenByCodec() {
+        SessionProperties properties = properties();
+        KryoUpdatePayloadCodec codec = new KryoUpdatePayloadCodec();
+        LogUpdateInboxRepositoryAdapter adapter = newAdapter(properties, codec);
+        adapter.persist(List.of(UpdateBuilder.create(1).withUser(1L).withText("binary").message()));
+        adapter.close();
+
+        LogUpdateInboxRepositoryAdapter restored = newAdapter(properties, codec);
+        try {
+            assertThat(restored.findNextUpdates(10)).singleElement()
+                .satisfies(inbox -> assertThat(inbox.getUpdate().getMessage().getText()).isEqualTo("binary"));
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    void shouldDropUpdateThatCannotBeDecoded() throws Exception {
+        SessionProperties properties = properties();
+        LogUpdateInboxRepositoryAdapter adapter = newAdapter(properties);
+        adapter.persist(List.of(UpdateBuilder.create(1).withUser(1L).withText("first").message()));
+        adapter.close();
+        try (UpdateInboxLog inboxLog = new UpdateInboxLog(
+            directory, properties.getSchedulerProcessor().getLogSegmentSize(), 0)) {
+            inboxLog.append(2, "corrupted".getBytes(StandardCharsets.UTF_8));
+            inboxLog.awaitFlushed();
+        }
+
+        LogUpdateInboxRepositoryAdapter restored = newAdapter(properties);
+        assertThat(restored.size()).isEqualTo(1);
+        assertThat(restored.findNextUpdates(10)).extracting(InMemoryUpdateInbox::getUpdateId).containsExactly(1);
+        restored.close();
+
+        // the corrupted update is completed, so it is not read again
+        try (UpdateInboxLog inboxLog = new UpdateInboxLog(
+            directory, properties.getSchedulerProcessor().getLogSegmentSize(), 0)) {
+            assertThat(inboxLog.readPending()).containsOnlyKeys(1);
+        }
+    }
+
+    @Test
+    void shouldRejectInvalidProperties() {
+        SessionProperties properties = properties();
+        properties.getSchedulerProcessor().setLogSegmentSize(0);
+
+        assertThatThrownBy(() -> newAdapter(properties)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private SessionProperties properties() {
+        SessionProperties properties = new SessionProperties();
+        properties.setMaxMessagesInQueue(0);
+        properties.getSchedulerProcessor().setLogDirectory(directory.toString());
+        properties.getSchedulerProcessor().setLogFlushInterval(0);
+        return properties;
+    }
+
+    private static LogUpdateInboxRepositoryAdapter newAdapter(SessionProperties properties) {
+        return new LogUpdateInboxRepositoryAdapter(properties, new TelegramMessageSource(),
+            new DefaultConcurrencyKeyResolver(ConcurrencyKey.USER));
+    }
+
+    private static LogUpdateInboxRepositoryAdapter newAdapter(
+        SessionProperties properties, UpdatePayloadCodec payloadCodec
+    ) {
+        return new LogUpdateInboxRepositoryAdapter(properties, new TelegramMessageSource(),
+            new DefaultConcurrencyKeyResolver(ConcurrencyKey.USER), payloadCodec);
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.drednote.telegram.datasource.session.log;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UpdateInboxLogTest {
+
+    /**
+     * The size of a record with {@link #payload(int)}
+     */
+    private static final int RECORD_SIZE = 8 + 5 + 100;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldDeleteSegmentsWithoutPendingUpdates() throws Exception {
+        try (UpdateInboxLog log = new UpdateInboxLog(directory, 2 * RECORD_SIZE + 10, 0)) {
+            log.append(1, payload(1));
+            log.append(2, payload(2));
+            log.append(3, payload(3));
+            log.awaitFlushed();
+            assertThat(log.getSegmentCount()).isEqualTo(2);
+
+            log.complete(1);
+            assertThat(log.getSegmentCount()).isEqualTo(2);
+            log.complete(2);
+            // segments are deleted by the flusher
+            awaitSegmentCount(log, 1);
+            assertThat(segmentFiles()).hasSize(1);
+        }
+    }
+
+    @Test
+    void shouldMovePendingUpdatesOutOfOldSegment() throws Exception {
+        try (UpdateInboxLog log = new UpdateInboxLog(directory, 9 * RECORD_SIZE, 0)) {
+            for (int i = 1; i <= 10; i++) {
+                log.append(i, payload(i));
+            }
+            assertThat(log.getSegmentCount()).isEqualTo(2);
+            for (int i = 1; i <= 6; i++) {
+                log.complete(i);
+            }
+            // 3 of 9 records are pending
+            assertThat(log.getSegmentCount()).isEqualTo(2);
+            log.complete(7);
+            awaitSegmentCount(log, 1);
+        }
+
+        try (UpdateInboxLog log = new UpdateInboxLog(directory, 9 * RECORD_SIZE, 0)) {
+            assertThat(log.size()).isEqualTo(3);
+            assertThat(log.readPending().values()).containsExactly(payload(8), payload(9), payload(10));
+            assertThat(log.getLastUpdateId()).isEqualTo(10);
+        }
+    }
+
+    @Test
+    void shouldDropTornTail() throws Exception {
+        try (UpdateInboxLog log = new UpdateInboxLog(directory, 1024, 0)) {
+            log.append(1, payload(1));
+            log.append(2, payload(2));
+            log.awaitFlushed();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+            // a byte of the second payload is not written before the crash
+            file.seek(RECORD_SIZE + 20);
+            file.write(0);
+        }
+
+        try (UpdateInboxLog log = new UpdateInboxLog(directory, 1024, 0)) {
+            assertThat(log.readPending().values()).containsExactly(payload(1));
+            log.append(3, payload(3));
+            log.awaitFlushed();
+        }
+        try (UpdateInboxLog log = new UpdateInboxLog(directory, 1024, 0)) {
+            assertThat(log.readPending().values()).containsExactly(payload(1), payload(3));
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static byte[] payload(int updateId) {
+        return String.format("%-100s", "update-" + updateId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void awaitSegmentCount(UpdateInboxLog log, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (log.getSegmentCount() != count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(log.getSegmentCount()).isEqualTo(count);
+    }
+}
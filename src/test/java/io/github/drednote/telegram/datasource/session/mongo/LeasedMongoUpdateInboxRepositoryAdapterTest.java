@@ -0,0 +1,130 @@
+package io.github.drednote.telegram.datasource.session.mongo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.mongo.LeasedMongoUpdateInboxRepositoryAdapterTest.Config;
+import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import io.github.drednote.telegram.support.mongo.MongoTest;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+@Import(Config.class)
+class LeasedMongoUpdateInboxRepositoryAdapterTest extends MongoTest {
+
+    @Autowired
+    private LeasedMongoUpdateInboxRepositoryAdapter adapter;
+    @Autowired
+    private MongoUpdateInboxRepository repository;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+        mongoTemplate.dropCollection(LeasedMongoUpdateInboxRepositoryAdapter.LEASES_COLLECTION);
+    }
+
+    @Test
+    void shouldLimitUpdatesInProgressPerEntity() {
+        adapter.persist(List.of(
+            UpdateBuilder._default("1").withUpdateId(1).withUser(1L).message(),
+            UpdateBuilder._default("2").withUpdateId(2).withUser(1L).message(),
+            UpdateBuilder._default("3").withUpdateId(3).withUser(1L).message(),
+            UpdateBuilder._default("4").withUpdateId(4).withUser(2L).message()
+        ));
+
+        List<MongoUpdateInbox> claimed = adapter.findNextUpdates(10);
+
+        assertThat(claimed).extracting(MongoUpdateInbox::getUpdateId).containsExactly(1, 2, 4);
+        assertThat(inProgressCount("1")).isEqualTo(2);
+        assertThat(adapter.findNextUpdates(10)).isEmpty();
+
+        MongoUpdateInbox first = claimed.get(0);
+        first.setStatus(UpdateInboxStatus.PROCESSED);
+        adapter.update(first);
+        assertThat(inProgressCount("1")).isEqualTo(1);
+        // saving the final status again does not release the lease twice
+        adapter.update(first);
+        assertThat(inProgressCount("1")).isEqualTo(1);
+
+        assertThat(adapter.findNextUpdates(10)).extracting(MongoUpdateInbox::getUpdateId).containsExactly(3);
+        assertThat(repository.findById(1).orElseThrow().getStatus()).isEqualTo(UpdateInboxStatus.PROCESSED);
+    }
+
+    @Test
+    void shouldClaimUpdatesBehindBacklogOfSaturatedEntity() {
+        List<Update> updates = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            updates.add(UpdateBuilder._default(String.valueOf(i)).withUpdateId(i).withUser(1L).message());
+        }
+        updates.add(UpdateBuilder._default("201").withUpdateId(201).withUser(2L).message());
+        adapter.persist(updates);
+
+        assertThat(adapter.findNextUpdates(10)).extracting(MongoUpdateInbox::getUpdateId).containsExactly(1, 2, 201);
+
+        adapter.persist(List.of(UpdateBuilder._default("202").withUpdateId(202).withUser(3L).message()));
+        // the lease of the first entity is saturated now
+        assertThat(adapter.findNextUpdates(10)).extracting(MongoUpdateInbox::getUpdateId).containsExactly(202);
+    }
+
+    @Test
+    void shouldTakeLeaseWhenClaimingOneUpdate() {
+        adapter.persist(List.of(
+            UpdateBuilder._default("20").withUpdateId(20).withUser(4L).message(),
+            UpdateBuilder._default("21").withUpdateId(21).withUser(4L).message(),
+            UpdateBuilder._default("22").withUpdateId(22).withUser(4L).message()
+        ));
+
+        assertThat(adapter.findNextUpdate()).map(MongoUpdateInbox::getUpdateId).contains(20);
+        assertThat(inProgressCount("4")).isEqualTo(1);
+        assertThat(adapter.findNextUpdate()).map(MongoUpdateInbox::getUpdateId).contains(21);
+        assertThat(adapter.findNextUpdate()).isEmpty();
+        assertThat(inProgressCount("4")).isEqualTo(2);
+    }
+
+    private int inProgressCount(String entityId) {
+        Document lease = mongoTemplate.findById(
+            entityId, Document.class, LeasedMongoUpdateInboxRepositoryAdapter.LEASES_COLLECTION);
+        assertThat(lease).isNotNull();
+        return lease.getInteger(LeasedMongoUpdateInboxRepositoryAdapter.IN_PROGRESS_COUNT);
+    }
+
+    @TestConfiguration
+    static class Config {
+
+        @Bean
+        public LeasedMongoUpdateInboxRepositoryAdapter leasedMongoUpdateInboxRepositoryAdapter(
+            MongoUpdateInboxRepository repository, SessionProperties sessionProperties, MongoTemplate mongoTemplate
+        ) {
+            return new LeasedMongoUpdateInboxRepositoryAdapter(sessionProperties, repository, mongoTemplate);
+        }
+
+        @Bean
+        public SessionProperties sessionProperties() {
+            SessionProperties properties = new SessionProperties();
+            properties.setMaxThreadsPerUser(2);
+            return properties;
+        }
+
+        @Bean
+        public MongoCustomConversions mongoCustomConversions() {
+            List<Converter<?, ?>> converters = new ArrayList<>();
+            converters.add(new DocumentToUpdateConverter(null));
+            converters.add(new UpdateToDocumentConverter(null));
+            return new MongoCustomConversions(converters);
+        }
+    }
+}
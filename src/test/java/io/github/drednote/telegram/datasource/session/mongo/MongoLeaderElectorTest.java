@@ -0,0 +1,67 @@
+package io.github.drednote.telegram.datasource.session.mongo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.drednote.telegram.session.SessionProperties.ClusterProperties;
+import io.github.drednote.telegram.support.LeaderElectionUtils;
+import io.github.drednote.telegram.support.mongo.MongoTest;
+import java.time.Duration;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+class MongoLeaderElectorTest extends MongoTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @AfterEach
+    void tearDown() {
+        mongoTemplate.dropCollection(MongoLeaderElector.COLLECTION);
+    }
+
+    @Test
+    void shouldElectOneLeader() {
+        MongoLeaderElector first = elector("first", Duration.ofMinutes(1));
+        MongoLeaderElector second = elector("second", Duration.ofMinutes(1));
+
+        assertThat(first.tryAcquire()).isTrue();
+        assertThat(second.tryAcquire()).isFalse();
+        assertThat(first.tryAcquire()).isTrue();
+
+        first.release();
+
+        assertThat(second.tryAcquire()).isTrue();
+        assertThat(first.tryAcquire()).isFalse();
+        Document lease = mongoTemplate.findById("test-lock", Document.class, MongoLeaderElector.COLLECTION);
+        assertThat(lease).isNotNull();
+        assertThat(lease.getString("ownerId")).isEqualTo("second");
+    }
+
+    @Test
+    void shouldTakeExpiredLeadership() throws InterruptedException {
+        MongoLeaderElector first = elector("first", Duration.ofMillis(1));
+        MongoLeaderElector second = elector("second", Duration.ofMinutes(1));
+
+        assertThat(first.tryAcquire()).isTrue();
+        Thread.sleep(10);
+
+        assertThat(second.tryAcquire()).isTrue();
+        assertThat(first.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void shouldFailOverBetweenTwoInstances() throws InterruptedException {
+        ClusterProperties properties = LeaderElectionUtils.fastElection();
+
+        LeaderElectionUtils.assertOneLeaderWithFailover(
+            elector("first", properties.getLeaseDuration()), elector("second", properties.getLeaseDuration()),
+            properties);
+    }
+
+    private MongoLeaderElector elector(String nodeId, Duration leaseDuration) {
+        return new MongoLeaderElector(mongoTemplate, "test-lock", nodeId, leaseDuration);
+    }
+}
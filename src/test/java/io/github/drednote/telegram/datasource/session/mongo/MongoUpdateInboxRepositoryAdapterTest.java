@@ -2,6 +2,7 @@ package io.github.drednote.telegram.datasource.session.mongo;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.fail;
 
 import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
@@ -143,6 +144,93 @@ class MongoUpdateInboxRepositoryAdapterTest extends MongoTest {
         assertThat(repository.findById(4).get().getStatus()).isEqualTo(UpdateInboxStatus.IN_PROGRESS);
     }
 
+    @Test
+    void shouldClaimBatchWithMaxThreadsPerUser() {
+        adapter.persist(List.of(
+            UpdateBuilder._default("1").withUpdateId(1).withUser(1L).message(),
+            UpdateBuilder._default("2").withUpdateId(2).withUser(1L).message(),
+            UpdateBuilder._default("3").withUpdateId(3).withUser(2L).message(),
+            UpdateBuilder._default("4").withUpdateId(4).withUser(2L).message()
+        ));
+
+        assertThat(adapter.findNextUpdates(10)).extracting(MongoUpdateInbox::getUpdateId)
+            .containsExactlyInAnyOrder(1, 3);
+        assertThat(adapter.findNextUpdates(10)).isEmpty();
+
+        assertThat(repository.findById(1).get().getStatus()).isEqualTo(UpdateInboxStatus.IN_PROGRESS);
+        assertThat(repository.findById(2).get().getStatus()).isEqualTo(UpdateInboxStatus.NEW);
+        assertThat(repository.findById(3).get().getStatus()).isEqualTo(UpdateInboxStatus.IN_PROGRESS);
+        assertThat(repository.findById(4).get().getStatus()).isEqualTo(UpdateInboxStatus.NEW);
+    }
+
+    @Test
+    void shouldSkipDuplicateIds() {
+        adapter.persist(List.of(
+            UpdateBuilder._default("1").withUpdateId(1).withUser(1L).message(),
+            UpdateBuilder._default("2").withUpdateId(2).withUser(2L).message()
+        ));
+        adapter.findNextUpdate();
+
+        assertThatNoException().isThrownBy(() -> adapter.persist(List.of(
+            UpdateBuilder._default("1").withUpdateId(1).withUser(1L).message(),
+            UpdateBuilder._default("3").withUpdateId(3).withUser(3L).message()
+        )));
+
+        assertThat(repository.findAll()).hasSize(3);
+        // the saved update is not replaced by the duplicate
+        assertThat(repository.findById(1).get().getStatus()).isEqualTo(UpdateInboxStatus.IN_PROGRESS);
+        assertThat(repository.findById(3).get().getStatus()).isEqualTo(UpdateInboxStatus.NEW);
+    }
+
+    @Test
+    void shouldUpdateStatusesInBulk() {
+        adapter.persist(List.of(
+            UpdateBuilder._default("1").withUpdateId(1).withUser(1L).message(),
+            UpdateBuilder._default("2").withUpdateId(2).withUser(2L).message(),
+            UpdateBuilder._default("3").withUpdateId(3).withUser(3L).message()
+        ));
+        List<MongoUpdateInbox> claimed = adapter.findNextUpdates(10);
+        assertThat(claimed).hasSize(3);
+
+        claimed.forEach(updateInbox -> {
+            if (updateInbox.getUpdateId() == 2) {
+                updateInbox.setStatus(UpdateInboxStatus.ERROR);
+                updateInbox.setErrorDescription("failed");
+            } else {
+                updateInbox.setStatus(UpdateInboxStatus.PROCESSED);
+            }
+        });
+        adapter.updateAll(claimed);
+
+        assertThat(repository.findById(1).get().getStatus()).isEqualTo(UpdateInboxStatus.PROCESSED);
+        assertThat(repository.findById(3).get().getStatus()).isEqualTo(UpdateInboxStatus.PROCESSED);
+        MongoUpdateInbox failed = repository.findById(2).get();
+        assertThat(failed.getStatus()).isEqualTo(UpdateInboxStatus.ERROR);
+        assertThat(failed.getErrorDescription()).isEqualTo("failed");
+        assertThat(failed.getUpdatedAt()).isNotNull();
+    }
+
+    @Test
+    void shouldReadUpdateOfEntityFoundByRepository() {
+        adapter.persist(List.of(UpdateBuilder._default("1").withUpdateId(1).withUser(1L).message()));
+
+        MongoUpdateInbox found = repository.findById(1).get();
+
+        assertThat(found.getUpdate().getUpdateId()).isEqualTo(1);
+        assertThat(found.getUpdate().getMessage().getText()).isEqualTo("1");
+    }
+
+    @Test
+    void shouldFailToReadBinaryPayloadWithoutAdapter() {
+        MongoUpdateInbox updateInbox = new MongoUpdateInbox();
+        updateInbox.setUpdateId(1);
+        updateInbox.setPayload(new byte[] {1, 2, 3});
+
+        assertThatThrownBy(updateInbox::getUpdate)
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("binary payload");
+    }
+
     static class TestUpdateInboxRepositoryAdapter extends MongoUpdateInboxRepositoryAdapter {
 
         private final CountDownLatch waitLatch;
@@ -0,0 +1,36 @@
+package io.github.drednote.telegram.datasource.session.mongo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import org.bson.Document;
+import org.bson.json.JsonWriterSettings;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class UpdateDocumentConverterTest {
+
+    private final UpdateToDocumentConverter writer = new UpdateToDocumentConverter(null);
+    private final DocumentToUpdateConverter reader = new DocumentToUpdateConverter(null);
+
+    @Test
+    void shouldConvertUpdateWithoutLosingFields() {
+        Update update = UpdateBuilder.create(10).withUser(5L).withChat(7L).withText("hello").message();
+
+        Document document = writer.convert(update);
+        Update converted = reader.convert(document);
+
+        assertThat(converted).isEqualTo(update);
+        assertThat(converted.getMessage().getText()).isEqualTo("hello");
+        assertThat(converted.getMessage().getFrom().getId()).isEqualTo(5L);
+    }
+
+    @Test
+    void shouldReadDocumentParsedFromJson() {
+        Update update = UpdateBuilder.create(11).withUser(6L).callbackQuery();
+        // documents read from Mongo contain nested documents instead of maps
+        Document stored = Document.parse(writer.convert(update).toJson(JsonWriterSettings.builder().build()));
+
+        assertThat(reader.convert(stored)).isEqualTo(update);
+    }
+}
@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 
 import io.github.drednote.telegram.core.request.DefaultUpdateRequest;
 import io.github.drednote.telegram.filter.FilterProperties;
+import io.github.drednote.telegram.filter.FilterProperties.RateLimitEngine;
 import io.github.drednote.telegram.session.UserRateLimitRequestFilter;
 import io.github.drednote.telegram.support.UpdateRequestUtils;
 import io.github.drednote.telegram.support.UpdateUtils;
@@ -84,4 +85,20 @@ class UserRateLimitRequestFilterTest {
     filter.filter(request.getUser().getId());
     assertThat(key.get()).isEqualTo(2L);
   }
-}
\ No newline at end of file
+
+  @Test
+  void shouldLimitWithTokenTable() throws InterruptedException {
+    FilterProperties filterProperties = new FilterProperties();
+    filterProperties.setUserRateLimitUnit(ChronoUnit.MILLIS);
+    filterProperties.setUserRateLimit(100L);
+    filterProperties.setUserRateLimitEngine(RateLimitEngine.TOKEN_TABLE);
+
+    UserRateLimitRequestFilter filter = new UserRateLimitRequestFilter(filterProperties);
+
+    assertThat(filter.filter(1L)).isTrue();
+    assertThat(filter.filter(1L)).isFalse();
+    assertThat(filter.filter(2L)).isTrue();
+    Thread.sleep(150);
+    assertThat(filter.filter(1L)).isTrue();
+  }
+}
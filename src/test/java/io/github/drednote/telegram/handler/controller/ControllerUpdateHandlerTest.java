@@ -10,6 +10,7 @@ import io.github.drednote.telegram.core.request.MessageType;
 import io.github.drednote.telegram.core.request.RequestType;
 import io.github.drednote.telegram.handler.UpdateHandlerAutoConfiguration;
 import io.github.drednote.telegram.handler.UpdateHandlerProperties;
+import io.github.drednote.telegram.handler.controller.ControllerUpdateHandlerTest.SecondBotController;
 import io.github.drednote.telegram.handler.controller.ControllerUpdateHandlerTest.TestController;
 import io.github.drednote.telegram.response.EmptyTelegramResponse;
 import io.github.drednote.telegram.response.TelegramResponse;
@@ -18,6 +19,7 @@ import io.github.drednote.telegram.support.UpdateRequestUtils;
 import io.github.drednote.telegram.support.UpdateUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
@@ -25,9 +27,11 @@ import org.springframework.test.context.ActiveProfiles;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.User;
 import org.telegram.telegrambots.meta.api.objects.message.Message;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
 
 @SpringBootTest(classes = {
-    UpdateHandlerAutoConfiguration.class, TestController.class, CoreAutoConfiguration.class
+    UpdateHandlerAutoConfiguration.class, TestController.class, SecondBotController.class,
+    CoreAutoConfiguration.class
 })
 @Slf4j
 @ActiveProfiles("mvcTest")
@@ -36,6 +40,8 @@ class ControllerUpdateHandlerTest {
     @Autowired
     TestController testController;
     @Autowired
+    SecondBotController secondBotController;
+    @Autowired
     ControllerUpdateHandler updateHandler;
 
     @Autowired
@@ -72,6 +78,21 @@ class ControllerUpdateHandlerTest {
         assertThat(testController.textCount).isEqualTo(1);
     }
 
+    @Test
+    void shouldCallControllerOfBot() throws Exception {
+        Update update = UpdateUtils.createCommand("/register");
+        update.setUpdateId(1);
+
+        int registerCount = testController.registerCount;
+        DefaultUpdateRequest request = new DefaultUpdateRequest(
+            update, Mockito.mock(TelegramClient.class), "second");
+        popular.populate(request);
+        updateHandler.onUpdate(request);
+
+        assertThat(secondBotController.registerCount).isEqualTo(1);
+        assertThat(testController.registerCount).isEqualTo(registerCount);
+    }
+
     @Slf4j
     @TelegramController
     static class TestController {
@@ -93,4 +114,16 @@ class ControllerUpdateHandlerTest {
             textCount++;
         }
     }
-}
\ No newline at end of file
+
+    @TelegramController(bots = "second")
+    static class SecondBotController {
+
+        int registerCount = 0;
+
+        @TelegramRequest(value = "/register", messageType = MessageType.COMMAND)
+        public TelegramResponse register(Update update) {
+            registerCount++;
+            return EmptyTelegramResponse.INSTANCE;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.drednote.telegram.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.github.drednote.telegram.session.AdaptivePollingController.Decision;
+import io.github.drednote.telegram.session.SessionProperties.LongPollingSessionProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AdaptivePollingControllerTest {
+
+    private LongPollingSessionProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new LongPollingSessionProperties();
+        properties.setUpdateLimit(100);
+        properties.getAdaptive().setEnabled(true);
+        properties.getAdaptive().setMinUpdateLimit(5);
+    }
+
+    @Test
+    void shouldPauseAndShrinkIfSaturated() {
+        AdaptivePollingController controller = new AdaptivePollingController(properties);
+
+        Decision decision = controller.decide(new ProcessorLoad(10, 10, 4, 4));
+
+        assertThat(decision).isEqualTo(Decision.PAUSE);
+        assertThat(controller.getLimit()).isEqualTo(50);
+        assertThat(controller.getOccupancy()).isEqualTo(1.0);
+    }
+
+    @Test
+    void shouldShrinkUntilMinLimitIfHighLoad() {
+        AdaptivePollingController controller = new AdaptivePollingController(properties);
+        ProcessorLoad load = new ProcessorLoad(6, 10, 4, 4);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(controller.decide(load)).isEqualTo(Decision.SHRINK);
+        }
+        assertThat(controller.getLimit()).isEqualTo(6);
+        assertThat(controller.decide(load)).isEqualTo(Decision.SHRINK);
+        assertThat(controller.getLimit()).isEqualTo(5);
+        assertThat(controller.decide(load)).isEqualTo(Decision.HOLD);
+        assertThat(controller.getDecisionCount(Decision.SHRINK)).isEqualTo(5);
+    }
+
+    @Test
+    void shouldShrinkIfDispatchIsSlow() {
+        properties.getAdaptive().setMaxDispatchLatency(Duration.ofMillis(10));
+        AdaptivePollingController controller = new AdaptivePollingController(properties);
+
+        controller.recordDispatch(Duration.ofMillis(20).toNanos());
+
+        assertThat(controller.decide(ProcessorLoad.UNKNOWN)).isEqualTo(Decision.SHRINK);
+        assertThat(controller.getLimit()).isEqualTo(50);
+    }
+
+    @Test
+    void shouldGrowIfIdle() {
+        AdaptivePollingController controller = new AdaptivePollingController(properties);
+        controller.decide(new ProcessorLoad(10, 10, 4, 4));
+
+        assertThat(controller.decide(new ProcessorLoad(0, 10, 1, 4))).isEqualTo(Decision.GROW);
+        assertThat(controller.getLimit()).isEqualTo(60);
+        assertThat(controller.decide(new ProcessorLoad(2, 10, 4, 4))).isEqualTo(Decision.HOLD);
+        assertThat(controller.getLimit()).isEqualTo(60);
+    }
+
+    @Test
+    void shouldNotGrowAboveUpdateLimit() {
+        AdaptivePollingController controller = new AdaptivePollingController(properties);
+
+        assertThat(controller.decide(new ProcessorLoad(0, 10, 0, 4))).isEqualTo(Decision.HOLD);
+        assertThat(controller.getLimit()).isEqualTo(100);
+    }
+
+    @Test
+    void shouldThrowIfPropertiesInvalid() {
+        properties.getAdaptive().setMinUpdateLimit(101);
+        assertThatThrownBy(() -> new AdaptivePollingController(properties))
+            .isInstanceOf(IllegalArgumentException.class);
+
+        properties.getAdaptive().setMinUpdateLimit(1);
+        properties.getAdaptive().setHighLoadThreshold(0.95);
+        assertThatThrownBy(() -> new AdaptivePollingController(properties))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldExposeMetrics() {
+        AdaptivePollingController controller = new AdaptivePollingController(properties);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new AdaptivePollingMetrics(controller).bindTo(registry);
+
+        controller.decide(new ProcessorLoad(10, 10, 4, 4));
+
+        assertThat(registry.get("telegram.polling.limit").gauge().value()).isEqualTo(50);
+        assertThat(registry.get("telegram.polling.decisions").tag("decision", "pause")
+            .functionCounter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.drednote.telegram.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.drednote.telegram.core.request.ParsedUpdateRequest;
+import io.github.drednote.telegram.session.SessionProperties.ConcurrencyKey;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class DefaultConcurrencyKeyResolverTest {
+
+    @Test
+    void shouldResolveUser() {
+        DefaultConcurrencyKeyResolver resolver = new DefaultConcurrencyKeyResolver(ConcurrencyKey.USER);
+
+        assertThat(resolve(resolver, UpdateBuilder.create().withChat(-10L).withUser(1L).message()))
+            .isEqualTo("1");
+        assertThat(resolve(resolver, UpdateBuilder.create().withChat(-10L).message()))
+            .isEqualTo("-10");
+    }
+
+    @Test
+    void shouldResolveChat() {
+        DefaultConcurrencyKeyResolver resolver = new DefaultConcurrencyKeyResolver(ConcurrencyKey.CHAT);
+
+        assertThat(resolve(resolver, UpdateBuilder.create().withChat(-10L).withUser(1L).message()))
+            .isEqualTo("-10");
+        assertThat(resolve(resolver, UpdateBuilder.create().withChat(-10L).withUser(2L).message()))
+            .isEqualTo("-10");
+        assertThat(resolve(resolver, UpdateBuilder.create().withUser(2L).withText("query").inlineQuery()))
+            .isEqualTo("2");
+    }
+
+    @Test
+    void shouldResolveChatThread() {
+        DefaultConcurrencyKeyResolver resolver = new DefaultConcurrencyKeyResolver(ConcurrencyKey.CHAT_THREAD);
+        Update topic = UpdateBuilder.create().withChat(-10L).withUser(1L).message();
+        topic.getMessage().setIsTopicMessage(true);
+        topic.getMessage().setMessageThreadId(5);
+
+        assertThat(resolve(resolver, topic)).isEqualTo("-10:5");
+        assertThat(resolve(resolver, UpdateBuilder.create().withChat(-10L).withUser(1L).message()))
+            .isEqualTo("-10");
+    }
+
+    @Test
+    void shouldResolveBusinessConnection() {
+        DefaultConcurrencyKeyResolver resolver = new DefaultConcurrencyKeyResolver(
+            ConcurrencyKey.BUSINESS_CONNECTION);
+        Update business = UpdateBuilder.create().withChat(10L).withUser(1L).message();
+        business.getMessage().setBusinessConnectionId("connection");
+
+        assertThat(resolve(resolver, business)).isEqualTo("business:connection");
+        assertThat(resolve(resolver, UpdateBuilder.create().withChat(10L).withUser(1L).message()))
+            .isEqualTo("10");
+    }
+
+    @Test
+    void shouldResolveUpdatesWithoutUserAndChat() {
+        DefaultConcurrencyKeyResolver resolver = new DefaultConcurrencyKeyResolver(ConcurrencyKey.USER);
+        Update poll = UpdateBuilder.create().withText("question").poll();
+        poll.getPoll().setId("poll-id");
+
+        assertThat(resolve(resolver, poll)).isEqualTo("poll:poll-id");
+    }
+
+    private static String resolve(ConcurrencyKeyResolver resolver, Update update) {
+        return resolver.resolve(new ParsedUpdateRequest(update, null));
+    }
+}
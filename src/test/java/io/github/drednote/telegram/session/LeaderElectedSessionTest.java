@@ -0,0 +1,113 @@
+package io.github.drednote.telegram.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.drednote.telegram.session.SessionProperties.ClusterProperties;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class LeaderElectedSessionTest {
+
+    private final LeaderElector elector = mock(LeaderElector.class);
+    private final List<TelegramBotSession> terms = new ArrayList<>();
+    private final ClusterProperties properties = new ClusterProperties();
+    private LeaderElectedSession session;
+
+    @AfterEach
+    void tearDown() {
+        if (session != null) {
+            session.stop();
+        }
+    }
+
+    @Test
+    void shouldReceiveUpdatesOnlyWhileLeader() {
+        when(elector.tryAcquire()).thenReturn(true);
+        session = newSession();
+
+        session.start();
+        verify(elector, timeout(1000)).tryAcquire();
+        session.elect();
+
+        assertThat(session.isLeader()).isTrue();
+        assertThat(terms).hasSize(1);
+        verify(terms.get(0)).start();
+
+        when(elector.tryAcquire()).thenReturn(false);
+        session.elect();
+
+        assertThat(session.isLeader()).isFalse();
+        verify(terms.get(0)).stop();
+
+        when(elector.tryAcquire()).thenReturn(true);
+        session.elect();
+
+        // a new session is started for every term
+        assertThat(terms).hasSize(2);
+        verify(terms.get(1)).start();
+
+        session.stop();
+
+        verify(terms.get(1)).stop();
+        verify(elector).release();
+        assertThat(session.isLeader()).isFalse();
+    }
+
+    @Test
+    void shouldStepDownIfLeadershipCannotBeRenewed() {
+        when(elector.tryAcquire()).thenReturn(true);
+        session = newSession();
+        session.start();
+        verify(elector, timeout(1000)).tryAcquire();
+        session.elect();
+        assertThat(session.isLeader()).isTrue();
+
+        when(elector.tryAcquire()).thenThrow(new IllegalStateException("storage is not available"));
+        session.elect();
+
+        assertThat(session.isLeader()).isFalse();
+        verify(terms.get(0)).stop();
+    }
+
+    @Test
+    void shouldNotStartBeforeElected() {
+        session = newSession();
+        session.start();
+
+        verify(elector, timeout(1000)).tryAcquire();
+        session.elect();
+
+        assertThat(session.isLeader()).isFalse();
+        assertThat(terms).isEmpty();
+        session.stop();
+        verify(elector).release();
+    }
+
+    @Test
+    void shouldValidateIntervals() {
+        properties.setRenewInterval(Duration.ofSeconds(20));
+        properties.setLeaseDuration(Duration.ofSeconds(20));
+
+        assertThatThrownBy(() -> new LeaderElectedSession(elector, () -> mock(TelegramBotSession.class), properties))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private LeaderElectedSession newSession() {
+        properties.setLeaseDuration(Duration.ofMinutes(2));
+        return new LeaderElectedSession(elector, () -> {
+            TelegramBotSession term = mock(TelegramBotSession.class);
+            synchronized (terms) {
+                terms.add(term);
+            }
+            return term;
+        }, properties);
+    }
+}
@@ -0,0 +1,325 @@
+package io.github.drednote.telegram.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.sun.net.httpserver.HttpServer;
+import io.github.drednote.telegram.TelegramProperties;
+import io.github.drednote.telegram.session.AdaptivePollingController.Decision;
+import io.github.drednote.telegram.session.SessionProperties.UpdateProcessorType;
+import io.github.drednote.telegram.session.StreamingTelegramConsumeClient.UpdateHandler;
+import io.github.drednote.telegram.session.TelegramConsumeClient.UpdateResponse;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.support.RestClientAdapter;
+import org.springframework.web.service.invoker.HttpServiceProxyFactory;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+class LongPollingSessionTest {
+
+    private final TelegramConsumeClient client = mock(TelegramConsumeClient.class);
+    private final SessionProperties properties = new SessionProperties();
+    private final TelegramProperties telegramProperties = new TelegramProperties();
+    private final AtomicInteger nextUpdateId = new AtomicInteger(1);
+
+    private LongPollingSession session;
+
+    @BeforeEach
+    void setUp() {
+        telegramProperties.setToken("token");
+        when(client.getUpdates(any(), anyInt(), any(), any(), any())).thenAnswer(answer -> {
+            Thread.sleep(5);
+            UpdateResponse response = new UpdateResponse();
+            response.setOk(true);
+            response.setResult(new ArrayList<>(List.of(
+                UpdateBuilder.create(nextUpdateId.getAndIncrement()).withUser(1L).message())));
+            return response;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (session != null) {
+            session.stop();
+        }
+    }
+
+    @Test
+    void shouldPrefetchNextBatchWhileProcessorIsBusy() throws InterruptedException {
+        properties.getLongPolling().setMaxBatchesInFlight(3);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> processed = new CopyOnWriteArrayList<>();
+        session = new LongPollingSession(client, properties, telegramProperties, new FixedBackoff(),
+            updates -> {
+                await(release);
+                updates.forEach(update -> processed.add(update.getUpdateId()));
+            });
+
+        session.start();
+
+        // processor is blocked on the first batch, but requests with the next offsets are still sent
+        verify(client, timeout(1000)).getUpdates(eq("token"), eq(2), any(), any(), any());
+        verify(client, timeout(1000)).getUpdates(eq("token"), eq(3), any(), any(), any());
+        assertThat(processed).isEmpty();
+
+        release.countDown();
+
+        verify(client, timeout(1000).atLeast(5)).getUpdates(any(), anyInt(), any(), any(), any());
+        Thread.sleep(50);
+        assertThat(processed).isNotEmpty().isSorted();
+        assertThat(processed.get(0)).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotPrefetchIfPipeliningDisabled() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        session = new LongPollingSession(client, properties, telegramProperties, new FixedBackoff(),
+            updates -> await(release));
+
+        session.start();
+
+        verify(client, timeout(1000)).getUpdates(eq("token"), eq(1), any(), any(), any());
+        Thread.sleep(100);
+        // the next request is not sent until the processor takes the first batch
+        assertThat(nextUpdateId.get()).isEqualTo(2);
+
+        release.countDown();
+    }
+
+    @Test
+    void shouldRejectPipeliningWithDurableInbox() {
+        properties.getLongPolling().setMaxBatchesInFlight(2);
+        properties.setUpdateProcessorType(UpdateProcessorType.SCHEDULER_WITH_CRUD);
+
+        assertThatThrownBy(() -> new LongPollingSession(client, properties, telegramProperties, new FixedBackoff(),
+            updates -> {}))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldNotPollWhileProcessorIsSaturated() {
+        properties.getLongPolling().getAdaptive().setEnabled(true);
+        AtomicReference<ProcessorLoad> load = new AtomicReference<>(new ProcessorLoad(10, 10, 2, 2));
+        session = new LongPollingSession(client, properties, telegramProperties, new FixedBackoff(),
+            new TelegramUpdateProcessor() {
+                @Override
+                public void process(List<Update> update) {}
+
+                @Override
+                public ProcessorLoad getLoad() {
+                    return load.get();
+                }
+            });
+
+        session.start();
+
+        AdaptivePollingController controller = session.getPollingController();
+        assertThat(controller).isNotNull();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (controller.getDecisionCount(Decision.PAUSE) < 2 && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        assertThat(controller.getDecisionCount(Decision.PAUSE)).isGreaterThan(1);
+        verify(client, never()).getUpdates(any(), anyInt(), any(), any(), any());
+        assertThat(controller.getLimit()).isLessThan(100);
+
+        load.set(new ProcessorLoad(0, 10, 0, 2));
+        verify(client, timeout(1000).atLeastOnce()).getUpdates(eq("token"), anyInt(), any(), any(), any());
+    }
+
+    @Test
+    void shouldShareControllerBetweenSessions() {
+        properties.getLongPolling().getAdaptive().setEnabled(true);
+        AdaptivePollingController controller = new AdaptivePollingController(properties.getLongPolling());
+        for (int term = 0; term < 2; term++) {
+            clearInvocations(client);
+            long decisions = decisionCount(controller);
+            session = new LongPollingSession(client, properties, telegramProperties, new FixedBackoff(),
+                updates -> {});
+            session.setPollingController(controller);
+            assertThat(session.getPollingController()).isSameAs(controller);
+
+            session.start();
+
+            // the decision is made before every request
+            verify(client, timeout(1000).atLeastOnce()).getUpdates(eq("token"), anyInt(), any(), any(), any());
+            assertThat(decisionCount(controller)).isGreaterThan(decisions);
+            assertThatThrownBy(() -> session.setPollingController(null))
+                .isInstanceOf(IllegalStateException.class);
+            session.stop();
+        }
+        session = null;
+    }
+
+    private static long decisionCount(AdaptivePollingController controller) {
+        long count = 0;
+        for (Decision decision : Decision.values()) {
+            count += controller.getDecisionCount(decision);
+        }
+        return count;
+    }
+
+    @Test
+    void shouldDispatchUpdatesOneByOneIfStreaming() throws Exception {
+        StreamingTelegramConsumeClient streamingClient = mock(StreamingTelegramConsumeClient.class);
+        when(streamingClient.getUpdates(any(), anyInt(), any(), any(), any(), any())).thenAnswer(answer -> {
+            UpdateHandler handler = answer.getArgument(5);
+            int offset = answer.getArgument(1);
+            if (offset == 1) {
+                handler.handle(UpdateBuilder.create(1).withUser(1L).message());
+                handler.handle(UpdateBuilder.create(2).withUser(1L).message());
+                return 2;
+            }
+            Thread.sleep(5);
+            return 0;
+        });
+        List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        properties.setUpdateProcessorType(UpdateProcessorType.ON_FLY);
+        session = new LongPollingSession(client, streamingClient, properties, telegramProperties,
+            new FixedBackoff(), updates -> batches.add(updates.stream().map(Update::getUpdateId).toList()));
+
+        session.start();
+
+        verify(streamingClient, timeout(1000).atLeastOnce()).getUpdates(eq("token"), eq(3), any(), any(), any(), any());
+        assertThat(batches).containsExactly(List.of(1), List.of(2));
+        verify(client, never()).getUpdates(any(), anyInt(), any(), any(), any());
+    }
+
+    @Test
+    void shouldDispatchStreamedResponseAsOneBatchToInboxProcessor() throws Exception {
+        StreamingTelegramConsumeClient streamingClient = mock(StreamingTelegramConsumeClient.class);
+        when(streamingClient.getUpdates(any(), anyInt(), any(), any(), any(), any())).thenAnswer(answer -> {
+            UpdateHandler handler = answer.getArgument(5);
+            int offset = answer.getArgument(1);
+            if (offset == 1) {
+                handler.handle(UpdateBuilder.create(1).withUser(1L).message());
+                handler.handle(UpdateBuilder.create(2).withUser(1L).message());
+                return 2;
+            }
+            Thread.sleep(5);
+            return 0;
+        });
+        List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        properties.setUpdateProcessorType(UpdateProcessorType.SCHEDULER);
+        session = new LongPollingSession(client, streamingClient, properties, telegramProperties,
+            new FixedBackoff(), updates -> batches.add(updates.stream().map(Update::getUpdateId).toList()));
+
+        session.start();
+
+        verify(streamingClient, timeout(1000).atLeastOnce()).getUpdates(eq("token"), eq(3), any(), any(), any(), any());
+        assertThat(batches).containsExactly(List.of(1, 2));
+    }
+
+    @Test
+    void shouldNotDispatchStreamedUpdatesIfResponseFailed() throws Exception {
+        StreamingTelegramConsumeClient streamingClient = mock(StreamingTelegramConsumeClient.class);
+        AtomicInteger requests = new AtomicInteger();
+        when(streamingClient.getUpdates(any(), anyInt(), any(), any(), any(), any())).thenAnswer(answer -> {
+            UpdateHandler handler = answer.getArgument(5);
+            handler.handle(UpdateBuilder.create(1).withUser(1L).message());
+            if (requests.incrementAndGet() == 1) {
+                throw new TelegramApiException("Broken response");
+            }
+            Thread.sleep(5);
+            return 1;
+        });
+        List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        properties.setUpdateProcessorType(UpdateProcessorType.SCHEDULER);
+        session = new LongPollingSession(client, streamingClient, properties, telegramProperties,
+            new FixedBackoff(), updates -> batches.add(updates.stream().map(Update::getUpdateId).toList()));
+
+        session.start();
+
+        verify(streamingClient, timeout(1000).atLeastOnce()).getUpdates(eq("token"), eq(2), any(), any(), any(), any());
+        verify(streamingClient, timeout(1000).times(2)).getUpdates(eq("token"), eq(1), any(), any(), any(), any());
+        assertThat(batches).containsExactly(List.of(1));
+    }
+
+    @Test
+    void shouldCancelRequestInFlightOnStop() throws Exception {
+        CountDownLatch requested = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requested.countDown();
+            await(release);
+            byte[] body = """
+                {"ok":true,"result":[{"update_id":1,"message":{"message_id":1,"date":1,"chat":{"id":1,"type":"private"}}}]}
+                """.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            } catch (IOException e) {
+                // the request is cancelled
+            }
+        });
+        server.start();
+        TelegramHttpTransport transport = new TelegramHttpTransport(new HttpProperties(), properties);
+        try {
+            RestClient restClient = RestClient.builder()
+                .requestFactory(transport.getConsumeRequestFactory())
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .build();
+            TelegramConsumeClient httpClient = HttpServiceProxyFactory
+                .builderFor(RestClientAdapter.create(restClient)).build()
+                .createClient(TelegramConsumeClient.class);
+            CountDownLatch finished = new CountDownLatch(1);
+            List<Update> processed = new CopyOnWriteArrayList<>();
+            session = new LongPollingSession((token, offset, limit, timeout, allowedUpdates) -> {
+                try {
+                    return httpClient.getUpdates(token, offset, limit, timeout, allowedUpdates);
+                } finally {
+                    finished.countDown();
+                }
+            }, properties, telegramProperties, new FixedBackoff(), processed::addAll);
+            session.setTransport(transport);
+
+            session.start();
+            assertThat(requested.await(5, TimeUnit.SECONDS)).isTrue();
+            long start = System.nanoTime();
+            session.stop();
+
+            assertThat(finished.await(1, TimeUnit.SECONDS)).isTrue();
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(2));
+            release.countDown();
+            Thread.sleep(50);
+            assertThat(processed).isEmpty();
+        } finally {
+            release.countDown();
+            server.stop(0);
+            transport.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
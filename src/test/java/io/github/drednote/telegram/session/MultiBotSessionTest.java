@@ -0,0 +1,171 @@
+package io.github.drednote.telegram.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.drednote.telegram.core.TelegramBot;
+import io.github.drednote.telegram.filter.FilterProperties;
+import io.github.drednote.telegram.session.MultiBotProperties.BotDefinition;
+import io.github.drednote.telegram.session.MultiBotSession.Bot;
+import io.github.drednote.telegram.session.MultiBotSession.BotProcessorFactory;
+import io.github.drednote.telegram.session.TelegramConsumeClient.UpdateResponse;
+import io.github.drednote.telegram.session.processor.OnFlyTelegramUpdateProcessor;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+class MultiBotSessionTest {
+
+    private final TelegramConsumeClient client = mock(TelegramConsumeClient.class);
+    private final SessionProperties sessionProperties = new SessionProperties();
+    private final MultiBotProperties properties = new MultiBotProperties();
+    private final Map<String, AtomicInteger> nextUpdateIds = new ConcurrentHashMap<>();
+    private MultiBotSession session;
+
+    @BeforeEach
+    void setUp() {
+        properties.getBots().put("first", definition("token1"));
+        properties.getBots().put("second", definition("token2"));
+        BotDefinition disabled = definition("token3");
+        disabled.setEnabled(false);
+        properties.getBots().put("disabled", disabled);
+        properties.setWorkerThreads(2);
+        properties.setMaxThreadsPerBot(1);
+
+        when(client.getUpdates(any(), anyInt(), any(), any(), any())).thenAnswer(answer -> {
+            Thread.sleep(5);
+            String token = answer.getArgument(0);
+            int id = nextUpdateIds.computeIfAbsent(token, k -> new AtomicInteger(1)).getAndIncrement();
+            UpdateResponse response = new UpdateResponse();
+            response.setOk(true);
+            response.setResult(List.of(UpdateBuilder.create(id).withUser(1L).message()));
+            return response;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (session != null) {
+            session.stop();
+        }
+    }
+
+    @Test
+    void shouldPollEveryBotWithItsToken() {
+        Map<String, AtomicInteger> handled = new ConcurrentHashMap<>();
+        session = new MultiBotSession(client, sessionProperties, properties,
+            processors(name -> update -> handled.computeIfAbsent(name, k -> new AtomicInteger())
+                .incrementAndGet()),
+            FixedBackoff::new);
+
+        session.start();
+
+        verify(client, timeout(1000)).getUpdates(eq("token1"), eq(3), any(), any(), any());
+        verify(client, timeout(1000)).getUpdates(eq("token2"), eq(3), any(), any(), any());
+        assertThat(session.getBots()).extracting(Bot::getName).containsExactly("first", "second");
+        assertThat(handled).containsOnlyKeys("first", "second");
+    }
+
+    @Test
+    void shouldNotBlockOtherBotsIfOneIsBusy() throws InterruptedException {
+        properties.setMaxUpdatesPerBot(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger secondHandled = new AtomicInteger();
+        session = new MultiBotSession(client, sessionProperties, properties,
+            processors(name -> "first".equals(name) ? blockingBot(release)
+                : update -> secondHandled.incrementAndGet()),
+            FixedBackoff::new);
+
+        session.start();
+
+        verify(client, timeout(1000)).getUpdates(eq("token2"), eq(10), any(), any(), any());
+        Bot first = session.getBots().iterator().next();
+        assertThat(first.getPendingCount()).isEqualTo(1);
+        assertThat(first.getHandledCount()).isZero();
+        release.countDown();
+        verify(client, timeout(1000)).getUpdates(eq("token1"), eq(5), any(), any(), any());
+    }
+
+    @Test
+    void shouldExposeMetricsByBot() {
+        session = new MultiBotSession(client, sessionProperties, properties,
+            processors(name -> update -> {
+                throw new IllegalStateException("test");
+            }),
+            FixedBackoff::new);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new MultiBotMetrics(session).bindTo(registry);
+
+        session.start();
+
+        verify(client, timeout(1000)).getUpdates(eq("token1"), eq(3), any(), any(), any());
+        assertThat(registry.get("telegram.bot.updates.failed").tag("bot", "first")
+            .functionCounter().count()).isPositive();
+    }
+
+    @Test
+    void shouldCloseProcessorsWhenStopped() {
+        Map<String, TelegramUpdateProcessor> processors = new ConcurrentHashMap<>();
+        session = new MultiBotSession(client, sessionProperties, properties,
+            (name, definition, executor, timer) -> processors.computeIfAbsent(name,
+                k -> mock(TelegramUpdateProcessor.class)),
+            FixedBackoff::new);
+
+        session.start();
+        session.stop();
+
+        assertThat(processors).containsOnlyKeys("first", "second");
+        processors.values().forEach(processor -> verify(processor).close());
+    }
+
+    @Test
+    void shouldThrowIfTokenIsMissing() {
+        properties.getBots().put("third", new BotDefinition());
+
+        assertThatThrownBy(() -> new MultiBotSession(client, sessionProperties, properties,
+            processors(name -> update -> {}), FixedBackoff::new))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private BotProcessorFactory processors(Function<String, TelegramBot> bots) {
+        FilterProperties filterProperties = new FilterProperties();
+        filterProperties.getRateLimitNotification().setEnabled(false);
+        return (name, definition, executor, timer) -> new OnFlyTelegramUpdateProcessor(sessionProperties,
+            filterProperties, bots.apply(name), mock(TelegramClient.class), null,
+            new DefaultConcurrencyKeyResolver(sessionProperties.getConcurrencyKey()), executor,
+            properties.getMaxThreadsPerBot(), properties.getMaxUpdatesPerBot(), timer);
+    }
+
+    private static TelegramBot blockingBot(CountDownLatch release) {
+        return update -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private static BotDefinition definition(String token) {
+        BotDefinition definition = new BotDefinition();
+        definition.setToken(token);
+        return definition;
+    }
+}
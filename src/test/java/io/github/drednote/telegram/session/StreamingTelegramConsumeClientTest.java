@@ -0,0 +1,120 @@
+package io.github.drednote.telegram.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+class StreamingTelegramConsumeClientTest {
+
+    private final AtomicReference<String> responseBody = new AtomicReference<>();
+    private final AtomicReference<String> requestQuery = new AtomicReference<>();
+    private HttpServer server;
+    private StreamingTelegramConsumeClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requestQuery.set(exchange.getRequestURI().getRawQuery());
+            byte[] body = responseBody.get().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+        client = new StreamingTelegramConsumeClient(RestClient.builder()
+            .baseUrl("http://127.0.0.1:" + server.getAddress().getPort())
+            .build(), null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void shouldHandleUpdatesOneByOne() throws Exception {
+        responseBody.set("""
+            {"ok": true, "result": [
+              {"update_id": 1, "message": {"message_id": 1, "date": 1700000000,
+                "chat": {"id": 1, "type": "private"}, "text": "a", "unknown": {"nested": [1]}}},
+              {"update_id": 2, "callback_query": {"id": "1", "chat_instance": "1",
+                "from": {"id": 1, "is_bot": false, "first_name": "a"}}}
+            ]}
+            """);
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+
+        int count = client.getUpdates("token", 1, 100, 0, List.of("message"),
+            update -> handled.add(update.getUpdateId()));
+
+        assertThat(count).isEqualTo(2);
+        assertThat(handled).containsExactly(1, 2);
+        assertThat(requestQuery.get())
+            .contains("offset=1", "limit=100", "timeout=0", "allowed_updates=%5B%22message%22%5D");
+    }
+
+    @Test
+    void shouldThrowIfNotOk() {
+        responseBody.set("""
+            {"ok": false, "error_code": 409, "description": "Conflict"}
+            """);
+
+        assertThatThrownBy(() -> client.getUpdates("token", 1, 100, 0, null, update -> {}))
+            .isInstanceOf(TelegramApiException.class)
+            .hasMessageContaining("Conflict");
+    }
+
+    @Test
+    void shouldNotHandleUpdatesIfNotOk() {
+        responseBody.set("""
+            {"result": [{"update_id": 1}], "ok": false, "description": "Conflict"}
+            """);
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+
+        assertThatThrownBy(() -> client.getUpdates("token", 1, 100, 0, null,
+            update -> handled.add(update.getUpdateId())))
+            .isInstanceOf(TelegramApiException.class);
+        assertThat(handled).isEmpty();
+    }
+
+    @Test
+    void shouldHandleUpdatesAfterOkIfResultComesFirst() throws Exception {
+        responseBody.set("""
+            {"result": [{"update_id": 1}, {"update_id": 2}], "ok": true}
+            """);
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+
+        int count = client.getUpdates("token", 1, 100, 0, null, update -> handled.add(update.getUpdateId()));
+
+        assertThat(count).isEqualTo(2);
+        assertThat(handled).containsExactly(1, 2);
+    }
+
+    @Test
+    void shouldStopIfHandlerInterrupted() {
+        responseBody.set("""
+            {"ok": true, "result": [{"update_id": 1}, {"update_id": 2}]}
+            """);
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+
+        assertThatThrownBy(() -> client.getUpdates("token", 1, 100, 0, null, update -> {
+            handled.add(update.getUpdateId());
+            throw new InterruptedException();
+        })).isInstanceOf(InterruptedException.class);
+        assertThat(handled).containsExactly(1);
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.drednote.telegram.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.sun.net.httpserver.HttpServer;
+import io.github.drednote.telegram.session.SessionProperties.ProxyType;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClient;
+
+class TelegramHttpTransportTest {
+
+    private final HttpProperties httpProperties = new HttpProperties();
+    private final SessionProperties sessionProperties = new SessionProperties();
+    private TelegramHttpTransport transport;
+
+    @BeforeEach
+    void setUp() {
+        sessionProperties.getLongPolling().setUpdateTimeout(50);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (transport != null) {
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    void shouldShareConnectionPoolAndDispatcher() {
+        httpProperties.setMaxRequestsPerHost(32);
+        httpProperties.setReadTimeout(Duration.ofSeconds(10));
+        transport = new TelegramHttpTransport(httpProperties, sessionProperties);
+
+        OkHttpClient sending = transport.getSendingClient();
+        OkHttpClient consume = transport.getConsumeClient();
+
+        assertThat(consume.connectionPool()).isSameAs(sending.connectionPool());
+        assertThat(consume.dispatcher()).isSameAs(sending.dispatcher());
+        assertThat(sending.dispatcher().getMaxRequestsPerHost()).isEqualTo(32);
+        assertThat(sending.readTimeoutMillis()).isEqualTo(10_000);
+        assertThat(consume.readTimeoutMillis()).isEqualTo(60_000);
+        assertThat(sending.protocols()).containsExactly(Protocol.HTTP_1_1);
+    }
+
+    @Test
+    void shouldEnableHttp2() {
+        httpProperties.setHttp2(true);
+        transport = new TelegramHttpTransport(httpProperties, sessionProperties);
+
+        assertThat(transport.getSendingClient().protocols())
+            .containsExactly(Protocol.HTTP_2, Protocol.HTTP_1_1);
+    }
+
+    @Test
+    void shouldThrowIfProxyUrlIsMissing() {
+        sessionProperties.setProxyType(ProxyType.HTTP);
+
+        assertThatThrownBy(() -> new TelegramHttpTransport(httpProperties, sessionProperties))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldExecuteRestClientRequests() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] request = exchange.getRequestBody().readAllBytes();
+            byte[] body = (exchange.getRequestMethod() + " " + exchange.getRequestURI().getRawQuery()
+                           + " " + new String(request, StandardCharsets.UTF_8))
+                .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("X-Test", "1");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+        try {
+            transport = new TelegramHttpTransport(httpProperties, sessionProperties);
+            RestClient restClient = RestClient.builder()
+                .requestFactory(transport.getConsumeRequestFactory())
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .build();
+
+            String get = restClient.get().uri("/test?a=1").retrieve().body(String.class);
+            var post = restClient.post().uri("/test?b=2")
+                .contentType(MediaType.TEXT_PLAIN)
+                .body("hello")
+                .retrieve()
+                .toEntity(String.class);
+
+            assertThat(get).isEqualTo("GET a=1 ");
+            assertThat(post.getBody()).isEqualTo("POST b=2 hello");
+            assertThat(post.getHeaders().get("X-Test")).isEqualTo(List.of("1"));
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.drednote.telegram.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTableTest {
+
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    void shouldConsumeAndRefillTokens() {
+        TokenBucketTable table = new TokenBucketTable(16, 2, PERIOD, PERIOD, 0);
+
+        assertThat(table.tryConsume(1L, 0)).isTrue();
+        assertThat(table.tryConsume(1L, 0)).isTrue();
+        assertThat(table.tryConsume(1L, 0)).isFalse();
+        assertThat(table.tryConsume(2L, 0)).isTrue();
+
+        assertThat(table.tryConsume(1L, PERIOD - 1000)).isFalse();
+        assertThat(table.tryConsume(1L, PERIOD)).isTrue();
+        assertThat(table.tryConsume(1L, PERIOD)).isFalse();
+
+        // the bucket is not refilled above capacity
+        assertThat(table.tryConsume(1L, PERIOD * 100)).isTrue();
+        assertThat(table.tryConsume(1L, PERIOD * 100)).isTrue();
+        assertThat(table.tryConsume(1L, PERIOD * 100)).isFalse();
+    }
+
+    @Test
+    void shouldReuseExpiredSlots() {
+        TokenBucketTable table = new TokenBucketTable(4, 1, PERIOD, PERIOD * 2, 0);
+        for (long key = 0; key < 4; key++) {
+            assertThat(table.tryConsume(key, 0)).isTrue();
+        }
+
+        // the table is full and no slot is expired, so the new key is not limited
+        assertThat(table.tryConsume(10L, PERIOD)).isTrue();
+        assertThat(table.tryConsume(10L, PERIOD)).isTrue();
+        assertThat(table.getOverflowCount()).isEqualTo(2);
+
+        assertThat(table.tryConsume(10L, PERIOD * 2)).isTrue();
+        assertThat(table.tryConsume(10L, PERIOD * 2)).isFalse();
+        assertThat(table.getOverflowCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldConsumeOnlyOneTokenConcurrently() throws InterruptedException {
+        TokenBucketTable table = new TokenBucketTable(1024, 1, TimeUnit.HOURS.toNanos(1),
+            TimeUnit.HOURS.toNanos(1), System.nanoTime());
+        AtomicInteger consumed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long key = 0; key < 500; key++) {
+                    if (table.tryConsume(key, System.nanoTime())) {
+                        consumed.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(consumed.get()).isEqualTo(500);
+    }
+
+    @Test
+    void shouldRejectInvalidArguments() {
+        assertThatThrownBy(() -> new TokenBucketTable(0, 1, PERIOD, PERIOD, 0))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TokenBucketTable(16, 0, PERIOD, PERIOD, 0))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TokenBucketTable(16, 1, 1, PERIOD, 0))
+            .isInstanceOf(IllegalArgumentException.class);
+        TokenBucketTable table = new TokenBucketTable(16, 1, PERIOD, PERIOD, 0);
+        assertThatThrownBy(() -> table.tryConsume(TokenBucketTable.EMPTY, 0))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,237 @@
+package io.github.drednote.telegram.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.drednote.telegram.exception.type.SessionTelegramException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.telegram.telegrambots.meta.api.methods.updates.DeleteWebhook;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+class WebhookSessionTest {
+
+    private final TelegramClient telegramClient = mock(TelegramClient.class);
+    private final SessionProperties properties = new SessionProperties();
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final List<Integer> processed = new CopyOnWriteArrayList<>();
+
+    private WebhookSession session;
+
+    @BeforeEach
+    void setUp() {
+        properties.getWebhook().setUrl("https://example.com/webhook");
+        properties.getWebhook().setHost("127.0.0.1");
+        properties.getWebhook().setPort(0);
+        properties.getWebhook().setPath("/webhook");
+        properties.getWebhook().setSecretToken("secret");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (session != null) {
+            session.stop();
+        }
+    }
+
+    @Test
+    void shouldSetWebhookAndProcessUpdate() throws Exception {
+        session = new WebhookSession(telegramClient, properties,
+            updates -> updates.forEach(update -> processed.add(update.getUpdateId())), null);
+        session.start();
+
+        ArgumentCaptor<SetWebhook> captor = ArgumentCaptor.forClass(SetWebhook.class);
+        verify(telegramClient).execute(captor.capture());
+        assertThat(captor.getValue().getUrl()).isEqualTo("https://example.com/webhook");
+        assertThat(captor.getValue().getSecretToken()).isEqualTo("secret");
+
+        // the update is accepted by the processor before the response
+        assertThat(send(1, "secret")).isEqualTo(200);
+        assertThat(processed).containsExactly(1);
+
+        session.stop();
+        verify(telegramClient).execute(any(DeleteWebhook.class));
+    }
+
+    @Test
+    void shouldRejectRequestWithWrongSecretToken() throws Exception {
+        session = new WebhookSession(telegramClient, properties,
+            updates -> updates.forEach(update -> processed.add(update.getUpdateId())), null);
+        session.start();
+
+        assertThat(send(1, "wrong")).isEqualTo(401);
+        assertThat(send(2, null)).isEqualTo(401);
+        assertThat(send(3, "secret")).isEqualTo(200);
+        // requests are dispatched in order, so rejected updates would be before the accepted one
+        assertThat(processed).containsExactly(3);
+    }
+
+    @Test
+    void shouldReturnTooManyRequestsIfProcessorIsSaturated() throws Exception {
+        AtomicReference<ProcessorLoad> load = new AtomicReference<>(new ProcessorLoad(10, 10, 2, 2));
+        session = new WebhookSession(telegramClient, properties, new TelegramUpdateProcessor() {
+            @Override
+            public void process(List<Update> updates) {
+                updates.forEach(update -> processed.add(update.getUpdateId()));
+            }
+
+            @Override
+            public ProcessorLoad getLoad() {
+                return load.get();
+            }
+        }, null);
+        session.start();
+
+        assertThat(send(1, "secret")).isEqualTo(429);
+
+        load.set(new ProcessorLoad(9, 10, 2, 2));
+        assertThat(send(2, "secret")).isEqualTo(200);
+        assertThat(processed).containsExactly(2);
+    }
+
+    @Test
+    void shouldReturnTooManyRequestsIfQueueIsFull() throws Exception {
+        properties.getWebhook().setQueueCapacity(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch taken = new CountDownLatch(1);
+        session = new WebhookSession(telegramClient, properties, updates -> {
+            taken.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            updates.forEach(update -> processed.add(update.getUpdateId()));
+        }, null);
+        session.start();
+
+        // the first update is taken by the processor, the second one waits in the queue
+        CompletableFuture<Integer> first = sendAsync(1);
+        assertThat(taken.await(1, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Integer> second = sendAsync(2);
+        awaitQueued(1);
+        assertThat(send(3, "secret")).isEqualTo(429);
+        // responses are sent only after the processor accepts updates
+        assertThat(first).isNotDone();
+        assertThat(second).isNotDone();
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(200);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(200);
+        assertThat(processed).containsExactly(1, 2);
+    }
+
+    @Test
+    void shouldDispatchQueuedUpdatesBeforeStopReturns() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch taken = new CountDownLatch(1);
+        session = new WebhookSession(telegramClient, properties, updates -> {
+            taken.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            updates.forEach(update -> processed.add(update.getUpdateId()));
+        }, null);
+        session.start();
+
+        sendAsync(1);
+        assertThat(taken.await(1, TimeUnit.SECONDS)).isTrue();
+        sendAsync(2);
+        awaitQueued(1);
+        CompletableFuture.runAsync(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        });
+
+        session.stop();
+
+        assertThat(processed).containsExactly(1, 2);
+    }
+
+    @Test
+    void shouldReturnServerErrorIfProcessorFails() throws Exception {
+        session = new WebhookSession(telegramClient, properties, updates -> {
+            throw new IllegalStateException("storage is not available");
+        }, null);
+        session.start();
+
+        assertThat(send(1, "secret")).isEqualTo(500);
+    }
+
+    @Test
+    void shouldFailStartIfWebhookCannotBeSet() throws Exception {
+        when(telegramClient.execute(any(SetWebhook.class))).thenThrow(new TelegramApiException("error"));
+        session = new WebhookSession(telegramClient, properties, updates -> {}, null);
+
+        assertThatThrownBy(() -> session.start()).isInstanceOf(SessionTelegramException.class);
+        assertThat(session.getPort()).isEqualTo(-1);
+    }
+
+    @Test
+    void shouldRequireUrl() {
+        properties.getWebhook().setUrl(null);
+
+        assertThatThrownBy(() -> new WebhookSession(telegramClient, properties, updates -> {}, null))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void awaitQueued(int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (session.getQueueSize() < size) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    private CompletableFuture<Integer> sendAsync(int updateId) {
+        return httpClient.sendAsync(request(updateId, "secret"), BodyHandlers.discarding())
+            .thenApply(HttpResponse::statusCode);
+    }
+
+    private int send(int updateId, String secretToken) throws IOException, InterruptedException {
+        return httpClient.send(request(updateId, secretToken), BodyHandlers.discarding()).statusCode();
+    }
+
+    private HttpRequest request(int updateId, String secretToken) {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+            .uri(URI.create("http://127.0.0.1:" + session.getPort() + "/webhook"))
+            .header("Content-Type", "application/json")
+            .POST(BodyPublishers.ofString("""
+                {"update_id": %d, "message": {"message_id": 1, "date": 1700000000,
+                "chat": {"id": 1, "type": "private"}, "from": {"id": 1, "is_bot": false, "first_name": "a"},
+                "text": "hello", "unknown_field": 1}}
+                """.formatted(updateId)));
+        if (secretToken != null) {
+            request.header(WebhookSession.SECRET_TOKEN_HEADER, secretToken);
+        }
+        return request.build();
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.drednote.telegram.session.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class MpmcArrayQueueTest {
+
+    @Test
+    void shouldRespectCapacityAndOrder() {
+        MpmcArrayQueue<Integer> queue = new MpmcArrayQueue<>(3);
+
+        assertThat(queue.poll()).isNull();
+        assertThat(queue.offer(1)).isTrue();
+        assertThat(queue.offer(2)).isTrue();
+        assertThat(queue.offer(3)).isTrue();
+        assertThat(queue.offer(4)).isFalse();
+        assertThat(queue.size()).isEqualTo(3);
+        assertThat(queue.peek()).isEqualTo(1);
+
+        assertThat(queue.poll()).isEqualTo(1);
+        assertThat(queue.offer(4)).isTrue();
+        assertThat(queue.poll()).isEqualTo(2);
+        assertThat(queue.poll()).isEqualTo(3);
+        assertThat(queue.poll()).isEqualTo(4);
+        assertThat(queue.poll()).isNull();
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @Test
+    void shouldRespectCapacityOfOne() {
+        MpmcArrayQueue<Integer> queue = new MpmcArrayQueue<>(1);
+
+        assertThat(queue.offer(1)).isTrue();
+        assertThat(queue.offer(2)).isFalse();
+        assertThat(queue.poll()).isEqualTo(1);
+        assertThat(queue.offer(2)).isTrue();
+        assertThat(queue.offer(3)).isFalse();
+        assertThat(queue.poll()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldIterateOverSnapshot() {
+        MpmcArrayQueue<Integer> queue = new MpmcArrayQueue<>(3);
+        queue.offer(1);
+        queue.offer(2);
+        queue.offer(3);
+        queue.poll();
+        queue.offer(4);
+
+        assertThat(queue).containsExactly(2, 3, 4);
+        assertThat(queue.contains(3)).isTrue();
+        assertThat(queue.toString()).isEqualTo("[2, 3, 4]");
+
+        Iterator<Integer> iterator = queue.iterator();
+        queue.poll();
+        queue.offer(5);
+        assertThat(iterator.next()).isEqualTo(2);
+        assertThatThrownBy(iterator::remove).isInstanceOf(UnsupportedOperationException.class);
+        assertThat(iterator).toIterable().containsExactly(3, 4);
+        assertThat(queue).containsExactly(3, 4, 5);
+    }
+
+    @Test
+    void shouldNotLoseElementsWithConcurrentProducersAndConsumers() throws InterruptedException {
+        MpmcArrayQueue<Integer> queue = new MpmcArrayQueue<>(16);
+        int producers = 2;
+        int perProducer = 5_000;
+        Set<Integer> consumed = ConcurrentHashMap.newKeySet();
+        AtomicInteger remaining = new AtomicInteger(producers * perProducer);
+        CountDownLatch done = new CountDownLatch(producers * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(producers * 2);
+
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            pool.execute(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!queue.offer(base + i)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            });
+            pool.execute(() -> {
+                while (remaining.get() > 0) {
+                    Integer value = queue.poll();
+                    if (value != null) {
+                        consumed.add(value);
+                        remaining.decrementAndGet();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            });
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        pool.shutdown();
+        assertThat(consumed).hasSize(producers * perProducer);
+        assertThat(queue.isEmpty()).isTrue();
+    }
+}
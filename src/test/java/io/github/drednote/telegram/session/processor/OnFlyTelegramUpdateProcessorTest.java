@@ -1,7 +1,10 @@
 package io.github.drednote.telegram.session.processor;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -9,11 +12,16 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import io.github.drednote.telegram.core.TelegramBot;
 import io.github.drednote.telegram.filter.FilterProperties;
+import io.github.drednote.telegram.session.DefaultConcurrencyKeyResolver;
 import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.session.SessionProperties.ExecutorType;
 import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -25,6 +33,7 @@ import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.Timeout.ThreadMode;
 import org.mockito.Mockito;
 import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
 
@@ -114,6 +123,93 @@ class OnFlyTelegramUpdateProcessorTest {
         verify(telegramBot, times(1)).onUpdateReceived(any());
     }
 
+    @Test
+    void shouldSendOneRateLimitNotificationPerChat() throws Exception {
+        filterProperties.setUserRateLimit(2000);
+        filterProperties.getRateLimitNotification().setWindow(Duration.ofMillis(50));
+        session = new OnFlyTelegramUpdateProcessor(sessionProperties, filterProperties,
+            telegramBot, telegramClient, null);
+
+        session.process(generate(10, 1L));
+        verify(telegramClient, timeout(2000).times(1)).execute(any(SendMessage.class));
+        session.process(generate(10, 1L));
+        Thread.sleep(200);
+
+        verify(telegramBot, times(1)).onUpdateReceived(any());
+        // the second series is suppressed, the chat was notified recently
+        verify(telegramClient, times(1)).execute(any(SendMessage.class));
+    }
+
+    @Test
+    void shouldNotSendRateLimitNotificationsAfterClose() throws Exception {
+        filterProperties.setUserRateLimit(2000);
+        filterProperties.getRateLimitNotification().setWindow(Duration.ofMillis(200));
+        session = new OnFlyTelegramUpdateProcessor(sessionProperties, filterProperties,
+            telegramBot, telegramClient, null);
+
+        session.process(generate(10, 1L));
+        session.close();
+        Thread.sleep(400);
+
+        verify(telegramClient, never()).execute(any(SendMessage.class));
+    }
+
+    @Test
+    void shouldShutDownOwnExecutorOnClose() throws Exception {
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        session = new OnFlyTelegramUpdateProcessor(sessionProperties, filterProperties,
+            telegramBot, telegramClient, runnable -> {
+                Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                threads.add(thread);
+                return thread;
+            }, null);
+
+        session.process(generate(1));
+        verify(telegramBot, timeout(1000)).onUpdateReceived(any());
+        session.close();
+
+        assertThat(threads).hasSize(5);
+        for (Thread thread : threads) {
+            thread.join(1000);
+            assertThat(thread.isAlive()).isFalse();
+        }
+    }
+
+    @Test
+    void shouldNotShutDownExecutorOfCallerOnClose() {
+        WorkerPoolExecutor executor = new WorkerPoolExecutor(Executors.defaultThreadFactory(), 1, 0);
+        session = new OnFlyTelegramUpdateProcessor(sessionProperties, filterProperties,
+            telegramBot, telegramClient, null,
+            new DefaultConcurrencyKeyResolver(sessionProperties.getConcurrencyKey()), executor, 1, 0);
+
+        session.close();
+        session.process(generate(1));
+
+        verify(telegramBot, timeout(1000)).onUpdateReceived(any());
+        executor.shutdown();
+    }
+
+    @Test
+    void shouldQueueUpdatesOfOneUserInOrderIfPartitioned() throws Exception {
+        sessionProperties.setExecutorType(ExecutorType.PARTITIONED);
+        session = new OnFlyTelegramUpdateProcessor(sessionProperties, filterProperties,
+            telegramBot, telegramClient, null);
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+        doAnswer(answer -> {
+            Thread.sleep(10);
+            executed.add(answer.<Update>getArgument(0).getUpdateId());
+            return null;
+        }).when(telegramBot).onUpdateReceived(any());
+
+        session.process(generate(5, 1L));
+
+        Thread.sleep(200);
+
+        verify(telegramBot, times(5)).onUpdateReceived(any());
+        assertThat(executed).containsExactly(0, 1, 2, 3, 4);
+        verify(telegramClient, never()).execute(any(SendMessage.class));
+    }
+
     private List<Update> generate(int count, long... id) {
         return Stream.iterate(0, i -> i < count, i -> i + 1)
             .map(i -> UpdateBuilder.create().withUpdateId(i).withUser(id.length > 0 ? id[0] : i)
@@ -0,0 +1,182 @@
+package io.github.drednote.telegram.session.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.Timeout.ThreadMode;
+
+class PartitionedExecutorTest {
+
+    private PartitionedExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldKeepOrderOfTasksWithSameKey() throws InterruptedException {
+        executor = new PartitionedExecutor(Executors.defaultThreadFactory(), 4, 1000, 1);
+        Map<Integer, List<Integer>> executed = new ConcurrentHashMap<>();
+        CountDownLatch latch = new CountDownLatch(400);
+
+        for (int i = 0; i < 100; i++) {
+            for (int key = 0; key < 4; key++) {
+                int value = i;
+                int k = key;
+                executor.execute(key, () -> {
+                    executed.computeIfAbsent(k, ignore -> new CopyOnWriteArrayList<>()).add(value);
+                    latch.countDown();
+                });
+            }
+        }
+
+        assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        for (List<Integer> values : executed.values()) {
+            assertThat(values).hasSize(100).isSorted();
+        }
+    }
+
+    @Test
+    void shouldRunDifferentKeysInParallel() throws InterruptedException {
+        executor = new PartitionedExecutor(Executors.defaultThreadFactory(), 2, 10, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherKeyExecuted = new CountDownLatch(1);
+        AtomicInteger sameKeyRunning = new AtomicInteger();
+
+        executor.execute(1L, () -> {
+            sameKeyRunning.incrementAndGet();
+            await(release);
+        });
+        executor.execute(1L, sameKeyRunning::incrementAndGet);
+        executor.execute(2L, otherKeyExecuted::countDown);
+
+        // the busy key does not block the other one, but its second task waits
+        assertThat(otherKeyExecuted.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(sameKeyRunning.get()).isEqualTo(1);
+
+        release.countDown();
+        Thread.sleep(100);
+        assertThat(sameKeyRunning.get()).isEqualTo(2);
+        assertThat(executor.getActiveCount()).isZero();
+        assertThat(executor.getQueueSize()).isZero();
+    }
+
+    @Test
+    void shouldAllowConfiguredConcurrencyPerKey() throws InterruptedException {
+        executor = new PartitionedExecutor(Executors.defaultThreadFactory(), 4, 10, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+
+        for (int i = 0; i < 4; i++) {
+            executor.execute(1L, () -> {
+                running.incrementAndGet();
+                await(release);
+            });
+        }
+
+        Thread.sleep(100);
+        assertThat(running.get()).isEqualTo(2);
+        // tasks waiting in the mailbox of the key are not counted
+        assertThat(executor.getQueueSize()).isZero();
+        release.countDown();
+        Thread.sleep(100);
+        assertThat(running.get()).isEqualTo(4);
+    }
+
+    @Test
+    @Timeout(value = 5, threadMode = ThreadMode.SEPARATE_THREAD)
+    void shouldRunOtherKeysWhileOneKeyFloods() throws InterruptedException {
+        executor = new PartitionedExecutor(Executors.defaultThreadFactory(), 2, 4, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherKeyExecuted = new CountDownLatch(1);
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+
+        executor.execute(1L, () -> await(release));
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            int value = i;
+            if (executor.execute(1L, () -> executed.add(value))) {
+                accepted++;
+            }
+        }
+        // the waiting tasks do not take places of other keys, the mailbox is limited instead
+        assertThat(accepted).isEqualTo(4);
+        assertThat(executor.execute(2L, otherKeyExecuted::countDown)).isTrue();
+        assertThat(otherKeyExecuted.await(1, TimeUnit.SECONDS)).isTrue();
+
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (executed.size() < 4 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(executed).containsExactly(0, 1, 2, 3);
+        assertThat(executor.execute(1L, () -> executed.add(10))).isTrue();
+    }
+
+    @Test
+    void shouldRunNotMoreThanMaxRunningTasksOnSharedExecutor() throws InterruptedException {
+        WorkerPoolExecutor shared = new WorkerPoolExecutor(Executors.defaultThreadFactory(), 4, 0);
+        try {
+            executor = new PartitionedExecutor(shared, 2, 100, 1);
+            PartitionedExecutor other = new PartitionedExecutor(shared, 2, 100, 1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            CountDownLatch otherExecuted = new CountDownLatch(1);
+            Map<Integer, List<Integer>> executed = new ConcurrentHashMap<>();
+            CountDownLatch finished = new CountDownLatch(20);
+
+            for (int i = 0; i < 10; i++) {
+                for (int key = 0; key < 2; key++) {
+                    int value = i;
+                    int k = key;
+                    executor.execute(key, () -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        await(release);
+                        executed.computeIfAbsent(k, ignore -> new CopyOnWriteArrayList<>()).add(value);
+                        running.decrementAndGet();
+                        finished.countDown();
+                    });
+                }
+            }
+            other.execute(1, otherExecuted::countDown);
+
+            // the busy executor takes only 2 of 4 shared threads
+            assertThat(otherExecuted.await(5, TimeUnit.SECONDS)).isTrue();
+            release.countDown();
+            assertThat(finished.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(maxRunning.get()).isEqualTo(2);
+            assertThat(executed.values()).allSatisfy(values -> assertThat(values).hasSize(10).isSorted());
+            // the counter is incremented after the task counted the latch down
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (executor.getCompletedTaskCount() < 20 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertThat(executor.getCompletedTaskCount()).isEqualTo(20);
+            other.shutdown();
+        } finally {
+            shared.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
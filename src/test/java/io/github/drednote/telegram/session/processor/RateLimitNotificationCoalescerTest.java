@@ -0,0 +1,64 @@
+package io.github.drednote.telegram.session.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class RateLimitNotificationCoalescerTest {
+
+    private static final long SUPPRESSION = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    void shouldKeepOneNotificationPerChat() {
+        RateLimitNotificationCoalescer<String> coalescer = new RateLimitNotificationCoalescer<>(SUPPRESSION, 100);
+
+        assertThat(coalescer.offer(1L, "a1", 0)).isTrue();
+        assertThat(coalescer.offer(1L, "a2", 1)).isFalse();
+        assertThat(coalescer.offer(2L, "b1", 2)).isTrue();
+
+        assertThat(coalescer.drain(3)).containsExactlyInAnyOrder("a1", "b1");
+        assertThat(coalescer.getDroppedCount()).isEqualTo(1);
+        assertThat(coalescer.drain(4)).isEmpty();
+    }
+
+    @Test
+    void shouldSuppressNotifiedChat() {
+        RateLimitNotificationCoalescer<String> coalescer = new RateLimitNotificationCoalescer<>(SUPPRESSION, 100);
+        coalescer.offer(1L, "a1", 0);
+        coalescer.drain(0);
+
+        assertThat(coalescer.offer(1L, "a2", SUPPRESSION - 1)).isFalse();
+        assertThat(coalescer.offer(1L, "a3", SUPPRESSION)).isTrue();
+        assertThat(coalescer.drain(SUPPRESSION)).containsExactly("a3");
+    }
+
+    @Test
+    void shouldForgetChatsOutOfSuppression() {
+        RateLimitNotificationCoalescer<Long> coalescer = new RateLimitNotificationCoalescer<>(SUPPRESSION, 10_000);
+        for (long chat = 0; chat < 1000; chat++) {
+            coalescer.offer(chat, chat, 0);
+        }
+
+        List<Long> drained = coalescer.drain(0);
+
+        assertThat(drained).hasSize(1000).doesNotHaveDuplicates();
+        assertThat(coalescer.size()).isEqualTo(1000);
+        coalescer.drain(SUPPRESSION);
+        assertThat(coalescer.size()).isZero();
+    }
+
+    @Test
+    void shouldDropIfTooManyPending() {
+        RateLimitNotificationCoalescer<String> coalescer = new RateLimitNotificationCoalescer<>(0, 2);
+
+        assertThat(coalescer.offer(1L, "a", 0)).isTrue();
+        assertThat(coalescer.offer(2L, "b", 0)).isTrue();
+        assertThat(coalescer.offer(3L, "c", 0)).isFalse();
+        assertThat(coalescer.getPendingCount()).isEqualTo(2);
+
+        coalescer.drain(0);
+        assertThat(coalescer.offer(3L, "c", 0)).isTrue();
+    }
+}
@@ -0,0 +1,150 @@
+package io.github.drednote.telegram.session.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.github.drednote.telegram.core.TelegramBot;
+import io.github.drednote.telegram.core.TelegramMessageSource;
+import io.github.drednote.telegram.datasource.session.inmemory.InMemoryUpdateInbox;
+import io.github.drednote.telegram.datasource.session.inmemory.InMemoryUpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.filter.FilterProperties;
+import io.github.drednote.telegram.session.ProcessorLoad;
+import io.github.drednote.telegram.session.SessionProperties;
+import io.github.drednote.telegram.support.builder.UpdateBuilder;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+class SchedulerTelegramUpdateProcessorTest {
+
+    private final TelegramBot telegramBot = mock(TelegramBot.class);
+
+    @Test
+    void shouldDrainBacklogWithoutWaitingForInterval() {
+        SessionProperties properties = new SessionProperties();
+        properties.setConsumeMaxThreads(4);
+        properties.setMaxThreadsPerUser(0);
+        properties.setMaxMessagesInQueue(0);
+        // a backlog would take seconds to drain if every read waited for the interval
+        properties.getSchedulerProcessor().setMinInterval(500);
+        properties.getSchedulerProcessor().setMaxInterval(1000);
+        properties.getSchedulerProcessor().setWaitInterval(1000);
+        FilterProperties filterProperties = new FilterProperties();
+        filterProperties.setUserRateLimitUnit(ChronoUnit.MILLIS);
+        TelegramMessageSource messageSource = new TelegramMessageSource();
+        InMemoryUpdateInboxRepositoryAdapter adapter =
+            new InMemoryUpdateInboxRepositoryAdapter(properties, messageSource);
+        doAnswer(invocation -> {
+            Thread.sleep(2);
+            return null;
+        }).when(telegramBot).onUpdateReceived(any());
+
+        SchedulerTelegramUpdateProcessor<?> processor = new SchedulerTelegramUpdateProcessor<>(telegramBot,
+            adapter, properties, filterProperties, mock(TelegramClient.class), messageSource);
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            updates.add(UpdateBuilder.create(i).withUser((long) i).message());
+        }
+        adapter.persist(updates);
+        processor.start();
+        try {
+            verify(telegramBot, timeout(3000).times(200)).onUpdateReceived(any());
+        } finally {
+            processor.stop();
+        }
+    }
+
+    @Test
+    void shouldNotClaimMoreUpdatesThanFreeWorkers() throws InterruptedException {
+        SessionProperties properties = new SessionProperties();
+        properties.setConsumeMaxThreads(2);
+        properties.setMaxThreadsPerUser(0);
+        properties.setMaxMessagesInQueue(0);
+        properties.getSchedulerProcessor().setWaitInterval(5);
+        TelegramMessageSource messageSource = new TelegramMessageSource();
+        InMemoryUpdateInboxRepositoryAdapter adapter =
+            new InMemoryUpdateInboxRepositoryAdapter(properties, messageSource);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(telegramBot).onUpdateReceived(any());
+
+        SchedulerTelegramUpdateProcessor<?> processor = new SchedulerTelegramUpdateProcessor<>(telegramBot,
+            adapter, properties, new FilterProperties(), mock(TelegramClient.class), messageSource);
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            updates.add(UpdateBuilder.create(i).withUser((long) i).message());
+        }
+        adapter.persist(updates);
+        processor.start();
+        try {
+            verify(telegramBot, timeout(1000).times(2)).onUpdateReceived(any());
+            // the reader runs several times while both workers are busy
+            Thread.sleep(50);
+            assertThat(adapter.countPending()).isEqualTo(3);
+        } finally {
+            release.countDown();
+            verify(telegramBot, timeout(1000).times(5)).onUpdateReceived(any());
+            processor.stop();
+        }
+    }
+
+    @Test
+    void shouldKeepReadingWhenStatusIsNotSaved() {
+        SessionProperties properties = new SessionProperties();
+        properties.setConsumeMaxThreads(2);
+        properties.setMaxThreadsPerUser(0);
+        properties.setMaxMessagesInQueue(0);
+        properties.getSchedulerProcessor().setWaitInterval(5);
+        TelegramMessageSource messageSource = new TelegramMessageSource();
+        InMemoryUpdateInboxRepositoryAdapter adapter = new InMemoryUpdateInboxRepositoryAdapter(
+            properties, messageSource) {
+            @Override
+            public void update(InMemoryUpdateInbox updateInbox) {
+                throw new IllegalStateException("The database is not available");
+            }
+        };
+
+        SchedulerTelegramUpdateProcessor<?> processor = new SchedulerTelegramUpdateProcessor<>(telegramBot,
+            adapter, properties, new FilterProperties(), mock(TelegramClient.class), messageSource);
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            updates.add(UpdateBuilder.create(i).withUser((long) i).message());
+        }
+        adapter.persist(updates);
+        processor.start();
+        try {
+            // every failed save returns its worker, so updates after the first two are read too
+            verify(telegramBot, timeout(1000).times(5)).onUpdateReceived(any());
+        } finally {
+            processor.stop();
+        }
+    }
+
+    @Test
+    void shouldReportNewUpdatesAsQueued() {
+        SessionProperties properties = new SessionProperties();
+        properties.setConsumeMaxThreads(4);
+        properties.setMaxMessagesInQueue(10);
+        TelegramMessageSource messageSource = new TelegramMessageSource();
+        InMemoryUpdateInboxRepositoryAdapter adapter =
+            new InMemoryUpdateInboxRepositoryAdapter(properties, messageSource);
+        SchedulerTelegramUpdateProcessor<?> processor = new SchedulerTelegramUpdateProcessor<>(telegramBot,
+            adapter, properties, new FilterProperties(), mock(TelegramClient.class), messageSource);
+
+        adapter.persist(List.of(
+            UpdateBuilder.create(1).withUser(1L).message(), UpdateBuilder.create(2).withUser(2L).message()));
+
+        assertThat(processor.getLoad()).isEqualTo(new ProcessorLoad(2, 10, 0, 4));
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.drednote.telegram.session.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.github.drednote.telegram.datasource.session.UpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.inmemory.InMemoryUpdateInbox;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class UpdateInboxAcknowledgerTest {
+
+    @SuppressWarnings("unchecked")
+    private final UpdateInboxRepositoryAdapter<InMemoryUpdateInbox> adapter = mock(UpdateInboxRepositoryAdapter.class);
+
+    @Test
+    void shouldSaveFullBatchWithoutWaitingForInterval() {
+        try (UpdateInboxAcknowledger<InMemoryUpdateInbox> acknowledger =
+                 new UpdateInboxAcknowledger<>(adapter, 60_000, 2)) {
+            InMemoryUpdateInbox first = inbox(1);
+            InMemoryUpdateInbox second = inbox(2);
+            acknowledger.acknowledge(first);
+            acknowledger.acknowledge(second);
+
+            verify(adapter, timeout(2000)).updateAll(List.of(first, second));
+            assertThat(acknowledger.getPendingCount()).isZero();
+        }
+    }
+
+    @Test
+    void shouldSaveByInterval() {
+        try (UpdateInboxAcknowledger<InMemoryUpdateInbox> acknowledger =
+                 new UpdateInboxAcknowledger<>(adapter, 10, 100)) {
+            InMemoryUpdateInbox first = inbox(1);
+            acknowledger.acknowledge(first);
+
+            verify(adapter, timeout(2000)).updateAll(List.of(first));
+        }
+    }
+
+    @Test
+    void shouldSaveOneByOneIfBatchFails() {
+        doThrow(new IllegalStateException("batch failed")).when(adapter).updateAll(anyList());
+        InMemoryUpdateInbox first = inbox(1);
+        InMemoryUpdateInbox second = inbox(2);
+        UpdateInboxAcknowledger<InMemoryUpdateInbox> acknowledger = new UpdateInboxAcknowledger<>(adapter, 60_000, 100);
+        acknowledger.acknowledge(first);
+        acknowledger.acknowledge(second);
+
+        acknowledger.flush();
+
+        verify(adapter).update(first);
+        verify(adapter).update(second);
+        acknowledger.close();
+    }
+
+    @Test
+    void shouldFlushOnCloseAndSaveImmediatelyAfterIt() {
+        UpdateInboxAcknowledger<InMemoryUpdateInbox> acknowledger = new UpdateInboxAcknowledger<>(adapter, 60_000, 100);
+        InMemoryUpdateInbox first = inbox(1);
+        acknowledger.acknowledge(first);
+        verify(adapter, never()).updateAll(anyList());
+
+        acknowledger.close();
+        verify(adapter).updateAll(List.of(first));
+
+        InMemoryUpdateInbox second = inbox(2);
+        acknowledger.acknowledge(second);
+        verify(adapter).updateAll(List.of(second));
+        verify(adapter, times(2)).updateAll(any());
+    }
+
+    private static InMemoryUpdateInbox inbox(int id) {
+        InMemoryUpdateInbox inbox = new InMemoryUpdateInbox();
+        inbox.setUpdateId(id);
+        return inbox;
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.drednote.telegram.session.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.drednote.telegram.datasource.session.UpdateInboxRepositoryAdapter;
+import io.github.drednote.telegram.datasource.session.UpdateInboxStatus;
+import io.github.drednote.telegram.datasource.session.inmemory.InMemoryUpdateInbox;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+class UpdateInboxPurgerTest {
+
+    @SuppressWarnings("unchecked")
+    private final UpdateInboxRepositoryAdapter<InMemoryUpdateInbox> adapter = mock(UpdateInboxRepositoryAdapter.class);
+    private final SchedulerTelegramUpdateProcessorProperties properties =
+        new SchedulerTelegramUpdateProcessorProperties();
+
+    @Test
+    void shouldPurgeInBatchesUntilBatchIsNotFull() {
+        properties.setPurgeBatchSize(2);
+        properties.getRetention().put(UpdateInboxStatus.PROCESSED, 60_000L);
+        when(adapter.purge(eq(UpdateInboxStatus.PROCESSED), any(), eq(2))).thenReturn(2, 2, 1);
+        when(adapter.size()).thenReturn(42L);
+        UpdateInboxPurger purger = new UpdateInboxPurger(adapter, properties);
+
+        purger.purge();
+
+        verify(adapter, times(3)).purge(eq(UpdateInboxStatus.PROCESSED),
+            argThat(before -> before.isBefore(Instant.now().minusSeconds(59))), eq(2));
+        verify(adapter, never()).purge(eq(UpdateInboxStatus.ERROR), any(), anyInt());
+        assertThat(purger.getPurgedCount(UpdateInboxStatus.PROCESSED)).isEqualTo(5);
+        assertThat(purger.getSize()).isEqualTo(42);
+    }
+
+    @Test
+    void shouldBeDisabledWithoutRetention() {
+        properties.getRetention().put(UpdateInboxStatus.ERROR, 0L);
+
+        assertThat(new UpdateInboxPurger(adapter, properties).isEnabled()).isFalse();
+    }
+
+    @Test
+    void shouldRejectRetentionOfNotFinalStatus() {
+        properties.getRetention().put(UpdateInboxStatus.IN_PROGRESS, 1000L);
+
+        assertThatThrownBy(() -> new UpdateInboxPurger(adapter, properties))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.drednote.telegram.session.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class VirtualThreadExecutorTest {
+
+    @Test
+    void shouldBoundConcurrencyAndAdmission() throws InterruptedException {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(
+            Executors.defaultThreadFactory(), 2, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        Runnable task = () -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+        };
+
+        executor.execute(task);
+        executor.execute(task);
+        executor.execute(task);
+        Thread.sleep(100);
+
+        assertThat(executor.getActiveCount()).isEqualTo(2);
+        assertThat(executor.getQueueSize()).isEqualTo(1);
+
+        CountDownLatch fourthAdmitted = new CountDownLatch(1);
+        Thread submitter = new Thread(() -> {
+            executor.execute(task);
+            fourthAdmitted.countDown();
+        });
+        submitter.start();
+        // admission limit is reached, the caller is blocked
+        assertThat(fourthAdmitted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+        release.countDown();
+        assertThat(fourthAdmitted.await(1, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(100);
+        assertThat(maxRunning.get()).isEqualTo(2);
+        assertThat(executor.getActiveCount()).isZero();
+    }
+
+    @Test
+    void shouldRejectAfterShutdown() {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(
+            Executors.defaultThreadFactory(), 1, 0);
+        executor.shutdown();
+
+        assertThatThrownBy(() -> executor.execute(() -> {}))
+            .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    void shouldRunOnVirtualThreads() throws InterruptedException {
+        assumeTrue(Runtime.version().feature() >= 21, "Virtual threads require Java 21");
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test-", 1, 0);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger virtual = new AtomicInteger();
+
+        executor.execute(() -> {
+            if (Thread.currentThread().toString().startsWith("VirtualThread")) {
+                virtual.incrementAndGet();
+            }
+            latch.countDown();
+        });
+
+        assertThat(latch.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(virtual.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldFailIfVirtualThreadsNotSupported() {
+        assumeTrue(Runtime.version().feature() < 21);
+
+        assertThatThrownBy(() -> new VirtualThreadExecutor("test-", 1, 0))
+            .isInstanceOf(IllegalStateException.class);
+    }
+}
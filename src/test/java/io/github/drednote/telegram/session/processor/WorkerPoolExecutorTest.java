@@ -0,0 +1,113 @@
+package io.github.drednote.telegram.session.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class WorkerPoolExecutorTest {
+
+    private WorkerPoolExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldBlockProducerWhileQueueIsFull() throws InterruptedException {
+        executor = new WorkerPoolExecutor(Executors.defaultThreadFactory(), 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger executed = new AtomicInteger();
+
+        executor.execute(() -> {
+            started.countDown();
+            await(release);
+            executed.incrementAndGet();
+        });
+        assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+        executor.execute(executed::incrementAndGet);
+        assertThat(executor.getQueueSize()).isEqualTo(1);
+        assertThat(executor.getActiveCount()).isEqualTo(1);
+
+        CountDownLatch thirdAdmitted = new CountDownLatch(1);
+        new Thread(() -> {
+            executor.execute(executed::incrementAndGet);
+            thirdAdmitted.countDown();
+        }).start();
+        assertThat(thirdAdmitted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+        release.countDown();
+        assertThat(thirdAdmitted.await(1, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(100);
+        assertThat(executed.get()).isEqualTo(3);
+        assertThat(executor.getQueueSize()).isZero();
+    }
+
+    @Test
+    void shouldExecuteAllTasksFromManyProducers() throws InterruptedException {
+        executor = new WorkerPoolExecutor(Executors.defaultThreadFactory(), 4, 8);
+        int tasks = 20_000;
+        CountDownLatch latch = new CountDownLatch(tasks);
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < tasks / producers.length; i++) {
+                    executor.execute(latch::countDown);
+                }
+            });
+            producers[p].start();
+        }
+
+        assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void shouldCountTasksInUnboundedQueue() throws InterruptedException {
+        executor = new WorkerPoolExecutor(Executors.defaultThreadFactory(), 1, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(11);
+
+        executor.execute(() -> {
+            started.countDown();
+            await(release);
+            finished.countDown();
+        });
+        assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 10; i++) {
+            executor.execute(finished::countDown);
+        }
+        assertThat(executor.getQueueSize()).isEqualTo(10);
+
+        release.countDown();
+        assertThat(finished.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(executor.getQueueSize()).isZero();
+    }
+
+    @Test
+    void shouldRejectAfterShutdown() {
+        executor = new WorkerPoolExecutor(Executors.defaultThreadFactory(), 1, 0);
+        executor.shutdown();
+
+        assertThatThrownBy(() -> executor.execute(() -> {}))
+            .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
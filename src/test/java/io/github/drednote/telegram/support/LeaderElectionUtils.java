@@ -0,0 +1,98 @@
+package io.github.drednote.telegram.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.drednote.telegram.session.LeaderElectedSession;
+import io.github.drednote.telegram.session.LeaderElector;
+import io.github.drednote.telegram.session.SessionProperties.ClusterProperties;
+import io.github.drednote.telegram.session.TelegramBotSession;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs two instances of the cluster mode in one JVM, each with its own {@link LeaderElectedSession} and
+ * {@link LeaderElector} over the same storage.
+ */
+public final class LeaderElectionUtils {
+
+    private LeaderElectionUtils() {
+    }
+
+    /**
+     * @return properties that elect the leader in milliseconds
+     */
+    public static ClusterProperties fastElection() {
+        ClusterProperties properties = new ClusterProperties();
+        properties.setRenewInterval(Duration.ofMillis(50));
+        properties.setLeaseDuration(Duration.ofMillis(500));
+        return properties;
+    }
+
+    /**
+     * Starts both instances and checks that exactly one of them receives updates at a time, and that the other one
+     * takes over when the leader stops.
+     */
+    public static void assertOneLeaderWithFailover(
+        LeaderElector first, LeaderElector second, ClusterProperties properties
+    ) throws InterruptedException {
+        AtomicInteger receiving = new AtomicInteger();
+        AtomicInteger maxReceiving = new AtomicInteger();
+        LeaderElectedSession firstSession = new LeaderElectedSession(
+            first, () -> new CountingSession(receiving, maxReceiving), properties);
+        LeaderElectedSession secondSession = new LeaderElectedSession(
+            second, () -> new CountingSession(receiving, maxReceiving), properties);
+        try {
+            firstSession.start();
+            secondSession.start();
+            assertThat(await(() -> firstSession.isLeader() || secondSession.isLeader())).isTrue();
+
+            // both instances renew or try to take the leadership several times
+            long until = System.nanoTime() + properties.getRenewInterval().multipliedBy(10).toNanos();
+            while (System.nanoTime() < until) {
+                assertThat(firstSession.isLeader() && secondSession.isLeader()).isFalse();
+                Thread.sleep(1);
+            }
+
+            LeaderElectedSession leader = firstSession.isLeader() ? firstSession : secondSession;
+            LeaderElectedSession follower = leader == firstSession ? secondSession : firstSession;
+            assertThat(follower.isLeader()).isFalse();
+            leader.stop();
+
+            assertThat(await(follower::isLeader)).isTrue();
+            assertThat(receiving.get()).isEqualTo(1);
+            assertThat(maxReceiving.get()).isEqualTo(1);
+        } finally {
+            firstSession.stop();
+            secondSession.stop();
+        }
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /**
+     * Counts sessions that receive updates at the same time
+     */
+    private record CountingSession(AtomicInteger receiving, AtomicInteger maxReceiving) implements TelegramBotSession {
+
+        @Override
+        public void start() {
+            maxReceiving.accumulateAndGet(receiving.incrementAndGet(), Math::max);
+        }
+
+        @Override
+        public void stop() {
+            receiving.decrementAndGet();
+        }
+    }
+}
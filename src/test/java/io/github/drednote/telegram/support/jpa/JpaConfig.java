@@ -1,12 +1,17 @@
 package io.github.drednote.telegram.support.jpa;
 
 import io.github.drednote.telegram.datasource.session.jpa.JpaUpdateInbox;
+import io.github.drednote.telegram.datasource.session.leader.jpa.JpaSessionLeader;
+import io.github.drednote.telegram.datasource.session.lease.jpa.JpaUpdateInboxEntityLease;
+import io.github.drednote.telegram.datasource.session.node.jpa.JpaSessionNode;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 
 @TestConfiguration
 @EnableJpaRepositories(basePackageClasses = JpaConfig.class)
-@EntityScan(basePackageClasses = JpaUpdateInbox.class)
+@EntityScan(basePackageClasses = {
+    JpaUpdateInbox.class, JpaUpdateInboxEntityLease.class, JpaSessionLeader.class, JpaSessionNode.class
+})
 public class JpaConfig {
 }
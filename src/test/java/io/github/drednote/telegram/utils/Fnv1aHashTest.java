@@ -0,0 +1,14 @@
+package io.github.drednote.telegram.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class Fnv1aHashTest {
+
+  @Test
+  void shouldHashStably() {
+    assertThat(Fnv1aHash.hash("")).isEqualTo(0xcbf29ce484222325L);
+    assertThat(Fnv1aHash.hash("a")).isEqualTo(0xaf63dc4c8601ec8cL);
+  }
+}